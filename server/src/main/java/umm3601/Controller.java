@@ -1,6 +1,7 @@
 package umm3601;
 
 import io.javalin.Javalin;
+import umm3601.index.IndexRegistry;
 
 /**
  * Interface for classes that can add routes to a Javalin server.
@@ -18,10 +19,12 @@ import io.javalin.Javalin;
  * allows us to add routes to the server without having to modify the `Server`,
  * and without having the server know about any specific controller implementations.
  *
- * Note that this interface definition is _complete_ and you shouldn't need to
- * add anything to it. You just need to make sure that any new controllers
- * you implement also implement this interface, providing their own `addRoutes()`
- * method.
+ * Any new controllers you implement need to implement this interface,
+ * providing their own `addRoutes()` method. The other methods have default
+ * implementations that do nothing, so you only override the ones you need:
+ * `registerIndexes()` if your queries need MongoDB indexes, and `start()`
+ * and `stop()` if your controller does work in the background (e.g., loading
+ * an in-memory index or running timers).
  */
 public interface Controller {
   /**
@@ -35,4 +38,40 @@ public interface Controller {
    * @param server The Javalin server to add routes to
    */
   void addRoutes(Javalin server);
+
+  /**
+   * Declare the MongoDB indexes this controller's queries rely on.
+   *
+   * The server collects the indexes from every controller into a single
+   * `IndexRegistry` and reconciles it with the database at startup, creating
+   * any indexes that are missing. Keeping the declarations in the controller
+   * puts them right next to the queries they support.
+   *
+   * The default implementation declares no indexes.
+   *
+   * @param registry the registry to add this controller's indexes to
+   */
+  default void registerIndexes(IndexRegistry registry) {
+  }
+
+  /**
+   * Called once when the server starts up, after the routes have been added.
+   *
+   * Controllers can use this to kick off any background work they need,
+   * like warming up in-memory indexes. This shouldn't block for long, since
+   * the server doesn't accept requests until every controller has started.
+   *
+   * The default implementation does nothing.
+   */
+  default void start() {
+  }
+
+  /**
+   * Called once when the server shuts down, so controllers can stop any
+   * background work they started in `start()`.
+   *
+   * The default implementation does nothing.
+   */
+  default void stop() {
+  }
 }
@@ -1,46 +1,80 @@
 package umm3601;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
 
+import umm3601.card.CardController;
+import umm3601.index.IndexRegistry;
 import umm3601.lobby.LobbyController;
+import umm3601.lobby.LobbyJournal;
+import umm3601.metrics.CacheMetrics;
+import umm3601.metrics.HandlerEventStream;
+import umm3601.metrics.MetricSource;
+import umm3601.metrics.MetricsController;
+import umm3601.metrics.MongoMetrics;
+import umm3601.metrics.RequestMetrics;
+import umm3601.metrics.SlowQueryController;
+import umm3601.metrics.SlowQueryLog;
 import umm3601.user.UserController;
 
 public class Main {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
+
   public static void main(String[] args) {
-    // Get the MongoDB address and database name from environment variables and
-    // if they aren't set, use the defaults of "localhost" and "dev".
-    String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
-    String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
+    // Load the server's settings (the MongoDB address and database name,
+    // thread and connection pool sizes, etc.) from environment variables
+    // and, if `SERVER_CONFIG_FILE` names one, a properties file. Anything
+    // that isn't set gets a default; the MongoDB address and database name
+    // default to "localhost" and "dev".
+    ServerConfig config = ServerConfig.load(System.getenv());
+    LOGGER.info("Starting with {}", config);
 
-    // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
+    // Set up the MongoDB client, recording how long each database command
+    // takes and how busy the connection pool is
+    MongoMetrics mongoMetrics = new MongoMetrics();
+    MongoClient mongoClient = Server.configureDatabase(config, mongoMetrics);
     // Get the database
-    MongoDatabase database = mongoClient.getDatabase(databaseName);
+    MongoDatabase database = mongoClient.getDatabase(config.mongoDatabase());
 
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    RequestMetrics requestMetrics = new RequestMetrics();
+    final Controller[] controllers = Main.getControllers(database, config, requestMetrics, mongoMetrics);
+
+    // Make sure the indexes the controllers' queries rely on exist.
+    Main.reconcileIndexes(database, controllers);
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, controllers, config, requestMetrics);
 
     // Start the server
     server.startServer();
   }
 
   /**
-   * Get the value of an environment variable, or return a default value if it's not set.
-   *
-   * @param envName The name of the environment variable to get
-   * @param defaultValue The default value to use if the environment variable isn't set
+   * Collect the indexes declared by each of the controllers and make
+   * sure they all exist in the database, creating any that are missing.
    *
-   * @return The value of the environment variable, or the default value if it's not set
+   * @param database The MongoDB database the indexes belong in
+   * @param controllers The controllers whose indexes should be reconciled
    */
-  static String getEnvOrDefault(String envName, String defaultValue) {
-    return System.getenv().getOrDefault(envName, defaultValue);
+  static void reconcileIndexes(MongoDatabase database, Controller[] controllers) {
+    IndexRegistry registry = new IndexRegistry();
+    for (Controller controller : controllers) {
+      controller.registerIndexes(registry);
+    }
+    registry.reconcile(database);
   }
 
   /**
@@ -52,19 +86,60 @@ public class Main {
    *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param config The server's settings
+   * @param requestMetrics The request metrics the server records, for the
+   *               metrics controller to serve
+   * @param mongoMetrics The database metrics the server records, for the
+   *               metrics controller to serve
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(MongoDatabase database, ServerConfig config, RequestMetrics requestMetrics,
+      MongoMetrics mongoMetrics) {
+    SlowQueryLog slowQueries = new SlowQueryLog(Duration.ofMillis(config.slowQueryMillis()));
+    LobbyController lobbyController = new LobbyController(database, LobbyController.defaultCache(),
+      Duration.ofMillis(config.lobbyUpdateWindowMillis()), openLobbyJournal(config), slowQueries);
+    CardController cardController = new CardController(database);
+    // A lobby's deck goes when the lobby does.
+    lobbyController.onLobbyDeleted(cardController::forgetDeck);
+    UserController userController = new UserController(database, UserController.defaultCache(), slowQueries);
+    MetricSource lobbyTimers = lobbyController.timerMetrics();
+    MetricSource caches = new CacheMetrics(Map.of(
+      "lobbies", lobbyController::cacheStats,
+      "users", userController::cacheStats));
+
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new UserController(database),
-      new LobbyController(database)
+      userController,
+      lobbyController,
+      cardController,
+      config.jfrHandlerStream()
+        ? new MetricsController(requestMetrics, mongoMetrics, lobbyTimers, caches, HandlerEventStream.start())
+        : new MetricsController(requestMetrics, mongoMetrics, lobbyTimers, caches),
+      new SlowQueryController(slowQueries)
     };
     return controllers;
   }
 
+  /**
+   * Open the journal of changes to lobbies in the `LOBBY_JOURNAL_DIR`
+   * directory, if one was given.
+   *
+   * @param config The server's settings
+   * @return the journal, or `null` if there isn't one
+   */
+  private static LobbyJournal openLobbyJournal(ServerConfig config) {
+    if (config.lobbyJournalDir().isEmpty()) {
+      return null;
+    }
+    try {
+      return LobbyJournal.open(Path.of(config.lobbyJournalDir()));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't open the lobby journal in " + config.lobbyJournalDir(), e);
+    }
+  }
+
 }
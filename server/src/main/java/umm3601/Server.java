@@ -1,8 +1,19 @@
 package umm3601;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
@@ -10,15 +21,27 @@ import com.mongodb.client.MongoClients;
 import org.bson.UuidRepresentation;
 
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 import io.javalin.http.InternalServerErrorResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.json.JavalinJackson;
+import umm3601.metrics.HandlerEvents;
+import umm3601.metrics.MongoMetrics;
+import umm3601.metrics.QueryCounts;
+import umm3601.metrics.RequestMetrics;
+import umm3601.metrics.TimedJsonMapper;
 
 /**
  * The class used to configure and start a Javalin server.
  */
 public class Server {
 
-  // The port that the server should run on.
-  private static final int SERVER_PORT = 4567;
+  private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
+
+  // The name Jetty gives the threads in its pool.
+  private static final String THREAD_POOL_NAME = "JettyServerThreadPool";
+  // The request attribute the MongoDB round trip counts are kept in.
+  private static final String QUERY_COUNTS = "umm3601.queryCounts";
 
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
@@ -27,6 +50,12 @@ public class Server {
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // The port, thread pool, and other settings to run the server with.
+  private final ServerConfig config;
+
+  // Where the latency and status code of every request are recorded.
+  private final RequestMetrics requestMetrics;
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
@@ -35,7 +64,43 @@ public class Server {
    * @param controllers The implementations of `Controller` used for this server
    */
   public Server(MongoClient mongoClient, Controller[] controllers) {
+    this(mongoClient, controllers, ServerConfig.defaults());
+  }
+
+  /**
+   * Construct a `Server` object that we'll use (via `startServer()`) to configure
+   * and start the server with the given settings.
+   *
+   * If `config.useVirtualThreads()` is set, each request is handled on its
+   * own virtual thread. Our handlers spend most of their time blocked waiting
+   * on MongoDB. With platform threads each of those waits ties up one of
+   * Jetty's (limited) threads; a virtual thread just parks, so we can have
+   * many thousands of requests (e.g., lobby pollers) in flight at once. The
+   * MongoDB connection pool (see `configureDatabase`) still caps how many of
+   * them can be talking to the database at the same time.
+   *
+   * @param mongoClient The MongoDB client object used to access to the database
+   * @param controllers The implementations of `Controller` used for this server
+   * @param config The settings to run the server with
+   */
+  public Server(MongoClient mongoClient, Controller[] controllers, ServerConfig config) {
+    this(mongoClient, controllers, config, new RequestMetrics());
+  }
+
+  /**
+   * Construct a `Server` object with the given settings, that records the
+   * latency and status code of every request in `requestMetrics`.
+   *
+   * @param mongoClient The MongoDB client object used to access to the database
+   * @param controllers The implementations of `Controller` used for this server
+   * @param config The settings to run the server with
+   * @param requestMetrics Where to record the metrics for each request
+   */
+  public Server(MongoClient mongoClient, Controller[] controllers, ServerConfig config,
+      RequestMetrics requestMetrics) {
     this.mongoClient = mongoClient;
+    this.config = config;
+    this.requestMetrics = requestMetrics;
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
@@ -47,23 +112,57 @@ public class Server {
   /**
    * Setup the MongoDB database connection.
    *
-   * This "wires up" the database using either system environment variables
-   * or default values. If you're running the server locally without any environment
-   * variables set, this will connect to the `dev` database running on your computer
-   * (`localhost`). If you're running the server on Digital Ocean using our setup
-   * script, this will connect to the production database running on server.
+   * This "wires up" the database using the given settings, which come
+   * from either system environment variables or default values (see
+   * `ServerConfig`). If you're running the server locally without any
+   * environment variables set, this will connect to the `dev` database
+   * running on your computer (`localhost`). If you're running the server
+   * on Digital Ocean using our setup script, this will connect to the
+   * production database running on server.
+   *
+   * The connection pool caps how many connections the server can have open
+   * at once. Requests that need the database when all the connections are
+   * busy wait (up to `mongoWaitMillis`) for one to free up; if none does,
+   * the request fails with a 503 (Service Unavailable) rather than piling
+   * ever more load onto the database.
+   *
+   * Any configured compressors are offered to MongoDB, which uses the first
+   * one it also supports to compress messages in both directions.
    *
-   * This sets both the `mongoClient` and `database` fields
-   * so they can be used when setting up the Javalin server.
-   * @param mongoAddr The address of the MongoDB server
+   * @param config The settings to connect to the database with
    *
    * @return The MongoDB client object
    */
-  static MongoClient configureDatabase(String mongoAddr) {
+  static MongoClient configureDatabase(ServerConfig config) {
+    return configureDatabase(config, new MongoMetrics());
+  }
+
+  /**
+   * Setup the MongoDB database connection, as `configureDatabase(config)`
+   * does, recording the latency of every command and the state of the
+   * connection pool in `mongoMetrics`.
+   *
+   * @param config The settings to connect to the database with
+   * @param mongoMetrics Where to record the metrics for the database
+   *
+   * @return The MongoDB client object
+   */
+  static MongoClient configureDatabase(ServerConfig config, MongoMetrics mongoMetrics) {
     // Setup the MongoDB client object with the information we set earlier
     MongoClient mongoClient = MongoClients.create(MongoClientSettings
       .builder()
-      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(config.mongoAddr()))))
+      .applyToConnectionPoolSettings(builder -> builder
+        .maxSize(config.mongoMaxConnections())
+        .minSize(config.mongoMinConnections())
+        .maxWaitTime(config.mongoWaitMillis(), TimeUnit.MILLISECONDS)
+        .addConnectionPoolListener(mongoMetrics))
+      .addCommandListener(mongoMetrics)
+      .applyToSocketSettings(builder -> builder
+        .connectTimeout(config.mongoConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
+        .readTimeout(config.mongoSocketTimeoutMillis(), TimeUnit.MILLISECONDS))
+      .compressorList(compressors(config.mongoCompressors()))
+      .readPreference(ReadPreference.valueOf(config.mongoReadPreference()))
       // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
@@ -73,6 +172,26 @@ public class Server {
     return mongoClient;
   }
 
+  /**
+   * Turn the names of compressors (`zstd`, `snappy`, or `zlib`) into
+   * the compressors the MongoDB driver uses.
+   *
+   * @param names The names of the compressors, in order of preference
+   * @return The corresponding MongoDB compressors
+   */
+  private static List<MongoCompressor> compressors(List<String> names) {
+    List<MongoCompressor> compressors = new ArrayList<>();
+    for (String name : names) {
+      switch (name) {
+        case "zstd" -> compressors.add(MongoCompressor.createZstdCompressor());
+        case "snappy" -> compressors.add(MongoCompressor.createSnappyCompressor());
+        case "zlib" -> compressors.add(MongoCompressor.createZlibCompressor());
+        default -> throw new IllegalArgumentException("Unknown MongoDB compressor " + name);
+      }
+    }
+    return compressors;
+  }
+
   /**
    * Configure and start the server.
    *
@@ -83,7 +202,10 @@ public class Server {
   void startServer() {
     Javalin javalin = configureJavalin();
     setupRoutes(javalin);
-    javalin.start(SERVER_PORT);
+    for (Controller controller : controllers) {
+      controller.start();
+    }
+    javalin.start(config.port());
   }
 
   /**
@@ -95,6 +217,15 @@ public class Server {
    *   JVM is shut down.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
+   * - Handling requests on virtual threads, if that was asked for, or
+   *   otherwise on a Jetty thread pool of the configured size.
+   * - Recording how long each request took (and its status code) in
+   *   `requestMetrics`, by route.
+   * - Emitting a Java Flight Recorder `HandlerEvent` for each request,
+   *   when a recording wants them, with the time spent in MongoDB and on
+   *   JSON, and the size of the response.
+   * - Counting the MongoDB round trips each request makes (see
+   *   `finishQueryCounts`).
    *
    * @return The Javalin server instance
    */
@@ -113,9 +244,32 @@ public class Server {
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(javalinConfig -> {
+      javalinConfig.bundledPlugins.enableRouteOverview("/api");
+      if (config.useVirtualThreads()) {
+        javalinConfig.useVirtualThreads = true;
+      } else {
+        QueuedThreadPool threadPool = new QueuedThreadPool(
+          config.jettyMaxThreads(), config.jettyMinThreads(), config.jettyIdleTimeoutMillis());
+        threadPool.setName(THREAD_POOL_NAME);
+        javalinConfig.jetty.threadPool = threadPool;
+      }
+      javalinConfig.jsonMapper(new TimedJsonMapper(new JavalinJackson(null, config.useVirtualThreads())));
+      // Javalin times each request anyway when there's a request logger.
+      javalinConfig.requestLogger.http((ctx, executionTimeMs) -> {
+        String route = routeOf(ctx);
+        requestMetrics.record(ctx.method().name(), route, ctx.statusCode(),
+          (long) (executionTimeMs * TimeUnit.MILLISECONDS.toNanos(1)));
+        HandlerEvents.end(ctx, route, responseBytes(ctx));
+      });
+    });
+
+    // The JFR event for each request is started before it's handled, and
+    // committed by the request logger once the response has been sent.
+    server.before(HandlerEvents::begin);
+    server.after(ctx -> HandlerEvents.detach());
+    server.before(ctx -> ctx.attribute(QUERY_COUNTS, QueryCounts.open(config.queryStatsHeaders())));
+    server.after(this::finishQueryCounts);
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
@@ -133,9 +287,78 @@ public class Server {
       throw new InternalServerErrorResponse(e.toString());
     });
 
+    // If we waited too long for a free database connection, the database
+    // is overloaded; tell the client to try again later.
+    server.exception(MongoTimeoutException.class, (e, ctx) -> {
+      throw new ServiceUnavailableResponse("The database is too busy right now; please try again later");
+    });
+
     return server;
   }
 
+  /**
+   * The route a request matched, as it was declared (e.g.,
+   * `/api/users/{id}`), so metrics are kept per route rather than per URL.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the route, or `RequestMetrics.UNMATCHED` if it didn't match one
+   */
+  private static String routeOf(Context ctx) {
+    try {
+      String route = ctx.endpointHandlerPath();
+      return route == null || route.isEmpty() ? RequestMetrics.UNMATCHED : route;
+    } catch (IllegalStateException e) {
+      return RequestMetrics.UNMATCHED;
+    }
+  }
+
+  /**
+   * Stop counting the MongoDB round trips for a request, and record them
+   * in `requestMetrics`. If `queryStatsHeaders` is set, the counts are
+   * also sent back in headers (e.g., `X-Mongo-Round-Trips: 3`), so they
+   * show up in the browser's developer tools. Requests that go over the
+   * `queryBudget` are logged (with their counts), as they probably query
+   * once per item when they could query once for all of them.
+   *
+   * This runs in an `after` handler. By then, a response that was written
+   * straight to the output stream (e.g., an NDJSON listing) has already
+   * sent its headers, so it doesn't get the count headers; its counts are
+   * still recorded in the metrics.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  private void finishQueryCounts(Context ctx) {
+    QueryCounts counts = ctx.attribute(QUERY_COUNTS);
+    if (counts == null) {
+      return;
+    }
+    counts.close();
+    String method = ctx.method().name();
+    String route = routeOf(ctx);
+    boolean overBudget = config.queryBudget() > 0 && counts.roundTrips() > config.queryBudget();
+    requestMetrics.recordQueries(method, route, counts, overBudget);
+    if (overBudget) {
+      LOGGER.warn("{} {} made {} MongoDB round trips (returning {} documents); its budget is {}",
+        method, route, counts.roundTrips(), counts.documents(), config.queryBudget());
+    }
+    if (config.queryStatsHeaders() && !ctx.res().isCommitted()) {
+      ctx.header("X-Mongo-Round-Trips", String.valueOf(counts.roundTrips()));
+      ctx.header("X-Mongo-Documents", String.valueOf(counts.documents()));
+      ctx.header("X-Mongo-Bytes", String.valueOf(counts.bytes()));
+    }
+  }
+
+  /**
+   * The number of bytes of the response body written so far (after any
+   * compression), if Jetty can tell us.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the size of the response body, or 0 if it's not known
+   */
+  private static long responseBytes(Context ctx) {
+    return ctx.res() instanceof Response response ? response.getHttpOutput().getWritten() : 0;
+  }
+
   /**
    * Configure the server and the MongoDB client to shut down gracefully.
    *
@@ -156,11 +379,22 @@ public class Server {
      * these events and close it then.
      */
     server.events(event -> {
-      event.serverStartFailed(mongoClient::close);
-      event.serverStopped(mongoClient::close);
+      event.serverStartFailed(this::stopControllersAndDatabase);
+      event.serverStopped(this::stopControllersAndDatabase);
     });
   }
 
+  /**
+   * Stop all the controllers (so they can wind down any background work),
+   * and then close the MongoDB client they were using.
+   */
+  private void stopControllersAndDatabase() {
+    for (Controller controller : controllers) {
+      controller.stop();
+    }
+    mongoClient.close();
+  }
+
   /**
    * Setup routes for the server.
    *
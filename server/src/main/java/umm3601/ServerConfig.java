@@ -0,0 +1,292 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.mongodb.ReadPreference;
+
+/**
+ * The settings the server runs with: which port to listen on, how big
+ * Jetty's thread pool is, and how we connect to (and share connections
+ * with) MongoDB.
+ *
+ * Each setting can come from an environment variable (e.g., `SERVER_PORT`),
+ * or from a properties file named by the `SERVER_CONFIG_FILE` environment
+ * variable that uses the same names as keys. Environment variables win
+ * over the file, and anything not set in either gets the default below.
+ *
+ * All the settings are checked when they're loaded, so a typo stops the
+ * server at startup with a list of everything that's wrong, rather than
+ * causing odd behavior later.
+ *
+ * @param port the port the server listens on
+ * @param mongoAddr the address of the MongoDB server
+ * @param mongoDatabase the name of the database to use
+ * @param useVirtualThreads whether to handle each request on its own virtual thread
+ * @param jettyMinThreads the fewest threads Jetty keeps around (ignored with virtual threads)
+ * @param jettyMaxThreads the most threads Jetty will use (ignored with virtual threads)
+ * @param jettyIdleTimeoutMillis how long an idle Jetty thread lives (ignored with virtual threads)
+ * @param mongoMaxConnections the most connections to open to MongoDB
+ * @param mongoMinConnections the fewest connections to keep open to MongoDB
+ * @param mongoWaitMillis how long a request waits for a free MongoDB connection
+ * @param mongoConnectTimeoutMillis how long to wait when opening a MongoDB connection
+ * @param mongoSocketTimeoutMillis how long to wait for a MongoDB reply (0 means forever)
+ * @param mongoCompressors the wire compressors to offer MongoDB, in order of preference
+ * @param mongoReadPreference which MongoDB replica set members to read from
+ * @param lobbyUpdateWindowMillis how long changes to a lobby are collected before
+ *   they're pushed to clients (0 pushes each change immediately)
+ * @param lobbyJournalDir the directory for the journal of changes to lobbies
+ *   (empty means no journal)
+ * @param slowQueryMillis how long a list query can take before it's logged
+ *   as slow and explained (0 logs every one)
+ * @param jfrHandlerStream whether to record the JFR event for each request
+ *   and serve the totals, by route, with the other metrics
+ * @param queryStatsHeaders whether to tell clients how many MongoDB round
+ *   trips, documents, and bytes each request took, in response headers
+ *   (meant for development, as measuring bytes isn't free)
+ * @param queryBudget the most MongoDB round trips a request should make
+ *   (0 means there's no limit); requests that make more are logged
+ */
+public record ServerConfig(
+    int port,
+    String mongoAddr,
+    String mongoDatabase,
+    boolean useVirtualThreads,
+    int jettyMinThreads,
+    int jettyMaxThreads,
+    int jettyIdleTimeoutMillis,
+    int mongoMaxConnections,
+    int mongoMinConnections,
+    long mongoWaitMillis,
+    long mongoConnectTimeoutMillis,
+    long mongoSocketTimeoutMillis,
+    List<String> mongoCompressors,
+    String mongoReadPreference,
+    long lobbyUpdateWindowMillis,
+    String lobbyJournalDir,
+    long slowQueryMillis,
+    boolean jfrHandlerStream,
+    boolean queryStatsHeaders,
+    int queryBudget) {
+
+  // The environment variable naming the (optional) properties file.
+  public static final String CONFIG_FILE_KEY = "SERVER_CONFIG_FILE";
+
+  static final String PORT_KEY = "SERVER_PORT";
+  static final String MONGO_ADDR_KEY = "MONGO_ADDR";
+  static final String MONGO_DB_KEY = "MONGO_DB";
+  static final String VIRTUAL_THREADS_KEY = "VIRTUAL_THREADS";
+  static final String JETTY_MIN_THREADS_KEY = "JETTY_MIN_THREADS";
+  static final String JETTY_MAX_THREADS_KEY = "JETTY_MAX_THREADS";
+  static final String JETTY_IDLE_TIMEOUT_KEY = "JETTY_IDLE_TIMEOUT_MILLIS";
+  static final String MONGO_MAX_CONNECTIONS_KEY = "MONGO_MAX_CONNECTIONS";
+  static final String MONGO_MIN_CONNECTIONS_KEY = "MONGO_MIN_CONNECTIONS";
+  static final String MONGO_WAIT_KEY = "MONGO_WAIT_MILLIS";
+  static final String MONGO_CONNECT_TIMEOUT_KEY = "MONGO_CONNECT_TIMEOUT_MILLIS";
+  static final String MONGO_SOCKET_TIMEOUT_KEY = "MONGO_SOCKET_TIMEOUT_MILLIS";
+  static final String MONGO_COMPRESSORS_KEY = "MONGO_COMPRESSORS";
+  static final String MONGO_READ_PREFERENCE_KEY = "MONGO_READ_PREFERENCE";
+  static final String LOBBY_UPDATE_WINDOW_KEY = "LOBBY_UPDATE_WINDOW_MILLIS";
+  static final String LOBBY_JOURNAL_DIR_KEY = "LOBBY_JOURNAL_DIR";
+  static final String SLOW_QUERY_KEY = "SLOW_QUERY_MILLIS";
+  static final String JFR_HANDLER_STREAM_KEY = "JFR_HANDLER_STREAM";
+  static final String QUERY_STATS_HEADERS_KEY = "QUERY_STATS_HEADERS";
+  static final String QUERY_BUDGET_KEY = "QUERY_BUDGET";
+
+  // The compressors the MongoDB driver knows how to use.
+  static final Set<String> KNOWN_COMPRESSORS = Set.of("zstd", "snappy", "zlib");
+
+  private static final int DEFAULT_PORT = 4567;
+  private static final int MAX_PORT = 65_535;
+  // These match the defaults Javalin uses for Jetty.
+  private static final int DEFAULT_JETTY_MIN_THREADS = 8;
+  private static final int DEFAULT_JETTY_MAX_THREADS = 250;
+  private static final int DEFAULT_JETTY_IDLE_TIMEOUT_MILLIS = 60_000;
+  private static final int DEFAULT_MONGO_MAX_CONNECTIONS = 100;
+  private static final long DEFAULT_MONGO_WAIT_MILLIS = 5_000;
+  private static final long DEFAULT_MONGO_CONNECT_TIMEOUT_MILLIS = 10_000;
+  private static final long DEFAULT_LOBBY_UPDATE_WINDOW_MILLIS = 50;
+  private static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+
+  /**
+   * Make a defensive copy of the compressor list, so the configuration
+   * really can't change once it's loaded.
+   */
+  public ServerConfig {
+    mongoCompressors = List.copyOf(mongoCompressors);
+  }
+
+  /**
+   * The configuration we use when nothing has been set.
+   *
+   * @return the default configuration
+   */
+  public static ServerConfig defaults() {
+    return load(Map.of());
+  }
+
+  /**
+   * Load (and check) the configuration from the given environment
+   * variables, along with the properties file named by `SERVER_CONFIG_FILE`
+   * if there is one.
+   *
+   * @param env the environment variables, usually `System.getenv()`
+   * @return the loaded configuration
+   * @throws IllegalArgumentException if any of the settings are illegal,
+   *   or the properties file can't be read
+   */
+  public static ServerConfig load(Map<String, String> env) {
+    Properties file = new Properties();
+    String fileName = env.get(CONFIG_FILE_KEY);
+    if (fileName != null) {
+      try (Reader reader = Files.newBufferedReader(Path.of(fileName))) {
+        file.load(reader);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Couldn't read the server configuration file " + fileName, e);
+      }
+    }
+    Settings settings = new Settings(env, file);
+
+    int jettyMinThreads = settings.integer(JETTY_MIN_THREADS_KEY, DEFAULT_JETTY_MIN_THREADS, 1);
+    int jettyMaxThreads = settings.integer(JETTY_MAX_THREADS_KEY, DEFAULT_JETTY_MAX_THREADS, 1);
+    if (jettyMinThreads > jettyMaxThreads) {
+      settings.problems.add(JETTY_MIN_THREADS_KEY + " (" + jettyMinThreads + ") can't be more than "
+          + JETTY_MAX_THREADS_KEY + " (" + jettyMaxThreads + ")");
+    }
+    int mongoMaxConnections = settings.integer(MONGO_MAX_CONNECTIONS_KEY, DEFAULT_MONGO_MAX_CONNECTIONS, 1);
+    int mongoMinConnections = settings.integer(MONGO_MIN_CONNECTIONS_KEY, 0, 0);
+    if (mongoMinConnections > mongoMaxConnections) {
+      settings.problems.add(MONGO_MIN_CONNECTIONS_KEY + " (" + mongoMinConnections + ") can't be more than "
+          + MONGO_MAX_CONNECTIONS_KEY + " (" + mongoMaxConnections + ")");
+    }
+
+    ServerConfig config = new ServerConfig(
+        settings.port(PORT_KEY, DEFAULT_PORT),
+        settings.string(MONGO_ADDR_KEY, "localhost"),
+        settings.string(MONGO_DB_KEY, "dev"),
+        settings.bool(VIRTUAL_THREADS_KEY, false),
+        jettyMinThreads,
+        jettyMaxThreads,
+        settings.integer(JETTY_IDLE_TIMEOUT_KEY, DEFAULT_JETTY_IDLE_TIMEOUT_MILLIS, 1),
+        mongoMaxConnections,
+        mongoMinConnections,
+        settings.millis(MONGO_WAIT_KEY, DEFAULT_MONGO_WAIT_MILLIS),
+        settings.millis(MONGO_CONNECT_TIMEOUT_KEY, DEFAULT_MONGO_CONNECT_TIMEOUT_MILLIS),
+        settings.millis(MONGO_SOCKET_TIMEOUT_KEY, 0),
+        settings.compressors(MONGO_COMPRESSORS_KEY),
+        settings.readPreference(MONGO_READ_PREFERENCE_KEY, "primary"),
+        settings.millis(LOBBY_UPDATE_WINDOW_KEY, DEFAULT_LOBBY_UPDATE_WINDOW_MILLIS),
+        settings.string(LOBBY_JOURNAL_DIR_KEY, ""),
+        settings.millis(SLOW_QUERY_KEY, DEFAULT_SLOW_QUERY_MILLIS),
+        settings.bool(JFR_HANDLER_STREAM_KEY, false),
+        settings.bool(QUERY_STATS_HEADERS_KEY, false),
+        settings.integer(QUERY_BUDGET_KEY, 0, 0));
+
+    if (!settings.problems.isEmpty()) {
+      throw new IllegalArgumentException("Illegal server configuration:\n  " + String.join("\n  ", settings.problems));
+    }
+    return config;
+  }
+
+  /**
+   * Looks settings up (in the environment, and then the properties file),
+   * parses them, and keeps track of any problems along the way so we can
+   * report them all at once.
+   */
+  private static final class Settings {
+    private final Map<String, String> env;
+    private final Properties file;
+    private final List<String> problems = new ArrayList<>();
+
+    Settings(Map<String, String> env, Properties file) {
+      this.env = env;
+      this.file = file;
+    }
+
+    String string(String key, String defaultValue) {
+      String value = env.containsKey(key) ? env.get(key) : file.getProperty(key);
+      return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    int integer(String key, int defaultValue, int min) {
+      String value = string(key, String.valueOf(defaultValue));
+      try {
+        int parsed = Integer.parseInt(value);
+        if (parsed < min) {
+          problems.add(key + " must be at least " + min + "; it was " + value);
+        }
+        return parsed;
+      } catch (NumberFormatException e) {
+        problems.add(key + " must be a whole number; it was " + value);
+        return defaultValue;
+      }
+    }
+
+    int port(String key, int defaultValue) {
+      int port = integer(key, defaultValue, 1);
+      if (port > MAX_PORT) {
+        problems.add(key + " must be at most " + MAX_PORT + "; it was " + port);
+      }
+      return port;
+    }
+
+    long millis(String key, long defaultValue) {
+      String value = string(key, String.valueOf(defaultValue));
+      try {
+        long parsed = Long.parseLong(value);
+        if (parsed < 0) {
+          problems.add(key + " can't be negative; it was " + value);
+        }
+        return parsed;
+      } catch (NumberFormatException e) {
+        problems.add(key + " must be a whole number of milliseconds; it was " + value);
+        return defaultValue;
+      }
+    }
+
+    boolean bool(String key, boolean defaultValue) {
+      String value = string(key, String.valueOf(defaultValue));
+      if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+        problems.add(key + " must be true or false; it was " + value);
+        return defaultValue;
+      }
+      return Boolean.parseBoolean(value);
+    }
+
+    List<String> compressors(String key) {
+      List<String> compressors = new ArrayList<>();
+      for (String name : string(key, "").split(",")) {
+        String compressor = name.trim().toLowerCase(Locale.ROOT);
+        if (compressor.isEmpty()) {
+          continue;
+        }
+        if (KNOWN_COMPRESSORS.contains(compressor)) {
+          compressors.add(compressor);
+        } else {
+          problems.add(key + " can only contain " + KNOWN_COMPRESSORS + "; it had " + name.trim());
+        }
+      }
+      return compressors;
+    }
+
+    String readPreference(String key, String defaultValue) {
+      String value = string(key, defaultValue);
+      try {
+        return ReadPreference.valueOf(value).getName();
+      } catch (IllegalArgumentException e) {
+        problems.add(key + " must be one of " + Arrays.asList(
+            "primary", "primaryPreferred", "secondary", "secondaryPreferred", "nearest") + "; it was " + value);
+        return defaultValue;
+      }
+    }
+  }
+}
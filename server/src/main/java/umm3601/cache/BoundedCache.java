@@ -0,0 +1,242 @@
+package umm3601.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A size-bounded cache with a time-to-live and frequency-aware eviction.
+ *
+ * Entries are kept in least-recently-used order, but a new entry doesn't
+ * push out the least recently used one if the victim has been asked for
+ * more often (recently) than the new key. That keeps a handful of
+ * very popular documents (e.g., the lobby every player in a game is
+ * polling) from being flushed out by a burst of one-off lookups. The
+ * popularity estimates come from a small count-min sketch that is
+ * periodically halved so that old popularity fades away.
+ *
+ * Every invalidation bumps a generation counter for the key, so that a
+ * read-through `put` of a document read before the invalidation is
+ * dropped rather than cached. The counters are striped by hash, so
+ * keys that share a stripe occasionally miss a `put` they didn't need to
+ * skip; that only costs an extra database read later.
+ *
+ * All the operations are `synchronized`; the critical sections are
+ * tiny (no I/O happens while the lock is held), so this is plenty fast
+ * compared to the database round trip it replaces.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class BoundedCache<K, V> implements Cache<K, V> {
+
+  // The largest value a frequency counter can reach.
+  private static final int MAX_FREQUENCY = 15;
+  // We halve all the frequency counters after this many
+  // additions per cache slot, so popularity "ages out".
+  private static final int SAMPLE_FACTOR = 10;
+  // Constants used to derive several independent indices into
+  // the frequency sketch from a single hash code.
+  private static final int[] SKETCH_SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+  private static final int SPREAD_SHIFT = 16;
+  private static final int MIX_SHIFT = 13;
+  // Small caches still get a reasonably sized sketch, so that
+  // hash collisions don't make every key look popular.
+  private static final int MIN_SKETCH_SIZE = 64;
+  // The defaults used by `LinkedHashMap`, spelled out since we need the
+  // three-argument constructor to get access ordering.
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+  // The number of generation counters; a power of two so we can mask.
+  private static final int GENERATION_STRIPES = 64;
+
+  private final int maximumSize;
+  private final long ttlNanos;
+  private final LongSupplier clock;
+
+  // An access-ordered map, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<K, CacheEntry<V>> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+  private final int[] frequencies;
+  private final int frequencyMask;
+  private final int sampleSize;
+  private int additions;
+
+  private final long[] generations = new long[GENERATION_STRIPES];
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Construct a cache that holds at most `maximumSize` entries, each of
+   * which expires `ttl` after it was added.
+   *
+   * @param maximumSize the maximum number of entries; 0 disables caching
+   * @param ttl how long an entry stays valid after it's been added
+   */
+  public BoundedCache(int maximumSize, Duration ttl) {
+    this(maximumSize, ttl, System::nanoTime);
+  }
+
+  /**
+   * Construct a cache that uses the given clock (in nanoseconds) to decide
+   * when entries have expired. This is mostly useful for testing.
+   *
+   * @param maximumSize the maximum number of entries; 0 disables caching
+   * @param ttl how long an entry stays valid after it's been added
+   * @param clock a source of monotonically increasing nanosecond times
+   */
+  public BoundedCache(int maximumSize, Duration ttl, LongSupplier clock) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("Cache size can't be negative; was " + maximumSize);
+    }
+    if (ttl.isNegative() || ttl.isZero()) {
+      throw new IllegalArgumentException("Cache TTL must be positive; was " + ttl);
+    }
+    this.maximumSize = maximumSize;
+    this.ttlNanos = ttl.toNanos();
+    this.clock = clock;
+
+    // The sketch needs to be a power of two so we can mask rather than mod.
+    int sketchSize = Math.max(Integer.highestOneBit(Math.max(maximumSize, 1) * 2 - 1) * 2, MIN_SKETCH_SIZE);
+    this.frequencies = new int[sketchSize];
+    this.frequencyMask = sketchSize - 1;
+    this.sampleSize = Math.max(maximumSize, 1) * SAMPLE_FACTOR;
+  }
+
+  @Override
+  public synchronized V get(K key) {
+    recordAccess(key);
+    CacheEntry<V> entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    if (entry.isExpired(clock.getAsLong())) {
+      entries.remove(key);
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.value();
+  }
+
+  @Override
+  public synchronized void put(K key, V value) {
+    if (maximumSize == 0) {
+      return;
+    }
+    long now = clock.getAsLong();
+    CacheEntry<V> newEntry = new CacheEntry<>(value, now + ttlNanos);
+    if (entries.containsKey(key) || entries.size() < maximumSize || makeRoomFor(key, now)) {
+      entries.put(key, newEntry);
+    }
+  }
+
+  @Override
+  public synchronized long generation(K key) {
+    return generations[stripeFor(key)];
+  }
+
+  @Override
+  public synchronized boolean put(K key, V value, long generation) {
+    if (generations[stripeFor(key)] != generation) {
+      return false;
+    }
+    put(key, value);
+    return entries.containsKey(key);
+  }
+
+  @Override
+  public synchronized void invalidate(K key) {
+    entries.remove(key);
+    generations[stripeFor(key)]++;
+  }
+
+  @Override
+  public synchronized void invalidateAll() {
+    entries.clear();
+    for (int i = 0; i < generations.length; i++) {
+      generations[i]++;
+    }
+  }
+
+  @Override
+  public synchronized CacheStats stats() {
+    return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+  }
+
+  /**
+   * Try to free up a slot for `candidate` when the cache is full.
+   *
+   * An expired least-recently-used entry is always removed. Otherwise
+   * the victim is only removed if it isn't (estimated to be) more
+   * popular than the candidate.
+   *
+   * @return `true` if there is now room for the candidate
+   */
+  private boolean makeRoomFor(K candidate, long now) {
+    Iterator<Map.Entry<K, CacheEntry<V>>> iterator = entries.entrySet().iterator();
+    Map.Entry<K, CacheEntry<V>> victim = iterator.next();
+    if (victim.getValue().isExpired(now) || frequency(candidate) >= frequency(victim.getKey())) {
+      iterator.remove();
+      evictions.increment();
+      return true;
+    }
+    return false;
+  }
+
+  private void recordAccess(K key) {
+    int hash = spread(key.hashCode());
+    for (int seed : SKETCH_SEEDS) {
+      int index = indexFor(hash, seed);
+      if (frequencies[index] < MAX_FREQUENCY) {
+        frequencies[index]++;
+      }
+    }
+    additions++;
+    if (additions >= sampleSize) {
+      age();
+    }
+  }
+
+  private int frequency(K key) {
+    int hash = spread(key.hashCode());
+    int result = MAX_FREQUENCY;
+    for (int seed : SKETCH_SEEDS) {
+      result = Math.min(result, frequencies[indexFor(hash, seed)]);
+    }
+    return result;
+  }
+
+  // Halve every counter so that popularity from long ago counts for less.
+  private void age() {
+    for (int i = 0; i < frequencies.length; i++) {
+      frequencies[i] >>>= 1;
+    }
+    additions /= 2;
+  }
+
+  private int indexFor(int hash, int seed) {
+    int mixed = hash * seed;
+    return (mixed ^ (mixed >>> MIX_SHIFT)) & frequencyMask;
+  }
+
+  private static int stripeFor(Object key) {
+    return spread(key.hashCode()) & (GENERATION_STRIPES - 1);
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> SPREAD_SHIFT);
+  }
+
+  private record CacheEntry<V>(V value, long expiresAt) {
+    boolean isExpired(long now) {
+      return now - expiresAt >= 0;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601.cache;
+
+/**
+ * A simple in-process cache that controllers can put in front of
+ * their MongoDB collections.
+ *
+ * This is deliberately a tiny interface so that controllers don't need
+ * to know which implementation they've been handed. `BoundedCache` is
+ * the implementation we use in the server, but tests (or future
+ * deployments) can plug in something else.
+ *
+ * @param <K> the type of the keys (e.g., a Mongo `ObjectId`)
+ * @param <V> the type of the cached values
+ */
+public interface Cache<K, V> {
+  /**
+   * Get the value associated with `key`, if it's present and hasn't expired.
+   *
+   * @param key the key to look up
+   * @return the cached value, or `null` if there isn't one
+   */
+  V get(K key);
+
+  /**
+   * Add (or replace) the value associated with `key`.
+   *
+   * @param key the key to store the value under
+   * @param value the value to store; must not be `null`
+   */
+  void put(K key, V value);
+
+  /**
+   * Get the current generation of `key`, which changes every time `key`
+   * is invalidated. Read-through callers take this *before* they read the
+   * document from the database, and hand it back to
+   * `put(key, value, generation)` afterwards.
+   *
+   * @param key the key whose generation we want
+   * @return the current generation of `key`
+   */
+  long generation(K key);
+
+  /**
+   * Add (or replace) the value associated with `key`, but only if `key`
+   * hasn't been invalidated since `generation` was taken from
+   * `generation(key)`.
+   *
+   * Without this check, a document read just before a concurrent update
+   * could be put into the cache just after that update invalidated it,
+   * and we'd serve the stale copy until it expired.
+   *
+   * @param key the key to store the value under
+   * @param value the value to store; must not be `null`
+   * @param generation the generation of `key` from before `value` was read
+   * @return `true` if the value was stored
+   */
+  boolean put(K key, V value, long generation);
+
+  /**
+   * Remove any value associated with `key`. This is what controllers
+   * call whenever the underlying document changes or goes away.
+   *
+   * @param key the key to remove
+   */
+  void invalidate(K key);
+
+  /**
+   * Remove everything from the cache.
+   */
+  void invalidateAll();
+
+  /**
+   * Get a snapshot of the hit/miss/eviction counters for this cache.
+   *
+   * @return the current statistics for this cache
+   */
+  CacheStats stats();
+}
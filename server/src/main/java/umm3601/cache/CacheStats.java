@@ -0,0 +1,23 @@
+package umm3601.cache;
+
+/**
+ * A point-in-time snapshot of the counters kept by a `Cache`.
+ *
+ * @param hits the number of lookups that were answered from the cache
+ * @param misses the number of lookups that had to go to the database
+ * @param evictions the number of entries removed to make room for new ones
+ * @param size the number of entries currently in the cache
+ */
+public record CacheStats(long hits, long misses, long evictions, long size) {
+
+  /**
+   * The fraction of lookups that were hits, or 0 if there haven't
+   * been any lookups yet.
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double hitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0.0 : (double) hits / lookups;
+  }
+}
@@ -0,0 +1,38 @@
+package umm3601.card;
+
+import org.mongojack.Id;
+import org.mongojack.ObjectId;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// The fields need to be public so MongoJack can fill them in; see the
+// comments in `Lobby` for why we suppress these CheckStyle warnings.
+@SuppressWarnings({"VisibilityModifier"})
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Card {
+
+  @ObjectId @Id
+  @SuppressWarnings({"MemberName"})
+  public String _id;
+  // What's printed on the card.
+  public String text;
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Card)) {
+      return false;
+    }
+    Card other = (Card) obj;
+    return _id.equals(other._id);
+  }
+
+  @Override
+  public int hashCode() {
+    return _id.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+}
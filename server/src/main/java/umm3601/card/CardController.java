@@ -0,0 +1,272 @@
+package umm3601.card;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import umm3601.Controller;
+
+/**
+ * Controller that manages the cards, and the decks lobbies draw them from.
+ *
+ * The cards are loaded from the `cards` collection once (when the server
+ * starts, or on first use) into an in-memory `CardStore`, so dealing
+ * cards never touches the database. If the cards are changed in the
+ * database, `POST /api/cards/reload` loads them again.
+ */
+public class CardController implements Controller {
+
+  private static final String API_CARDS = "/api/cards";
+  private static final String API_CARDS_RELOAD = "/api/cards/reload";
+  private static final String API_LOBBY_DECK = "/api/lobbies/{id}/deck";
+  private static final String API_LOBBY_DECK_DRAW = "/api/lobbies/{id}/deck/draw";
+  static final String COUNT_KEY = "count";
+  // The most cards that can be drawn in one request.
+  static final int MAX_DRAW = 100;
+
+  private final JacksonMongoCollection<Card> cardCollection;
+  // Only used to check a lobby exists before giving it a deck.
+  private final MongoCollection<Document> lobbyCollection;
+
+  // `null` until the cards have been loaded.
+  private volatile CardStore store;
+
+  // Each lobby's deck, by lobby ID.
+  private final Map<String, Deck> decks = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a controller for cards.
+   *
+   * @param database the database containing card data
+   */
+  public CardController(MongoDatabase database) {
+    cardCollection = JacksonMongoCollection.builder().build(
+        database,
+        "cards",
+        Card.class,
+        UuidRepresentation.STANDARD);
+    lobbyCollection = database.getCollection("lobbies");
+  }
+
+  /**
+   * (Re)load the cards from the database. Decks that have already been
+   * made keep dealing the cards they were made with; new (and reshuffled)
+   * decks get the new cards.
+   *
+   * @return the number of cards loaded
+   */
+  public synchronized int reload() {
+    // Sorting by `_id` keeps the order (and so the positions of the cards
+    // in the store) the same from one load to the next.
+    List<Card> cards = cardCollection.find().sort(Sorts.ascending("_id")).into(new ArrayList<>());
+    store = CardStore.of(cards);
+    return store.size();
+  }
+
+  /**
+   * The current cards, loading them if they haven't been loaded yet.
+   *
+   * @return the current card store
+   */
+  CardStore store() {
+    CardStore current = store;
+    if (current == null) {
+      synchronized (this) {
+        if (store == null) {
+          reload();
+        }
+        current = store;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Set the JSON body of the response to be a list of all the cards.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getCards(Context ctx) {
+    CardStore current = store();
+    List<Card> cards = new ArrayList<>(current.size());
+    for (int i = 0; i < current.size(); i++) {
+      cards.add(current.card(i));
+    }
+    ctx.json(cards);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Reload the cards from the database, e.g., after cards have been added
+   * to or removed from the `cards` collection.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void reloadCards(Context ctx) {
+    ctx.json(Map.of("cards", reload()));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Give the lobby specified by the `id` parameter a new, shuffled deck
+   * of all the cards (replacing any deck it already had).
+   *
+   * Only lobbies that exist get a deck, and it's thrown away when the
+   * lobby is deleted (see `forgetDeck`), so there's never more than one
+   * deck per lobby.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void shuffleDeck(Context ctx) {
+    String id = ctx.pathParam("id");
+    ObjectId objectId;
+    try {
+      objectId = new ObjectId(id);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested lobby id wasn't a legal Mongo Object ID.");
+    }
+    if (lobbyCollection.countDocuments(eq("_id", objectId)) == 0) {
+      throw new NotFoundResponse("The requested lobby was not found");
+    }
+
+    Deck deck = new Deck(store());
+    deck.shuffle(ThreadLocalRandom.current());
+    decks.put(id, deck);
+    ctx.json(Map.of("remaining", deck.remaining()));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Draw cards from the deck of the lobby specified by the `id` parameter.
+   *
+   * The optional `count` query parameter says how many cards to draw
+   * (one by default). The JSON body of the response is the list of cards
+   * drawn, which may be fewer than `count` if the deck runs out. Drawing
+   * from an empty deck is a 409 (Conflict).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void drawCards(Context ctx) {
+    int count = 1;
+    if (ctx.queryParamMap().containsKey(COUNT_KEY)) {
+      count = ctx.queryParamAsClass(COUNT_KEY, Integer.class)
+        .check(it -> it > 0, "The number of cards must be greater than zero; you provided " + ctx.queryParam(COUNT_KEY))
+        .check(it -> it <= MAX_DRAW,
+          "You can draw at most " + MAX_DRAW + " cards at once; you provided " + ctx.queryParam(COUNT_KEY))
+        .get();
+    }
+
+    Deck deck = deck(ctx);
+    int[] drawn = new int[count];
+    int dealt = deck.draw(drawn, count);
+    if (dealt == 0) {
+      throw new ConflictResponse("The lobby's deck is empty");
+    }
+    List<Card> cards = new ArrayList<>(dealt);
+    for (int i = 0; i < dealt; i++) {
+      cards.add(deck.store().card(drawn[i]));
+    }
+    ctx.json(cards);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Throw away the deck of the lobby specified by the `id` parameter,
+   * e.g., when its game is over.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteDeck(Context ctx) {
+    if (decks.remove(ctx.pathParam("id")) == null) {
+      throw new NotFoundResponse("The requested lobby doesn't have a deck");
+    }
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Throw away the deck of the lobby with the given ID, if it has one.
+   * `Main` hands this to `LobbyController.onLobbyDeleted`, so a lobby's
+   * deck goes when the lobby does.
+   *
+   * @param lobbyId the ID of the lobby that was deleted
+   */
+  public void forgetDeck(String lobbyId) {
+    decks.remove(lobbyId);
+  }
+
+  /**
+   * The number of lobbies that currently have a deck.
+   *
+   * @return the number of decks
+   */
+  int deckCount() {
+    return decks.size();
+  }
+
+  private Deck deck(Context ctx) {
+    Deck deck = decks.get(ctx.pathParam("id"));
+    if (deck == null) {
+      throw new NotFoundResponse("The requested lobby doesn't have a deck; shuffle one first");
+    }
+    return deck;
+  }
+
+  /**
+   * Load the cards as the server starts up, so the first game doesn't
+   * have to wait for them.
+   */
+  @Override
+  public void start() {
+    reload();
+  }
+
+  /**
+   * Sets up routes for the `card` collection endpoints.
+   *
+   * These endpoints are:
+   *   - `GET /api/cards`
+   *      - List all the cards
+   *   - `POST /api/cards/reload`
+   *      - Reload the cards from the database
+   *   - `POST /api/lobbies/:id/deck`
+   *      - Give the specified lobby a new, shuffled deck
+   *   - `POST /api/lobbies/:id/deck/draw?count=NUMBER`
+   *      - Draw cards from the specified lobby's deck
+   *   - `DELETE /api/lobbies/:id/deck`
+   *      - Throw away the specified lobby's deck
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // List all the cards
+    server.get(API_CARDS, this::getCards);
+
+    // Reload the cards from the database
+    server.post(API_CARDS_RELOAD, this::reloadCards);
+
+    // Shuffle, draw from, and throw away lobbies' decks
+    server.post(API_LOBBY_DECK, this::shuffleDeck);
+    server.post(API_LOBBY_DECK_DRAW, this::drawCards);
+    server.delete(API_LOBBY_DECK, this::deleteDeck);
+  }
+}
@@ -0,0 +1,85 @@
+package umm3601.card;
+
+import java.util.List;
+
+/**
+ * An immutable, in-memory copy of all the cards, so drawing a card
+ * never touches the database.
+ *
+ * The cards are kept as two parallel arrays (IDs and text) and are
+ * referred to by their position in those arrays, so a `Deck` can be
+ * just an array of `int`s. Reloading the cards builds a whole new store;
+ * decks made from the old one keep working with it.
+ */
+public final class CardStore {
+
+  // A store with no cards in it.
+  public static final CardStore EMPTY = new CardStore(new String[0], new String[0]);
+
+  private final String[] ids;
+  private final String[] texts;
+
+  private CardStore(String[] ids, String[] texts) {
+    this.ids = ids;
+    this.texts = texts;
+  }
+
+  /**
+   * Build a store holding the given cards, in the given order.
+   *
+   * @param cards the cards
+   * @return a store of those cards
+   */
+  public static CardStore of(List<Card> cards) {
+    String[] ids = new String[cards.size()];
+    String[] texts = new String[cards.size()];
+    for (int i = 0; i < ids.length; i++) {
+      Card card = cards.get(i);
+      ids[i] = card._id;
+      texts[i] = card.text;
+    }
+    return new CardStore(ids, texts);
+  }
+
+  /**
+   * The number of cards in the store.
+   *
+   * @return the number of cards
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * The ID of the card at `index`.
+   *
+   * @param index the position of the card in the store
+   * @return the card's ID
+   */
+  public String id(int index) {
+    return ids[index];
+  }
+
+  /**
+   * The text of the card at `index`.
+   *
+   * @param index the position of the card in the store
+   * @return the card's text
+   */
+  public String text(int index) {
+    return texts[index];
+  }
+
+  /**
+   * The card at `index`, as a `Card` (e.g., to send back as JSON).
+   *
+   * @param index the position of the card in the store
+   * @return the card
+   */
+  public Card card(int index) {
+    Card card = new Card();
+    card._id = ids[index];
+    card.text = texts[index];
+    return card;
+  }
+}
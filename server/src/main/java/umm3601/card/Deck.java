@@ -0,0 +1,92 @@
+package umm3601.card;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A shuffled deck of cards for one lobby.
+ *
+ * The deck is a permutation of the positions of the cards in a
+ * `CardStore`, shuffled in place (with a Fisher-Yates shuffle) and then
+ * dealt from the top by moving an index along it. Neither shuffling nor
+ * drawing allocates anything, so lobbies can draw as often as they like
+ * without making work for the garbage collector.
+ *
+ * Each lobby has its own deck, so draws are synchronized per deck and
+ * lobbies never wait on each other.
+ */
+public class Deck {
+
+  private final CardStore store;
+  private final int[] order;
+  private int next;
+
+  /**
+   * Construct a deck of all the cards in `store`, in their original order.
+   * Call `shuffle()` before dealing from it.
+   *
+   * @param store the cards the deck is made of
+   */
+  public Deck(CardStore store) {
+    this.store = store;
+    this.order = new int[store.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+  }
+
+  /**
+   * The cards this deck is made of.
+   *
+   * @return the deck's card store
+   */
+  public CardStore store() {
+    return store;
+  }
+
+  /**
+   * Put all the cards back in the deck, and shuffle it.
+   *
+   * @param random the source of randomness for the shuffle
+   */
+  public synchronized void shuffle(RandomGenerator random) {
+    for (int i = order.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+    next = 0;
+  }
+
+  /**
+   * Deal the top card.
+   *
+   * @return the position of the card in `store()`, or -1 if the deck is empty
+   */
+  public synchronized int draw() {
+    return next < order.length ? order[next++] : -1;
+  }
+
+  /**
+   * Deal up to `count` cards from the top of the deck into `into`.
+   *
+   * @param into where to put the positions (in `store()`) of the cards
+   * @param count how many cards to deal
+   * @return how many cards were dealt; fewer than `count` if the deck ran out
+   */
+  public synchronized int draw(int[] into, int count) {
+    int dealt = Math.min(count, order.length - next);
+    System.arraycopy(order, next, into, 0, dealt);
+    next += dealt;
+    return dealt;
+  }
+
+  /**
+   * The number of cards left to deal.
+   *
+   * @return the number of cards left in the deck
+   */
+  public synchronized int remaining() {
+    return order.length - next;
+  }
+}
@@ -0,0 +1,261 @@
+package umm3601.eventlog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of binary records, stored in fixed-size,
+ * memory-mapped segment files.
+ *
+ * Appending a record is just copying its bytes into the mapped file (a
+ * sequential write into the page cache, with no system call), so it's
+ * far cheaper than rewriting a document in the database. The operating
+ * system writes the pages out in the background, so records survive the
+ * server crashing; `force()` waits until they're on disk, to survive the
+ * machine crashing too.
+ *
+ * Each record is its length, a CRC32 checksum, and then its bytes. Records
+ * are numbered in the order they're appended, and each segment file is
+ * named for the number of its first record, so old segments can be
+ * deleted once a snapshot covers them. A record that was only partly
+ * written when the server crashed fails its checksum, and marks the end
+ * of the log.
+ */
+public final class SegmentLog implements AutoCloseable {
+
+  // The default size of each segment file.
+  public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+  static final String SUFFIX = ".log";
+  // Segment files are named for their first record, zero-padded to 20
+  // digits (see `segmentFile`); anything else in the directory isn't ours.
+  private static final Pattern SEGMENT_NAME = Pattern.compile("\\d{20}" + Pattern.quote(SUFFIX));
+
+  // Each record starts with its length and its checksum.
+  private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+  /**
+   * Something that's handed each record when the log is replayed.
+   */
+  @FunctionalInterface
+  public interface RecordHandler {
+    /**
+     * Handle one record.
+     *
+     * @param sequence the record's number
+     * @param record the record's bytes (only valid during this call)
+     */
+    void handle(long sequence, ByteBuffer record);
+  }
+
+  private final Path directory;
+  private final int segmentSize;
+  // The first record number in each segment, oldest first.
+  private final List<Long> segmentBases = new ArrayList<>();
+  private MappedByteBuffer active;
+  private long nextSequence;
+
+  private SegmentLog(Path directory, int segmentSize) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Open the log in `directory` (creating it if need be), ready to append
+   * after the last complete record.
+   *
+   * @param directory the directory holding the segment files
+   * @param segmentSize how big to make each segment file
+   * @return the opened log
+   * @throws IOException if the log can't be read or created
+   */
+  public static SegmentLog open(Path directory, int segmentSize) throws IOException {
+    if (segmentSize <= HEADER_SIZE) {
+      throw new IllegalArgumentException("Segments must be bigger than " + HEADER_SIZE + " bytes");
+    }
+    Files.createDirectories(directory);
+    SegmentLog log = new SegmentLog(directory, segmentSize);
+    try (Stream<Path> files = Files.list(directory)) {
+      files.map(file -> file.getFileName().toString())
+        .filter(name -> SEGMENT_NAME.matcher(name).matches())
+        .map(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+        .sorted()
+        .forEach(log.segmentBases::add);
+    }
+    if (log.segmentBases.isEmpty()) {
+      log.roll(0);
+    } else {
+      long base = log.segmentBases.get(log.segmentBases.size() - 1);
+      log.active = log.map(base, FileChannel.MapMode.READ_WRITE);
+      // Find the end of the last segment, and clear out any torn record there.
+      int count = scan(log.active, (sequence, record) -> { });
+      log.nextSequence = base + count;
+      int end = log.active.position();
+      for (int i = end; i < Math.min(end + HEADER_SIZE, log.active.limit()); i++) {
+        log.active.put(i, (byte) 0);
+      }
+    }
+    return log;
+  }
+
+  /**
+   * The number the next record appended will get.
+   *
+   * @return the next record number
+   */
+  public synchronized long nextSequence() {
+    return nextSequence;
+  }
+
+  /**
+   * Append a record to the log.
+   *
+   * @param record the bytes of the record; it can't be empty, since a zero
+   *   length marks the end of the log when it's scanned
+   * @return the record's number
+   */
+  public synchronized long append(byte[] record) {
+    if (record.length == 0) {
+      throw new IllegalArgumentException("Can't append an empty record");
+    }
+    int size = HEADER_SIZE + record.length;
+    if (size > segmentSize) {
+      throw new IllegalArgumentException("A " + record.length + " byte record won't fit in a segment");
+    }
+    if (active.remaining() < size) {
+      roll(nextSequence);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record);
+    int start = active.position();
+    // Write the length last, so a record is only visible once it's all there.
+    active.position(start + Integer.BYTES);
+    active.putInt((int) crc.getValue());
+    active.put(record);
+    active.putInt(start, record.length);
+    return nextSequence++;
+  }
+
+  /**
+   * Hand every record numbered `fromSequence` or later to `handler`, in order.
+   *
+   * @param fromSequence the number of the first record wanted
+   * @param handler what to do with each record
+   */
+  public synchronized void replay(long fromSequence, RecordHandler handler) {
+    for (int i = 0; i < segmentBases.size(); i++) {
+      long base = segmentBases.get(i);
+      boolean last = i == segmentBases.size() - 1;
+      if (!last && segmentBases.get(i + 1) <= fromSequence) {
+        continue;
+      }
+      ByteBuffer segment = last ? active.duplicate() : map(base, FileChannel.MapMode.READ_ONLY);
+      segment.position(0);
+      scan(segment, (offset, record) -> {
+        if (base + offset >= fromSequence) {
+          handler.handle(base + offset, record);
+        }
+      });
+    }
+  }
+
+  /**
+   * Delete the segments whose records are all numbered below `sequence`
+   * (e.g., because a snapshot now covers them).
+   *
+   * @param sequence the number of the first record that must be kept
+   */
+  public synchronized void deleteBefore(long sequence) {
+    while (segmentBases.size() > 1 && segmentBases.get(1) <= sequence) {
+      try {
+        Files.deleteIfExists(segmentFile(segmentBases.remove(0)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * The number of segment files in the log.
+   *
+   * @return the number of segments
+   */
+  public synchronized int segmentCount() {
+    return segmentBases.size();
+  }
+
+  /**
+   * Wait until everything appended so far is on disk.
+   */
+  public synchronized void force() {
+    active.force();
+  }
+
+  @Override
+  public synchronized void close() {
+    active.force();
+  }
+
+  /**
+   * Read records from the current position of `segment` until the end
+   * of the written part, leaving the position just after the last
+   * complete record.
+   *
+   * @return the number of records read
+   */
+  private static int scan(ByteBuffer segment, RecordHandler handler) {
+    int count = 0;
+    CRC32 crc = new CRC32();
+    while (segment.remaining() >= HEADER_SIZE) {
+      int start = segment.position();
+      int length = segment.getInt(start);
+      if (length <= 0 || length > segment.limit() - start - HEADER_SIZE) {
+        break;
+      }
+      ByteBuffer record = segment.slice(start + HEADER_SIZE, length);
+      crc.reset();
+      crc.update(record.duplicate());
+      if ((int) crc.getValue() != segment.getInt(start + Integer.BYTES)) {
+        break;
+      }
+      handler.handle(count++, record);
+      segment.position(start + HEADER_SIZE + length);
+    }
+    return count;
+  }
+
+  private void roll(long base) {
+    if (active != null) {
+      active.force();
+    }
+    active = map(base, FileChannel.MapMode.READ_WRITE);
+    if (segmentBases.isEmpty() || segmentBases.get(segmentBases.size() - 1).longValue() != base) {
+      segmentBases.add(base);
+    }
+    nextSequence = base;
+  }
+
+  private MappedByteBuffer map(long base, FileChannel.MapMode mode) {
+    try (FileChannel channel = FileChannel.open(segmentFile(base),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // Mapping past the end of the file grows it (with zeros).
+      return channel.map(mode, 0, segmentSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Path segmentFile(long base) {
+    return directory.resolve(String.format("%020d", base) + SUFFIX);
+  }
+}
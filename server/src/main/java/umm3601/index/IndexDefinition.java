@@ -0,0 +1,35 @@
+package umm3601.index;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * A single index that some part of the server expects to exist.
+ *
+ * @param collection the name of the collection the index belongs to
+ * @param keys the index key document, e.g., `{ company: 1, name: 1 }`
+ * @param options the index options; these must include a name
+ */
+public record IndexDefinition(String collection, Document keys, IndexOptions options) {
+
+  public IndexDefinition {
+    if (options.getName() == null) {
+      throw new IllegalArgumentException("Index on " + collection + " " + keys.toJson() + " needs a name");
+    }
+  }
+
+  /**
+   * The name of this index.
+   *
+   * @return the name of the index
+   */
+  public String name() {
+    return options.getName();
+  }
+
+  @Override
+  public String toString() {
+    return collection + "." + name() + " " + keys.toJson();
+  }
+}
@@ -0,0 +1,217 @@
+package umm3601.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * The set of MongoDB indexes the server's queries rely on.
+ *
+ * Each `Controller` declares the indexes it needs (in its
+ * `registerIndexes()` method), next to the queries that use them. At
+ * startup `reconcile()` compares those declarations with what is actually
+ * in the database: missing indexes are created, and indexes that exist
+ * but differ from their declaration are reported in the log.
+ *
+ * Controllers can also register "backfills", which fill in indexed fields
+ * (like normalized search keys) on documents that predate them. These run
+ * before any indexes are created.
+ */
+public class IndexRegistry {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexRegistry.class);
+  private static final CodecRegistry CODECS = MongoClientSettings.getDefaultCodecRegistry();
+
+  private final List<IndexDefinition> definitions = new ArrayList<>();
+  private final Map<String, Runnable> backfills = new LinkedHashMap<>();
+
+  /**
+   * Declare an index.
+   *
+   * @param collection the name of the collection the index belongs to
+   * @param keys the index key document, e.g., `{ company: 1, name: 1 }`
+   * @param options the index options; these must include a name
+   */
+  public void register(String collection, Document keys, IndexOptions options) {
+    definitions.add(new IndexDefinition(collection, keys, options));
+  }
+
+  /**
+   * Declare an ordinary (non-unique, non-TTL) index.
+   *
+   * @param collection the name of the collection the index belongs to
+   * @param name the name of the index
+   * @param keys the index key document, e.g., `{ company: 1, name: 1 }`
+   */
+  public void register(String collection, String name, Document keys) {
+    register(collection, keys, new IndexOptions().name(name));
+  }
+
+  /**
+   * Register a task that fills in an indexed field on existing documents.
+   *
+   * @param description a short description of the backfill, used in the logs
+   * @param backfill the task to run; it should be cheap when there's nothing to do
+   */
+  public void registerBackfill(String description, Runnable backfill) {
+    backfills.put(description, backfill);
+  }
+
+  /**
+   * All the indexes that have been declared so far.
+   *
+   * @return a read-only list of the declared indexes
+   */
+  public List<IndexDefinition> definitions() {
+    return List.copyOf(definitions);
+  }
+
+  /**
+   * Make sure the declared indexes exist in `database`.
+   *
+   * @param database the database to reconcile against
+   * @return a summary of what was created, what was already there, and
+   *   what differs from its declaration
+   */
+  public ReconcileReport reconcile(MongoDatabase database) {
+    for (Map.Entry<String, Runnable> backfill : backfills.entrySet()) {
+      LOGGER.info("Running backfill: {}", backfill.getKey());
+      backfill.getValue().run();
+    }
+
+    List<IndexDefinition> created = new ArrayList<>();
+    List<IndexDefinition> unchanged = new ArrayList<>();
+    List<IndexDefinition> divergent = new ArrayList<>();
+
+    Map<String, Map<String, Document>> existingByCollection = new HashMap<>();
+    for (IndexDefinition definition : definitions) {
+      MongoCollection<Document> collection = database.getCollection(definition.collection());
+      Map<String, Document> existing = existingByCollection.computeIfAbsent(
+        definition.collection(), name -> existingIndexes(collection));
+
+      Document actual = existing.get(definition.name());
+      if (actual == null) {
+        actual = findByKeys(existing, definition.keys());
+      }
+
+      if (actual == null) {
+        collection.createIndex(definition.keys(), definition.options());
+        LOGGER.info("Created index {}", definition);
+        existing.put(definition.name(), new Document("name", definition.name()).append("key", definition.keys()));
+        created.add(definition);
+      } else if (matches(definition, actual)) {
+        unchanged.add(definition);
+      } else {
+        LOGGER.warn("Index {} differs from the existing index {}; leaving it alone", definition, actual.toJson());
+        divergent.add(definition);
+      }
+    }
+    return new ReconcileReport(created, unchanged, divergent);
+  }
+
+  private static Map<String, Document> existingIndexes(MongoCollection<Document> collection) {
+    Map<String, Document> existing = new HashMap<>();
+    for (Document index : collection.listIndexes()) {
+      existing.put(index.getString("name"), index);
+    }
+    return existing;
+  }
+
+  private static Document findByKeys(Map<String, Document> existing, Document keys) {
+    for (Document index : existing.values()) {
+      if (sameKeys(keys, index.get("key", Document.class))) {
+        return index;
+      }
+    }
+    return null;
+  }
+
+  private static boolean matches(IndexDefinition definition, Document actual) {
+    IndexOptions options = definition.options();
+    return definition.name().equals(actual.getString("name"))
+      && sameKeys(definition.keys(), actual.get("key", Document.class))
+      && options.isUnique() == actual.getBoolean("unique", false)
+      && options.isSparse() == actual.getBoolean("sparse", false)
+      && sameNumber(options.getExpireAfter(TimeUnit.SECONDS), actual.get("expireAfterSeconds"))
+      && samePartialFilter(options.getPartialFilterExpression(), actual.get("partialFilterExpression", Document.class))
+      && sameCollation(options.getCollation(), actual.get("collation", Document.class));
+  }
+
+  private static boolean samePartialFilter(Bson expected, Document actual) {
+    if (expected == null || actual == null) {
+      return expected == null && actual == null;
+    }
+    return expected.toBsonDocument(BsonDocument.class, CODECS)
+      .equals(actual.toBsonDocument(BsonDocument.class, CODECS));
+  }
+
+  /**
+   * MongoDB fills in every collation setting that wasn't given when it
+   * creates an index, so only the settings that were declared are compared.
+   */
+  private static boolean sameCollation(Collation expected, Document actual) {
+    if (expected == null || actual == null) {
+      return expected == null && actual == null;
+    }
+    BsonDocument actualSettings = actual.toBsonDocument(BsonDocument.class, CODECS);
+    for (Map.Entry<String, BsonValue> setting : expected.asDocument().entrySet()) {
+      if (!setting.getValue().equals(actualSettings.get(setting.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Index keys are ordered, and MongoDB may hand back `1` as an int, a
+   * long, or a double, so compare numbers by value.
+   */
+  private static boolean sameKeys(Document expected, Document actual) {
+    if (actual == null || expected.size() != actual.size()) {
+      return false;
+    }
+    Iterator<Map.Entry<String, Object>> actualEntries = actual.entrySet().iterator();
+    for (Map.Entry<String, Object> expectedEntry : expected.entrySet()) {
+      Map.Entry<String, Object> actualEntry = actualEntries.next();
+      if (!expectedEntry.getKey().equals(actualEntry.getKey())) {
+        return false;
+      }
+      Object expectedValue = expectedEntry.getValue();
+      Object actualValue = actualEntry.getValue();
+      boolean same = expectedValue instanceof Number
+        ? sameNumber(expectedValue, actualValue)
+        : Objects.equals(expectedValue, actualValue);
+      if (!same) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameNumber(Object expected, Object actual) {
+    if (expected == null || actual == null) {
+      return expected == actual;
+    }
+    return actual instanceof Number
+      && ((Number) expected).doubleValue() == ((Number) actual).doubleValue();
+  }
+}
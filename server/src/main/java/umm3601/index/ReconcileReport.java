@@ -0,0 +1,18 @@
+package umm3601.index;
+
+import java.util.List;
+
+/**
+ * What happened when an `IndexRegistry` was reconciled against the database.
+ *
+ * @param created the indexes that were missing and have now been created
+ * @param unchanged the indexes that already existed as declared
+ * @param divergent the indexes that exist with different keys or options
+ *   than declared; these are reported but left alone, since changing them
+ *   means dropping and rebuilding an index, which a person should decide to do
+ */
+public record ReconcileReport(
+    List<IndexDefinition> created,
+    List<IndexDefinition> unchanged,
+    List<IndexDefinition> divergent) {
+}
@@ -0,0 +1,205 @@
+package umm3601.lobby;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory map from numeric join codes to lobby IDs.
+ *
+ * This is an open-addressing hash table over a primitive `int[]` of codes
+ * (with the lobby IDs in a parallel array), using linear probing. There
+ * are no boxed `Integer` keys or entry objects, and since the table is
+ * never more than half full, looking up a code is almost always a single
+ * array probe. Removals shift later entries back into the gap (rather
+ * than leaving "tombstones"), so lookups stay short no matter how many
+ * lobbies come and go.
+ *
+ * Codes must be non-negative. The table is safe to use from many threads.
+ */
+public class JoinCodeTable {
+
+  // Marks an empty slot; real codes are never negative.
+  private static final int EMPTY = -1;
+  private static final int MIN_CAPACITY = 16;
+  // Fibonacci hashing: spreads consecutive codes across the table.
+  private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private int[] codes;
+  private String[] lobbyIds;
+  private int size;
+
+  /**
+   * Construct an empty table.
+   */
+  public JoinCodeTable() {
+    this(MIN_CAPACITY / 2);
+  }
+
+  /**
+   * Construct an empty table with room for `expectedSize` codes before it
+   * needs to grow.
+   *
+   * @param expectedSize how many codes we expect the table to hold
+   */
+  public JoinCodeTable(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expectedSize * 2) {
+      capacity *= 2;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * The number of codes in the table.
+   *
+   * @return the number of codes
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Look up the lobby with the given join code.
+   *
+   * @param code the join code
+   * @return the ID of the lobby, or `null` if no lobby has this code
+   */
+  public String get(int code) {
+    if (code < 0) {
+      return null;
+    }
+    lock.readLock().lock();
+    try {
+      int slot = find(code);
+      return codes[slot] == code ? lobbyIds[slot] : null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Give `lobbyId` the join code `code`, as long as no other lobby already
+   * has it.
+   *
+   * @param code the join code
+   * @param lobbyId the ID of the lobby
+   * @return `true` if the code was free (and is now taken), `false` if it
+   *   was already in use
+   */
+  public boolean putIfAbsent(int code, String lobbyId) {
+    if (code < 0) {
+      throw new IllegalArgumentException("Join codes can't be negative: " + code);
+    }
+    lock.writeLock().lock();
+    try {
+      int slot = find(code);
+      if (codes[slot] == code) {
+        return false;
+      }
+      codes[slot] = code;
+      lobbyIds[slot] = lobbyId;
+      size++;
+      if (size * 2 > codes.length) {
+        resize(codes.length * 2);
+      }
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Free up a join code so it can be used again.
+   *
+   * @param code the join code
+   * @return the ID of the lobby that had the code, or `null` if no lobby did
+   */
+  public String remove(int code) {
+    if (code < 0) {
+      return null;
+    }
+    lock.writeLock().lock();
+    try {
+      int slot = find(code);
+      if (codes[slot] != code) {
+        return null;
+      }
+      String lobbyId = lobbyIds[slot];
+      deleteSlot(slot);
+      size--;
+      return lobbyId;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Find the slot holding `code`, or the empty slot where it would go.
+   */
+  private int find(int code) {
+    int mask = codes.length - 1;
+    int slot = home(code, mask);
+    while (codes[slot] != EMPTY && codes[slot] != code) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int home(int code, int mask) {
+    int hash = code * HASH_MULTIPLIER;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /**
+   * Empty `slot`, then move any later entries in the same run that would
+   * no longer be reachable back into the gap.
+   */
+  private void deleteSlot(int slot) {
+    int mask = codes.length - 1;
+    int gap = slot;
+    int next = (gap + 1) & mask;
+    while (codes[next] != EMPTY) {
+      int home = home(codes[next], mask);
+      // Move the entry at `next` into the gap unless its home slot lies
+      // (cyclically) after the gap, in which case it's still reachable.
+      boolean reachable = gap <= next
+        ? gap < home && home <= next
+        : gap < home || home <= next;
+      if (!reachable) {
+        codes[gap] = codes[next];
+        lobbyIds[gap] = lobbyIds[next];
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    codes[gap] = EMPTY;
+    lobbyIds[gap] = null;
+  }
+
+  private void resize(int capacity) {
+    int[] oldCodes = codes;
+    String[] oldLobbyIds = lobbyIds;
+    allocate(capacity);
+    for (int i = 0; i < oldCodes.length; i++) {
+      if (oldCodes[i] != EMPTY) {
+        int slot = find(oldCodes[i]);
+        codes[slot] = oldCodes[i];
+        lobbyIds[slot] = oldLobbyIds[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    codes = new int[capacity];
+    Arrays.fill(codes, EMPTY);
+    lobbyIds = new String[capacity];
+  }
+}
@@ -0,0 +1,9 @@
+package umm3601.lobby;
+
+/**
+ * The body of a request to join a lobby (`POST /api/lobbies/{id}/users`).
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class JoinRequest {
+  public String userID;
+}
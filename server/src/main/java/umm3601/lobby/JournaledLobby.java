@@ -0,0 +1,23 @@
+package umm3601.lobby;
+
+import java.util.Set;
+
+/**
+ * A lobby as the `LobbyJournal` remembers it: just the parts the server
+ * keeps in memory, rebuilt from the journal without reading the database.
+ *
+ * @param lobbyName the lobby's name
+ * @param capacity the most users that can be in the lobby; 0 means no limit
+ * @param joinCode the lobby's join code as a number, or -1 if it has none
+ * @param userIds the IDs of the users in the lobby
+ */
+public record JournaledLobby(String lobbyName, int capacity, int joinCode, Set<String> userIds) {
+
+  /**
+   * Make a defensive copy of the users, so a `JournaledLobby` really
+   * can't change.
+   */
+  public JournaledLobby {
+    userIds = Set.copyOf(userIds);
+  }
+}
@@ -1,5 +1,6 @@
 package umm3601.lobby;
 
+import java.util.Date;
 
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
@@ -33,6 +34,22 @@ public class Lobby {
   public String _id;
   public String[] userIDs;
   public String lobbyName;
+  // The most users that can be in this lobby at once; 0 means there's no limit.
+  public int capacity;
+  // A normalized (lower-cased, accent-free) copy of `lobbyName`, kept
+  // so name searches can use an index. See `SearchKeys`.
+  public String lobbyNameKey;
+  // A short code (e.g., "004217") players can type in to join this
+  // lobby. It's assigned by the server when the lobby is created.
+  public String joinCode;
+  // When something last happened in this lobby (it was created, or
+  // someone joined or left, or a round started). Lobbies that have been
+  // idle for too long are deleted.
+  public Date lastActivity;
+  // Goes up by one every time someone joins or leaves, so two copies
+  // of a lobby (e.g., in events pushed to clients) can be told apart by
+  // which is newer.
+  public long version;
 
   @Override
   public boolean equals(Object obj) {
@@ -0,0 +1,133 @@
+package umm3601.lobby;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+import io.javalin.websocket.WsContext;
+
+/**
+ * Keeps track of the WebSocket clients watching each lobby, and pushes
+ * `LobbyEvent`s to them as lobbies change.
+ *
+ * Each event is serialized to JSON once, and that same frame is then
+ * written to every client watching the lobby, so a change costs the same
+ * to serialize whether two players are watching or two hundred. Javalin
+ * sends WebSocket messages asynchronously, so one slow client doesn't
+ * hold up the others (or the request that made the change).
+ */
+public class LobbyBroadcaster {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LobbyBroadcaster.class);
+
+  private final Map<String, Set<WsContext>> subscribers = new ConcurrentHashMap<>();
+  private final JsonMapper jsonMapper;
+
+  /**
+   * Construct a broadcaster that serializes events with Javalin's
+   * default JSON mapper.
+   */
+  public LobbyBroadcaster() {
+    this(new JavalinJackson());
+  }
+
+  /**
+   * Construct a broadcaster that serializes events with `jsonMapper`.
+   *
+   * @param jsonMapper the mapper used to turn events into JSON
+   */
+  public LobbyBroadcaster(JsonMapper jsonMapper) {
+    this.jsonMapper = jsonMapper;
+  }
+
+  /**
+   * Start sending the events for a lobby to a client.
+   *
+   * @param lobbyId the ID of the lobby to watch
+   * @param client the client's WebSocket connection
+   */
+  public void subscribe(String lobbyId, WsContext client) {
+    subscribers.computeIfAbsent(lobbyId, id -> ConcurrentHashMap.newKeySet()).add(client);
+  }
+
+  /**
+   * Stop sending the events for a lobby to a client.
+   *
+   * @param lobbyId the ID of the lobby the client was watching
+   * @param client the client's WebSocket connection
+   */
+  public void unsubscribe(String lobbyId, WsContext client) {
+    subscribers.computeIfPresent(lobbyId, (id, clients) -> {
+      clients.remove(client);
+      return clients.isEmpty() ? null : clients;
+    });
+  }
+
+  /**
+   * The number of clients watching a lobby.
+   *
+   * @param lobbyId the ID of the lobby
+   * @return how many clients are watching it
+   */
+  public int subscriberCount(String lobbyId) {
+    Set<WsContext> clients = subscribers.get(lobbyId);
+    return clients == null ? 0 : clients.size();
+  }
+
+  /**
+   * Serialize an event, for sending to one client.
+   *
+   * @param event the event to serialize
+   * @return the event as a JSON string
+   */
+  public String toFrame(LobbyEvent event) {
+    return jsonMapper.toJsonString(event, LobbyEvent.class);
+  }
+
+  /**
+   * Send an event to every client watching its lobby.
+   *
+   * @param event the event to send
+   */
+  public void publish(LobbyEvent event) {
+    Set<WsContext> clients = subscribers.get(event.lobbyId);
+    if (clients == null || clients.isEmpty()) {
+      return;
+    }
+    String frame = toFrame(event);
+    for (WsContext client : clients) {
+      try {
+        client.send(frame);
+      } catch (RuntimeException e) {
+        // The connection is probably gone; its close handler will (or
+        // already did) unsubscribe it, but there's no harm doing it here.
+        LOGGER.debug("Couldn't send a lobby event", e);
+        unsubscribe(event.lobbyId, client);
+      }
+    }
+  }
+
+  /**
+   * Disconnect every client watching a lobby (e.g., because it was deleted).
+   *
+   * @param lobbyId the ID of the lobby
+   */
+  public void closeAll(String lobbyId) {
+    Set<WsContext> clients = subscribers.remove(lobbyId);
+    if (clients == null) {
+      return;
+    }
+    for (WsContext client : clients) {
+      try {
+        client.closeSession();
+      } catch (RuntimeException e) {
+        LOGGER.debug("Couldn't close a lobby connection", e);
+      }
+    }
+  }
+}
@@ -1,9 +1,24 @@
 package umm3601.lobby;
 
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import org.bson.Document;
@@ -11,20 +26,50 @@ import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoDatabase;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.expr;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.model.Updates;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.http.sse.SseClient;
+import io.javalin.websocket.WsConnectContext;
+import io.javalin.websocket.WsContext;
 import umm3601.Controller;
+import umm3601.cache.BoundedCache;
+import umm3601.cache.Cache;
+import umm3601.cache.CacheStats;
+import umm3601.index.IndexRegistry;
+import umm3601.metrics.MetricSource;
+import umm3601.metrics.SlowQueryLog;
+import umm3601.metrics.TimerMetrics;
+import umm3601.paging.KeysetPager;
+import umm3601.paging.Page;
+import umm3601.search.SearchKeys;
+import umm3601.search.TrigramIndex;
+import umm3601.streaming.NdjsonStreams;
+import umm3601.timer.TimingWheel;
 
 /**
  * Controller that manages requests for info about lobbies.
@@ -33,40 +78,198 @@ public class LobbyController implements Controller {
 
   private static final String API_LOBBIES = "/api/lobbies";
   private static final String API_LOBBY_BY_ID = "/api/lobbies/{id}";
+  private static final String API_LOBBY_USERS = "/api/lobbies/{id}/users";
+  private static final String API_LOBBY_USER = "/api/lobbies/{id}/users/{userId}";
+  private static final String API_LOBBY_SOCKET = "/api/lobbies/{id}/ws";
+  private static final String API_LOBBY_EVENTS = "/api/lobbies/events";
+  private static final String API_LOBBY_BY_CODE = "/api/lobbies/code/{code}";
+  private static final String API_LOBBY_USERS_BY_CODE = "/api/lobbies/code/{code}/users";
+  private static final String API_LOBBY_ROUND = "/api/lobbies/{id}/round";
+  private static final String API_MATCHMAKING = "/api/matchmaking";
   static final String NAME_KEY = "lobbyName";
   static final String SORT_ORDER_KEY = "sortorder";
   static final String USERS_KEY = "users";
+  static final String NAME_SEARCH_KEY = "lobbyNameKey";
+  static final String USER_IDS_KEY = "userIDs";
+  static final String CAPACITY_KEY = "capacity";
+  static final int MAX_USER_ID_LENGTH = 100;
+  static final String JOIN_CODE_KEY = "joinCode";
+  // Join codes are 6 digits (leading zeros and all), so there are a
+  // million of them.
+  static final int JOIN_CODE_DIGITS = 6;
+  static final int JOIN_CODE_LIMIT = 1_000_000;
+  // How many random codes we'll try before giving up on finding a free one.
+  // With fewer than half the codes in use, 20 tries all failing is about
+  // a one-in-a-million chance.
+  static final int MAX_JOIN_CODE_ATTEMPTS = 20;
+  static final String SECONDS_KEY = "seconds";
+  // The longest a round can last.
+  static final int MAX_ROUND_SECONDS = 60 * 60;
+  static final String LAST_ACTIVITY_KEY = "lastActivity";
+  static final String VERSION_KEY = "version";
+  // The most lobbies a trigram search can turn into an `_id` lookup. A
+  // very common fragment can match most of the lobbies, and an `$in` with
+  // that many ids is slower than the `lobbyNameKey` regex it replaces.
+  static final int MAX_TRIGRAM_CANDIDATES = 2_000;
+  private static final Pattern JOIN_CODE_PATTERN = Pattern.compile("\\d{" + JOIN_CODE_DIGITS + "}");
+  // The WebSocket close code we use when a client asks to watch a lobby
+  // that doesn't exist (4000-4999 are for applications to use).
+  static final int SOCKET_LOBBY_NOT_FOUND = 4404;
+
+  // A lobby has room for another user if it has no capacity limit (0 or
+  // unset), or if it has fewer users than its capacity. As a filter this
+  // lets MongoDB check for room and add the user in one atomic step.
+  private static final Bson HAS_ROOM = expr(new Document("$or", List.of(
+    new Document("$lte", Arrays.asList(new Document("$ifNull", Arrays.asList("$" + CAPACITY_KEY, 0)), 0)),
+    new Document("$lt", Arrays.asList(
+      new Document("$size", new Document("$ifNull", Arrays.asList("$" + USER_IDS_KEY, List.of()))),
+      "$" + CAPACITY_KEY)))));
+
+  // How many lobbies we'll keep in the `getLobby` cache, and how long a
+  // cached lobby stays valid. Every player in a game polls the same lobby,
+  // so even a short TTL saves a lot of database round trips.
+  static final int LOBBY_CACHE_SIZE = 10_000;
+  static final Duration LOBBY_CACHE_TTL = Duration.ofSeconds(5);
+
+  // Lobbies that nothing has happened in (no one joining or leaving, no
+  // rounds starting) for this long are deleted. The reaper looks for them
+  // every `REAP_INTERVAL`, so it can tell clients they're gone. The TTL
+  // index gives MongoDB a little longer, so it only deletes idle lobbies
+  // itself if the reaper isn't running (e.g., the server is down).
+  static final Duration LOBBY_IDLE_TIMEOUT = Duration.ofHours(2);
+  static final Duration LOBBY_TTL_GRACE = Duration.ofMinutes(10);
+  static final Duration REAP_INTERVAL = Duration.ofMinutes(1);
+
+  // How long changes to a lobby are collected before they're pushed to
+  // its clients; see `LobbyUpdateCoalescer`.
+  public static final Duration DEFAULT_UPDATE_WINDOW = Duration.ofMillis(50);
+
+  // Matchmaking collects players for a `MATCHMAKING_TICK` and then places
+  // (up to `MATCHMAKING_BATCH` of) them together, in lobbies of
+  // `MATCH_LOBBY_CAPACITY`; see `Matchmaker`. Players who haven't been
+  // placed after `MATCHMAKING_TIMEOUT` are told to try again.
+  static final String MATCH_LOBBY_NAME = "Quick match";
+  static final int MATCH_LOBBY_CAPACITY = 8;
+  static final Duration MATCHMAKING_TICK = Duration.ofMillis(100);
+  static final int MATCHMAKING_BATCH = 1_000;
+  static final int MATCHMAKING_QUEUE_LIMIT = 50_000;
+  static final Duration MATCHMAKING_TIMEOUT = Duration.ofSeconds(30);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LobbyController.class);
 
   private final JacksonMongoCollection<Lobby> lobbyCollection;
+  private final Cache<ObjectId, Lobby> lobbyCache;
+
+  // An in-memory index for substring searches on lobby names. It's
+  // loaded from the database when the server starts, and kept up to date
+  // as lobbies are added and deleted through this controller.
+  private final TrigramIndex nameIndex = new TrigramIndex();
+  private final AtomicBoolean nameIndexLoading = new AtomicBoolean();
+
+  // Which lobby has which join code. Codes are handed out from here, so
+  // they never collide, and looking one up doesn't touch the database.
+  // Codes that aren't in the table (because it hasn't been loaded yet, or
+  // the journal it was loaded from missed a lobby) fall back to the database.
+  private final JoinCodeTable joinCodes = new JoinCodeTable();
+
+  // The deadlines of the rounds being played in each lobby, by lobby ID.
+  // One timing wheel keeps track of all of them, however many lobbies
+  // there are.
+  private final TimingWheel timers = new TimingWheel();
+  private final Map<String, TimingWheel.Timeout> roundTimers = new ConcurrentHashMap<>();
+
+  // Pushes changes to lobbies out to the clients watching them.
+  private final LobbyBroadcaster broadcaster = new LobbyBroadcaster();
+  // Pushes changes to any lobby out to the clients browsing the lobby list.
+  private final LobbyEventFeed eventFeed = new LobbyEventFeed();
+  // Merges bursts of changes to a lobby before they're pushed.
+  private final LobbyUpdateCoalescer updates;
+  // Places players who ask for any lobby, a batch at a time.
+  private final Matchmaker matchmaker;
+  // The lobbies matchmaking has made that still have room, and how much.
+  // These are only used while placing a batch, one batch at a time.
+  private final Deque<OpenLobby> openLobbies = new ArrayDeque<>();
+  // Records the changes to lobbies, so the in-memory indexes can be
+  // rebuilt quickly when the server restarts; `null` if there isn't one.
+  private final LobbyJournal journal;
+  // Where slow list queries are logged and explained.
+  private final SlowQueryLog slowQueries;
+  // Told the ID of each lobby this controller deletes, so other
+  // controllers can drop what they keep for it; see `onLobbyDeleted`.
+  private final List<Consumer<String>> deletionListeners = new CopyOnWriteArrayList<>();
 
   /**
-   * Construct a controller for lobbies.
+   * Construct a controller for lobbies, with the default cache and update
+   * window, no journal, and its own slow query log.
    *
    * @param database the database containing lobby data
    */
   public LobbyController(MongoDatabase database) {
+    this(database, defaultCache(), DEFAULT_UPDATE_WINDOW, null, new SlowQueryLog());
+  }
+
+  /**
+   * Construct a controller for lobbies.
+   *
+   * @param database the database containing lobby data
+   * @param lobbyCache the cache that sits in front of the `lobbies` collection
+   *   (e.g., `defaultCache()`)
+   * @param updateWindow how long to collect changes to a lobby before
+   *   pushing them to clients; zero pushes each change immediately
+   * @param journal the journal of changes to lobbies, which the in-memory
+   *   indexes are loaded from at startup, or `null` for none
+   * @param slowQueries where slow list queries are logged and explained
+   */
+  public LobbyController(MongoDatabase database, Cache<ObjectId, Lobby> lobbyCache, Duration updateWindow,
+      LobbyJournal journal, SlowQueryLog slowQueries) {
     lobbyCollection = JacksonMongoCollection.builder().build(
         database,
         "lobbies",
         Lobby.class,
         UuidRepresentation.STANDARD);
+    this.lobbyCache = lobbyCache;
+    this.updates = new LobbyUpdateCoalescer(updateWindow, timers, this::push);
+    this.matchmaker = new Matchmaker(
+      MATCHMAKING_TICK, MATCHMAKING_BATCH, MATCHMAKING_QUEUE_LIMIT, timers, this::placePlayers);
+    this.journal = journal;
+    this.slowQueries = slowQueries;
+  }
+
+  /**
+   * The cache the server puts in front of the `lobbies` collection: up to
+   * `LOBBY_CACHE_SIZE` lobbies, each for `LOBBY_CACHE_TTL`.
+   *
+   * @return a new, empty cache of lobbies
+   */
+  public static Cache<ObjectId, Lobby> defaultCache() {
+    return new BoundedCache<>(LOBBY_CACHE_SIZE, LOBBY_CACHE_TTL);
+  }
+
+  /**
+   * A lobby made by matchmaking, and how many more players fit in it.
+   */
+  private record OpenLobby(String id, int free) {
   }
 
   /**
    * Set the JSON body of the response to be the single lobby
    * specified by the `id` parameter in the request
    *
+   * Lobbies are served from `lobbyCache` when possible, so the many
+   * players polling the same lobby don't each cost a database round trip.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getLobby(Context ctx) {
     String id = ctx.pathParam("id");
-    Lobby lobby;
+    ObjectId objectId;
 
     try {
-      lobby = lobbyCollection.find(eq("_id", new ObjectId(id))).first();
+      objectId = new ObjectId(id);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested lobby id wasn't a legal Mongo Object ID.");
     }
+    Lobby lobby = findLobby(objectId);
     if (lobby == null) {
       throw new NotFoundResponse("The requested lobby was not found");
     } else {
@@ -75,24 +278,64 @@ public class LobbyController implements Controller {
     }
   }
 
+  /**
+   * Get a lobby, from `lobbyCache` if possible.
+   *
+   * @param objectId the ID of the lobby
+   * @return the lobby, or `null` if there's no such lobby
+   */
+  private Lobby findLobby(ObjectId objectId) {
+    // Take the generation before reading, so a concurrent update that
+    // invalidates this lobby keeps our (possibly stale) copy out of the cache.
+    long generation = lobbyCache.generation(objectId);
+    Lobby lobby = lobbyCache.get(objectId);
+    if (lobby == null) {
+      lobby = lobbyCollection.find(eq("_id", objectId)).first();
+      if (lobby != null) {
+        lobbyCache.put(objectId, lobby, generation);
+      }
+    }
+    return lobby;
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the lobbies returned from the database
    * that match any requested filters and ordering
    *
+   * If the request includes a `limit` query parameter, the body is instead
+   * a single `Page` of at most that many lobbies, along with a `next` cursor
+   * that can be sent back as the `after` query parameter to get the
+   * following page.
+   *
+   * If the request has `?stream=true` or an `Accept: application/x-ndjson`
+   * header, the lobbies are instead streamed as newline-delimited JSON as
+   * they come back from the database, rather than collected into a list.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getLobbies(Context ctx) {
     Bson combinedFilter = constructFilter(ctx);
+
+    if (ctx.queryParamMap().containsKey(KeysetPager.LIMIT_KEY)) {
+      ctx.json(getLobbiesPage(ctx, combinedFilter));
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
     Bson sortingOrder = constructSortingOrder(ctx);
 
+    if (NdjsonStreams.wantsStream(ctx)) {
+      slowQueries.time(API_LOBBIES, lobbyCollection, combinedFilter, sortingOrder,
+        () -> NdjsonStreams.write(ctx, lobbyCollection.find(combinedFilter).sort(sortingOrder), Lobby.class));
+      return;
+    }
+
     // All three of the find, sort, and into steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the lobbies with the specified
     // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<Lobby> matchingLobbies = lobbyCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
+    // results into an initially empty ArrayList. If that takes too long, the
+    // slow query log notes the filter and sort, and how MongoDB ran them.
+    ArrayList<Lobby> matchingLobbies = slowQueries.find(API_LOBBIES, lobbyCollection, combinedFilter, sortingOrder);
 
     // Set the JSON body of the response to be the list of lobbies returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
@@ -102,13 +345,75 @@ public class LobbyController implements Controller {
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Get a single page of the lobbies matching `combinedFilter`, using the
+   * `limit`, `after`, `sortby`, and `sortorder` query parameters.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @param combinedFilter the filter built by `constructFilter`
+   * @return the requested page of lobbies
+   */
+  private Page<Lobby> getLobbiesPage(Context ctx, Bson combinedFilter) {
+    int limit = ctx.queryParamAsClass(KeysetPager.LIMIT_KEY, Integer.class)
+      .check(it -> it > 0,
+        "The page limit must be greater than zero; you provided " + ctx.queryParam(KeysetPager.LIMIT_KEY))
+      .check(it -> it <= KeysetPager.MAX_LIMIT,
+        "The page limit must be at most " + KeysetPager.MAX_LIMIT
+          + "; you provided " + ctx.queryParam(KeysetPager.LIMIT_KEY))
+      .get();
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "lobbyName");
+    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
+    boolean descending = sortOrder.equals("desc");
+    Bson sortingOrder = KeysetPager.sortingOrder(sortBy, descending);
+
+    try {
+      return slowQueries.time(API_LOBBIES, lobbyCollection, combinedFilter, sortingOrder,
+        () -> KeysetPager.fetch(lobbyCollection, Lobby.class, combinedFilter,
+          sortBy, descending, limit, ctx.queryParam(KeysetPager.AFTER_KEY)));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+  }
+
+  /**
+   * Find the ids of the lobbies whose names contain `targetContent` using
+   * the trigram index, if it can answer the search. If the index is still
+   * cold, this starts warming it.
+   *
+   * @param targetContent the text to search for
+   * @return the ids of the matching lobbies, or `null` if the search is too
+   *   short for the index or the index is cold
+   */
+  private Set<String> searchNameIndex(String targetContent) {
+    if (SearchKeys.normalize(targetContent).length() < TrigramIndex.GRAM_LENGTH) {
+      return null;
+    }
+    if (!nameIndex.isWarm()) {
+      warmNameIndexInBackground();
+      return null;
+    }
+    return nameIndex.search(targetContent);
+  }
+
   /**
    * Construct a Bson filter document to use in the `find` method based on the
    * query parameters from the context.
    *
-   * This checks for the presence of the `age`, `company`, and `role` query
-   * parameters and constructs a filter document that will match lobbies with
-   * the specified values for those fields.
+   * This checks for the presence of the `lobbyName` query parameter and
+   * constructs a filter document that will match lobbies whose name contains
+   * that text (ignoring case). The text is always matched literally, so
+   * regex metacharacters in it have no special meaning.
+   *
+   * Substring searches of at least three characters are answered by the
+   * in-memory trigram index (turning into an `_id` lookup), unless that
+   * index hasn't been loaded yet, or matches more than
+   * `MAX_TRIGRAM_CANDIDATES` lobbies, in which case we fall back to a regex
+   * on `lobbyNameKey`. Either way the search ignores case and accents, so
+   * "cafe" finds "Café" whether or not the index is warm.
+   *
+   * With `match=exact` or `match=prefix` it instead matches the whole lobby
+   * name, or its beginning, ignoring case and accents; those searches use
+   * the indexed `lobbyNameKey` field, so they're fast.
    *
    * @param ctx a Javalin HTTP context, which contains the query parameters
    *    used to construct the filter
@@ -119,9 +424,20 @@ public class LobbyController implements Controller {
     List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
 
     if (ctx.queryParamMap().containsKey(NAME_KEY)) {
-      String targetContent = ctx.queryParam(NAME_KEY);
-      Pattern pattern = Pattern.compile(targetContent, Pattern.CASE_INSENSITIVE);
-      filters.add(regex("lobbyName", pattern));
+      String targetContent = ctx.queryParamAsClass(NAME_KEY, String.class)
+        .check(it -> it.length() <= SearchKeys.MAX_SEARCH_LENGTH,
+          "Lobby name searches must be at most " + SearchKeys.MAX_SEARCH_LENGTH + " characters")
+        .get();
+      if (ctx.queryParamMap().containsKey(SearchKeys.MATCH_KEY)) {
+        filters.add(SearchKeys.filter(NAME_SEARCH_KEY, targetContent, matchMode(ctx)));
+      } else {
+        Set<String> ids = searchNameIndex(targetContent);
+        if (ids != null && ids.size() <= MAX_TRIGRAM_CANDIDATES) {
+          filters.add(in("_id", ids.stream().map(ObjectId::new).toList()));
+        } else {
+          filters.add(SearchKeys.filter(NAME_SEARCH_KEY, targetContent, SearchKeys.MatchMode.CONTAINS));
+        }
+      }
     }
 
     // Combine the list of filters into a single filtering document.
@@ -130,6 +446,51 @@ public class LobbyController implements Controller {
     return combinedFilter;
   }
 
+  /**
+   * (Re)load the lobby name trigram index from the database.
+   */
+  void rebuildNameIndex() {
+    nameIndex.rebuild(() -> {
+      Map<String, String> names = new HashMap<>();
+      for (Document lobby : lobbyCollection.withDocumentClass(Document.class)
+          .find()
+          .projection(Projections.include(NAME_KEY))) {
+        names.put(lobby.getObjectId("_id").toHexString(), lobby.getString(NAME_KEY));
+      }
+      return names;
+    });
+  }
+
+  /**
+   * Load the lobby name trigram index on a background (virtual) thread,
+   * unless it's already being loaded.
+   */
+  private void warmNameIndexInBackground() {
+    if (nameIndexLoading.compareAndSet(false, true)) {
+      Thread.startVirtualThread(() -> {
+        try {
+          rebuildNameIndex();
+        } finally {
+          nameIndexLoading.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Get the requested `match` mode for text searches.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the requested match mode
+   */
+  private SearchKeys.MatchMode matchMode(Context ctx) {
+    try {
+      return SearchKeys.MatchMode.fromParam(ctx.queryParam(SearchKeys.MATCH_KEY));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+  }
+
   /**
    * Construct a Bson sorting document to use in the `sort` method based on the
    * query parameters from the context.
@@ -247,11 +608,16 @@ public class LobbyController implements Controller {
     Lobby newLobby = ctx.bodyValidator(Lobby.class)
       .check(lobby -> lobby.lobbyName != null && lobby.lobbyName.length() > 0,
         "Lobby must have a non-empty lobby name; body was " + body)
+      .check(lobby -> lobby.capacity >= 0,
+        "Lobby's capacity can't be negative; body was " + body)
       .get();
 
-
-    // Add the new lobby to the database
-    lobbyCollection.insertOne(newLobby);
+    // Start with an (empty) array of users rather than `null`, so users
+    // can be added to it with `$addToSet`.
+    if (newLobby.userIDs == null) {
+      newLobby.userIDs = new String[0];
+    }
+    createLobby(newLobby);
 
     // Set the JSON response to be the `_id` of the newly created lobby.
     // This gives the client the opportunity to know the ID of the new lobby,
@@ -265,6 +631,28 @@ public class LobbyController implements Controller {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Add a new (already checked) lobby to the database, with a fresh join
+   * code, and tell everyone about it.
+   *
+   * @param newLobby the lobby; its `_id` and join code are filled in
+   */
+  private void createLobby(Lobby newLobby) {
+    newLobby.lobbyNameKey = SearchKeys.normalize(newLobby.lobbyName);
+    newLobby.lastActivity = new Date();
+    newLobby.version = 0;
+
+    // Add the new lobby to the database, with a fresh join code
+    newLobby._id = new ObjectId().toHexString();
+    insertWithJoinCode(newLobby);
+    nameIndex.add(newLobby._id, newLobby.lobbyName);
+    journal(entry -> entry.created(newLobby));
+    // There shouldn't be anything cached under a brand new ID, but
+    // invalidating keeps the cache honest no matter how we got here.
+    lobbyCache.invalidate(new ObjectId(newLobby._id));
+    publish(new LobbyEvent(LobbyEvent.CREATED, newLobby._id, newLobby));
+  }
+
   /**
    * Delete the lobby specified by the `id` parameter in the request.
    *
@@ -272,19 +660,803 @@ public class LobbyController implements Controller {
    */
   public void deleteLobby(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = lobbyCollection.deleteOne(eq("_id", new ObjectId(id)));
+    ObjectId objectId = new ObjectId(id);
+    Lobby deleted = lobbyCollection.findOneAndDelete(eq("_id", objectId));
     // We should have deleted 1 or 0 lobbies, depending on whether `id` is a valid lobby ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (deleted == null) {
+      lobbyCache.invalidate(objectId);
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    forgetLobby(deleted);
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * The hit, miss, and eviction counts of the cache in front of the
+   * `lobbies` collection, for `CacheMetrics` to serve.
+   *
+   * @return the lobby cache's current stats
+   */
+  public CacheStats cacheStats() {
+    return lobbyCache.stats();
+  }
 
+  /**
+   * The metrics of the timing wheel that keeps round deadlines (and
+   * drives matchmaking, update coalescing, and the reaper), for
+   * `MetricsController` to serve.
+   *
+   * @return the timing wheel's metrics
+   */
+  public MetricSource timerMetrics() {
+    return new TimerMetrics("lobbies", timers::stats);
+  }
+
+  /**
+   * Call `listener` with the ID of each lobby this controller deletes
+   * (through `deleteLobby`, or because it was idle), after it's gone from
+   * the database. Other controllers use this to drop whatever they keep
+   * for a lobby (e.g., `CardController`'s decks).
+   *
+   * Lobbies MongoDB deletes itself, through the TTL index, aren't passed
+   * on; see `forgetLobby`.
+   *
+   * @param listener called with the ID of each deleted lobby
+   */
+  public void onLobbyDeleted(Consumer<String> listener) {
+    deletionListeners.add(listener);
+  }
+
+  /**
+   * Clean up after a lobby has been deleted from the database: drop it
+   * from the cache and the in-memory indexes, stop its round timer, free
+   * its join code, tell its clients it's gone, and tell the deletion
+   * listeners.
+   *
+   * This only happens for lobbies this controller deletes. If MongoDB
+   * deletes one through the TTL index while the server is running (which
+   * it only does if the reaper has fallen more than `LOBBY_TTL_GRACE`
+   * behind), its entries in the name index and the join code table stay
+   * until the server restarts, and the listeners aren't told. That's
+   * harmless: name searches only return lobbies still in the database,
+   * looking up its join code gets a 404 when the lobby is fetched, and
+   * the code just isn't handed out again until then.
+   *
+   * @param deleted the lobby that was deleted
+   */
+  private void forgetLobby(Lobby deleted) {
+    String id = deleted._id;
+    lobbyCache.invalidate(new ObjectId(id));
+    nameIndex.remove(id);
+    cancelRoundTimer(id);
+    // The deleted lobby's join code is free for a new lobby to use.
+    joinCodes.remove(parseJoinCode(deleted.joinCode));
+    journal(entry -> entry.deleted(id));
+    publish(new LobbyEvent(LobbyEvent.DELETED, id, null));
+    for (Consumer<String> listener : deletionListeners) {
+      try {
+        listener.accept(id);
+      } catch (RuntimeException e) {
+        LOGGER.error("A lobby deletion listener failed for lobby {}", id, e);
+      }
+    }
+  }
+
+  /**
+   * Delete every lobby that has been idle for longer than
+   * `LOBBY_IDLE_TIMEOUT`, cleaning up after each just as `deleteLobby`
+   * would (so their clients are told they're gone).
+   *
+   * @return the number of lobbies deleted
+   */
+  int reapIdleLobbies() {
+    Date cutoff = new Date(System.currentTimeMillis() - LOBBY_IDLE_TIMEOUT.toMillis());
+    int reaped = 0;
+    for (Lobby idle : lobbyCollection.find(lt(LAST_ACTIVITY_KEY, cutoff))
+        .projection(Projections.include("_id"))
+        .into(new ArrayList<>())) {
+      // Check it's still idle as we delete it, in case someone joined since we looked.
+      Lobby deleted = lobbyCollection.findOneAndDelete(
+        and(eq("_id", new ObjectId(idle._id)), lt(LAST_ACTIVITY_KEY, cutoff)));
+      if (deleted != null) {
+        forgetLobby(deleted);
+        reaped++;
+      }
+    }
+    if (reaped > 0) {
+      LOGGER.info("Deleted {} idle lobbies", reaped);
+    }
+    return reaped;
+  }
+
+  /**
+   * Record a change in the journal, if there is one. The change has
+   * already been made in the database, so a journal that can't be written
+   * doesn't fail the request; it's rebuilt from the database at the next
+   * startup instead.
+   *
+   * @param change records the change in the journal
+   */
+  private void journal(Consumer<LobbyJournal> change) {
+    if (journal != null) {
+      try {
+        change.accept(journal);
+      } catch (RuntimeException e) {
+        LOGGER.error("Couldn't record a lobby change in the journal", e);
+      }
+    }
+  }
+
+  /**
+   * Fill the name index and the join code table from the journal, rather
+   * than the database.
+   *
+   * If the journal is new, or doesn't agree with the database, it's
+   * rebuilt from the database first. The journal agrees if it has as many
+   * lobbies as the database (so nothing was expired while the server was
+   * down), and its newest lobby is the database's newest lobby (so it
+   * didn't miss a create that a missed delete would hide from the count).
+   * Both checks are cheap: the count comes from the collection's metadata,
+   * and the newest lobby from the `_id` index. A lobby the checks can't
+   * catch (an older create that wasn't journaled) still has its join code
+   * found in the database; see `lobbyIdForCode`.
+   */
+  void loadFromJournal() {
+    Map<String, JournaledLobby> recovered = journal.lobbies();
+    if (!journal.hasHistory()
+        || recovered.size() != lobbyCollection.estimatedDocumentCount()
+        || !Objects.equals(newestId(recovered), newestLobbyId())) {
+      LOGGER.info("The lobby journal doesn't match the database; rebuilding it");
+      journal.seed(lobbyCollection.find()
+        .projection(Projections.include(NAME_KEY, CAPACITY_KEY, JOIN_CODE_KEY, USER_IDS_KEY))
+        .into(new ArrayList<>()));
+      recovered = journal.lobbies();
+    }
+    Map<String, String> names = new HashMap<>();
+    recovered.forEach((id, lobby) -> {
+      names.put(id, lobby.lobbyName());
+      if (lobby.joinCode() >= 0) {
+        joinCodes.putIfAbsent(lobby.joinCode(), id);
+      }
+    });
+    nameIndex.rebuild(() -> names);
+  }
+
+  /**
+   * The newest lobby ID in the journal. Object IDs start with their
+   * creation time, and their hex strings are all the same length, so the
+   * newest is the largest string.
+   *
+   * @param lobbies the journaled lobbies, by ID
+   * @return the newest ID, or `null` if there aren't any lobbies
+   */
+  private static String newestId(Map<String, JournaledLobby> lobbies) {
+    return lobbies.keySet().stream().max(String::compareTo).orElse(null);
+  }
+
+  /**
+   * The newest lobby ID in the database.
+   *
+   * @return the newest ID, or `null` if there aren't any lobbies
+   */
+  private String newestLobbyId() {
+    Lobby newest = lobbyCollection.find()
+      .sort(Sorts.descending("_id"))
+      .projection(Projections.include("_id"))
+      .limit(1)
+      .first();
+    return newest == null ? null : newest._id;
+  }
+
+  /**
+   * Reap idle lobbies, and then schedule the next reaping. This runs on
+   * one of the timing wheel's workers.
+   */
+  private void reapAndReschedule() {
+    try {
+      reapIdleLobbies();
+    } catch (RuntimeException e) {
+      LOGGER.error("Couldn't delete idle lobbies", e);
+    } finally {
+      timers.schedule(REAP_INTERVAL, this::reapAndReschedule);
+    }
+  }
+
+
+
+  /**
+   * Add a user to the lobby specified by the `id` parameter in the request.
+   *
+   * The user's ID is the `userID` field in the JSON body of the request.
+   * Joining is a single atomic update (`$addToSet`), so any number of users
+   * can join the same lobby at once without overwriting each other, and
+   * joining a lobby you're already in does nothing. If the lobby has a
+   * `capacity`, the check that there's room is part of the same update,
+   * so a burst of joins can't overfill it.
+   *
+   * The JSON body of the response is the updated lobby. If the lobby is
+   * full the response is a 409 (Conflict).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void joinLobby(Context ctx) {
+    joinLobby(ctx, lobbyObjectId(ctx));
+  }
+
+  /**
+   * Add a user to the lobby with the join code specified by the `code`
+   * parameter in the request. This works just like `joinLobby`, but
+   * players only need the short code, not the lobby's ID.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void joinLobbyByCode(Context ctx) {
+    joinLobby(ctx, lobbyIdForCode(ctx));
+  }
+
+  private void joinLobby(Context ctx, ObjectId objectId) {
+    String userId = joiningUserId(ctx);
+
+    // Users who are already in the lobby always "fit", even if it's full.
+    Lobby lobby = lobbyCollection.findOneAndUpdate(
+      and(eq("_id", objectId), or(eq(USER_IDS_KEY, userId), HAS_ROOM)),
+      membershipChange(Updates.addToSet(USER_IDS_KEY, userId)),
+      new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+    lobbyCache.invalidate(objectId);
+
+    if (lobby == null) {
+      // Either there's no such lobby, or there wasn't room in it.
+      if (lobbyCollection.countDocuments(eq("_id", objectId)) == 0) {
+        throw new NotFoundResponse("The requested lobby was not found");
+      }
+      throw new ConflictResponse("The requested lobby is full");
+    }
+    journal(entry -> entry.joined(lobby._id, userId));
+    publish(new LobbyEvent(LobbyEvent.UPDATED, lobby._id, lobby));
+    ctx.json(lobby);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Get the ID of the user who wants to join a lobby from the JSON body
+   * of the request (a `JoinRequest`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the user's ID
+   */
+  private static String joiningUserId(Context ctx) {
+    String body = ctx.body();
+    return ctx.bodyValidator(JoinRequest.class)
+      .check(join -> join.userID != null && !join.userID.isBlank(),
+        "Joining a lobby needs a non-empty userID; body was " + body)
+      .check(join -> join.userID == null || join.userID.length() <= MAX_USER_ID_LENGTH,
+        "User IDs can be at most " + MAX_USER_ID_LENGTH + " characters; body was " + body)
+      .get()
+      .userID;
+  }
+
+  /**
+   * Put the user (the `userID` in the JSON body of the request) in any
+   * lobby with room, making a new one if need be.
+   *
+   * Rather than racing other players for a spot, the user waits in the
+   * matchmaking queue until the next batch is placed (a fraction of a
+   * second). The JSON body of the response is the lobby they were put in.
+   * If the queue is full, or the user isn't placed within
+   * `MATCHMAKING_TIMEOUT`, the response is a 503 (Service Unavailable).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void findMatch(Context ctx) {
+    String userId = joiningUserId(ctx);
+    CompletableFuture<Lobby> placed;
+    try {
+      placed = matchmaker.enqueue(userId);
+    } catch (IllegalStateException e) {
+      throw new ServiceUnavailableResponse("Too many players are waiting for a lobby; please try again later");
+    }
+    ctx.future(() -> placed
+      .orTimeout(MATCHMAKING_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+      .handle((lobby, error) -> {
+        if (error != null) {
+          throw new ServiceUnavailableResponse("Couldn't find you a lobby; please try again");
+        }
+        ctx.json(lobby);
+        ctx.status(HttpStatus.OK);
+        return null;
+      }));
+  }
+
+  /**
+   * Put a batch of players from the matchmaking queue in lobbies.
+   *
+   * Players fill the lobbies matchmaking has already made first, with one
+   * update (`$addToSet` with `$each`) per lobby for the whole group, and
+   * then new lobbies are made for whoever's left. Since every lobby is
+   * changed at most once per batch, however many players arrive at once,
+   * they don't all contend for the same lobby document.
+   *
+   * @param tickets the players' tickets, which are completed with their lobbies
+   */
+  void placePlayers(List<Matchmaker.Ticket> tickets) {
+    // Someone who queued twice only needs one spot (and both tickets get it).
+    Map<String, List<Matchmaker.Ticket>> ticketsByUser = new LinkedHashMap<>();
+    for (Matchmaker.Ticket ticket : tickets) {
+      ticketsByUser.computeIfAbsent(ticket.userId(), user -> new ArrayList<>()).add(ticket);
+    }
+    List<String> waiting = new ArrayList<>(ticketsByUser.keySet());
+
+    int next = 0;
+    while (next < waiting.size()) {
+      OpenLobby open = openLobbies.pollFirst();
+      int count = Math.min(waiting.size() - next, open == null ? MATCH_LOBBY_CAPACITY : open.free());
+      List<String> players = waiting.subList(next, next + count);
+      Lobby lobby = open == null ? createMatchLobby(players) : addPlayers(open.id(), players);
+      if (lobby == null) {
+        // Someone else took the room (or deleted the lobby), so check how
+        // much there really is, and try again.
+        Lobby current = lobbyCollection.find(eq("_id", new ObjectId(open.id()))).first();
+        if (current != null && room(current) > 0) {
+          openLobbies.addFirst(new OpenLobby(open.id(), room(current)));
+        }
+        continue;
+      }
+      if (room(lobby) > 0) {
+        openLobbies.addFirst(new OpenLobby(lobby._id, room(lobby)));
+      }
+      for (String player : players) {
+        for (Matchmaker.Ticket ticket : ticketsByUser.get(player)) {
+          ticket.place(lobby);
+        }
+      }
+      next += count;
+    }
+  }
+
+  /**
+   * Place the next batch of players in the matchmaking queue now, rather
+   * than waiting for the tick.
+   */
+  void runMatchmaking() {
+    matchmaker.tick();
+  }
+
+  private Lobby createMatchLobby(List<String> players) {
+    Lobby lobby = new Lobby();
+    lobby.lobbyName = MATCH_LOBBY_NAME;
+    lobby.capacity = MATCH_LOBBY_CAPACITY;
+    lobby.userIDs = players.toArray(new String[0]);
+    createLobby(lobby);
+    return lobby;
+  }
+
+  /**
+   * Add a group of players to a lobby in one update, as long as there's
+   * room for all of them.
+   *
+   * @return the updated lobby, or `null` if it's gone or there wasn't room
+   */
+  private Lobby addPlayers(String id, List<String> players) {
+    ObjectId objectId = new ObjectId(id);
+    Lobby lobby = lobbyCollection.findOneAndUpdate(
+      and(eq("_id", objectId), hasRoomFor(players.size())),
+      membershipChange(Updates.addEachToSet(USER_IDS_KEY, players)),
+      new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+    lobbyCache.invalidate(objectId);
+    if (lobby != null) {
+      for (String player : players) {
+        journal(entry -> entry.joined(id, player));
+      }
+      publish(new LobbyEvent(LobbyEvent.UPDATED, lobby._id, lobby));
+    }
+    return lobby;
+  }
+
+  /**
+   * A filter for lobbies (with a capacity) that have room for `players`
+   * more users.
+   */
+  private static Bson hasRoomFor(int players) {
+    return expr(new Document("$lte", Arrays.asList(
+      new Document("$add", Arrays.asList(
+        new Document("$size", new Document("$ifNull", Arrays.asList("$" + USER_IDS_KEY, List.of()))),
+        players)),
+      "$" + CAPACITY_KEY)));
+  }
+
+  private static int room(Lobby lobby) {
+    return lobby.capacity - (lobby.userIDs == null ? 0 : lobby.userIDs.length);
+  }
+
+  /**
+   * Remove the user specified by the `userId` parameter from the lobby
+   * specified by the `id` parameter in the request.
+   *
+   * Like joining, this is a single atomic update (`$pull`). Leaving a lobby
+   * you aren't in does nothing. The JSON body of the response is the
+   * updated lobby.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void leaveLobby(Context ctx) {
+    ObjectId objectId = lobbyObjectId(ctx);
+    String userId = ctx.pathParam("userId");
+
+    Lobby lobby = lobbyCollection.findOneAndUpdate(
+      eq("_id", objectId),
+      membershipChange(Updates.pull(USER_IDS_KEY, userId)),
+      new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+    lobbyCache.invalidate(objectId);
+
+    if (lobby == null) {
+      throw new NotFoundResponse("The requested lobby was not found");
+    }
+    journal(entry -> entry.left(lobby._id, userId));
+    publish(new LobbyEvent(LobbyEvent.UPDATED, lobby._id, lobby));
+    ctx.json(lobby);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Start pushing changes to the lobby specified by the `id` parameter to
+   * a newly connected WebSocket client.
+   *
+   * The client is first sent a `snapshot` of the lobby as it is now, and
+   * then a `LobbyEvent` each time it changes, so it never needs to poll
+   * `GET /api/lobbies/{id}`. If there's no such lobby the connection is
+   * closed with the code `SOCKET_LOBBY_NOT_FOUND`.
+   *
+   * @param ctx a Javalin WebSocket connection context
+   */
+  public void onLobbySocketConnect(WsConnectContext ctx) {
+    String id = ctx.pathParam("id");
+    Lobby lobby = ObjectId.isValid(id) ? findLobby(new ObjectId(id)) : null;
+    if (lobby == null) {
+      ctx.closeSession(SOCKET_LOBBY_NOT_FOUND, "The requested lobby was not found");
+      return;
+    }
+    broadcaster.subscribe(id, ctx);
+    ctx.send(broadcaster.toFrame(new LobbyEvent(LobbyEvent.SNAPSHOT, id, lobby)));
+  }
+
+  /**
+   * Stop pushing changes to a WebSocket client that has disconnected.
+   *
+   * @param ctx a Javalin WebSocket context
+   */
+  public void onLobbySocketClose(WsContext ctx) {
+    broadcaster.unsubscribe(ctx.pathParam("id"), ctx);
+  }
+
+  /**
+   * Start sending changes to any lobby to a newly connected Server-Sent
+   * Events client, such as the lobby browser.
+   *
+   * The client gets a `created`, `updated`, or `deleted` event (each
+   * carrying a `LobbyEvent`) whenever a lobby changes. Browsers send the ID
+   * of the last event they saw when they reconnect, and get the events they
+   * missed; a `reset` event means the client should fetch the lobby list
+   * again. See `LobbyEventFeed` for the details.
+   *
+   * @param client a Javalin Server-Sent Events client
+   */
+  public void onLobbyEventsConnect(SseClient client) {
+    eventFeed.connect(client);
+  }
+
+  /**
+   * Queue a change to be pushed to clients once its lobby's update window
+   * closes (so bursts of changes are merged).
+   *
+   * @param event the change to tell them about
+   */
+  private void publish(LobbyEvent event) {
+    updates.submit(event);
+  }
+
+  /**
+   * Tell the clients watching the lobby (over WebSockets), and the clients
+   * watching the lobby list (over Server-Sent Events), about a change. Once
+   * a lobby has been deleted, its WebSocket clients are disconnected.
+   *
+   * @param event the change to tell them about
+   */
+  private void push(LobbyEvent event) {
+    broadcaster.publish(event);
+    eventFeed.publish(event);
+    if (LobbyEvent.DELETED.equals(event.type)) {
+      broadcaster.closeAll(event.lobbyId);
+    }
+  }
+
+  /**
+   * Start a timed round in the lobby specified by the `id` parameter.
+   *
+   * The `seconds` query parameter says how long the round lasts. When the
+   * time is up, a `roundEnded` event is pushed to the lobby's clients.
+   * Starting a round while one is already running replaces it.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void startRound(Context ctx) {
+    ObjectId objectId = lobbyObjectId(ctx);
+    int seconds = ctx.queryParamAsClass(SECONDS_KEY, Integer.class)
+      .check(it -> it > 0, "A round must last at least one second; you provided " + ctx.queryParam(SECONDS_KEY))
+      .check(it -> it <= MAX_ROUND_SECONDS,
+        "A round can last at most " + MAX_ROUND_SECONDS + " seconds; you provided " + ctx.queryParam(SECONDS_KEY))
+      .get();
+    // Starting a round counts as activity, so the lobby won't be reaped mid-game.
+    if (lobbyCollection.updateOne(eq("_id", objectId), Updates.currentDate(LAST_ACTIVITY_KEY)).getMatchedCount() == 0) {
+      throw new NotFoundResponse("The requested lobby was not found");
+    }
+    lobbyCache.invalidate(objectId);
+
+    String id = objectId.toHexString();
+    TimingWheel.Timeout timeout = timers.schedule(Duration.ofSeconds(seconds), () -> endRound(id));
+    TimingWheel.Timeout previous = roundTimers.put(id, timeout);
+    if (previous != null) {
+      previous.cancel();
+    }
+    ctx.json(Map.of(SECONDS_KEY, seconds));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Cancel the round running in the lobby specified by the `id` parameter.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void cancelRound(Context ctx) {
+    if (!cancelRoundTimer(lobbyObjectId(ctx).toHexString())) {
+      throw new NotFoundResponse("The requested lobby doesn't have a round running");
+    }
+    ctx.status(HttpStatus.OK);
+  }
+
+  private boolean cancelRoundTimer(String id) {
+    TimingWheel.Timeout timeout = roundTimers.remove(id);
+    return timeout != null && timeout.cancel();
+  }
+
+  /**
+   * Called (on a worker thread) when a lobby's round timer fires.
+   */
+  private void endRound(String id) {
+    // Forget the timer, unless another round has already replaced it.
+    roundTimers.computeIfPresent(id, (lobbyId, timeout) -> timeout.isExpired() ? null : timeout);
+    publish(new LobbyEvent(LobbyEvent.ROUND_ENDED, id, null));
+  }
+
+  /**
+   * Set the JSON body of the response to be the lobby with the join code
+   * specified by the `code` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getLobbyByCode(Context ctx) {
+    Lobby lobby = findLobby(lobbyIdForCode(ctx));
+    if (lobby == null) {
+      throw new NotFoundResponse("The requested lobby was not found");
+    }
+    ctx.json(lobby);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * The update for a change to who's in a lobby: the change itself, plus
+   * marking the lobby as active and bumping its `version`, so events
+   * carrying the lobby can be told apart by how new they are.
+   *
+   * @param change the change to `userIDs`
+   * @return the whole update
+   */
+  private static Bson membershipChange(Bson change) {
+    return Updates.combine(change, Updates.currentDate(LAST_ACTIVITY_KEY), Updates.inc(VERSION_KEY, 1));
+  }
+
+  /**
+   * Find the ID of the lobby with the join code in the `code` path parameter.
+   * Codes that aren't in `joinCodes` are looked up in the database.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the lobby ID
+   */
+  private ObjectId lobbyIdForCode(Context ctx) {
+    String code = ctx.pathParam("code");
+    int parsed = parseJoinCode(code);
+    if (parsed < 0) {
+      throw new BadRequestResponse("Join codes are " + JOIN_CODE_DIGITS + " digits; the requested code was " + code);
+    }
+    String id = joinCodes.get(parsed);
+    if (id == null) {
+      Lobby lobby = lobbyCollection.find(eq(JOIN_CODE_KEY, code)).projection(Projections.include("_id")).first();
+      id = lobby == null ? null : lobby._id;
+    }
+    if (id == null) {
+      throw new NotFoundResponse("No lobby has the join code " + code);
+    }
+    return new ObjectId(id);
+  }
+
+  /**
+   * Insert a new lobby, giving it a join code no other lobby has.
+   *
+   * Codes come from `joinCodes`, so they won't collide with any code we
+   * know about. The unique index on `joinCode` catches any we don't (say,
+   * before `joinCodes` has been loaded), in which case we try another.
+   *
+   * @param lobby the lobby to insert; it must already have an ID
+   */
+  private void insertWithJoinCode(Lobby lobby) {
+    MongoWriteException duplicate = null;
+    for (int attempt = 0; attempt < MAX_JOIN_CODE_ATTEMPTS; attempt++) {
+      int code = allocateJoinCode(lobby._id);
+      lobby.joinCode = formatJoinCode(code);
+      try {
+        lobbyCollection.insertOne(lobby);
+        return;
+      } catch (MongoWriteException e) {
+        joinCodes.remove(code);
+        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+          throw e;
+        }
+        duplicate = e;
+      } catch (RuntimeException e) {
+        joinCodes.remove(code);
+        throw e;
+      }
+    }
+    throw duplicate;
+  }
+
+  /**
+   * Reserve a random, unused join code for a lobby.
+   *
+   * @param lobbyId the ID of the lobby
+   * @return the join code
+   */
+  private int allocateJoinCode(String lobbyId) {
+    for (int attempt = 0; attempt < MAX_JOIN_CODE_ATTEMPTS; attempt++) {
+      int code = ThreadLocalRandom.current().nextInt(JOIN_CODE_LIMIT);
+      if (joinCodes.putIfAbsent(code, lobbyId)) {
+        return code;
+      }
+    }
+    throw new ServiceUnavailableResponse("Couldn't find a free join code; please try again later");
+  }
+
+  /**
+   * (Re)load `joinCodes` from the database. Until this has run, looking
+   * up a code falls back to the database.
+   */
+  void loadJoinCodes() {
+    for (Lobby lobby : lobbyCollection.find(exists(JOIN_CODE_KEY)).projection(Projections.include(JOIN_CODE_KEY))) {
+      int code = parseJoinCode(lobby.joinCode);
+      if (code >= 0) {
+        joinCodes.putIfAbsent(code, lobby._id);
+      }
+    }
+  }
+
+  /**
+   * Give every lobby that doesn't have a join code (because it was made
+   * before we had them) a new one.
+   */
+  private void backfillJoinCodes() {
+    loadJoinCodes();
+    for (Lobby lobby : lobbyCollection.find(eq(JOIN_CODE_KEY, null))
+        .projection(Projections.include("_id"))
+        .into(new ArrayList<>())) {
+      int code = allocateJoinCode(lobby._id);
+      lobbyCollection.updateOne(eq("_id", new ObjectId(lobby._id)), Updates.set(JOIN_CODE_KEY, formatJoinCode(code)));
+    }
+  }
+
+  /**
+   * Turn a join code like "004217" into a number.
+   *
+   * @param code the join code
+   * @return the code as a number, or -1 if it isn't a legal code
+   */
+  static int parseJoinCode(String code) {
+    return code != null && JOIN_CODE_PATTERN.matcher(code).matches() ? Integer.parseInt(code) : -1;
+  }
+
+  /**
+   * Turn a join code number into the string players type in.
+   *
+   * @param code the code as a number
+   * @return the join code, padded with zeros to `JOIN_CODE_DIGITS` digits
+   */
+  static String formatJoinCode(int code) {
+    return String.format("%0" + JOIN_CODE_DIGITS + "d", code);
+  }
+
+  /**
+   * Get the lobby ID from the `id` path parameter.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the lobby ID
+   */
+  private static ObjectId lobbyObjectId(Context ctx) {
+    try {
+      return new ObjectId(ctx.pathParam("id"));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested lobby id wasn't a legal Mongo Object ID.");
+    }
+  }
+
+  /**
+   * Declare the indexes used by the queries in this controller.
+   *
+   * Listings are sorted by `lobbyName` (and then `_id`) by default, so
+   * this index lets them, and pages of them, be read in order straight
+   * out of the index.
+   *
+   * @param registry the registry to add the indexes to
+   */
+  @Override
+  public void registerIndexes(IndexRegistry registry) {
+    registry.register("lobbies", "lobbies_lobbyName", new Document(NAME_KEY, 1).append("_id", 1));
+    registry.register("lobbies", "lobbies_lobbyNameKey", new Document(NAME_SEARCH_KEY, 1).append("_id", 1));
+    // Only lobbies that have a join code are in this index, so older
+    // lobbies without one don't all collide on `null`.
+    registry.register("lobbies", new Document(JOIN_CODE_KEY, 1), new IndexOptions()
+      .name("lobbies_joinCode")
+      .unique(true)
+      .partialFilterExpression(exists(JOIN_CODE_KEY)));
+    registry.registerBackfill("lobbies." + NAME_SEARCH_KEY,
+      () -> SearchKeys.backfill(lobbyCollection.withDocumentClass(Document.class), NAME_KEY, NAME_SEARCH_KEY));
+    // `$addToSet` can't add to a `null` array, so give older lobbies an empty one.
+    registry.registerBackfill("lobbies." + USER_IDS_KEY,
+      () -> lobbyCollection.updateMany(eq(USER_IDS_KEY, null), Updates.set(USER_IDS_KEY, List.of())));
+    registry.registerBackfill("lobbies." + JOIN_CODE_KEY, this::backfillJoinCodes);
+    // Lets MongoDB expire idle lobbies itself if the reaper isn't running,
+    // and the reaper find them quickly when it is.
+    registry.register("lobbies", new Document(LAST_ACTIVITY_KEY, 1), new IndexOptions()
+      .name("lobbies_lastActivity")
+      .expireAfter(LOBBY_IDLE_TIMEOUT.plus(LOBBY_TTL_GRACE).toSeconds(), TimeUnit.SECONDS));
+    // Lobbies from before we tracked activity count as active now, rather than never expiring.
+    registry.registerBackfill("lobbies." + LAST_ACTIVITY_KEY,
+      () -> lobbyCollection.updateMany(eq(LAST_ACTIVITY_KEY, null), Updates.currentDate(LAST_ACTIVITY_KEY)));
+  }
+
+  /**
+   * Load the lobby name trigram index and the join codes as the server
+   * starts up: straight from the journal if there is one, and otherwise
+   * from the database in the background (until they're loaded, name
+   * searches and join code lookups fall back to the database). This also
+   * starts the round timers, and the reaper that deletes idle lobbies.
+   */
+  @Override
+  public void start() {
+    if (journal != null) {
+      loadFromJournal();
+    } else {
+      warmNameIndexInBackground();
+      Thread.startVirtualThread(this::loadJoinCodes);
+    }
+    timers.start();
+    timers.schedule(REAP_INTERVAL, this::reapAndReschedule);
+  }
+
+  /**
+   * Stop the round timers and the reaper as the server shuts down, push
+   * any changes that are still waiting, and snapshot the journal.
+   */
+  @Override
+  public void stop() {
+    matchmaker.cancelAll();
+    timers.close();
+    updates.flushAll();
+    if (journal != null) {
+      journal.close();
+    }
+  }
 
   /**
    * Sets up routes for the `lobby` collection endpoints.
@@ -294,9 +1466,12 @@ public class LobbyController implements Controller {
    * These endpoints are:
    *   - `GET /api/lobbies/:id`
    *       - Get the specified lobby
-   *   - `GET /api/lobbies?age=NUMBER&company=STRING&name=STRING`
+   *   - `GET /api/lobbies?lobbyName=STRING`
    *      - List lobbies, filtered using query parameters
-   *      - `age`, `company`, and `name` are optional query parameters
+   *      - `lobbyName` is an optional query parameter
+   *      - `match=exact|prefix` makes `lobbyName` an indexed, case- and accent-insensitive match
+   *      - `limit` (and `after`) return a single page of lobbies instead
+   *      - `stream=true` streams the lobbies as newline-delimited JSON
    *   - `GET /api/lobbiesByCompany`
    *     - Get lobby names and IDs, possibly filtered, grouped by company
    *   - `DELETE /api/lobbies/:id`
@@ -304,6 +1479,24 @@ public class LobbyController implements Controller {
    *   - `POST /api/lobbies`
    *      - Create a new lobby
    *      - The lobby info is in the JSON body of the HTTP request
+   *   - `POST /api/lobbies/:id/users`
+   *      - Add a user (the `userID` in the JSON body) to the specified lobby
+   *   - `DELETE /api/lobbies/:id/users/:userId`
+   *      - Remove the specified user from the specified lobby
+   *   - `WS /api/lobbies/:id/ws`
+   *      - A WebSocket that pushes changes to the specified lobby as they happen
+   *   - `GET /api/lobbies/events`
+   *      - A Server-Sent Events stream of changes to all the lobbies
+   *   - `GET /api/lobbies/code/:code`
+   *      - Get the lobby with the specified 6-digit join code
+   *   - `POST /api/lobbies/code/:code/users`
+   *      - Add a user (the `userID` in the JSON body) to the lobby with the specified join code
+   *   - `POST /api/lobbies/:id/round?seconds=NUMBER`
+   *      - Start a timed round in the specified lobby
+   *   - `DELETE /api/lobbies/:id/round`
+   *      - Cancel the round running in the specified lobby
+   *   - `POST /api/matchmaking`
+   *      - Put a user (the `userID` in the JSON body) in any lobby with room
    *
    * GROUPS SHOULD CREATE THEIR OWN CONTROLLERS THAT IMPLEMENT THE
    * `Controller` INTERFACE FOR WHATEVER DATA THEY'RE WORKING WITH.
@@ -316,6 +1509,10 @@ public class LobbyController implements Controller {
    */
   @Override
   public void addRoutes(Javalin server) {
+    // Stream changes to all the lobbies to Server-Sent Events clients. This
+    // has to come before `API_LOBBY_BY_ID`, or "events" would be taken as an ID.
+    server.sse(API_LOBBY_EVENTS, this::onLobbyEventsConnect);
+
     // Get the specified lobby
     server.get(API_LOBBY_BY_ID, this::getLobby);
 
@@ -331,5 +1528,27 @@ public class LobbyController implements Controller {
 
     // Delete the specified lobby
     server.delete(API_LOBBY_BY_ID, this::deleteLobby);
+
+    // Add a user to, or remove a user from, the specified lobby
+    server.post(API_LOBBY_USERS, this::joinLobby);
+    server.delete(API_LOBBY_USER, this::leaveLobby);
+
+    // Get, or join, the lobby with the specified join code
+    server.get(API_LOBBY_BY_CODE, this::getLobbyByCode);
+    server.post(API_LOBBY_USERS_BY_CODE, this::joinLobbyByCode);
+
+    // Start, or cancel, a timed round in the specified lobby
+    server.post(API_LOBBY_ROUND, this::startRound);
+    server.delete(API_LOBBY_ROUND, this::cancelRound);
+
+    // Put a user in any lobby with room
+    server.post(API_MATCHMAKING, this::findMatch);
+
+    // Push changes to the specified lobby to WebSocket clients
+    server.ws(API_LOBBY_SOCKET, ws -> {
+      ws.onConnect(this::onLobbySocketConnect);
+      ws.onClose(this::onLobbySocketClose);
+      ws.onError(this::onLobbySocketClose);
+    });
   }
 }
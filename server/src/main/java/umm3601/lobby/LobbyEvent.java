@@ -0,0 +1,34 @@
+package umm3601.lobby;
+
+/**
+ * A change to a lobby, as pushed to clients watching it.
+ *
+ * `type` says what happened (one of the constants below), and `lobby` is
+ * the lobby as it is after the change. For `deleted` events `lobby` is
+ * `null`, since there's no lobby any more, so the lobby's ID is also
+ * given separately in `lobbyId`. (`roundEnded` events don't carry the
+ * lobby either, since the lobby itself hasn't changed.) `version` is the
+ * lobby's `version`, or 0 for events without a lobby.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class LobbyEvent {
+  // The current state of a lobby, sent when a client first connects.
+  public static final String SNAPSHOT = "snapshot";
+  public static final String CREATED = "created";
+  public static final String UPDATED = "updated";
+  public static final String DELETED = "deleted";
+  // The time is up for the round being played in a lobby.
+  public static final String ROUND_ENDED = "roundEnded";
+
+  public String type;
+  public String lobbyId;
+  public Lobby lobby;
+  public long version;
+
+  public LobbyEvent(String type, String lobbyId, Lobby lobby) {
+    this.type = type;
+    this.lobbyId = lobbyId;
+    this.lobby = lobby;
+    this.version = lobby == null ? 0 : lobby.version;
+  }
+}
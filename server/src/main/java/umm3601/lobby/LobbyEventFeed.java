@@ -0,0 +1,237 @@
+package umm3601.lobby;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.javalin.http.sse.SseClient;
+import io.javalin.json.JavalinJackson;
+import io.javalin.json.JsonMapper;
+
+/**
+ * A Server-Sent Events feed of every change to every lobby, so the lobby
+ * browser can hold one cheap connection open instead of re-downloading
+ * the whole lobby list to find new games.
+ *
+ * Each event has an ID, which browsers send back (as `Last-Event-ID`)
+ * when they reconnect. We keep the most recent events in a replay buffer,
+ * so a client that reconnects gets exactly the events it missed. If it
+ * missed too many (or the server restarted in the meantime) it gets a
+ * `reset` event instead, telling it to fetch the whole list again.
+ *
+ * Events are serialized once, and then queued for each client. Each
+ * client has a bounded queue drained by its own virtual thread, so a slow
+ * client never holds up publishing. A client that falls so far behind
+ * that its queue fills up is disconnected; when it reconnects it will
+ * catch up from the replay buffer (or be told to reset).
+ */
+public class LobbyEventFeed {
+
+  // Tells a client to throw away what it knows and fetch the lobby list again.
+  public static final String RESET = "reset";
+  static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+  static final int DEFAULT_REPLAY_SIZE = 1024;
+  static final int DEFAULT_CLIENT_BUFFER_SIZE = 256;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LobbyEventFeed.class);
+
+  /**
+   * An event, ready to send.
+   *
+   * @param sequence where this event falls in the order of all events
+   * @param type the type of event (e.g., `created`)
+   * @param data the event, as JSON
+   */
+  private record Entry(long sequence, String type, String data) {
+  }
+
+  // Event IDs are `<epoch>-<sequence>`. The epoch changes every time the
+  // server starts, so we can tell when a client's `Last-Event-ID` is from
+  // before a restart, and means nothing to us.
+  private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+  private final int replaySize;
+  private final int clientBufferSize;
+  private final JsonMapper jsonMapper;
+
+  // `replay` and `sequence` are guarded by `this`.
+  private final Deque<Entry> replay = new ArrayDeque<>();
+  private long sequence;
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Construct a feed with the default replay and per-client buffer sizes.
+   */
+  public LobbyEventFeed() {
+    this(DEFAULT_REPLAY_SIZE, DEFAULT_CLIENT_BUFFER_SIZE, new JavalinJackson());
+  }
+
+  /**
+   * Construct a feed.
+   *
+   * @param replaySize how many recent events to keep for clients that reconnect
+   * @param clientBufferSize how many events can be waiting to be sent to a client
+   * @param jsonMapper the mapper used to turn events into JSON
+   */
+  public LobbyEventFeed(int replaySize, int clientBufferSize, JsonMapper jsonMapper) {
+    if (replaySize < 1 || clientBufferSize < 1) {
+      throw new IllegalArgumentException("The replay and client buffer sizes must be positive");
+    }
+    this.replaySize = replaySize;
+    this.clientBufferSize = clientBufferSize;
+    this.jsonMapper = jsonMapper;
+  }
+
+  /**
+   * The number of clients currently connected.
+   *
+   * @return the number of connected clients
+   */
+  public int subscriberCount() {
+    return subscribers.size();
+  }
+
+  /**
+   * Send an event to every connected client (and remember it, for any that
+   * reconnect later).
+   *
+   * @param event the event to send
+   */
+  public void publish(LobbyEvent event) {
+    String data = jsonMapper.toJsonString(event, LobbyEvent.class);
+    Entry entry;
+    synchronized (this) {
+      entry = new Entry(++sequence, event.type, data);
+      replay.addLast(entry);
+      if (replay.size() > replaySize) {
+        replay.removeFirst();
+      }
+      // Offering while holding the lock means a client that's connecting
+      // right now gets this event either in its replay or here, never both.
+      for (Subscriber subscriber : subscribers) {
+        subscriber.offer(entry);
+      }
+    }
+  }
+
+  /**
+   * Connect a new client to the feed, replaying anything it missed if it's
+   * reconnecting.
+   *
+   * @param client the client's SSE connection
+   */
+  public void connect(SseClient client) {
+    String lastEventId = client.ctx().header(LAST_EVENT_ID_HEADER);
+    Subscriber subscriber = new Subscriber(client);
+    client.onClose(() -> disconnect(subscriber));
+    client.keepAlive();
+
+    synchronized (this) {
+      List<Entry> missed = missedEvents(lastEventId);
+      if (missed == null) {
+        subscriber.offer(new Entry(sequence, RESET, "{}"));
+      } else {
+        missed.forEach(subscriber::offer);
+      }
+      subscribers.add(subscriber);
+    }
+    subscriber.start();
+  }
+
+  /**
+   * Find the events that came after `lastEventId`.
+   *
+   * @return the events the client missed, or `null` if we can't tell
+   *   which it missed (so it needs to reset)
+   */
+  private List<Entry> missedEvents(String lastEventId) {
+    if (lastEventId == null) {
+      // A brand new client; it will fetch the list itself.
+      return List.of();
+    }
+    String[] parts = lastEventId.split("-", 2);
+    if (parts.length != 2 || !parts[0].equals(epoch)) {
+      return null;
+    }
+    long lastSeen;
+    try {
+      lastSeen = Long.parseLong(parts[1]);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    long oldestKept = replay.isEmpty() ? sequence + 1 : replay.peekFirst().sequence();
+    if (lastSeen > sequence || lastSeen + 1 < oldestKept || sequence - lastSeen > clientBufferSize) {
+      return null;
+    }
+    List<Entry> missed = new ArrayList<>();
+    for (Entry entry : replay) {
+      if (entry.sequence() > lastSeen) {
+        missed.add(entry);
+      }
+    }
+    return missed;
+  }
+
+  private void disconnect(Subscriber subscriber) {
+    subscribers.remove(subscriber);
+    subscriber.stop();
+  }
+
+  /**
+   * One connected client, with its queue of events waiting to be sent and
+   * the (virtual) thread that sends them.
+   */
+  private final class Subscriber {
+    private final SseClient client;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(clientBufferSize);
+    private volatile Thread sender;
+    private volatile boolean stopped;
+
+    Subscriber(SseClient client) {
+      this.client = client;
+    }
+
+    void offer(Entry entry) {
+      if (!stopped && !queue.offer(entry)) {
+        LOGGER.info("Disconnecting a lobby event client that fell more than {} events behind", clientBufferSize);
+        stopped = true;
+        // Closing fires `onClose`, which removes this subscriber.
+        Thread.startVirtualThread(client::close);
+      }
+    }
+
+    void start() {
+      sender = Thread.startVirtualThread(this::send);
+    }
+
+    void stop() {
+      stopped = true;
+      Thread thread = sender;
+      if (thread != null) {
+        thread.interrupt();
+      }
+    }
+
+    private void send() {
+      try {
+        while (!stopped) {
+          Entry entry = queue.take();
+          client.sendEvent(entry.type(), entry.data(), epoch + "-" + entry.sequence());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        LOGGER.debug("Couldn't send a lobby event", e);
+        client.close();
+      }
+    }
+  }
+}
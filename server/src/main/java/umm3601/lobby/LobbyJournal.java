@@ -0,0 +1,433 @@
+package umm3601.lobby;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import umm3601.eventlog.SegmentLog;
+
+/**
+ * A journal of the changes to lobbies (created, joined, left, deleted),
+ * kept as small binary events in a memory-mapped `SegmentLog`, along
+ * with the in-memory state those events add up to.
+ *
+ * Every so often the state is written out as a snapshot, and the log
+ * segments it covers are deleted. When the server starts up, it reads
+ * the snapshot and replays the events since, which gets the lobbies back
+ * (e.g., to fill the name index and the join code table) in a few
+ * milliseconds, without reading the whole `lobbies` collection.
+ *
+ * The `lobbies` collection is still the source of truth: the journal
+ * records each change after it has been made there, and if the two ever
+ * disagree, the journal is rebuilt from the database with `seed`.
+ */
+public class LobbyJournal implements AutoCloseable {
+
+  // The kinds of events, as they're stored.
+  static final byte CREATED = 1;
+  static final byte JOINED = 2;
+  static final byte LEFT = 3;
+  static final byte DELETED = 4;
+
+  // How many events we record between snapshots.
+  public static final int DEFAULT_SNAPSHOT_INTERVAL = 10_000;
+  static final String SNAPSHOT_FILE = "snapshot.bin";
+  // "LOBJ", so we don't mistake some other file for a snapshot.
+  private static final int SNAPSHOT_MAGIC = 0x4C4F424A;
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final int OBJECT_ID_LENGTH = 12;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LobbyJournal.class);
+
+  private final Path directory;
+  private final SegmentLog log;
+  private final int snapshotInterval;
+
+  // The lobbies, by ID, as of the last event recorded.
+  private final Map<String, MutableLobby> lobbies = new HashMap<>();
+  private boolean hasHistory;
+  private int eventsSinceSnapshot;
+  private final AtomicBoolean snapshotting = new AtomicBoolean();
+  // Held while a snapshot is taken and written, so snapshots are written
+  // in order (and a newer one is never replaced by an older one).
+  private final Object snapshotLock = new Object();
+
+  /**
+   * The state of one lobby while the journal is keeping track of it.
+   */
+  private static final class MutableLobby {
+    private final String lobbyName;
+    private final int capacity;
+    private final int joinCode;
+    private final Set<String> userIds = new LinkedHashSet<>();
+
+    MutableLobby(String lobbyName, int capacity, int joinCode) {
+      this.lobbyName = lobbyName;
+      this.capacity = capacity;
+      this.joinCode = joinCode;
+    }
+
+    JournaledLobby freeze() {
+      return new JournaledLobby(lobbyName, capacity, joinCode, userIds);
+    }
+  }
+
+  private LobbyJournal(Path directory, SegmentLog log, int snapshotInterval) {
+    this.directory = directory;
+    this.log = log;
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /**
+   * Open the journal in `directory` (creating it if need be), and recover
+   * the lobbies from its latest snapshot and the events since.
+   *
+   * @param directory the directory holding the snapshot and the log
+   * @return the opened journal
+   * @throws IOException if the journal can't be read or created
+   */
+  public static LobbyJournal open(Path directory) throws IOException {
+    return open(directory, SegmentLog.DEFAULT_SEGMENT_SIZE, DEFAULT_SNAPSHOT_INTERVAL);
+  }
+
+  /**
+   * Open the journal in `directory`, with the given segment size and
+   * snapshot interval.
+   *
+   * @param directory the directory holding the snapshot and the log
+   * @param segmentSize how big to make each log segment
+   * @param snapshotInterval how many events to record between snapshots
+   * @return the opened journal
+   * @throws IOException if the journal can't be read or created
+   */
+  static LobbyJournal open(Path directory, int segmentSize, int snapshotInterval) throws IOException {
+    if (snapshotInterval <= 0) {
+      throw new IllegalArgumentException("The snapshot interval must be positive; it was " + snapshotInterval);
+    }
+    LobbyJournal journal = new LobbyJournal(directory, SegmentLog.open(directory, segmentSize), snapshotInterval);
+    journal.recover();
+    return journal;
+  }
+
+  private void recover() throws IOException {
+    long start = System.nanoTime();
+    long fromSequence = 0;
+    Path snapshot = directory.resolve(SNAPSHOT_FILE);
+    if (Files.exists(snapshot)) {
+      fromSequence = readSnapshot(snapshot);
+      hasHistory = true;
+    }
+    int[] replayed = new int[1];
+    log.replay(fromSequence, (sequence, event) -> {
+      apply(event);
+      replayed[0]++;
+    });
+    hasHistory |= replayed[0] > 0;
+    eventsSinceSnapshot = replayed[0];
+    LOGGER.info("Recovered {} lobbies from the journal ({} events replayed) in {} ms",
+      lobbies.size(), replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Whether the journal has recorded anything yet. A journal without any
+   * history needs to be `seed`ed from the database before it can be trusted.
+   *
+   * @return `true` if there's a snapshot or any events
+   */
+  public synchronized boolean hasHistory() {
+    return hasHistory;
+  }
+
+  /**
+   * The lobbies, as of the last event recorded.
+   *
+   * @return a copy of the lobbies, by ID
+   */
+  public synchronized Map<String, JournaledLobby> lobbies() {
+    Map<String, JournaledLobby> copy = new HashMap<>();
+    lobbies.forEach((id, lobby) -> copy.put(id, lobby.freeze()));
+    return copy;
+  }
+
+  /**
+   * Record that a lobby was created.
+   *
+   * @param lobby the new lobby
+   */
+  public void created(Lobby lobby) {
+    byte[] name = lobby.lobbyName.getBytes(StandardCharsets.UTF_8);
+    List<byte[]> users = new ArrayList<>();
+    int length = Integer.BYTES + name.length + Integer.BYTES * 3;
+    if (lobby.userIDs != null) {
+      for (String userId : lobby.userIDs) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        users.add(user);
+        length += Integer.BYTES + user.length;
+      }
+    }
+    ByteBuffer event = event(CREATED, lobby._id, length);
+    event.putInt(name.length).put(name);
+    event.putInt(lobby.capacity);
+    event.putInt(LobbyController.parseJoinCode(lobby.joinCode));
+    event.putInt(users.size());
+    for (byte[] user : users) {
+      event.putInt(user.length).put(user);
+    }
+    record(event);
+  }
+
+  /**
+   * Record that a user joined a lobby.
+   *
+   * @param lobbyId the ID of the lobby
+   * @param userId the ID of the user
+   */
+  public void joined(String lobbyId, String userId) {
+    record(userEvent(JOINED, lobbyId, userId));
+  }
+
+  /**
+   * Record that a user left a lobby.
+   *
+   * @param lobbyId the ID of the lobby
+   * @param userId the ID of the user
+   */
+  public void left(String lobbyId, String userId) {
+    record(userEvent(LEFT, lobbyId, userId));
+  }
+
+  /**
+   * Record that a lobby was deleted.
+   *
+   * @param lobbyId the ID of the lobby
+   */
+  public void deleted(String lobbyId) {
+    record(event(DELETED, lobbyId, 0));
+  }
+
+  /**
+   * Replace everything in the journal with the given lobbies (e.g., as
+   * read from the database), and snapshot them straight away.
+   *
+   * @param seed the lobbies to start from
+   */
+  public void seed(Iterable<Lobby> seed) {
+    synchronized (this) {
+      lobbies.clear();
+      for (Lobby lobby : seed) {
+        MutableLobby state = new MutableLobby(
+          lobby.lobbyName, lobby.capacity, LobbyController.parseJoinCode(lobby.joinCode));
+        if (lobby.userIDs != null) {
+          state.userIds.addAll(Arrays.asList(lobby.userIDs));
+        }
+        lobbies.put(lobby._id, state);
+      }
+      hasHistory = true;
+    }
+    snapshot();
+  }
+
+  /**
+   * Write the current state out as a snapshot, and then delete the log
+   * segments it makes unnecessary.
+   */
+  public void snapshot() {
+    synchronized (snapshotLock) {
+      Map<String, JournaledLobby> state;
+      long sequence;
+      synchronized (this) {
+        state = lobbies();
+        sequence = log.nextSequence();
+        eventsSinceSnapshot = 0;
+      }
+      try {
+        writeSnapshot(state, sequence);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      log.deleteBefore(sequence);
+    }
+  }
+
+  /**
+   * Snapshot the journal, and make sure everything is on disk.
+   */
+  @Override
+  public void close() {
+    snapshot();
+    log.close();
+  }
+
+  private void record(ByteBuffer event) {
+    boolean snapshotDue;
+    synchronized (this) {
+      // Appending and applying together keeps the log in the same order as the state.
+      log.append(event.array());
+      event.flip();
+      apply(event);
+      hasHistory = true;
+      snapshotDue = ++eventsSinceSnapshot >= snapshotInterval;
+    }
+    if (snapshotDue && snapshotting.compareAndSet(false, true)) {
+      Thread.startVirtualThread(() -> {
+        try {
+          snapshot();
+        } catch (RuntimeException e) {
+          LOGGER.error("Couldn't snapshot the lobby journal", e);
+        } finally {
+          snapshotting.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Update the state with one event.
+   */
+  private void apply(ByteBuffer event) {
+    byte type = event.get();
+    String lobbyId = readObjectId(event);
+    switch (type) {
+      case CREATED -> {
+        MutableLobby lobby = new MutableLobby(readString(event), event.getInt(), event.getInt());
+        for (int users = event.getInt(); users > 0; users--) {
+          lobby.userIds.add(readString(event));
+        }
+        lobbies.put(lobbyId, lobby);
+      }
+      case JOINED -> {
+        MutableLobby lobby = lobbies.get(lobbyId);
+        if (lobby != null) {
+          lobby.userIds.add(readString(event));
+        }
+      }
+      case LEFT -> {
+        MutableLobby lobby = lobbies.get(lobbyId);
+        if (lobby != null) {
+          lobby.userIds.remove(readString(event));
+        }
+      }
+      case DELETED -> lobbies.remove(lobbyId);
+      default -> throw new IllegalStateException("Unknown lobby journal event type " + type);
+    }
+  }
+
+  /**
+   * Start an event: its type and lobby ID, with room for `bodyLength`
+   * more bytes.
+   */
+  private static ByteBuffer event(byte type, String lobbyId, int bodyLength) {
+    ByteBuffer event = ByteBuffer.allocate(1 + OBJECT_ID_LENGTH + bodyLength);
+    event.put(type).put(new ObjectId(lobbyId).toByteArray());
+    return event;
+  }
+
+  private static ByteBuffer userEvent(byte type, String lobbyId, String userId) {
+    byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer event = event(type, lobbyId, Integer.BYTES + user.length);
+    event.putInt(user.length).put(user);
+    return event;
+  }
+
+  private static String readObjectId(ByteBuffer event) {
+    byte[] id = new byte[OBJECT_ID_LENGTH];
+    event.get(id);
+    return new ObjectId(id).toHexString();
+  }
+
+  private static String readString(ByteBuffer event) {
+    byte[] bytes = new byte[event.getInt()];
+    event.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write a snapshot to a temporary file, and then move it into place,
+   * so there's always one complete snapshot, even if we crash part way.
+   */
+  private void writeSnapshot(Map<String, JournaledLobby> state, long sequence) throws IOException {
+    Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeLong(sequence);
+      out.writeInt(state.size());
+      for (Map.Entry<String, JournaledLobby> entry : state.entrySet()) {
+        JournaledLobby lobby = entry.getValue();
+        out.write(new ObjectId(entry.getKey()).toByteArray());
+        writeString(out, lobby.lobbyName());
+        out.writeInt(lobby.capacity());
+        out.writeInt(lobby.joinCode());
+        out.writeInt(lobby.userIds().size());
+        for (String userId : lobby.userIds()) {
+          writeString(out, userId);
+        }
+      }
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+      StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read the lobbies in a snapshot into the state.
+   *
+   * @return the number of the first event the snapshot doesn't cover
+   */
+  private long readSnapshot(Path snapshot) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        throw new IOException(snapshot + " isn't a lobby journal snapshot we can read");
+      }
+      long sequence = in.readLong();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        byte[] id = new byte[OBJECT_ID_LENGTH];
+        in.readFully(id);
+        MutableLobby lobby = new MutableLobby(readString(in), in.readInt(), in.readInt());
+        int users = in.readInt();
+        for (int j = 0; j < users; j++) {
+          lobby.userIds.add(readString(in));
+        }
+        lobbies.put(new ObjectId(id).toHexString(), lobby);
+      }
+      return sequence;
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,123 @@
+package umm3601.lobby;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import umm3601.timer.TimingWheel;
+
+/**
+ * Collects the changes to each lobby over a short window, and then sends
+ * them on together, merged where possible.
+ *
+ * A burst of players joining the same lobby would otherwise mean one
+ * push to every member per join. Since each `updated` event carries the
+ * whole lobby as it is after the change, a run of `updated` events (or a
+ * `created` followed by `updated`s) can be merged into just the newest
+ * one. Concurrent changes can be submitted out of order, so "newest" is
+ * the one with the highest lobby `version`, not the last one submitted.
+ * So however busy a lobby gets, its members get at most a handful of
+ * messages per window. Other events (e.g., `deleted` and `roundEnded`)
+ * are kept, in order.
+ *
+ * The first change to a lobby starts its window (using the timing wheel),
+ * so quiet lobbies cost nothing. With a window of zero, events are sent on
+ * immediately.
+ */
+public class LobbyUpdateCoalescer {
+
+  private final Duration window;
+  private final TimingWheel timers;
+  private final Consumer<LobbyEvent> sink;
+
+  // The events waiting to be sent, by lobby ID.
+  private final Map<String, List<LobbyEvent>> pending = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a coalescer.
+   *
+   * @param window how long to collect changes to a lobby before sending them
+   * @param timers the timing wheel used to end each window
+   * @param sink where the merged events are sent
+   */
+  public LobbyUpdateCoalescer(Duration window, TimingWheel timers, Consumer<LobbyEvent> sink) {
+    if (window.isNegative()) {
+      throw new IllegalArgumentException("The coalescing window can't be negative; it was " + window);
+    }
+    this.window = window;
+    this.timers = timers;
+    this.sink = sink;
+  }
+
+  /**
+   * Add a change to its lobby's window, starting the window if there
+   * isn't one open.
+   *
+   * @param event the change
+   */
+  public void submit(LobbyEvent event) {
+    if (window.isZero()) {
+      sink.accept(event);
+      return;
+    }
+    boolean[] opened = new boolean[1];
+    pending.compute(event.lobbyId, (lobbyId, events) -> {
+      if (events == null) {
+        events = new ArrayList<>();
+        opened[0] = true;
+      }
+      merge(events, event);
+      return events;
+    });
+    if (opened[0]) {
+      timers.schedule(window, () -> flush(event.lobbyId));
+    }
+  }
+
+  /**
+   * Send everything that's waiting, without waiting for the windows to
+   * close (e.g., when the server is shutting down).
+   */
+  public void flushAll() {
+    for (String lobbyId : pending.keySet()) {
+      flush(lobbyId);
+    }
+  }
+
+  /**
+   * The number of lobbies with changes waiting to be sent.
+   *
+   * @return the number of lobbies with open windows
+   */
+  public int pendingLobbies() {
+    return pending.size();
+  }
+
+  private void flush(String lobbyId) {
+    List<LobbyEvent> events = pending.remove(lobbyId);
+    if (events != null) {
+      events.forEach(sink);
+    }
+  }
+
+  /**
+   * Add `event` to `events`, merging it into the last event if it's an
+   * update that follows it. The merged event carries whichever of the two
+   * lobbies has the higher `version`.
+   */
+  private static void merge(List<LobbyEvent> events, LobbyEvent event) {
+    if (LobbyEvent.UPDATED.equals(event.type) && !events.isEmpty()) {
+      LobbyEvent last = events.get(events.size() - 1);
+      if (LobbyEvent.UPDATED.equals(last.type) || LobbyEvent.CREATED.equals(last.type)) {
+        Lobby newest = event.version >= last.version ? event.lobby : last.lobby;
+        // Still a `created` if the lobby is new, but with its latest state.
+        events.set(events.size() - 1, new LobbyEvent(last.type, last.lobbyId, newest));
+        return;
+      }
+    }
+    events.add(event);
+  }
+}
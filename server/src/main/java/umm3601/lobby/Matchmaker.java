@@ -0,0 +1,200 @@
+package umm3601.lobby;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import umm3601.timer.TimingWheel;
+
+/**
+ * A queue of players waiting to be put in a lobby, which hands them out
+ * to be placed in batches, once per tick.
+ *
+ * Players are added to a lock-free queue, so a rush of thousands of them
+ * never waits on a lock. The first player to arrive starts a tick (using
+ * the timing wheel), and when it's up, up to `maxBatch` of the waiting
+ * players are handed to the placer together. Placing a whole batch at
+ * once means one database write per lobby per tick, rather than one per
+ * player all fighting over the same lobby document. If there are still
+ * players waiting after a batch, another tick starts straight away, so
+ * no one waits longer than a few ticks.
+ *
+ * Only one batch is being placed at a time, so the placer doesn't need
+ * to be thread-safe.
+ */
+public class Matchmaker {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Matchmaker.class);
+
+  /**
+   * A player waiting in the queue, and the lobby they'll be put in.
+   */
+  public static final class Ticket {
+    private final String userId;
+    private final CompletableFuture<Lobby> lobby = new CompletableFuture<>();
+
+    Ticket(String userId) {
+      this.userId = userId;
+    }
+
+    /**
+     * The ID of the player.
+     *
+     * @return the player's user ID
+     */
+    public String userId() {
+      return userId;
+    }
+
+    /**
+     * Complete this ticket with the lobby the player was put in.
+     *
+     * @param placed the lobby
+     */
+    public void place(Lobby placed) {
+      lobby.complete(placed);
+    }
+
+    /**
+     * Complete this ticket with the reason the player couldn't be placed.
+     *
+     * @param error what went wrong
+     */
+    public void fail(Throwable error) {
+      lobby.completeExceptionally(error);
+    }
+
+    /**
+     * Whether the player has been placed, given up waiting, or failed.
+     *
+     * @return `true` if this ticket is finished with
+     */
+    public boolean isDone() {
+      return lobby.isDone();
+    }
+  }
+
+  private final Duration tick;
+  private final int maxBatch;
+  private final int maxQueued;
+  private final TimingWheel timers;
+  private final Consumer<List<Ticket>> placer;
+
+  private final Queue<Ticket> queue = new ConcurrentLinkedQueue<>();
+  // `ConcurrentLinkedQueue.size()` walks the whole queue, so we count.
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * Construct a matchmaker.
+   *
+   * @param tick how long to collect players before placing them
+   * @param maxBatch the most players to place in one tick
+   * @param maxQueued the most players that can be waiting at once
+   * @param timers the timing wheel used to end each tick
+   * @param placer puts a batch of players in lobbies, completing their tickets
+   */
+  public Matchmaker(Duration tick, int maxBatch, int maxQueued, TimingWheel timers, Consumer<List<Ticket>> placer) {
+    if (maxBatch <= 0 || maxQueued <= 0) {
+      throw new IllegalArgumentException("The batch size and queue limit must be positive");
+    }
+    this.tick = tick;
+    this.maxBatch = maxBatch;
+    this.maxQueued = maxQueued;
+    this.timers = timers;
+    this.placer = placer;
+  }
+
+  /**
+   * Add a player to the queue.
+   *
+   * @param userId the ID of the player
+   * @return the lobby the player is put in, once they've been placed
+   * @throws IllegalStateException if the queue is full
+   */
+  public CompletableFuture<Lobby> enqueue(String userId) {
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      throw new IllegalStateException("The matchmaking queue is full");
+    }
+    Ticket ticket = new Ticket(userId);
+    queue.add(ticket);
+    scheduleTick();
+    return ticket.lobby;
+  }
+
+  /**
+   * The number of players waiting to be placed.
+   *
+   * @return the number of players in the queue
+   */
+  public int queued() {
+    return queued.get();
+  }
+
+  /**
+   * Place the next batch of players. This normally runs on one of the
+   * timing wheel's workers when a tick is up.
+   */
+  void tick() {
+    try {
+      List<Ticket> batch = new ArrayList<>();
+      while (batch.size() < maxBatch) {
+        Ticket ticket = queue.poll();
+        if (ticket == null) {
+          break;
+        }
+        queued.decrementAndGet();
+        // Players who've given up waiting don't need a lobby any more.
+        if (!ticket.isDone()) {
+          batch.add(ticket);
+        }
+      }
+      if (!batch.isEmpty()) {
+        place(batch);
+      }
+    } finally {
+      scheduled.set(false);
+      if (!queue.isEmpty()) {
+        scheduleTick();
+      }
+    }
+  }
+
+  /**
+   * Tell everyone still waiting that they won't be placed (e.g., when the
+   * server is shutting down).
+   */
+  public void cancelAll() {
+    for (Ticket ticket = queue.poll(); ticket != null; ticket = queue.poll()) {
+      queued.decrementAndGet();
+      ticket.fail(new IllegalStateException("Matchmaking has stopped"));
+    }
+  }
+
+  private void place(List<Ticket> batch) {
+    try {
+      placer.accept(batch);
+    } catch (RuntimeException e) {
+      LOGGER.error("Couldn't place a batch of {} players", batch.size(), e);
+      for (Ticket ticket : batch) {
+        ticket.fail(e);
+      }
+    }
+  }
+
+  private void scheduleTick() {
+    if (scheduled.compareAndSet(false, true)) {
+      timers.schedule(tick, this::tick);
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package umm3601.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import umm3601.cache.CacheStats;
+
+/**
+ * Serves the counters of the server's caches (e.g., the one in front of the
+ * `lobbies` collection) alongside the other metrics: how many lookups each
+ * answered and how many went to the database, how many entries it has
+ * evicted to make room, and how many it holds. A falling hit rate, or
+ * evictions climbing with the lookups, means a cache is too small for
+ * what's being asked of it.
+ *
+ * Like `TimerMetrics`, it only takes a snapshot of each cache's stats when
+ * it's scraped. All the caches go in one source so that each metric family
+ * is only written once, with a sample per cache.
+ */
+public class CacheMetrics implements MetricSource {
+
+  static final String HITS = "cache_hits_total";
+  static final String MISSES = "cache_misses_total";
+  static final String EVICTIONS = "cache_evictions_total";
+  static final String SIZE = "cache_entries";
+
+  private final SortedMap<String, Supplier<CacheStats>> caches;
+
+  /**
+   * Construct metrics for some caches.
+   *
+   * @param caches takes a snapshot of each cache's stats (like `Cache.stats()`),
+   *   by the name its samples are labelled with (e.g., `lobbies`)
+   */
+  public CacheMetrics(Map<String, Supplier<CacheStats>> caches) {
+    this.caches = new TreeMap<>(caches);
+  }
+
+  /**
+   * Add the caches' counters to `out`.
+   *
+   * @param out where to write the metrics
+   */
+  @Override
+  public void writeTo(PrometheusWriter out) {
+    SortedMap<String, CacheStats> current = new TreeMap<>();
+    caches.forEach((cache, stats) -> current.put(cache, stats.get()));
+
+    out.family(HITS, "counter", "Lookups answered from the cache, by cache");
+    current.forEach((cache, stats) -> out.sample(HITS, stats.hits(), "cache", cache));
+    out.family(MISSES, "counter", "Lookups that had to go to the database, by cache");
+    current.forEach((cache, stats) -> out.sample(MISSES, stats.misses(), "cache", cache));
+    out.family(EVICTIONS, "counter", "Entries removed to make room for new ones, by cache");
+    current.forEach((cache, stats) -> out.sample(EVICTIONS, stats.evictions(), "cache", cache));
+    out.family(SIZE, "gauge", "Entries in the cache, by cache");
+    current.forEach((cache, stats) -> out.sample(SIZE, stats.size(), "cache", cache));
+  }
+}
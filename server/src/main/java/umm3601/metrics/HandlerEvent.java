@@ -0,0 +1,78 @@
+package umm3601.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event for one request the server handled: which
+ * route it was, how it ended, and where the time went (MongoDB, turning
+ * the result into JSON, or everything else).
+ *
+ * These are only created and committed by `HandlerEvents`, and cost next
+ * to nothing unless a recording that includes them is running (e.g.,
+ * `jcmd <pid> JFR.start`, or `HandlerEventStream`).
+ */
+@Name(HandlerEvent.NAME)
+@Label("HTTP Handler")
+@Category({"umm3601", "HTTP"})
+@Description("A request handled by one of the server's routes")
+@StackTrace(false)
+public final class HandlerEvent extends Event {
+
+  // The name recordings know these events by.
+  public static final String NAME = "umm3601.Handler";
+
+  @Label("Method")
+  private String method;
+
+  @Label("Route")
+  @Description("The route, as it was declared (e.g., /api/users/{id})")
+  private String route;
+
+  @Label("Status")
+  private int status;
+
+  @Label("MongoDB Time")
+  @Description("Time spent on MongoDB commands while handling the request")
+  @Timespan(Timespan.NANOSECONDS)
+  private long mongoTime;
+
+  @Label("Serialization Time")
+  @Description("Time spent turning the result into JSON")
+  @Timespan(Timespan.NANOSECONDS)
+  private long serializationTime;
+
+  @Label("Response Size")
+  @DataAmount(DataAmount.BYTES)
+  private long responseBytes;
+
+  void setMethod(String method) {
+    this.method = method;
+  }
+
+  void setRoute(String route) {
+    this.route = route;
+  }
+
+  void setStatus(int status) {
+    this.status = status;
+  }
+
+  void addMongoTime(long nanos) {
+    mongoTime += nanos;
+  }
+
+  void addSerializationTime(long nanos) {
+    serializationTime += nanos;
+  }
+
+  void setResponseBytes(long responseBytes) {
+    this.responseBytes = responseBytes;
+  }
+}
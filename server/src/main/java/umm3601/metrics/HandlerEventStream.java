@@ -0,0 +1,145 @@
+package umm3601.metrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Listens to the server's own `HandlerEvent`s as Java Flight Recorder
+ * streams them, and adds them up by route, so `MetricsController` can
+ * serve where each route's time goes (MongoDB, JSON, or the rest) while
+ * the server runs.
+ *
+ * JFR hands over events in batches about once a second, on its own
+ * thread, so none of this happens while requests are being handled. The
+ * stream only keeps a few seconds of events, since we add them up as
+ * they arrive.
+ */
+public final class HandlerEventStream implements MetricSource, AutoCloseable {
+
+  static final String DURATION = "jfr_handler_duration_seconds";
+  static final String MONGO_TIME = "jfr_handler_mongo_seconds_total";
+  static final String SERIALIZATION_TIME = "jfr_handler_serialization_seconds_total";
+  static final String RESPONSE_BYTES = "jfr_handler_response_bytes_total";
+  private static final Duration MAX_AGE = Duration.ofSeconds(10);
+  private static final double NANOS_PER_SECOND = 1_000_000_000;
+
+  private final LongSupplier clock;
+  private final long windowNanos;
+  private final RecordingStream stream;
+  // The totals for each route, by route and then method.
+  private final Map<String, Map<String, RouteTotals>> routes = new ConcurrentHashMap<>();
+
+  /**
+   * The totals for one method on one route.
+   */
+  private final class RouteTotals {
+    private final LatencyWindow durations = new LatencyWindow(windowNanos, clock);
+    private final LongAdder mongoNanos = new LongAdder();
+    private final LongAdder serializationNanos = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+  }
+
+  /**
+   * Construct an event stream that isn't connected to JFR (e.g., for
+   * testing), with the given window and clock.
+   *
+   * @param window how often the percentile window moves on
+   * @param clock the time in nanoseconds, like `System.nanoTime()`
+   */
+  HandlerEventStream(Duration window, LongSupplier clock) {
+    this(window, clock, null);
+  }
+
+  private HandlerEventStream(Duration window, LongSupplier clock, RecordingStream stream) {
+    this.windowNanos = window.toNanos();
+    this.clock = clock;
+    this.stream = stream;
+  }
+
+  /**
+   * Start recording `HandlerEvent`s, and adding them up as they arrive.
+   *
+   * @return the running event stream
+   */
+  public static HandlerEventStream start() {
+    RecordingStream stream = new RecordingStream();
+    HandlerEventStream events = new HandlerEventStream(RequestMetrics.WINDOW, System::nanoTime, stream);
+    stream.setMaxAge(MAX_AGE);
+    stream.enable(HandlerEvent.NAME).withoutThreshold();
+    stream.onEvent(HandlerEvent.NAME, events::accept);
+    stream.startAsync();
+    return events;
+  }
+
+  private void accept(RecordedEvent event) {
+    record(event.getString("method"), event.getString("route"), event.getDuration().toNanos(),
+      event.getLong("mongoTime"), event.getLong("serializationTime"), event.getLong("responseBytes"));
+  }
+
+  /**
+   * Add one handled request to the totals.
+   *
+   * @param method the HTTP method (e.g., `GET`)
+   * @param route the route it matched (e.g., `/api/users/{id}`)
+   * @param nanos how long it took to handle, in nanoseconds
+   * @param mongoNanos how much of that was spent on MongoDB commands
+   * @param serializationNanos how much of that was spent turning the result into JSON
+   * @param responseBytes the size of the response body, in bytes
+   */
+  void record(String method, String route, long nanos, long mongoNanos, long serializationNanos,
+      long responseBytes) {
+    RouteTotals totals = routes
+      .computeIfAbsent(route, key -> new ConcurrentHashMap<>())
+      .computeIfAbsent(method, key -> new RouteTotals());
+    totals.durations.record(nanos);
+    totals.mongoNanos.add(mongoNanos);
+    totals.serializationNanos.add(serializationNanos);
+    totals.responseBytes.add(responseBytes);
+  }
+
+  /**
+   * Add the totals for every route to `out`.
+   *
+   * @param out where to write the metrics
+   */
+  @Override
+  public void writeTo(PrometheusWriter out) {
+    // Sorted, so the output is easy to read (and to compare between scrapes).
+    Map<String, Map<String, RouteTotals>> sorted = new TreeMap<>();
+    routes.forEach((route, methods) -> sorted.put(route, new TreeMap<>(methods)));
+
+    out.family(DURATION, "summary",
+      "How long requests took to handle, by route, from JFR events (percentiles over a recent window)");
+    sorted.forEach((route, methods) -> methods.forEach((method, totals) -> out.summary(
+      DURATION, totals.durations.snapshot().latencies(), totals.durations, "method", method, "route", route)));
+
+    out.family(MONGO_TIME, "counter", "Time spent on MongoDB commands while handling requests, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, totals) -> out.sample(
+      MONGO_TIME, totals.mongoNanos.sum() / NANOS_PER_SECOND, "method", method, "route", route)));
+
+    out.family(SERIALIZATION_TIME, "counter", "Time spent turning results into JSON, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, totals) -> out.sample(
+      SERIALIZATION_TIME, totals.serializationNanos.sum() / NANOS_PER_SECOND, "method", method, "route", route)));
+
+    out.family(RESPONSE_BYTES, "counter", "Bytes of response bodies sent, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, totals) -> out.sample(
+      RESPONSE_BYTES, totals.responseBytes.sum(), "method", method, "route", route)));
+  }
+
+  /**
+   * Stop recording events.
+   */
+  @Override
+  public void close() {
+    if (stream != null) {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package umm3601.metrics;
+
+import io.javalin.http.Context;
+
+/**
+ * Creates a `HandlerEvent` for each request, fills it in as the request
+ * is handled, and commits it once the response has been sent.
+ *
+ * The event for the request a thread is handling is kept in a thread
+ * local, so code that doesn't have the `Context` (e.g., the MongoDB
+ * command listener in `MongoMetrics`, or the JSON mapper) can add the
+ * time it spent to it. Work a handler hands off to another thread (e.g.,
+ * with `ctx.future`) isn't counted.
+ *
+ * When no recording wants the events, `begin` doesn't keep one, and
+ * everything else finds nothing to do.
+ */
+public final class HandlerEvents {
+
+  private static final ThreadLocal<HandlerEvent> CURRENT = new ThreadLocal<>();
+  private static final String ATTRIBUTE = HandlerEvent.NAME;
+
+  private HandlerEvents() {
+  }
+
+  /**
+   * Start the event for a request, if anything is recording them. This
+   * runs before the request is handled.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public static void begin(Context ctx) {
+    HandlerEvent event = new HandlerEvent();
+    if (!event.isEnabled()) {
+      CURRENT.remove();
+      return;
+    }
+    event.begin();
+    ctx.attribute(ATTRIBUTE, event);
+    CURRENT.set(event);
+  }
+
+  /**
+   * Stop adding time to the current thread's event. This runs after the
+   * request is handled, as the thread may go on to handle another one.
+   */
+  public static void detach() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Whether the current thread is handling a request whose event is being
+   * recorded, so it's worth measuring things for it.
+   *
+   * @return `true` if there's an event to add time to
+   */
+  public static boolean isRecording() {
+    return CURRENT.get() != null;
+  }
+
+  /**
+   * Add time spent on a MongoDB command to the current thread's event.
+   *
+   * @param nanos how long the command took, in nanoseconds
+   */
+  public static void addMongoTime(long nanos) {
+    HandlerEvent event = CURRENT.get();
+    if (event != null) {
+      event.addMongoTime(nanos);
+    }
+  }
+
+  /**
+   * Add time spent turning a result into JSON to the current thread's
+   * event.
+   *
+   * @param nanos how long it took, in nanoseconds
+   */
+  public static void addSerializationTime(long nanos) {
+    HandlerEvent event = CURRENT.get();
+    if (event != null) {
+      event.addSerializationTime(nanos);
+    }
+  }
+
+  /**
+   * Finish and commit the event for a request, if there is one. This runs
+   * once the response has been sent.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param route the route the request matched
+   * @param responseBytes the size of the response body, in bytes
+   */
+  public static void end(Context ctx, String route, long responseBytes) {
+    HandlerEvent event = ctx.attribute(ATTRIBUTE);
+    if (event == null) {
+      return;
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.setMethod(ctx.method().name());
+      event.setRoute(route);
+      event.setStatus(ctx.statusCode());
+      event.setResponseBytes(responseBytes);
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package umm3601.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies, from a microsecond up to about 19
+ * hours, that can answer percentile questions (e.g., "what's the p99?")
+ * to within about 3%.
+ *
+ * Like HdrHistogram, the buckets are log-linear: each power of two is
+ * split into 32 equal buckets, so the buckets get wider as the values
+ * get bigger, but never by more than 1/32 of the value. That's about
+ * 1,000 counters in all, whatever the range of values. Recording a value
+ * is a little bit arithmetic and one atomic increment, with no locks and
+ * no allocation, so it's cheap enough to do for every request.
+ */
+public final class LatencyHistogram {
+
+  // Each power of two is split into 2^(SUB_BUCKET_BITS - 1) buckets.
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+  // Values (in microseconds) are capped at 2^36 - 1, about 19 hours.
+  private static final int MAX_MAGNITUDE = 36;
+  static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+  private static final double PERCENT = 100;
+
+  private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+  private final LongAdder total = new LongAdder();
+
+  /**
+   * Record one latency.
+   *
+   * @param duration how long it took
+   * @param unit the unit of `duration`
+   */
+  public void record(long duration, TimeUnit unit) {
+    recordMicros(unit.toMicros(duration));
+  }
+
+  /**
+   * Record one latency, in microseconds. Negative values count as zero,
+   * and values over `MAX_VALUE` as `MAX_VALUE`.
+   *
+   * @param micros how long it took, in microseconds
+   */
+  public void recordMicros(long micros) {
+    counts.incrementAndGet(index(Math.max(0, Math.min(micros, MAX_VALUE))));
+    total.increment();
+  }
+
+  /**
+   * The number of values recorded.
+   *
+   * @return the count
+   */
+  public long count() {
+    return total.sum();
+  }
+
+  /**
+   * Add everything recorded in `other` to this histogram.
+   *
+   * @param other the histogram to add
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length(); i++) {
+      long count = other.counts.get(i);
+      if (count > 0) {
+        counts.addAndGet(i, count);
+        total.add(count);
+      }
+    }
+  }
+
+  /**
+   * The value (in microseconds) that `percentile` percent of the recorded
+   * values are at or below. This is the top of the bucket the value falls
+   * in, so it may be a little high, but it's never low.
+   *
+   * @param percentile the percentile, from 0 to 100 (e.g., 99.9)
+   * @return the value at that percentile, or 0 if nothing has been recorded
+   */
+  public long percentileMicros(double percentile) {
+    if (percentile < 0 || percentile > PERCENT) {
+      throw new IllegalArgumentException("Percentiles must be from 0 to 100; it was " + percentile);
+    }
+    // Copy the counts first, so the total matches them even while other
+    // threads keep recording.
+    long[] snapshot = new long[counts.length()];
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      seen += snapshot[i];
+    }
+    if (seen == 0) {
+      return 0;
+    }
+    // Rounded (as HdrHistogram does), so, e.g., 99.9% of 1,000 is 999,
+    // even though 99.9 can't be represented exactly.
+    long rank = Math.max(1, Math.round(percentile / PERCENT * seen));
+    long cumulative = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      cumulative += snapshot[i];
+      if (cumulative >= rank) {
+        return highestValueIn(i);
+      }
+    }
+    return MAX_VALUE;
+  }
+
+  /**
+   * The bucket `value` goes in. Values below `SUB_BUCKETS` get a bucket
+   * each; above that, the bucket is the value's top `SUB_BUCKET_BITS`
+   * bits, offset by how far it had to be shifted to get them.
+   */
+  static int index(long value) {
+    int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value | 1);
+    int shift = Math.max(0, magnitude - (SUB_BUCKET_BITS - 1));
+    return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  /**
+   * The biggest value that goes in bucket `index`.
+   */
+  static long highestValueIn(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / HALF_SUB_BUCKETS - 1;
+    long subBucket = index - (long) shift * HALF_SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,90 @@
+package umm3601.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The latencies of something (e.g., the requests to one route), both
+ * since the server started (as a count and a sum) and over a recent window
+ * (as a histogram), so percentiles show how things are going now.
+ *
+ * The window is one or two `windowNanos` long: the histogram being
+ * recorded into, plus the one before it. It moves on when it's read
+ * (i.e., when the metrics are scraped), so recording never has to.
+ */
+final class LatencyWindow {
+
+  private final LongSupplier clock;
+  private final long windowNanos;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  // The histogram being recorded into, and the one from the window before.
+  private volatile LatencyHistogram current = new LatencyHistogram();
+  private LatencyHistogram previous;
+  private long currentStart;
+  private long previousStart;
+
+  /**
+   * The latencies in the window, and how long the window is.
+   *
+   * @param latencies the latencies recorded in the window
+   * @param nanos how long the window is, in nanoseconds
+   */
+  record Snapshot(LatencyHistogram latencies, long nanos) {
+
+    /**
+     * The number of latencies recorded per second over the window.
+     *
+     * @return the rate, per second
+     */
+    double perSecond() {
+      return nanos > 0 ? latencies.count() * (double) TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+    }
+  }
+
+  LatencyWindow(long windowNanos, LongSupplier clock) {
+    this.windowNanos = windowNanos;
+    this.clock = clock;
+    this.currentStart = clock.getAsLong();
+    this.previousStart = currentStart;
+  }
+
+  void record(long nanos) {
+    current.record(nanos, TimeUnit.NANOSECONDS);
+    count.increment();
+    totalNanos.add(nanos);
+  }
+
+  long count() {
+    return count.sum();
+  }
+
+  long totalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Move the window on if it's time, and then combine the current and
+   * previous histograms.
+   *
+   * @return the latencies in the window
+   */
+  synchronized Snapshot snapshot() {
+    long now = clock.getAsLong();
+    if (now - currentStart >= windowNanos) {
+      previous = current;
+      previousStart = currentStart;
+      current = new LatencyHistogram();
+      currentStart = now;
+    }
+    LatencyHistogram merged = new LatencyHistogram();
+    merged.add(current);
+    long start = currentStart;
+    if (previous != null) {
+      merged.add(previous);
+      start = previousStart;
+    }
+    return new Snapshot(merged, now - start);
+  }
+}
@@ -0,0 +1,15 @@
+package umm3601.metrics;
+
+/**
+ * Something that keeps metrics, which `MetricsController` collects from
+ * each time it's scraped.
+ */
+public interface MetricSource {
+
+  /**
+   * Add this source's metrics to `out`.
+   *
+   * @param out where to write the metrics
+   */
+  void writeTo(PrometheusWriter out);
+}
@@ -0,0 +1,57 @@
+package umm3601.metrics;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+
+/**
+ * Controller that serves the server's metrics, in the Prometheus text
+ * format, for Prometheus (or anything else that speaks it) to scrape.
+ */
+public class MetricsController implements Controller {
+
+  private static final String API_ADMIN_METRICS = "/api/admin/metrics";
+
+  private final MetricSource[] sources;
+
+  /**
+   * Construct a controller for metrics.
+   *
+   * @param sources the metrics to serve (e.g., the per-route request
+   *   metrics the server records), in the order they're served
+   */
+  public MetricsController(MetricSource... sources) {
+    this.sources = sources.clone();
+  }
+
+  /**
+   * Set the body of the response to be all the metrics, in the Prometheus
+   * text format.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    PrometheusWriter out = new PrometheusWriter();
+    for (MetricSource source : sources) {
+      source.writeTo(out);
+    }
+    ctx.contentType(PrometheusWriter.CONTENT_TYPE);
+    ctx.result(out.toString());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Sets up routes for the metrics endpoints.
+   *
+   * These endpoints are:
+   *   - `GET /api/admin/metrics`
+   *      - All the metrics, in the Prometheus text format
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_ADMIN_METRICS, this::getMetrics);
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event for one command the server sent to
+ * MongoDB: which collection and command it was, how long the driver spent
+ * on it, and whether it failed. In a recording, these sit on the same
+ * thread (and inside the same time span) as the `HandlerEvent` of the
+ * request that ran them, so a slow request can be broken down command by
+ * command.
+ *
+ * These are only created and committed by `MongoMetrics`, once the
+ * command is done; the driver tells us how long it took, so that's a
+ * field rather than the event's own duration. Like `HandlerEvent`, they
+ * cost next to nothing unless a recording that includes them is running.
+ */
+@Name(MongoCommandEvent.NAME)
+@Label("MongoDB Command")
+@Category({"umm3601", "MongoDB"})
+@Description("A command sent to MongoDB")
+@StackTrace(false)
+public final class MongoCommandEvent extends Event {
+
+  // The name recordings know these events by.
+  public static final String NAME = "umm3601.MongoCommand";
+
+  @Label("Collection")
+  private String collection;
+
+  @Label("Command")
+  @Description("The name of the command (e.g., find, insert, or getMore)")
+  private String command;
+
+  @Label("Elapsed Time")
+  @Description("Time the driver spent on the command, from sending it to decoding the reply")
+  @Timespan(Timespan.NANOSECONDS)
+  private long elapsedTime;
+
+  @Label("Failed")
+  private boolean failed;
+
+  /**
+   * Record a finished command, if a recording wants it.
+   *
+   * @param collection the collection the command was on
+   * @param command the name of the command
+   * @param nanos how long the driver spent on it, in nanoseconds
+   * @param failed whether it failed
+   */
+  static void commit(String collection, String command, long nanos, boolean failed) {
+    MongoCommandEvent event = new MongoCommandEvent();
+    if (event.isEnabled()) {
+      event.collection = collection;
+      event.command = command;
+      event.elapsedTime = nanos;
+      event.failed = failed;
+      event.commit();
+    }
+  }
+}
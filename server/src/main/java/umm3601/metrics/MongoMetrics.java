@@ -0,0 +1,246 @@
+package umm3601.metrics;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Latencies of the commands the server sends to MongoDB, by collection and
+ * command, and how the connection pool is doing (how long requests wait
+ * for a connection, and how many connections are open and in use), which
+ * `MetricsController` serves alongside the HTTP metrics.
+ *
+ * It's a listener on the MongoDB driver's command and connection pool
+ * events (see `Server.configureDatabase`), so the latencies are the time
+ * the driver spent on each command, from sending it to decoding the
+ * reply; the gap between these and the HTTP latencies is time spent in
+ * the server itself. Like `RequestMetrics`, the listeners only look up
+ * and increment things, as they run on the thread doing the command.
+ * They also add each command to the `HandlerEvent` and `QueryCounts`
+ * for the request being handled, if there are any, and record a
+ * `MongoCommandEvent` for it if a JFR recording wants one.
+ */
+public class MongoMetrics implements CommandListener, ConnectionPoolListener, MetricSource {
+
+  // The collection we count commands that aren't on a collection (e.g., `ping`) under.
+  public static final String NO_COLLECTION = "none";
+
+  static final String COMMAND_LATENCY = "mongodb_command_duration_seconds";
+  static final String COMMAND_FAILURES = "mongodb_command_failures_total";
+  static final String CHECKOUT_WAIT = "mongodb_pool_checkout_wait_seconds";
+  static final String CHECKOUT_FAILURES = "mongodb_pool_checkout_failures_total";
+  static final String CONNECTIONS = "mongodb_pool_connections";
+  static final String CONNECTIONS_IN_USE = "mongodb_pool_connections_in_use";
+
+  private final LongSupplier clock;
+  private final long windowNanos;
+  // The collection each command in flight is on, by request ID, from when
+  // it starts until it succeeds or fails.
+  private final Map<Integer, String> inFlight = new ConcurrentHashMap<>();
+  // The stats for each command, by collection and then command name.
+  private final Map<String, Map<String, CommandStats>> commands = new ConcurrentHashMap<>();
+  // The stats for each connection pool, by the address of its server.
+  private final Map<String, PoolStats> pools = new ConcurrentHashMap<>();
+
+  /**
+   * The numbers for one command on one collection.
+   */
+  private final class CommandStats {
+    private final LatencyWindow latencies = new LatencyWindow(windowNanos, clock);
+    private final LongAdder failures = new LongAdder();
+  }
+
+  /**
+   * The numbers for one connection pool.
+   */
+  private final class PoolStats {
+    private final LatencyWindow checkoutWaits = new LatencyWindow(windowNanos, clock);
+    private final Map<String, LongAdder> checkoutFailures = new ConcurrentHashMap<>();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong inUse = new AtomicLong();
+  }
+
+  /**
+   * Construct an empty set of MongoDB metrics.
+   */
+  public MongoMetrics() {
+    this(RequestMetrics.WINDOW, System::nanoTime);
+  }
+
+  /**
+   * Construct an empty set of MongoDB metrics, with the given window and
+   * clock (e.g., for testing).
+   *
+   * @param window how often the percentile window moves on
+   * @param clock the time in nanoseconds, like `System.nanoTime()`
+   */
+  MongoMetrics(Duration window, LongSupplier clock) {
+    this.windowNanos = window.toNanos();
+    this.clock = clock;
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    inFlight.put(event.getRequestId(), collectionOf(event.getCommandName(), event.getCommand()));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    String collection = inFlight.remove(event.getRequestId());
+    long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    stats(collection, event.getCommandName()).latencies.record(nanos);
+    HandlerEvents.addMongoTime(nanos);
+    QueryCounts.commandSucceeded(event.getResponse());
+    MongoCommandEvent.commit(nameOf(collection), event.getCommandName(), nanos, false);
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    String collection = inFlight.remove(event.getRequestId());
+    CommandStats stats = stats(collection, event.getCommandName());
+    long nanos = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    stats.latencies.record(nanos);
+    stats.failures.increment();
+    HandlerEvents.addMongoTime(nanos);
+    QueryCounts.commandFailed();
+    MongoCommandEvent.commit(nameOf(collection), event.getCommandName(), nanos, true);
+  }
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    pool(event.getConnectionId().getServerId().getAddress()).connections.incrementAndGet();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    pool(event.getConnectionId().getServerId().getAddress()).connections.decrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    PoolStats pool = pool(event.getConnectionId().getServerId().getAddress());
+    pool.checkoutWaits.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    pool.inUse.incrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    pool(event.getConnectionId().getServerId().getAddress()).inUse.decrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    PoolStats pool = pool(event.getServerId().getAddress());
+    // A request that timed out waiting still waited, so it counts.
+    pool.checkoutWaits.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    String reason = event.getReason().name().toLowerCase(Locale.ROOT);
+    LongAdder failures = pool.checkoutFailures.get(reason);
+    if (failures == null) {
+      failures = pool.checkoutFailures.computeIfAbsent(reason, key -> new LongAdder());
+    }
+    failures.increment();
+  }
+
+  /**
+   * Add the metrics for every command and connection pool to `out`.
+   *
+   * @param out where to write the metrics
+   */
+  @Override
+  public void writeTo(PrometheusWriter out) {
+    // Sorted, so the output is easy to read (and to compare between scrapes).
+    Map<String, Map<String, CommandStats>> sortedCommands = new TreeMap<>();
+    commands.forEach((collection, names) -> sortedCommands.put(collection, new TreeMap<>(names)));
+    Map<String, PoolStats> sortedPools = new TreeMap<>(pools);
+
+    out.family(COMMAND_LATENCY, "summary",
+      "How long MongoDB commands took, by collection and command (percentiles over a recent window)");
+    sortedCommands.forEach((collection, names) -> names.forEach((command, stats) -> out.summary(
+      COMMAND_LATENCY, stats.latencies.snapshot().latencies(), stats.latencies,
+      "collection", collection, "command", command)));
+
+    out.family(COMMAND_FAILURES, "counter", "MongoDB commands that failed, by collection and command");
+    sortedCommands.forEach((collection, names) -> names.forEach((command, stats) ->
+      out.sample(COMMAND_FAILURES, stats.failures.sum(), "collection", collection, "command", command)));
+
+    out.family(CHECKOUT_WAIT, "summary",
+      "How long requests waited for a MongoDB connection, by server (percentiles over a recent window)");
+    sortedPools.forEach((server, pool) -> out.summary(
+      CHECKOUT_WAIT, pool.checkoutWaits.snapshot().latencies(), pool.checkoutWaits, "server", server));
+
+    out.family(CHECKOUT_FAILURES, "counter", "Requests that couldn't get a MongoDB connection, by server and reason");
+    sortedPools.forEach((server, pool) -> new TreeMap<>(pool.checkoutFailures).forEach((reason, failures) ->
+      out.sample(CHECKOUT_FAILURES, failures.sum(), "server", server, "reason", reason)));
+
+    out.family(CONNECTIONS, "gauge", "Open MongoDB connections, by server");
+    sortedPools.forEach((server, pool) -> out.sample(CONNECTIONS, pool.connections.get(), "server", server));
+
+    out.family(CONNECTIONS_IN_USE, "gauge", "MongoDB connections checked out of the pool, by server");
+    sortedPools.forEach((server, pool) -> out.sample(CONNECTIONS_IN_USE, pool.inUse.get(), "server", server));
+  }
+
+  // Commands that started before we were listening aren't in `inFlight`.
+  private static String nameOf(String collection) {
+    return collection == null ? NO_COLLECTION : collection;
+  }
+
+  private CommandStats stats(String collection, String command) {
+    String key = nameOf(collection);
+    Map<String, CommandStats> names = commands.get(key);
+    if (names == null) {
+      names = commands.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+    CommandStats stats = names.get(command);
+    if (stats == null) {
+      stats = names.computeIfAbsent(command, k -> new CommandStats());
+    }
+    return stats;
+  }
+
+  private PoolStats pool(ServerAddress address) {
+    String key = address.toString();
+    PoolStats pool = pools.get(key);
+    if (pool == null) {
+      pool = pools.computeIfAbsent(key, k -> new PoolStats());
+    }
+    return pool;
+  }
+
+  /**
+   * The collection a command is on. For most commands (e.g., `find`,
+   * `insert`, and `aggregate`) that's the value of the command name's own
+   * field; `getMore` names it in its `collection` field instead.
+   *
+   * @param commandName the name of the command
+   * @param command the command as it was sent
+   * @return the name of the collection, or `NO_COLLECTION`
+   */
+  static String collectionOf(String commandName, BsonDocument command) {
+    BsonValue value = command.get(commandName);
+    if (value == null || !value.isString()) {
+      value = command.get("collection");
+    }
+    return value != null && value.isString() ? value.asString().getValue() : NO_COLLECTION;
+  }
+}
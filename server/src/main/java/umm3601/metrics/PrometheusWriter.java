@@ -0,0 +1,122 @@
+package umm3601.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Builds metrics in the Prometheus text exposition format (version 0.0.4),
+ * e.g.,
+ *
+ * ```
+ * # HELP http_server_responses_total Responses sent, by route and status code
+ * # TYPE http_server_responses_total counter
+ * http_server_responses_total{method="GET",route="/api/users/{id}",status="200"} 1027
+ * ```
+ */
+public final class PrometheusWriter {
+
+  // The content type Prometheus expects this format to be served with.
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // The percentiles we report in summaries, and the quantile labels
+  // Prometheus expects for them.
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+  private static final double MICROS_PER_SECOND = 1_000_000;
+  private static final double NANOS_PER_SECOND = 1_000_000_000;
+
+  private final StringBuilder out = new StringBuilder();
+
+  /**
+   * Start a metric family, giving its type (e.g., `counter`, `gauge`, or
+   * `summary`) and what it measures.
+   *
+   * @param name the name of the metric
+   * @param type the Prometheus type of the metric
+   * @param help a one-line description of the metric
+   * @return this writer
+   */
+  public PrometheusWriter family(String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /**
+   * Add one sample.
+   *
+   * @param name the name of the sample (the family name, perhaps with a
+   *   suffix like `_count`)
+   * @param value the value
+   * @param labels the labels, as alternating names and values
+   * @return this writer
+   */
+  public PrometheusWriter sample(String name, double value, String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels come in name/value pairs");
+    }
+    out.append(name);
+    if (labels.length > 0) {
+      out.append('{');
+      for (int i = 0; i < labels.length; i += 2) {
+        if (i > 0) {
+          out.append(',');
+        }
+        out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+      }
+      out.append('}');
+    }
+    out.append(' ').append(format(value)).append('\n');
+    return this;
+  }
+
+  /**
+   * Add the samples of a summary of latencies (in seconds): its
+   * percentiles over a recent window, and the count and sum since the
+   * server started.
+   *
+   * @param name the name of the summary
+   * @param recent the latencies in the recent window
+   * @param sinceStart all the latencies
+   * @param labels the labels, as alternating names and values
+   * @return this writer
+   */
+  PrometheusWriter summary(String name, LatencyHistogram recent, LatencyWindow sinceStart, String... labels) {
+    String[] quantileLabels = Arrays.copyOf(labels, labels.length + 2);
+    quantileLabels[labels.length] = "quantile";
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      quantileLabels[labels.length + 1] = QUANTILES[i];
+      sample(name, recent.percentileMicros(PERCENTILES[i]) / MICROS_PER_SECOND, quantileLabels);
+    }
+    sample(name + "_sum", sinceStart.totalNanos() / NANOS_PER_SECOND, labels);
+    sample(name + "_count", sinceStart.count(), labels);
+    return this;
+  }
+
+  /**
+   * The metrics written so far.
+   *
+   * @return the metrics, in the Prometheus text format
+   */
+  @Override
+  public String toString() {
+    return out.toString();
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String format(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    // Whole numbers (e.g., counts) without a trailing ".0".
+    if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+}
@@ -0,0 +1,174 @@
+package umm3601.metrics;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+/**
+ * Counts the MongoDB round trips one request makes, the documents they
+ * return, and (optionally) the bytes of the replies, so we can spot
+ * handlers that query once per item (e.g., once per ID in
+ * `Lobby.userIDs`) rather than once for all of them.
+ *
+ * While a count is open, it's attached to the current thread, and the
+ * MongoDB command listener in `MongoMetrics` adds each command the thread
+ * runs to it. Work handed off to another thread isn't counted.
+ *
+ * Counting round trips and documents is cheap. Counting bytes means
+ * encoding each reply again (the driver doesn't tell us how big it was),
+ * so that's only done when it's asked for (e.g., in development).
+ *
+ * In tests, open a count around the code under test and check it against
+ * a budget:
+ *
+ * ```
+ * try (QueryCounts counts = QueryCounts.open(false)) {
+ *   lobbyController.getLobby(ctx);
+ *   counts.checkBudget("/api/lobbies/{id}", 2);
+ * }
+ * ```
+ */
+public final class QueryCounts implements AutoCloseable {
+
+  private static final ThreadLocal<QueryCounts> CURRENT = new ThreadLocal<>();
+  private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+  private final boolean measureBytes;
+  // Only the thread handling the request adds to these.
+  private long roundTrips;
+  private long documents;
+  private long bytes;
+
+  private QueryCounts(boolean measureBytes) {
+    this.measureBytes = measureBytes;
+  }
+
+  /**
+   * Start counting the MongoDB commands the current thread runs, in place
+   * of any count that was already open on it.
+   *
+   * @param measureBytes whether to count the bytes of the replies, too
+   * @return the new count
+   */
+  public static QueryCounts open(boolean measureBytes) {
+    QueryCounts counts = new QueryCounts(measureBytes);
+    CURRENT.set(counts);
+    return counts;
+  }
+
+  /**
+   * Add a command that succeeded to the current thread's count, if there
+   * is one.
+   *
+   * @param response the reply to the command
+   */
+  static void commandSucceeded(BsonDocument response) {
+    QueryCounts counts = CURRENT.get();
+    if (counts != null) {
+      counts.roundTrips++;
+      counts.documents += documentsIn(response);
+      if (counts.measureBytes) {
+        counts.bytes += sizeOf(response);
+      }
+    }
+  }
+
+  /**
+   * Add a command that failed to the current thread's count, if there
+   * is one.
+   */
+  static void commandFailed() {
+    QueryCounts counts = CURRENT.get();
+    if (counts != null) {
+      counts.roundTrips++;
+    }
+  }
+
+  /**
+   * The number of commands sent to MongoDB.
+   *
+   * @return the number of round trips
+   */
+  public long roundTrips() {
+    return roundTrips;
+  }
+
+  /**
+   * The number of documents MongoDB sent back (in query results).
+   *
+   * @return the number of documents returned
+   */
+  public long documents() {
+    return documents;
+  }
+
+  /**
+   * The number of bytes of replies MongoDB sent back, if they're being
+   * measured.
+   *
+   * @return the number of bytes, or 0 if they're not being measured
+   */
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * Whether the bytes of the replies are being counted.
+   *
+   * @return `true` if `bytes()` means something
+   */
+  public boolean measuresBytes() {
+    return measureBytes;
+  }
+
+  /**
+   * Check that no more than `maxRoundTrips` commands were sent.
+   *
+   * @param route the route being checked, for the message
+   * @param maxRoundTrips the most round trips allowed
+   * @throws IllegalStateException if there were more
+   */
+  public void checkBudget(String route, long maxRoundTrips) {
+    if (roundTrips > maxRoundTrips) {
+      throw new IllegalStateException(route + " made " + roundTrips + " MongoDB round trips (returning "
+        + documents + " documents); its budget is " + maxRoundTrips);
+    }
+  }
+
+  /**
+   * Stop counting on the current thread.
+   */
+  @Override
+  public void close() {
+    if (CURRENT.get() == this) {
+      CURRENT.remove();
+    }
+  }
+
+  /**
+   * The number of documents in a reply: the batch of a cursor (for
+   * `find`, `aggregate`, and `getMore`), or the document `findAndModify`
+   * returned.
+   */
+  private static int documentsIn(BsonDocument response) {
+    BsonValue cursor = response.get("cursor");
+    if (cursor != null && cursor.isDocument()) {
+      BsonValue batch = cursor.asDocument().get("firstBatch");
+      if (batch == null) {
+        batch = cursor.asDocument().get("nextBatch");
+      }
+      return batch instanceof BsonArray array ? array.size() : 0;
+    }
+    BsonValue value = response.get("value");
+    return value != null && value.isDocument() ? 1 : 0;
+  }
+
+  private static int sizeOf(BsonDocument response) {
+    RawBsonDocument raw = response instanceof RawBsonDocument already
+      ? already
+      : new RawBsonDocument(response, CODEC);
+    return raw.getByteBuffer().remaining();
+  }
+}
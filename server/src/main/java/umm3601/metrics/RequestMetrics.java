@@ -0,0 +1,198 @@
+package umm3601.metrics;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Latencies, status codes, and throughput for each route the server
+ * handles (e.g., `GET /api/users/{id}`), which `MetricsController`
+ * serves to Prometheus.
+ *
+ * Routes are the paths as they were declared, not the paths requested,
+ * so there's one set of numbers for `/api/users/{id}` rather than one per
+ * user. Requests that didn't match any route are all counted together
+ * under `UNMATCHED`.
+ *
+ * Recording a request is a couple of map lookups and a few atomic
+ * increments; all the sorting and arithmetic happens when the metrics
+ * are scraped. Percentiles and throughput are over a recent window
+ * (between one and two `WINDOW`s long), so they show how the server is
+ * doing now, while counts and sums go back to when it started.
+ *
+ * The MongoDB round trips each request made (see `QueryCounts`) are
+ * added up by route too, along with the most any one request made, so a
+ * route that queries once per item stands out.
+ */
+public class RequestMetrics implements MetricSource {
+
+  // The route we count requests that didn't match any route under.
+  public static final String UNMATCHED = "unmatched";
+  // How often the percentile and throughput window moves on.
+  public static final Duration WINDOW = Duration.ofMinutes(1);
+
+  static final String LATENCY = "http_server_request_duration_seconds";
+  static final String RESPONSES = "http_server_responses_total";
+  static final String THROUGHPUT = "http_server_requests_per_second";
+  static final String ROUND_TRIPS = "http_server_mongo_round_trips_total";
+  static final String MAX_ROUND_TRIPS = "http_server_mongo_round_trips_max";
+  static final String DOCUMENTS = "http_server_mongo_documents_total";
+  static final String BYTES = "http_server_mongo_bytes_total";
+  static final String OVER_BUDGET = "http_server_mongo_over_budget_total";
+  private static final int MAX_STATUS = 600;
+
+  private final LongSupplier clock;
+  private final long windowNanos;
+  // The stats for each route, by route and then method.
+  private final Map<String, Map<String, RouteStats>> routes = new ConcurrentHashMap<>();
+
+  /**
+   * The numbers for one method on one route.
+   */
+  private final class RouteStats {
+    private final LatencyWindow latencies = new LatencyWindow(windowNanos, clock);
+    private final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS);
+    private final LongAdder roundTrips = new LongAdder();
+    private final AtomicLong maxRoundTrips = new AtomicLong();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+
+    void record(int status, long nanos) {
+      latencies.record(nanos);
+      if (status >= 0 && status < MAX_STATUS) {
+        statuses.incrementAndGet(status);
+      }
+    }
+
+    void recordQueries(QueryCounts counts, boolean overBudgetNow) {
+      roundTrips.add(counts.roundTrips());
+      maxRoundTrips.accumulateAndGet(counts.roundTrips(), Math::max);
+      documents.add(counts.documents());
+      bytes.add(counts.bytes());
+      if (overBudgetNow) {
+        overBudget.increment();
+      }
+    }
+  }
+
+  /**
+   * Construct an empty set of request metrics.
+   */
+  public RequestMetrics() {
+    this(WINDOW, System::nanoTime);
+  }
+
+  /**
+   * Construct an empty set of request metrics, with the given window and
+   * clock (e.g., for testing).
+   *
+   * @param window how often the percentile and throughput window moves on
+   * @param clock the time in nanoseconds, like `System.nanoTime()`
+   */
+  RequestMetrics(Duration window, LongSupplier clock) {
+    this.windowNanos = window.toNanos();
+    this.clock = clock;
+  }
+
+  /**
+   * Record one request.
+   *
+   * @param method the HTTP method (e.g., `GET`)
+   * @param route the route it matched (e.g., `/api/users/{id}`), or `UNMATCHED`
+   * @param status the status code of the response
+   * @param nanos how long it took to handle, in nanoseconds
+   */
+  public void record(String method, String route, int status, long nanos) {
+    stats(method, route).record(status, nanos);
+  }
+
+  /**
+   * Record the MongoDB round trips one request made.
+   *
+   * @param method the HTTP method (e.g., `GET`)
+   * @param route the route it matched (e.g., `/api/users/{id}`), or `UNMATCHED`
+   * @param counts the round trips, documents, and bytes it took
+   * @param overBudget whether it made more round trips than it should have
+   */
+  public void recordQueries(String method, String route, QueryCounts counts, boolean overBudget) {
+    stats(method, route).recordQueries(counts, overBudget);
+  }
+
+  private RouteStats stats(String method, String route) {
+    Map<String, RouteStats> methods = routes.get(route);
+    if (methods == null) {
+      methods = routes.computeIfAbsent(route, key -> new ConcurrentHashMap<>());
+    }
+    RouteStats stats = methods.get(method);
+    if (stats == null) {
+      stats = methods.computeIfAbsent(method, key -> new RouteStats());
+    }
+    return stats;
+  }
+
+  /**
+   * Add the metrics for every route to `out`.
+   *
+   * @param out where to write the metrics
+   */
+  @Override
+  public void writeTo(PrometheusWriter out) {
+    // Sorted, so the output is easy to read (and to compare between scrapes).
+    Map<String, Map<String, RouteStats>> sorted = new TreeMap<>();
+    routes.forEach((route, methods) -> sorted.put(route, new TreeMap<>(methods)));
+
+    out.family(LATENCY, "summary", "How long requests took to handle, by route (percentiles over a recent window)");
+    Map<RouteStats, LatencyWindow.Snapshot> windows = new HashMap<>();
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) -> {
+      LatencyWindow.Snapshot window = stats.latencies.snapshot();
+      windows.put(stats, window);
+      out.summary(LATENCY, window.latencies(), stats.latencies, "method", method, "route", route);
+    }));
+
+    out.family(RESPONSES, "counter", "Responses sent, by route and status code");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) -> {
+      for (int status = 0; status < MAX_STATUS; status++) {
+        long count = stats.statuses.get(status);
+        if (count > 0) {
+          out.sample(RESPONSES, count, "method", method, "route", route, "status", String.valueOf(status));
+        }
+      }
+    }));
+
+    out.family(THROUGHPUT, "gauge", "Requests handled per second, by route, over the same window as the percentiles");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) ->
+      out.sample(THROUGHPUT, windows.get(stats).perSecond(), "method", method, "route", route)));
+
+    out.family(ROUND_TRIPS, "counter", "MongoDB commands sent while handling requests, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) ->
+      out.sample(ROUND_TRIPS, stats.roundTrips.sum(), "method", method, "route", route)));
+
+    out.family(MAX_ROUND_TRIPS, "gauge", "The most MongoDB commands any one request has sent, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) ->
+      out.sample(MAX_ROUND_TRIPS, stats.maxRoundTrips.get(), "method", method, "route", route)));
+
+    out.family(DOCUMENTS, "counter", "Documents MongoDB returned while handling requests, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) ->
+      out.sample(DOCUMENTS, stats.documents.sum(), "method", method, "route", route)));
+
+    // Bytes are only measured in development, so there's often nothing to report.
+    out.family(BYTES, "counter", "Bytes of MongoDB replies while handling requests, by route (when measured)");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) -> {
+      long sum = stats.bytes.sum();
+      if (sum > 0) {
+        out.sample(BYTES, sum, "method", method, "route", route);
+      }
+    }));
+
+    out.family(OVER_BUDGET, "counter", "Requests that sent more MongoDB commands than the budget, by route");
+    sorted.forEach((route, methods) -> methods.forEach((method, stats) ->
+      out.sample(OVER_BUDGET, stats.overBudget.sum(), "method", method, "route", route)));
+  }
+}
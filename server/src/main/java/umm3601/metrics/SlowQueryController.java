@@ -0,0 +1,51 @@
+package umm3601.metrics;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+
+/**
+ * Controller that serves the most recent slow queries, and how MongoDB
+ * ran them.
+ */
+public class SlowQueryController implements Controller {
+
+  private static final String API_ADMIN_SLOW_QUERIES = "/api/admin/slow-queries";
+
+  private final SlowQueryLog slowQueries;
+
+  /**
+   * Construct a controller for slow queries.
+   *
+   * @param slowQueries the slow query log the controllers record in
+   */
+  public SlowQueryController(SlowQueryLog slowQueries) {
+    this.slowQueries = slowQueries;
+  }
+
+  /**
+   * Set the JSON body of the response to be the most recent slow
+   * queries, newest first.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getSlowQueries(Context ctx) {
+    ctx.json(slowQueries.recent());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Sets up routes for the slow query endpoints.
+   *
+   * These endpoints are:
+   *   - `GET /api/admin/slow-queries`
+   *      - The most recent slow queries, with their plans
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_ADMIN_SLOW_QUERIES, this::getSlowQueries);
+  }
+}
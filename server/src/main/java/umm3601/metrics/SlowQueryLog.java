@@ -0,0 +1,282 @@
+package umm3601.metrics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.MongoCollection;
+
+/**
+ * Times the queries the list endpoints (e.g., `GET /api/users`) run, and
+ * keeps the ones that took longer than a threshold, along with how
+ * MongoDB ran them, so we can see which filter and `sortby` combinations
+ * are missing an index.
+ *
+ * A slow query is logged straight away (its route, filter, sort, and how
+ * long it took). Then MongoDB is asked to `explain` it, in the
+ * background, so the request isn't held up; the plan tells us whether it
+ * scanned the whole collection (`COLLSCAN`) or used an index (`IXSCAN`),
+ * and how many documents it looked at to find the ones it returned. Only
+ * a couple of explains run at once, so a burst of slow queries doesn't
+ * pile even more work onto a database that's already struggling; queries
+ * that come in while they're busy are kept without a plan.
+ *
+ * Only the most recent `capacity` slow queries are kept, newest first.
+ */
+public class SlowQueryLog {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+
+  // How long a query can take before it's slow, unless we're told otherwise.
+  public static final Duration DEFAULT_THRESHOLD = Duration.ofMillis(100);
+  // How many slow queries we keep.
+  public static final int DEFAULT_CAPACITY = 100;
+  // How many explains can run at once.
+  static final int MAX_CONCURRENT_EXPLAINS = 2;
+
+  /**
+   * A query that took longer than the threshold, and how MongoDB ran it.
+   *
+   * @param at when the query finished, in ISO-8601
+   * @param route the route that ran it (e.g., `/api/users`)
+   * @param collection the collection it was on
+   * @param filter the filter, as JSON
+   * @param sort the sort, as JSON
+   * @param millis how long it took, in milliseconds
+   * @param stages the stages of the winning plan, from the top down
+   *   (e.g., `SORT`, `COLLSCAN`), or empty if there's no plan
+   * @param indexes the indexes the plan used
+   * @param docsExamined how many documents MongoDB looked at
+   * @param keysExamined how many index keys MongoDB looked at
+   * @param returned how many documents the query returned
+   * @param problem why there's no plan, or `null` if there is one
+   */
+  public record SlowQuery(
+      String at,
+      String route,
+      String collection,
+      String filter,
+      String sort,
+      long millis,
+      List<String> stages,
+      List<String> indexes,
+      long docsExamined,
+      long keysExamined,
+      long returned,
+      String problem) {
+
+    /**
+     * Make defensive copies of the lists.
+     */
+    public SlowQuery {
+      stages = List.copyOf(stages);
+      indexes = List.copyOf(indexes);
+    }
+
+    /**
+     * Whether MongoDB had to look at every document in the collection.
+     *
+     * @return `true` if the plan has a `COLLSCAN` stage
+     */
+    public boolean collectionScan() {
+      return stages.contains("COLLSCAN");
+    }
+  }
+
+  private final long thresholdNanos;
+  private final int capacity;
+  private final Executor explainer;
+  private final Semaphore explains = new Semaphore(MAX_CONCURRENT_EXPLAINS);
+  // The most recent slow queries, newest first.
+  private final Deque<SlowQuery> recent = new ArrayDeque<>();
+
+  /**
+   * Construct a slow query log with the default threshold.
+   */
+  public SlowQueryLog() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Construct a slow query log.
+   *
+   * @param threshold how long a query can take before it's slow
+   */
+  public SlowQueryLog(Duration threshold) {
+    this(threshold, DEFAULT_CAPACITY, task -> Thread.ofVirtual().name("slow-query-explain").start(task));
+  }
+
+  /**
+   * Construct a slow query log that keeps `capacity` queries and runs its
+   * explains with `explainer` (e.g., on the calling thread, for testing).
+   *
+   * @param threshold how long a query can take before it's slow
+   * @param capacity the most slow queries to keep
+   * @param explainer runs the explains
+   */
+  SlowQueryLog(Duration threshold, int capacity, Executor explainer) {
+    if (threshold.isNegative() || capacity <= 0) {
+      throw new IllegalArgumentException("The threshold can't be negative, and the capacity must be positive");
+    }
+    this.thresholdNanos = threshold.toNanos();
+    this.capacity = capacity;
+    this.explainer = explainer;
+  }
+
+  /**
+   * Find the documents in `collection` that match `filter`, sorted by
+   * `sort`, and note the query if it's slow.
+   *
+   * @param <T> the type of the documents
+   * @param route the route running the query (e.g., `/api/users`)
+   * @param collection the collection to search
+   * @param filter the filter
+   * @param sort the sort
+   * @return the matching documents
+   */
+  public <T> ArrayList<T> find(String route, MongoCollection<T> collection, Bson filter, Bson sort) {
+    return time(route, collection, filter, sort, () -> collection.find(filter).sort(sort).into(new ArrayList<>()));
+  }
+
+  /**
+   * Run `query`, which finds documents in `collection` that match
+   * `filter`, sorted by `sort`, and note it if it's slow. This is for
+   * queries that don't just read everything into a list, like a page of
+   * a keyset listing or an NDJSON stream.
+   *
+   * The explain is of `filter` and `sort` alone, so it shows whether
+   * MongoDB has an index for them, but not any limit `query` adds. For a
+   * stream, the time includes writing the documents to the client.
+   *
+   * @param <R> the type of the result
+   * @param route the route running the query (e.g., `/api/users`)
+   * @param collection the collection `query` searches
+   * @param filter the filter `query` uses
+   * @param sort the sort `query` uses
+   * @param query runs the query
+   * @return whatever `query` returns
+   */
+  public <R> R time(String route, MongoCollection<?> collection, Bson filter, Bson sort, Supplier<R> query) {
+    long start = System.nanoTime();
+    R result = query.get();
+    long nanos = System.nanoTime() - start;
+    if (nanos >= thresholdNanos) {
+      slow(route, collection, filter, sort, nanos);
+    }
+    return result;
+  }
+
+  /**
+   * The most recent slow queries.
+   *
+   * @return the slow queries, newest first
+   */
+  public List<SlowQuery> recent() {
+    synchronized (recent) {
+      return List.copyOf(recent);
+    }
+  }
+
+  private void slow(String route, MongoCollection<?> collection, Bson filter, Bson sort, long nanos) {
+    String at = Instant.now().toString();
+    String name = collection.getNamespace().getCollectionName();
+    String filterJson = filter.toBsonDocument(BsonDocument.class, collection.getCodecRegistry()).toJson();
+    String sortJson = sort.toBsonDocument(BsonDocument.class, collection.getCodecRegistry()).toJson();
+    long millis = Duration.ofNanos(nanos).toMillis();
+    LOGGER.warn("Slow query on {} ({} ms) for {}: filter {}, sort {}", name, millis, route, filterJson, sortJson);
+
+    if (!explains.tryAcquire()) {
+      add(new SlowQuery(at, route, name, filterJson, sortJson, millis, List.of(), List.of(), 0, 0, 0,
+        "Too many explains were already running"));
+      return;
+    }
+    try {
+      explainer.execute(() -> {
+        try {
+          Document explained = collection.find(filter).sort(sort).explain(ExplainVerbosity.EXECUTION_STATS);
+          add(withPlan(new SlowQuery(at, route, name, filterJson, sortJson, millis,
+            List.of(), List.of(), 0, 0, 0, null), explained));
+        } catch (RuntimeException e) {
+          LOGGER.warn("Couldn't explain the slow query on {} for {}", name, route, e);
+          add(new SlowQuery(at, route, name, filterJson, sortJson, millis, List.of(), List.of(), 0, 0, 0,
+            "Couldn't explain the query: " + e.getMessage()));
+        } finally {
+          explains.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      explains.release();
+      throw e;
+    }
+  }
+
+  private void add(SlowQuery query) {
+    synchronized (recent) {
+      if (recent.size() == capacity) {
+        recent.removeLast();
+      }
+      recent.addFirst(query);
+    }
+  }
+
+  /**
+   * Fill in the plan of `query` from the output of `explain`.
+   *
+   * The winning plan is a tree of stages; we list them depth-first, and
+   * note the indexes any `IXSCAN`s used. (Newer versions of MongoDB wrap
+   * the tree in a `queryPlan` field.)
+   *
+   * @param query the slow query, without a plan
+   * @param explained the output of `explain` with execution stats
+   * @return the slow query, with its plan
+   */
+  static SlowQuery withPlan(SlowQuery query, Document explained) {
+    List<String> stages = new ArrayList<>();
+    List<String> indexes = new ArrayList<>();
+    Document planner = explained.get("queryPlanner", new Document());
+    Document winning = planner.get("winningPlan", new Document());
+    addStages(winning.get("queryPlan", winning), stages, indexes);
+
+    Document stats = explained.get("executionStats", new Document());
+    return new SlowQuery(query.at(), query.route(), query.collection(), query.filter(), query.sort(),
+      query.millis(), stages, indexes,
+      count(stats, "totalDocsExamined"), count(stats, "totalKeysExamined"), count(stats, "nReturned"),
+      query.problem());
+  }
+
+  private static void addStages(Document stage, List<String> stages, List<String> indexes) {
+    String name = stage.getString("stage");
+    if (name != null) {
+      stages.add(name);
+    }
+    String index = stage.getString("indexName");
+    if (index != null && !indexes.contains(index)) {
+      indexes.add(index);
+    }
+    Document input = stage.get("inputStage", Document.class);
+    if (input != null) {
+      addStages(input, stages, indexes);
+    }
+    for (Document each : stage.getList("inputStages", Document.class, List.of())) {
+      addStages(each, stages, indexes);
+    }
+  }
+
+  private static long count(Document stats, String key) {
+    Object value = stats.get(key);
+    return value instanceof Number number ? number.longValue() : 0;
+  }
+}
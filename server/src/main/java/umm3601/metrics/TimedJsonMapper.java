@@ -0,0 +1,80 @@
+package umm3601.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import io.javalin.json.JsonMapper;
+
+/**
+ * A JSON mapper that adds the time it spends turning results into JSON to
+ * the current request's `HandlerEvent`, and otherwise leaves everything to
+ * the mapper it wraps.
+ *
+ * `ctx.json(...)` asks for a stream, which `JavalinJackson` only fills as
+ * it's read, on another thread, so timing the call would measure next to
+ * nothing. While the request's `HandlerEvent` is being recorded, results
+ * are turned into JSON straight away, while we're timing, and handed back
+ * as a stream of the bytes; that holds the whole response in memory until
+ * it's sent. Otherwise the delegate's stream is handed back untouched, so
+ * the usual case costs nothing extra.
+ */
+public final class TimedJsonMapper implements JsonMapper {
+
+  private final JsonMapper delegate;
+
+  /**
+   * Construct a timed JSON mapper.
+   *
+   * @param delegate the mapper that does the work
+   */
+  public TimedJsonMapper(JsonMapper delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String toJsonString(Object obj, Type type) {
+    long start = System.nanoTime();
+    try {
+      return delegate.toJsonString(obj, type);
+    } finally {
+      HandlerEvents.addSerializationTime(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public InputStream toJsonStream(Object obj, Type type) {
+    if (!HandlerEvents.isRecording()) {
+      return delegate.toJsonStream(obj, type);
+    }
+    long start = System.nanoTime();
+    try {
+      return new ByteArrayInputStream(delegate.toJsonString(obj, type).getBytes(StandardCharsets.UTF_8));
+    } finally {
+      HandlerEvents.addSerializationTime(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public void writeToOutputStream(Stream<?> stream, OutputStream outputStream) {
+    long start = System.nanoTime();
+    try {
+      delegate.writeToOutputStream(stream, outputStream);
+    } finally {
+      HandlerEvents.addSerializationTime(System.nanoTime() - start);
+    }
+  }
+
+  @Override
+  public <T> T fromJsonString(String json, Type targetType) {
+    return delegate.fromJsonString(json, targetType);
+  }
+
+  @Override
+  public <T> T fromJsonStream(InputStream json, Type targetType) {
+    return delegate.fromJsonStream(json, targetType);
+  }
+}
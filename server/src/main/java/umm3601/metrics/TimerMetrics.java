@@ -0,0 +1,59 @@
+package umm3601.metrics;
+
+import java.util.function.Supplier;
+
+import umm3601.timer.TimerStats;
+
+/**
+ * Serves the counters of a `TimingWheel` (e.g., the one that keeps
+ * lobbies' round deadlines) alongside the other metrics: how many timers
+ * are waiting, how many have fired or been cancelled, and how far behind
+ * real time its ticks are running. Drift that keeps growing means the
+ * wheel's thread can't keep up, and timers are firing late.
+ *
+ * It only takes a snapshot of the wheel's stats when it's scraped, so
+ * the wheel itself doesn't do anything extra.
+ */
+public class TimerMetrics implements MetricSource {
+
+  static final String PENDING = "timer_wheel_pending";
+  static final String EXPIRED = "timer_wheel_expired_total";
+  static final String CANCELLED = "timer_wheel_cancelled_total";
+  static final String DRIFT = "timer_wheel_drift_seconds";
+  static final String MAX_DRIFT = "timer_wheel_max_drift_seconds";
+  private static final double MICROS_PER_SECOND = 1_000_000;
+
+  private final String wheel;
+  private final Supplier<TimerStats> stats;
+
+  /**
+   * Construct metrics for one timing wheel.
+   *
+   * @param wheel the name the wheel's samples are labelled with (e.g., `lobbies`)
+   * @param stats takes a snapshot of the wheel's stats, like `TimingWheel.stats()`
+   */
+  public TimerMetrics(String wheel, Supplier<TimerStats> stats) {
+    this.wheel = wheel;
+    this.stats = stats;
+  }
+
+  /**
+   * Add the wheel's counters to `out`.
+   *
+   * @param out where to write the metrics
+   */
+  @Override
+  public void writeTo(PrometheusWriter out) {
+    TimerStats current = stats.get();
+    out.family(PENDING, "gauge", "Timers waiting to fire, by timing wheel")
+      .sample(PENDING, current.pending(), "wheel", wheel);
+    out.family(EXPIRED, "counter", "Timers that have fired, by timing wheel")
+      .sample(EXPIRED, current.expired(), "wheel", wheel);
+    out.family(CANCELLED, "counter", "Timers cancelled before they fired, by timing wheel")
+      .sample(CANCELLED, current.cancelled(), "wheel", wheel);
+    out.family(DRIFT, "gauge", "How late the timing wheel's most recent tick was")
+      .sample(DRIFT, current.lastDriftMicros() / MICROS_PER_SECOND, "wheel", wheel);
+    out.family(MAX_DRIFT, "gauge", "The latest the timing wheel has been for a tick since the server started")
+      .sample(MAX_DRIFT, current.maxDriftMicros() / MICROS_PER_SECOND, "wheel", wheel);
+  }
+}
@@ -0,0 +1,95 @@
+package umm3601.paging;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+/**
+ * A position in a listing that is sorted by some field and then by `_id`.
+ *
+ * The cursor records the value of the sort field and the `_id` of the
+ * last item on a page. The next page is then "everything that sorts
+ * after that (value, `_id`) pair", which MongoDB can answer with an index
+ * range scan instead of skipping over all the earlier results.
+ *
+ * Clients only ever see the encoded form (URL-safe base64 of a small
+ * JSON document), and should treat it as opaque.
+ *
+ * @param sortValue the value of the sort field for the last item on the page
+ * @param id the `_id` of the last item on the page
+ */
+public record KeysetCursor(Object sortValue, ObjectId id) {
+
+  private static final String VALUE_KEY = "v";
+  private static final String ID_KEY = "id";
+
+  /**
+   * Encode this cursor as an opaque, URL-safe string.
+   *
+   * @return the encoded cursor
+   */
+  public String encode() {
+    String json = new Document(VALUE_KEY, sortValue).append(ID_KEY, id).toJson();
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode a cursor previously produced by `encode()`.
+   *
+   * @param encoded the opaque cursor string sent by the client
+   * @return the decoded cursor
+   * @throws IllegalArgumentException if `encoded` isn't a legal cursor
+   */
+  public static KeysetCursor decode(String encoded) {
+    try {
+      String json = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+      Document document = Document.parse(json);
+      if (!document.containsKey(VALUE_KEY) || !(document.get(ID_KEY) instanceof ObjectId)) {
+        throw new IllegalArgumentException("The cursor " + encoded + " is missing required fields");
+      }
+      return new KeysetCursor(document.get(VALUE_KEY), document.getObjectId(ID_KEY));
+    } catch (JsonParseException e) {
+      throw new IllegalArgumentException("The cursor " + encoded + " isn't a legal cursor", e);
+    }
+  }
+
+  /**
+   * Build a filter that matches every document that sorts strictly after
+   * this cursor when sorting by `sortField` and then `_id`.
+   *
+   * MongoDB sorts `null` (and missing) values before everything else, so
+   * a cursor positioned on a `null` value needs slightly different bounds,
+   * and in descending order the `null`s still come after any other value
+   * (`$lt` alone would never match them).
+   *
+   * @param sortField the field the listing is sorted by
+   * @param descending whether the listing is sorted in descending order
+   * @return a filter selecting the documents after this cursor
+   */
+  public Bson after(String sortField, boolean descending) {
+    if (sortField.equals("_id")) {
+      return descending ? lt("_id", id) : gt("_id", id);
+    }
+    Bson sameValueLaterId = and(eq(sortField, sortValue), descending ? lt("_id", id) : gt("_id", id));
+    if (sortValue == null) {
+      // Everything non-null comes after null in ascending order,
+      // and nothing does in descending order.
+      return descending ? sameValueLaterId : or(ne(sortField, null), sameValueLaterId);
+    }
+    if (descending) {
+      return or(lt(sortField, sortValue), eq(sortField, null), sameValueLaterId);
+    }
+    return or(gt(sortField, sortValue), sameValueLaterId);
+  }
+}
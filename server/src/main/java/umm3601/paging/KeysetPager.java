@@ -0,0 +1,156 @@
+package umm3601.paging;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * Serves listings one page at a time using keyset (a.k.a. cursor)
+ * pagination.
+ *
+ * Rather than `skip`ping over earlier results (which gets slower the
+ * further into the listing you go), each page asks MongoDB for the
+ * documents that sort after the last one on the previous page. With an
+ * index on `(sortField, _id)` that is a range scan that costs the same on
+ * the first page as on the millionth.
+ *
+ * The items are expected to be MongoJack POJOs like `User` and `Lobby`,
+ * with a public `_id` field holding the hex string form of the ObjectId
+ * and public fields for anything we might sort by.
+ *
+ * A primitive field (like `User.age`) reads as 0 when the document
+ * doesn't have a value for it, but MongoDB sorts those documents with the
+ * `null`s. So when we sort by a primitive field, the cursor's value is
+ * read from the stored document instead of the POJO.
+ */
+public final class KeysetPager {
+
+  public static final String LIMIT_KEY = "limit";
+  public static final String AFTER_KEY = "after";
+  public static final int MAX_LIMIT = 1000;
+
+  private KeysetPager() {
+  }
+
+  /**
+   * Get one page of the documents in `collection` that match `filter`.
+   *
+   * @param collection the collection to read from
+   * @param type the class of the items in the collection
+   * @param filter the filter the listing is restricted to
+   * @param sortField the field the listing is sorted by
+   * @param descending whether the listing is sorted in descending order
+   * @param limit the maximum number of items on the page
+   * @param after the encoded cursor from the previous page, or `null` for the first page
+   * @param <T> the type of the items in the collection
+   * @return the requested page, along with the cursor for the next one
+   * @throws IllegalArgumentException if `sortField` can't be paginated over,
+   *   or `after` isn't a legal cursor
+   */
+  public static <T> Page<T> fetch(
+      MongoCollection<T> collection,
+      Class<T> type,
+      Bson filter,
+      String sortField,
+      boolean descending,
+      int limit,
+      String after) {
+    Field sortAccessor = sortableField(type, sortField);
+    Field idAccessor = sortableField(type, "_id");
+
+    Bson pageFilter = after == null ? filter : and(filter, KeysetCursor.decode(after).after(sortField, descending));
+    Bson sortingOrder = sortingOrder(sortField, descending);
+
+    // Ask for one extra item so we know whether there's a next page
+    // without having to count anything.
+    List<T> items = collection
+      .find(pageFilter)
+      .sort(sortingOrder)
+      .limit(limit + 1)
+      .into(new ArrayList<>(limit + 1));
+
+    String next = null;
+    if (items.size() > limit) {
+      items.remove(limit);
+      T last = items.get(limit - 1);
+      ObjectId lastId = new ObjectId((String) read(idAccessor, last));
+      Object lastValue;
+      if (sortField.equals("_id")) {
+        lastValue = lastId;
+      } else if (sortAccessor.getType().isPrimitive()) {
+        lastValue = readStored(collection, sortField, lastId, read(sortAccessor, last));
+      } else {
+        lastValue = read(sortAccessor, last);
+      }
+      next = new KeysetCursor(lastValue, lastId).encode();
+    }
+    return new Page<>(items, next);
+  }
+
+  /**
+   * The order `fetch` sorts a listing in: by `sortField`, and then by
+   * `_id` to break ties.
+   *
+   * @param sortField the field the listing is sorted by
+   * @param descending whether the listing is sorted in descending order
+   * @return the sort
+   */
+  public static Bson sortingOrder(String sortField, boolean descending) {
+    return descending ? Sorts.descending(sortField, "_id") : Sorts.ascending(sortField, "_id");
+  }
+
+  /**
+   * Find the public field named `name` in `type`, making sure it holds
+   * a single value (and not an array or collection) that we can use in
+   * a cursor.
+   */
+  private static Field sortableField(Class<?> type, String name) {
+    try {
+      Field field = type.getField(name);
+      Class<?> fieldType = field.getType();
+      if (Modifier.isStatic(field.getModifiers())
+          || fieldType.isArray()
+          || Collection.class.isAssignableFrom(fieldType)) {
+        throw new IllegalArgumentException("Can't paginate by " + name);
+      }
+      return field;
+    } catch (NoSuchFieldException e) {
+      throw new IllegalArgumentException("Can't paginate by unknown field " + name, e);
+    }
+  }
+
+  /**
+   * Read the value of `sortField` from the stored document with the given
+   * `_id`, which is `null` if the document doesn't have one.
+   *
+   * @param fallback the value to use if the document has since been deleted
+   */
+  private static Object readStored(MongoCollection<?> collection, String sortField, ObjectId id, Object fallback) {
+    Document stored = collection.withDocumentClass(Document.class)
+      .find(eq("_id", id))
+      .projection(Projections.include(sortField))
+      .first();
+    return stored == null ? fallback : stored.get(sortField);
+  }
+
+  private static Object read(Field field, Object item) {
+    try {
+      return field.get(item);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Couldn't read " + field.getName(), e);
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package umm3601.paging;
+
+import java.util.List;
+
+/**
+ * One page of results from a paginated listing, along with the opaque
+ * cursor the client should send (as the `after` query parameter) to
+ * get the next page. `next` is `null` when this is the last page.
+ *
+ * @param <T> the type of the items on the page
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class Page<T> {
+  public List<T> items;
+  public String next;
+
+  public Page(List<T> items, String next) {
+    this.items = items;
+    this.next = next;
+  }
+}
@@ -0,0 +1,153 @@
+package umm3601.search;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Support for index-friendly, case- and accent-insensitive text search.
+ *
+ * A case-insensitive regex (like `/ohm/i`) can't use an index, so every
+ * such search scans the whole collection. Instead, we store a normalized
+ * "search key" copy of the searchable field (lower-cased, with accents
+ * removed) next to the original, index that, and normalize the search
+ * text the same way. Exact matches are then an index lookup and prefix
+ * matches are an index range scan, both O(log n).
+ *
+ * This also provides a safe way to turn user-supplied text into a regex:
+ * everything is escaped, so a hostile "pattern" is just literal text and
+ * can't make the database do catastrophic backtracking.
+ */
+public final class SearchKeys {
+
+  public static final String MATCH_KEY = "match";
+
+  // The longest search text we'll accept.
+  public static final int MAX_SEARCH_LENGTH = 100;
+
+  // How many documents to update per round trip when backfilling search keys.
+  private static final int BACKFILL_BATCH_SIZE = 1000;
+
+  private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+  private static final Pattern REGEX_METACHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+  /**
+   * The ways a search key can be matched.
+   */
+  public enum MatchMode {
+    EXACT,
+    PREFIX,
+    CONTAINS;
+
+    /**
+     * Parse a match mode from a query parameter value like `"prefix"`.
+     *
+     * @param value the query parameter value (case doesn't matter)
+     * @return the matching mode
+     * @throws IllegalArgumentException if `value` isn't a known mode
+     */
+    public static MatchMode fromParam(String value) {
+      try {
+        return MatchMode.valueOf(value.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+          "The match mode must be one of exact, prefix, or contains; you provided " + value, e);
+      }
+    }
+  }
+
+  private SearchKeys() {
+  }
+
+  /**
+   * Normalize `text` for searching: decompose accented characters, drop
+   * the accents, and lower-case the result. So "Crème Brûlée" becomes
+   * "creme brulee".
+   *
+   * @param text the text to normalize; may be `null`
+   * @return the normalized text, or `null` if `text` was `null`
+   */
+  public static String normalize(String text) {
+    if (text == null) {
+      return null;
+    }
+    String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+    return COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Escape every regex metacharacter in `text`, so that the resulting
+   * regex matches `text` literally.
+   *
+   * We escape characters one at a time (rather than using `\Q…\E`) so
+   * that MongoDB can still recognize an anchored pattern like `^abc` as
+   * a simple prefix and turn it into index bounds.
+   *
+   * @param text the literal text
+   * @return a regex that matches exactly `text`
+   */
+  public static String escapeRegex(String text) {
+    return REGEX_METACHARACTERS.matcher(text).replaceAll("\\\\$0");
+  }
+
+  /**
+   * Build a filter that matches documents whose search key field matches
+   * the (normalized) `text` in the given way.
+   *
+   * @param keyField the name of the normalized search key field
+   * @param text the text to search for
+   * @param mode how the text should be matched
+   * @return a filter for use in `find()`
+   */
+  public static Bson filter(String keyField, String text, MatchMode mode) {
+    String key = normalize(text);
+    return switch (mode) {
+      case EXACT -> eq(keyField, key);
+      case PREFIX -> regex(keyField, "^" + escapeRegex(key));
+      default -> regex(keyField, escapeRegex(key));
+    };
+  }
+
+  /**
+   * Fill in the search key field on any documents that don't have one yet
+   * (e.g., documents added before search keys existed, or by seeding
+   * scripts that don't know about them).
+   *
+   * @param collection the collection to backfill
+   * @param sourceField the field whose value should be normalized
+   * @param keyField the search key field to fill in
+   * @return the number of documents that were updated
+   */
+  public static int backfill(MongoCollection<Document> collection, String sourceField, String keyField) {
+    int updated = 0;
+    List<WriteModel<Document>> updates = new ArrayList<>();
+    for (Document document : collection.find(exists(keyField, false)).projection(Projections.include(sourceField))) {
+      String key = normalize(document.getString(sourceField));
+      updates.add(new UpdateOneModel<>(eq("_id", document.get("_id")), Updates.set(keyField, key)));
+      if (updates.size() == BACKFILL_BATCH_SIZE) {
+        updated += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        updates.clear();
+      }
+    }
+    if (!updates.isEmpty()) {
+      updated += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+    }
+    return updated;
+  }
+}
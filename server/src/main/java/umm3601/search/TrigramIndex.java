@@ -0,0 +1,229 @@
+package umm3601.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory inverted index from trigrams (three-character substrings)
+ * to the ids of the documents whose text contains them.
+ *
+ * To find the documents containing "orang" we look up the documents
+ * containing each of its trigrams ("ora", "ran", "ang"), and take the
+ * smallest of those sets as the candidates. Each candidate's text is then
+ * checked for "orang" itself, which rules out the ones missing the other
+ * trigrams as well as the ones that have them all but in the wrong order,
+ * so the sets are never intersected. That's a handful of hash lookups and
+ * a short scan rather than a scan of every document, so substring searches
+ * take microseconds.
+ *
+ * Text is normalized with `SearchKeys.normalize()`, so searches ignore
+ * case and accents.
+ *
+ * The index starts out "cold" and becomes "warm" once it has been loaded
+ * with `rebuild()`; callers should fall back to some other way of
+ * searching while it's cold. Changes made while a rebuild is in progress
+ * are replayed on top of the rebuilt index so they aren't lost.
+ */
+public class TrigramIndex {
+
+  // The length of the substrings we index.
+  public static final int GRAM_LENGTH = 3;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private Map<String, String> textById = new HashMap<>();
+  private Map<String, Set<String>> idsByGram = new HashMap<>();
+  private boolean warm;
+
+  // Changes made while a rebuild is running; `null` when there's no rebuild.
+  private List<Runnable> changesDuringRebuild;
+
+  /**
+   * Whether the index has been loaded and can be used for searches.
+   *
+   * @return `true` if the index is warm
+   */
+  public boolean isWarm() {
+    lock.readLock().lock();
+    try {
+      return warm;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The number of documents in the index.
+   *
+   * @return the number of indexed documents
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return textById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Add (or replace) the text for a document.
+   *
+   * @param id the id of the document
+   * @param text the document's searchable text
+   */
+  public void add(String id, String text) {
+    lock.writeLock().lock();
+    try {
+      unindex(textById, idsByGram, id);
+      index(textById, idsByGram, id, text);
+      if (changesDuringRebuild != null) {
+        changesDuringRebuild.add(() -> add(id, text));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a document from the index.
+   *
+   * @param id the id of the document to remove
+   */
+  public void remove(String id) {
+    lock.writeLock().lock();
+    try {
+      unindex(textById, idsByGram, id);
+      if (changesDuringRebuild != null) {
+        changesDuringRebuild.add(() -> remove(id));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replace the contents of the index with the documents provided by
+   * `loader`, and mark it as warm. The new index is built without holding
+   * the lock, so searches (against the old contents) can continue in the
+   * meantime. Changes made after this starts (and so possibly after
+   * `loader` read its data) are replayed once the new index is in place.
+   *
+   * @param loader provides a map from document ids to their searchable text
+   */
+  public synchronized void rebuild(Supplier<Map<String, String>> loader) {
+    lock.writeLock().lock();
+    try {
+      changesDuringRebuild = new ArrayList<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    Map<String, String> newTextById = new HashMap<>();
+    Map<String, Set<String>> newIdsByGram = new HashMap<>();
+    try {
+      for (Map.Entry<String, String> document : loader.get().entrySet()) {
+        index(newTextById, newIdsByGram, document.getKey(), document.getValue());
+      }
+    } catch (RuntimeException e) {
+      // Leave the old contents in place, and stop recording changes.
+      lock.writeLock().lock();
+      try {
+        changesDuringRebuild = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      throw e;
+    }
+
+    lock.writeLock().lock();
+    try {
+      List<Runnable> changes = changesDuringRebuild;
+      changesDuringRebuild = null;
+      textById = newTextById;
+      idsByGram = newIdsByGram;
+      warm = true;
+      // The write lock is reentrant, so replaying the changes here is safe.
+      changes.forEach(Runnable::run);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Find the ids of all the documents whose text contains `query`.
+   *
+   * @param query the text to search for; must be at least `GRAM_LENGTH` long
+   * @return the ids of the matching documents
+   */
+  public Set<String> search(String query) {
+    String normalized = SearchKeys.normalize(query);
+    if (normalized.length() < GRAM_LENGTH) {
+      throw new IllegalArgumentException("Trigram searches need at least " + GRAM_LENGTH + " characters");
+    }
+
+    lock.readLock().lock();
+    try {
+      // Start with the rarest trigram, so the candidate set is as small as possible.
+      List<Set<String>> postings = new ArrayList<>();
+      for (String gram : grams(normalized)) {
+        Set<String> ids = idsByGram.get(gram);
+        if (ids == null) {
+          return Collections.emptySet();
+        }
+        postings.add(ids);
+      }
+      postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+      Set<String> result = new HashSet<>();
+      for (String candidate : postings.get(0)) {
+        if (textById.get(candidate).contains(normalized)) {
+          result.add(candidate);
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static void index(Map<String, String> textById, Map<String, Set<String>> idsByGram, String id, String text) {
+    String normalized = SearchKeys.normalize(text == null ? "" : text);
+    textById.put(id, normalized);
+    for (String gram : grams(normalized)) {
+      idsByGram.computeIfAbsent(gram, g -> new HashSet<>()).add(id);
+    }
+  }
+
+  private static void unindex(Map<String, String> textById, Map<String, Set<String>> idsByGram, String id) {
+    String oldText = textById.remove(id);
+    if (oldText == null) {
+      return;
+    }
+    for (String gram : grams(oldText)) {
+      Set<String> ids = idsByGram.get(gram);
+      if (ids != null) {
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          idsByGram.remove(gram);
+        }
+      }
+    }
+  }
+
+  private static Set<String> grams(String text) {
+    Set<String> grams = new HashSet<>();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      grams.add(text.substring(i, i + GRAM_LENGTH));
+    }
+    return grams;
+  }
+}
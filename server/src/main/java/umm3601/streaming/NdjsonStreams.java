@@ -0,0 +1,83 @@
+package umm3601.streaming;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.json.JsonMapper;
+
+/**
+ * Helpers for streaming listings to the client as newline-delimited JSON
+ * (NDJSON, one JSON document per line) instead of one big JSON array.
+ *
+ * `ctx.json(list)` needs the whole list in memory, and then builds the
+ * whole JSON string in memory too, before sending the first byte. When
+ * streaming, each document is serialized and written to the response as
+ * soon as the Mongo cursor hands it to us, so memory use doesn't depend
+ * on the size of the result and the client starts receiving data right
+ * away. That's handy for exports and admin screens that want everything.
+ */
+public final class NdjsonStreams {
+
+  public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+  public static final String STREAM_KEY = "stream";
+
+  private NdjsonStreams() {
+  }
+
+  /**
+   * Decide whether the client asked for a streamed response, either with
+   * `?stream=true` or by sending `Accept: application/x-ndjson`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return `true` if the response should be streamed as NDJSON
+   */
+  public static boolean wantsStream(Context ctx) {
+    if ("true".equalsIgnoreCase(ctx.queryParam(STREAM_KEY))) {
+      return true;
+    }
+    String accept = ctx.header(Header.ACCEPT);
+    return accept != null && accept.contains(NDJSON_CONTENT_TYPE);
+  }
+
+  /**
+   * Write every document from `results` to the response, one JSON document
+   * per line, as the cursor yields them.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param results the (not yet executed) query whose results should be streamed
+   * @param type the class of the documents being streamed
+   * @param <T> the type of the documents being streamed
+   * @return the number of documents written
+   */
+  public static <T> long write(Context ctx, MongoIterable<T> results, Class<T> type) {
+    ctx.status(HttpStatus.OK);
+    ctx.contentType(NDJSON_CONTENT_TYPE);
+    JsonMapper jsonMapper = ctx.jsonMapper();
+
+    // The `BufferedWriter` batches up lots of small documents into
+    // reasonably sized writes to the underlying output stream.
+    long written = 0;
+    try (MongoCursor<T> cursor = results.iterator()) {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(ctx.outputStream(), StandardCharsets.UTF_8));
+      while (cursor.hasNext()) {
+        writer.write(jsonMapper.toJsonString(cursor.next(), type));
+        writer.write('\n');
+        written++;
+      }
+      writer.flush();
+      return written;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to stream response", e);
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package umm3601.timer;
+
+/**
+ * A point-in-time snapshot of the counters kept by a `TimingWheel`.
+ *
+ * @param pending the number of timers scheduled that haven't fired or been cancelled
+ * @param expired the number of timers that have fired
+ * @param cancelled the number of timers that were cancelled before they fired
+ * @param lastDriftMicros how late (in microseconds) the wheel was for its most recent tick
+ * @param maxDriftMicros the latest (in microseconds) the wheel has ever been for a tick
+ */
+public record TimerStats(long pending, long expired, long cancelled, long lastDriftMicros, long maxDriftMicros) {
+}
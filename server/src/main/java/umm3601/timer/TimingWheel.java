@@ -0,0 +1,369 @@
+package umm3601.timer;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hierarchical timing wheel, for keeping track of lots of timers (e.g.,
+ * round deadlines in thousands of lobbies at once) without a scheduled
+ * task, or a heap operation, per timer.
+ *
+ * Time is divided into ticks. The bottom wheel has `WHEEL_SIZE` slots,
+ * one per tick, each holding a list of the timers that fire on that tick.
+ * Each wheel above it has the same number of slots, but each slot covers a
+ * whole turn of the wheel below, so `LEVELS` wheels cover
+ * `WHEEL_SIZE ^ LEVELS` ticks. Timers due further off than the bottom
+ * wheel covers wait in a higher wheel, and move ("cascade") down when
+ * their slot comes around. Scheduling and cancelling are O(1): a timer is
+ * just linked into (or out of) one slot's list.
+ *
+ * A single thread advances the wheel a tick at a time, and hands each
+ * expired timer's task to `workers` to run, so slow tasks can't hold up
+ * the clock. `stats()` reports how many timers are waiting and how far
+ * behind real time the ticks are running (the "drift").
+ */
+public final class TimingWheel implements AutoCloseable {
+
+  // The number of slots in each wheel; a power of two, so slots can be
+  // found with shifts and masks.
+  static final int WHEEL_BITS = 6;
+  static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+  static final int LEVELS = 4;
+  static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+  private static final long NANOS_PER_MICRO = 1_000;
+
+  private final long tickNanos;
+  private final Executor workers;
+  private final LongSupplier clock;
+  private final long startNanos;
+
+  // All of the following are guarded by `this`.
+  private final Slot[][] wheels = new Slot[LEVELS][WHEEL_SIZE];
+  private long currentTick;
+  private long pending;
+  private long expired;
+  private long cancelled;
+  private long lastDriftNanos;
+  private long maxDriftNanos;
+
+  private Thread ticker;
+  private volatile boolean running;
+
+  /**
+   * Construct a wheel with the default tick (10ms), which runs expired
+   * timers' tasks on virtual threads.
+   */
+  public TimingWheel() {
+    this(DEFAULT_TICK, Executors.newVirtualThreadPerTaskExecutor());
+  }
+
+  /**
+   * Construct a wheel.
+   *
+   * @param tick how often the wheel advances; timers fire on the first
+   *   tick at or after their deadline
+   * @param workers runs the tasks of expired timers
+   */
+  public TimingWheel(Duration tick, Executor workers) {
+    this(tick, workers, System::nanoTime);
+  }
+
+  /**
+   * Construct a wheel with its own clock, so tests can control time.
+   */
+  TimingWheel(Duration tick, Executor workers, LongSupplier clock) {
+    if (tick.isNegative() || tick.isZero()) {
+      throw new IllegalArgumentException("The tick must be positive; it was " + tick);
+    }
+    this.tickNanos = tick.toNanos();
+    this.workers = workers;
+    this.clock = clock;
+    this.startNanos = clock.getAsLong();
+    for (Slot[] wheel : wheels) {
+      for (int i = 0; i < WHEEL_SIZE; i++) {
+        wheel[i] = new Slot();
+      }
+    }
+  }
+
+  /**
+   * Start the thread that advances the wheel.
+   */
+  public synchronized void start() {
+    if (ticker != null) {
+      return;
+    }
+    running = true;
+    ticker = Thread.ofPlatform().daemon().name("timing-wheel").start(this::run);
+  }
+
+  /**
+   * Stop the thread that advances the wheel. Timers that haven't fired
+   * yet never will.
+   */
+  @Override
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = ticker;
+      ticker = null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Run `task` (on one of the workers) after `delay`.
+   *
+   * @param delay how long to wait
+   * @param task what to do when the time is up
+   * @return a handle that can be used to cancel the timer
+   */
+  public Timeout schedule(Duration delay, Runnable task) {
+    long deadlineNanos = clock.getAsLong() + Math.max(0, delay.toNanos());
+    // Round up, so timers never fire early.
+    long deadlineTick = Math.ceilDiv(deadlineNanos - startNanos, tickNanos);
+    Timeout timeout = new Timeout(task, deadlineTick);
+    synchronized (this) {
+      // The slot for the current tick has already been handled, so a
+      // timer that's already due fires on the next tick.
+      timeout.deadlineTick = Math.max(timeout.deadlineTick, currentTick + 1);
+      place(timeout);
+      pending++;
+    }
+    return timeout;
+  }
+
+  /**
+   * A snapshot of the wheel's counters.
+   *
+   * @return the wheel's current stats
+   */
+  public synchronized TimerStats stats() {
+    return new TimerStats(pending, expired, cancelled,
+      lastDriftNanos / NANOS_PER_MICRO, maxDriftNanos / NANOS_PER_MICRO);
+  }
+
+  private void run() {
+    while (running) {
+      long nextTickNanos;
+      synchronized (this) {
+        nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+      }
+      long wait = nextTickNanos - clock.getAsLong();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+        continue;
+      }
+      try {
+        advance();
+      } catch (RuntimeException e) {
+        LOGGER.error("The timing wheel couldn't advance", e);
+      }
+    }
+  }
+
+  /**
+   * Process every tick up to the current time.
+   */
+  synchronized void advance() {
+    long now = clock.getAsLong();
+    long targetTick = (now - startNanos) / tickNanos;
+    if (targetTick <= currentTick) {
+      return;
+    }
+    // How late we are for the first tick we're about to process.
+    lastDriftNanos = now - (startNanos + (currentTick + 1) * tickNanos);
+    maxDriftNanos = Math.max(maxDriftNanos, lastDriftNanos);
+    while (currentTick < targetTick) {
+      currentTick++;
+      tick();
+    }
+  }
+
+  /**
+   * Cascade any higher wheels whose slot has come around, and then fire
+   * everything in the bottom wheel's slot for `currentTick`.
+   */
+  private void tick() {
+    int topLevel = 0;
+    while (topLevel + 1 < LEVELS && (currentTick & ((1L << (WHEEL_BITS * (topLevel + 1))) - 1)) == 0) {
+      topLevel++;
+    }
+    for (int level = topLevel; level > 0; level--) {
+      Slot slot = wheels[level][slotIndex(currentTick, level)];
+      Timeout timeout = slot.takeAll();
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        timeout.next = null;
+        place(timeout);
+        timeout = next;
+      }
+    }
+
+    Timeout timeout = wheels[0][slotIndex(currentTick, 0)].takeAll();
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      timeout.next = null;
+      fire(timeout);
+      timeout = next;
+    }
+  }
+
+  /**
+   * Link `timeout` into the slot for its deadline: in the lowest wheel
+   * that reaches that far, or the top wheel if none does (in which case it
+   * will be placed again when that slot comes around). The deadline must
+   * be no earlier than `currentTick`.
+   */
+  private void place(Timeout timeout) {
+    long delta = timeout.deadlineTick - currentTick;
+    int level = 0;
+    while (level + 1 < LEVELS && delta >= 1L << (WHEEL_BITS * (level + 1))) {
+      level++;
+    }
+    wheels[level][slotIndex(timeout.deadlineTick, level)].add(timeout);
+  }
+
+  private static int slotIndex(long tick, int level) {
+    return (int) ((tick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1));
+  }
+
+  private void fire(Timeout timeout) {
+    timeout.state = Timeout.EXPIRED;
+    pending--;
+    expired++;
+    try {
+      workers.execute(timeout.task);
+    } catch (RuntimeException e) {
+      LOGGER.error("Couldn't run an expired timer's task", e);
+    }
+  }
+
+  /**
+   * The timers due in one slot of one wheel, as a doubly linked list so
+   * any of them can be removed in O(1).
+   */
+  private static final class Slot {
+    private Timeout head;
+
+    void add(Timeout timeout) {
+      timeout.slot = this;
+      timeout.prev = null;
+      timeout.next = head;
+      if (head != null) {
+        head.prev = timeout;
+      }
+      head = timeout;
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.slot = null;
+      timeout.prev = null;
+      timeout.next = null;
+    }
+
+    /**
+     * Empty the slot, returning its timers as a list linked by `next`.
+     */
+    Timeout takeAll() {
+      Timeout all = head;
+      head = null;
+      for (Timeout timeout = all; timeout != null; timeout = timeout.next) {
+        timeout.slot = null;
+        timeout.prev = null;
+      }
+      return all;
+    }
+  }
+
+  /**
+   * A scheduled timer, which can be cancelled until it fires.
+   */
+  public final class Timeout {
+    private static final int WAITING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Runnable task;
+    // The following are guarded by the wheel.
+    private long deadlineTick;
+    private int state = WAITING;
+    private Slot slot;
+    private Timeout prev;
+    private Timeout next;
+
+    private Timeout(Runnable task, long deadlineTick) {
+      this.task = task;
+      this.deadlineTick = deadlineTick;
+    }
+
+    /**
+     * Cancel the timer, if it hasn't already fired.
+     *
+     * @return `true` if the timer was cancelled, `false` if it had
+     *   already fired or been cancelled
+     */
+    public boolean cancel() {
+      synchronized (TimingWheel.this) {
+        if (state != WAITING) {
+          return false;
+        }
+        state = CANCELLED;
+        if (slot != null) {
+          slot.remove(this);
+        }
+        pending--;
+        cancelled++;
+        return true;
+      }
+    }
+
+    /**
+     * Whether the timer has fired.
+     *
+     * @return `true` if the timer's task has been handed to the workers
+     */
+    public boolean isExpired() {
+      synchronized (TimingWheel.this) {
+        return state == EXPIRED;
+      }
+    }
+
+    /**
+     * How long until the timer fires (as of when this is called), rounded
+     * to the wheel's ticks.
+     *
+     * @param unit the unit to report the delay in
+     * @return the remaining delay, or 0 if it has fired or been cancelled
+     */
+    public long remaining(TimeUnit unit) {
+      synchronized (TimingWheel.this) {
+        if (state != WAITING) {
+          return 0;
+        }
+        long deadlineNanos = startNanos + deadlineTick * tickNanos;
+        return unit.convert(Math.max(0, deadlineNanos - clock.getAsLong()), TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of a bulk user import (`POST /api/users/bulk`).
+ *
+ * `items` has one entry per user in the request, in the same order, with
+ * either the `id` of the newly inserted user or the `error` that kept it
+ * from being inserted.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class BulkImportResult {
+  public int inserted;
+  public int failed;
+  public List<Item> items = new ArrayList<>();
+
+  /**
+   * What happened to a single user in a bulk import.
+   */
+  public static class Item {
+    public int index;
+    public String id;
+    public String error;
+
+    public Item(int index, String id, String error) {
+      this.index = index;
+      this.id = id;
+      this.error = error;
+    }
+  }
+
+  void recordSuccess(int index, String id) {
+    items.add(new Item(index, id, null));
+    inserted++;
+  }
+
+  void recordFailure(int index, String error) {
+    items.add(new Item(index, null, error));
+    failed++;
+  }
+}
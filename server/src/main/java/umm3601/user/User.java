@@ -34,6 +34,9 @@ public class User {
   public String email;
   public String avatar;
   public String role;
+  // A normalized (lower-cased, accent-free) copy of `company`, kept
+  // so company searches can use an index. See `SearchKeys`.
+  public String companyKey;
 
   @Override
   public boolean equals(Object obj) {
@@ -4,13 +4,18 @@ import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.regex;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import org.bson.Document;
@@ -19,16 +24,32 @@ import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.validation.BodyValidator;
 import umm3601.Controller;
+import umm3601.cache.BoundedCache;
+import umm3601.cache.Cache;
+import umm3601.cache.CacheStats;
+import umm3601.index.IndexRegistry;
+import umm3601.metrics.SlowQueryLog;
+import umm3601.paging.KeysetPager;
+import umm3601.paging.Page;
+import umm3601.search.SearchKeys;
+import umm3601.streaming.NdjsonStreams;
 
 /**
  * Controller that manages requests for info about users.
@@ -37,45 +58,136 @@ public class UserController implements Controller {
 
   private static final String API_USERS = "/api/users";
   private static final String API_USER_BY_ID = "/api/users/{id}";
+  private static final String API_USERS_BULK = "/api/users/bulk";
+  private static final String API_USERS_BY_COMPANY = "/api/usersByCompany";
+  private static final String API_USERS_BY_COMPANY_REBUILD = "/api/usersByCompany/rebuild";
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
   static final String SORT_ORDER_KEY = "sortorder";
+  static final String COMPANY_SEARCH_KEY = "companyKey";
+  static final String BATCH_SIZE_KEY = "batchSize";
 
   private static final int REASONABLE_AGE_LIMIT = 150;
   private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
 
+  // The rules a user has to satisfy before we'll add it to the database,
+  // along with the message to give when it doesn't. Both `addNewUser`
+  // and `addNewUsers` check users against these, in this order.
+  private static final List<UserRule> USER_RULES = List.of(
+    new UserRule(usr -> usr.name != null && usr.name.length() > 0,
+      "User must have a non-empty user name"),
+    new UserRule(usr -> usr.email != null && usr.email.matches(EMAIL_REGEX),
+      "User must have a legal email"),
+    new UserRule(usr -> usr.age > 0,
+      "User's age must be greater than zero"),
+    new UserRule(usr -> usr.age < REASONABLE_AGE_LIMIT,
+      "User's age must be less than " + REASONABLE_AGE_LIMIT),
+    new UserRule(usr -> usr.role != null && usr.role.matches(ROLE_REGEX),
+      "User must have a legal user role"),
+    new UserRule(usr -> usr.company != null && usr.company.length() > 0,
+      "User must have a non-empty company name"));
+
+  // How many users a bulk import sends to the database in each
+  // `insertMany`, unless the request asks for something else.
+  static final int DEFAULT_BATCH_SIZE = 1000;
+  static final int MAX_BATCH_SIZE = 10_000;
+
+  // Reads the users in a bulk import. We use Jackson directly (rather than
+  // `ctx.bodyValidator`) so we can read the users one at a time as they
+  // arrive instead of holding the whole request body in memory.
+  private static final ObjectMapper BULK_MAPPER = new ObjectMapper();
+
+  // How many users we'll keep in the `getUser` cache, and how long
+  // a cached user stays valid. The TTL bounds how stale a cached user
+  // can be if it's changed by some other server instance.
+  static final int USER_CACHE_SIZE = 10_000;
+  static final Duration USER_CACHE_TTL = Duration.ofSeconds(30);
+
   private final JacksonMongoCollection<User> userCollection;
+  private final Cache<ObjectId, User> userCache;
+  private final UsersByCompanyView usersByCompany;
+  private final SlowQueryLog slowQueries;
 
   /**
-   * Construct a controller for users.
+   * Construct a controller for users, with the default cache and its own
+   * slow query log.
    *
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
+    this(database, defaultCache(), new SlowQueryLog());
+  }
+
+  /**
+   * Construct a controller for users that uses the given cache for
+   * single-user lookups, and notes slow list queries in `slowQueries`.
+   *
+   * @param database the database containing user data
+   * @param userCache the cache that sits in front of the `users` collection
+   *   (e.g., `defaultCache()`)
+   * @param slowQueries where slow queries are logged and explained
+   */
+  public UserController(MongoDatabase database, Cache<ObjectId, User> userCache, SlowQueryLog slowQueries) {
     userCollection = JacksonMongoCollection.builder().build(
         database,
         "users",
         User.class,
         UuidRepresentation.STANDARD);
+    this.userCache = userCache;
+    usersByCompany = new UsersByCompanyView(database);
+    this.slowQueries = slowQueries;
+  }
+
+  /**
+   * The cache the server puts in front of the `users` collection: up to
+   * `USER_CACHE_SIZE` users, each for `USER_CACHE_TTL`.
+   *
+   * @return a new, empty cache of users
+   */
+  public static Cache<ObjectId, User> defaultCache() {
+    return new BoundedCache<>(USER_CACHE_SIZE, USER_CACHE_TTL);
+  }
+
+  /**
+   * The hit, miss, and eviction counts of the cache in front of the
+   * `users` collection, for `CacheMetrics` to serve.
+   *
+   * @return the user cache's current stats
+   */
+  public CacheStats cacheStats() {
+    return userCache.stats();
   }
 
   /**
    * Set the JSON body of the response to be the single user
    * specified by the `id` parameter in the request
    *
+   * Users are served from `userCache` when possible, so repeated
+   * requests for the same user don't each need a database round trip.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
     String id = ctx.pathParam("id");
-    User user;
+    ObjectId objectId;
 
     try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
+      objectId = new ObjectId(id);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
+    // Take the generation before reading, so a concurrent update that
+    // invalidates this user keeps our (possibly stale) copy out of the cache.
+    long generation = userCache.generation(objectId);
+    User user = userCache.get(objectId);
+    if (user == null) {
+      user = userCollection.find(eq("_id", objectId)).first();
+      if (user != null) {
+        userCache.put(objectId, user, generation);
+      }
+    }
     if (user == null) {
       throw new NotFoundResponse("The requested user was not found");
     } else {
@@ -88,20 +200,40 @@ public class UserController implements Controller {
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * If the request includes a `limit` query parameter, the body is instead
+   * a single `Page` of at most that many users, along with a `next` cursor
+   * that can be sent back as the `after` query parameter to get the
+   * following page.
+   *
+   * If the request has `?stream=true` or an `Accept: application/x-ndjson`
+   * header, the users are instead streamed as newline-delimited JSON as
+   * they come back from the database, rather than collected into a list.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
     Bson combinedFilter = constructFilter(ctx);
+
+    if (ctx.queryParamMap().containsKey(KeysetPager.LIMIT_KEY)) {
+      ctx.json(getUsersPage(ctx, combinedFilter));
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
     Bson sortingOrder = constructSortingOrder(ctx);
 
+    if (NdjsonStreams.wantsStream(ctx)) {
+      slowQueries.time(API_USERS, userCollection, combinedFilter, sortingOrder,
+        () -> NdjsonStreams.write(ctx, userCollection.find(combinedFilter).sort(sortingOrder), User.class));
+      return;
+    }
+
     // All three of the find, sort, and into steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the users with the specified
     // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
+    // results into an initially empty ArrayList. If that takes too long, the
+    // slow query log notes the filter and sort, and how MongoDB ran them.
+    ArrayList<User> matchingUsers = slowQueries.find(API_USERS, userCollection, combinedFilter, sortingOrder);
 
     // Set the JSON body of the response to be the list of users returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
@@ -112,6 +244,36 @@ public class UserController implements Controller {
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Get a single page of the users matching `combinedFilter`, using the
+   * `limit`, `after`, `sortby`, and `sortorder` query parameters.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @param combinedFilter the filter built by `constructFilter`
+   * @return the requested page of users
+   */
+  private Page<User> getUsersPage(Context ctx, Bson combinedFilter) {
+    int limit = ctx.queryParamAsClass(KeysetPager.LIMIT_KEY, Integer.class)
+      .check(it -> it > 0,
+        "The page limit must be greater than zero; you provided " + ctx.queryParam(KeysetPager.LIMIT_KEY))
+      .check(it -> it <= KeysetPager.MAX_LIMIT,
+        "The page limit must be at most " + KeysetPager.MAX_LIMIT
+          + "; you provided " + ctx.queryParam(KeysetPager.LIMIT_KEY))
+      .get();
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
+    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
+    boolean descending = sortOrder.equals("desc");
+    Bson sortingOrder = KeysetPager.sortingOrder(sortBy, descending);
+
+    try {
+      return slowQueries.time(API_USERS, userCollection, combinedFilter, sortingOrder,
+        () -> KeysetPager.fetch(userCollection, User.class, combinedFilter,
+          sortBy, descending, limit, ctx.queryParam(KeysetPager.AFTER_KEY)));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+  }
+
   /**
    * Construct a Bson filter document to use in the `find` method based on the
    * query parameters from the context.
@@ -120,6 +282,11 @@ public class UserController implements Controller {
    * parameters and constructs a filter document that will match users with
    * the specified values for those fields.
    *
+   * By default `company` matches any company containing the given text
+   * (ignoring case). With `match=exact` or `match=prefix` it instead matches
+   * the whole company name, or its beginning, ignoring case and accents;
+   * those searches use the indexed `companyKey` field, so they're fast.
+   *
    * @param ctx a Javalin HTTP context, which contains the query parameters
    *    used to construct the filter
    * @return a Bson filter document that can be used in the `find` method
@@ -137,8 +304,16 @@ public class UserController implements Controller {
       filters.add(eq(AGE_KEY, targetAge));
     }
     if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(COMPANY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(COMPANY_KEY, pattern));
+      String company = ctx.queryParamAsClass(COMPANY_KEY, String.class)
+        .check(it -> it.length() <= SearchKeys.MAX_SEARCH_LENGTH,
+          "Company searches must be at most " + SearchKeys.MAX_SEARCH_LENGTH + " characters")
+        .get();
+      if (ctx.queryParamMap().containsKey(SearchKeys.MATCH_KEY)) {
+        filters.add(SearchKeys.filter(COMPANY_SEARCH_KEY, company, matchMode(ctx)));
+      } else {
+        Pattern pattern = Pattern.compile(Pattern.quote(company), Pattern.CASE_INSENSITIVE);
+        filters.add(regex(COMPANY_KEY, pattern));
+      }
     }
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
       String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
@@ -153,6 +328,20 @@ public class UserController implements Controller {
     return combinedFilter;
   }
 
+  /**
+   * Get the requested `match` mode for text searches.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the requested match mode
+   */
+  private SearchKeys.MatchMode matchMode(Context ctx) {
+    try {
+      return SearchKeys.MatchMode.fromParam(ctx.queryParam(SearchKeys.MATCH_KEY));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+  }
+
   /**
    * Construct a Bson sorting document to use in the `sort` method based on the
    * query parameters from the context.
@@ -187,6 +376,10 @@ public class UserController implements Controller {
    * and the company name, the number of users in that company, and the list of user
    * names and IDs are stored in `UserByCompany` objects.
    *
+   * These come from the `usersByCompany` view, which is kept up to date as
+   * users are added and deleted, rather than being recomputed from all the
+   * users on every request.
+   *
    * @param ctx a Javalin HTTP context that provides the query parameters
    *   used to sort the results. We support either sorting by company name
    *   (in either `asc` or `desc` order) or by the number of users in the
@@ -202,44 +395,28 @@ public class UserController implements Controller {
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
     Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
 
-    // The `UserByCompany` class is a simple class that has fields for the company
-    // name, the number of users in that company, and a list of user names and IDs
-    // (using the `UserIdName` class to store the user names and IDs).
-    // We're going to use the aggregation pipeline to group users by company, and
-    // then count the number of users in each company. We'll also collect the user
-    // names and IDs for each user in each company. We'll then convert the results
-    // of the aggregation pipeline to `UserByCompany` objects.
-
-    ArrayList<UserByCompany> matchingUsers = userCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$company")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        UserByCompany.class
-      )
-      .into(new ArrayList<>());
+    // The `usersByCompany` view already has the users grouped by company
+    // (with the same fields as `UserByCompany`), so all we have to do is
+    // read it in the requested order.
+    List<UserByCompany> matchingUsers = usersByCompany.read(sortingOrder);
 
     ctx.json(matchingUsers);
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Rebuild the `usersByCompany` view from scratch, in case it has drifted
+   * from the `users` collection (e.g., because users were changed directly
+   * in the database).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void rebuildUsersGroupedByCompany(Context ctx) {
+    long companies = usersByCompany.rebuild();
+    ctx.json(Map.of("companies", companies));
+    ctx.status(HttpStatus.OK);
+  }
+
   /**
    * Add a new user using information from the context
    * (as long as the information gives "legal" values to User fields)
@@ -261,28 +438,28 @@ public class UserController implements Controller {
      *    - A non-blank company is provided
      * If any of these checks fail, the Javalin system will throw a
      * `BadRequestResponse` with an appropriate error message.
+     *
+     * (The checks themselves are in `USER_RULES`, so bulk imports can
+     * share them.)
      */
     String body = ctx.body();
-    User newUser = ctx.bodyValidator(User.class)
-      .check(usr -> usr.name != null && usr.name.length() > 0,
-        "User must have a non-empty user name; body was " + body)
-      .check(usr -> usr.email.matches(EMAIL_REGEX),
-        "User must have a legal email; body was " + body)
-      .check(usr -> usr.age > 0,
-        "User's age must be greater than zero; body was " + body)
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT,
-        "User's age must be less than " + REASONABLE_AGE_LIMIT + "; body was " + body)
-      .check(usr -> usr.role.matches(ROLE_REGEX),
-        "User must have a legal user role; body was " + body)
-      .check(usr -> usr.company != null && usr.company.length() > 0,
-        "User must have a non-empty company name; body was " + body)
-      .get();
+    BodyValidator<User> validator = ctx.bodyValidator(User.class);
+    for (UserRule rule : USER_RULES) {
+      validator = validator.check(rule.test()::test, rule.message() + "; body was " + body);
+    }
+    User newUser = validator.get();
 
-    // Generate a user avatar (you won't need this part for todos)
-    newUser.avatar = generateAvatar(newUser.email);
+    prepareNewUser(newUser);
 
-    // Add the new user to the database
-    userCollection.insertOne(newUser);
+    // Add the new user to the database, and to its company's summary
+    usersByCompany.change(() -> {
+      userCollection.insertOne(newUser);
+      usersByCompany.usersAdded(List.of(newUser));
+      return newUser;
+    });
+    // There shouldn't be anything cached under a brand new ID, but
+    // invalidating keeps the cache honest no matter how we got here.
+    userCache.invalidate(new ObjectId(newUser._id));
 
     // Set the JSON response to be the `_id` of the newly created user.
     // This gives the client the opportunity to know the ID of the new user,
@@ -296,6 +473,159 @@ public class UserController implements Controller {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Add many new users at once, using information from the context.
+   *
+   * The body of the request is either a JSON array of users, or a stream
+   * of newline-delimited JSON (NDJSON) users. Each user is checked against
+   * the same rules as in `addNewUser`, and the legal ones are written to
+   * the database with unordered `insertMany`s of `batchSize` (default
+   * `DEFAULT_BATCH_SIZE`) users at a time, so a large import takes a
+   * handful of round trips instead of one per user.
+   *
+   * The JSON body of the response is a `BulkImportResult` with the `id`
+   * of each inserted user, or the reason it couldn't be inserted. One bad
+   * user doesn't stop the others from being added, but if the body stops
+   * being legal JSON we stop reading there.
+   *
+   * @param ctx a Javalin HTTP context that provides the users
+   *  in the body of the request
+   */
+  public void addNewUsers(Context ctx) {
+    int batchSize = DEFAULT_BATCH_SIZE;
+    if (ctx.queryParamMap().containsKey(BATCH_SIZE_KEY)) {
+      batchSize = ctx.queryParamAsClass(BATCH_SIZE_KEY, Integer.class)
+        .check(it -> it > 0,
+          "The batch size must be greater than zero; you provided " + ctx.queryParam(BATCH_SIZE_KEY))
+        .check(it -> it <= MAX_BATCH_SIZE,
+          "The batch size must be at most " + MAX_BATCH_SIZE + "; you provided " + ctx.queryParam(BATCH_SIZE_KEY))
+        .get();
+    }
+
+    BulkImportResult result = new BulkImportResult();
+    List<User> batch = new ArrayList<>();
+    List<Integer> batchIndexes = new ArrayList<>();
+    int index = 0;
+
+    // `readValues` handles both a single JSON array and a sequence of
+    // top-level JSON values (which is what NDJSON is).
+    try (InputStream body = ctx.bodyInputStream();
+         MappingIterator<JsonNode> users = BULK_MAPPER.readerFor(JsonNode.class).readValues(body)) {
+      while (users.hasNextValue()) {
+        JsonNode userJson = users.nextValue();
+        String error = null;
+        try {
+          User newUser = BULK_MAPPER.treeToValue(userJson, User.class);
+          error = ruleViolation(newUser);
+          if (error == null) {
+            prepareNewUser(newUser);
+            // We need to know the new user's ID before it's inserted, so we can report it.
+            if (newUser._id == null) {
+              newUser._id = new ObjectId().toHexString();
+            }
+            batch.add(newUser);
+            batchIndexes.add(index);
+          }
+        } catch (JsonProcessingException e) {
+          error = "User couldn't be read: " + e.getOriginalMessage();
+        } catch (IllegalArgumentException e) {
+          error = "User couldn't be read: " + e.getMessage();
+        }
+        if (error != null) {
+          result.recordFailure(index, error);
+        }
+        index++;
+
+        if (batch.size() >= batchSize) {
+          insertBatch(batch, batchIndexes, result);
+        }
+      }
+    } catch (IOException e) {
+      // Everything up to here was legal, so keep it, but we can't
+      // tell where the next user starts.
+      result.recordFailure(index, "The request body stopped being legal JSON here: " + e.getMessage());
+    }
+    insertBatch(batch, batchIndexes, result);
+
+    result.items.sort((a, b) -> Integer.compare(a.index, b.index));
+    ctx.json(result);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Insert a batch of (already checked) users in one unordered
+   * `insertMany`, record what happened to each of them in `result`,
+   * and then empty the batch.
+   *
+   * Because the insert is unordered, a user that can't be inserted
+   * (e.g., because of a duplicate `_id`) doesn't stop the rest.
+   */
+  private void insertBatch(List<User> batch, List<Integer> batchIndexes, BulkImportResult result) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    Map<Integer, String> writeErrors = new HashMap<>();
+    List<User> insertedUsers = new ArrayList<>();
+    usersByCompany.change(() -> {
+      try {
+        userCollection.insertMany(batch, new InsertManyOptions().ordered(false));
+      } catch (MongoBulkWriteException e) {
+        for (BulkWriteError error : e.getWriteErrors()) {
+          writeErrors.put(error.getIndex(), error.getMessage());
+        }
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        if (!writeErrors.containsKey(i)) {
+          insertedUsers.add(batch.get(i));
+        }
+      }
+      usersByCompany.usersAdded(insertedUsers);
+      return insertedUsers;
+    });
+    for (int i = 0; i < batch.size(); i++) {
+      String id = batch.get(i)._id;
+      userCache.invalidate(new ObjectId(id));
+      if (writeErrors.containsKey(i)) {
+        result.recordFailure(batchIndexes.get(i), writeErrors.get(i));
+      } else {
+        result.recordSuccess(batchIndexes.get(i), id);
+      }
+    }
+    batch.clear();
+    batchIndexes.clear();
+  }
+
+  /**
+   * Check `user` against `USER_RULES`.
+   *
+   * @return the message for the first rule `user` breaks,
+   *   or `null` if it's a legal user
+   */
+  private static String ruleViolation(User user) {
+    if (user == null) {
+      return "User must be a JSON object";
+    }
+    if (user._id != null && !ObjectId.isValid(user._id)) {
+      return "User's _id must be a legal Mongo Object ID";
+    }
+    for (UserRule rule : USER_RULES) {
+      if (!rule.test().test(user)) {
+        return rule.message();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Fill in the fields of a (legal) new user that we generate rather than
+   * get from the client.
+   */
+  private void prepareNewUser(User newUser) {
+    // Generate a user avatar (you won't need this part for todos)
+    newUser.avatar = generateAvatar(newUser.email);
+    newUser.companyKey = SearchKeys.normalize(newUser.company);
+  }
+
   /**
    * Delete the user specified by the `id` parameter in the request.
    *
@@ -303,9 +633,18 @@ public class UserController implements Controller {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
+    ObjectId objectId = new ObjectId(id);
+    // Remove the user from the database, and from its company's summary
+    User deletedUser = usersByCompany.change(() -> {
+      User user = userCollection.findOneAndDelete(eq("_id", objectId));
+      if (user != null) {
+        usersByCompany.userRemoved(user);
+      }
+      return user;
+    });
+    userCache.invalidate(objectId);
     // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (deletedUser == null) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
@@ -356,6 +695,35 @@ public class UserController implements Controller {
     return result.toString();
   }
 
+  /**
+   * A check that a new user has to pass, and the message to give if it doesn't.
+   */
+  private record UserRule(Predicate<User> test, String message) {
+  }
+
+  /**
+   * Declare the indexes used by the queries in this controller.
+   *
+   * Each index starts with the field we filter on (if any), followed by the
+   * default `name` sort and then `_id`, so a filtered, sorted listing (or a
+   * page of one) can be read straight out of the index instead of scanning
+   * the collection and sorting in memory.
+   *
+   * @param registry the registry to add the indexes to
+   */
+  @Override
+  public void registerIndexes(IndexRegistry registry) {
+    registry.register("users", "users_name", new Document("name", 1).append("_id", 1));
+    registry.register("users", "users_age_name", new Document(AGE_KEY, 1).append("name", 1).append("_id", 1));
+    registry.register("users", "users_role_name", new Document(ROLE_KEY, 1).append("name", 1).append("_id", 1));
+    registry.register("users", "users_company_name",
+      new Document(COMPANY_KEY, 1).append("name", 1).append("_id", 1));
+    registry.register("users", "users_companyKey_name",
+      new Document(COMPANY_SEARCH_KEY, 1).append("name", 1).append("_id", 1));
+    registry.registerBackfill("users." + COMPANY_SEARCH_KEY,
+      () -> SearchKeys.backfill(userCollection.withDocumentClass(Document.class), COMPANY_KEY, COMPANY_SEARCH_KEY));
+  }
+
   /**
    * Sets up routes for the `user` collection endpoints.
    * A UserController instance handles the user endpoints,
@@ -367,13 +735,21 @@ public class UserController implements Controller {
    *   - `GET /api/users?age=NUMBER&company=STRING&name=STRING`
    *      - List users, filtered using query parameters
    *      - `age`, `company`, and `name` are optional query parameters
+   *      - `match=exact|prefix` makes `company` an indexed, case- and accent-insensitive match
+   *      - `limit` (and `after`) return a single page of users instead
+   *      - `stream=true` streams the users as newline-delimited JSON
    *   - `GET /api/usersByCompany`
    *     - Get user names and IDs, possibly filtered, grouped by company
+   *   - `POST /api/usersByCompany/rebuild`
+   *     - Rebuild the (precomputed) users-by-company summary from scratch
    *   - `DELETE /api/users/:id`
    *      - Delete the specified user
    *   - `POST /api/users`
    *      - Create a new user
    *      - The user info is in the JSON body of the HTTP request
+   *   - `POST /api/users/bulk?batchSize=NUMBER`
+   *      - Create many new users
+   *      - The users are a JSON array or NDJSON in the body of the HTTP request
    *
    * GROUPS SHOULD CREATE THEIR OWN CONTROLLERS THAT IMPLEMENT THE
    * `Controller` INTERFACE FOR WHATEVER DATA THEY'RE WORKING WITH.
@@ -393,12 +769,19 @@ public class UserController implements Controller {
     server.get(API_USERS, this::getUsers);
 
     // Get the users, possibly filtered, grouped by company
-    server.get("/api/usersByCompany", this::getUsersGroupedByCompany);
+    server.get(API_USERS_BY_COMPANY, this::getUsersGroupedByCompany);
+
+    // Rebuild the precomputed users-by-company summary
+    server.post(API_USERS_BY_COMPANY_REBUILD, this::rebuildUsersGroupedByCompany);
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
     server.post(API_USERS, this::addNewUser);
 
+    // Add many new users at once, with the users being a JSON
+    // array or NDJSON stream in the body of the HTTP request
+    server.post(API_USERS_BULK, this::addNewUsers);
+
     // Delete the specified user
     server.delete(API_USER_BY_ID, this::deleteUser);
   }
@@ -0,0 +1,160 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lte;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * A materialized copy of "users grouped by company", kept in the
+ * `usersByCompany` collection so `/api/usersByCompany` can just read it
+ * rather than re-running a `$group` over every user on every request.
+ *
+ * Each document has the same shape as a `UserByCompany`: the company name
+ * as its `_id`, the number of users in that company, and their IDs and
+ * names.
+ *
+ * The view is built from scratch (with the same aggregation we used to
+ * run per request, ending in an `$out`) the first time it's read, or when
+ * `rebuild()` is called. After that it's kept up to date incrementally:
+ * the controller makes each change to the `users` collection inside
+ * `change()`, and then reports it with `usersAdded()` or `userRemoved()`.
+ * `change()` keeps those from overlapping with a rebuild, which would
+ * otherwise count a user twice (or not at all).
+ */
+class UsersByCompanyView {
+
+  static final String COLLECTION = "usersByCompany";
+
+  private final MongoCollection<Document> userDocuments;
+  private final MongoCollection<Document> viewDocuments;
+  private final JacksonMongoCollection<UserByCompany> view;
+
+  // Changes to `users` hold the read lock (so they can run concurrently),
+  // and rebuilds hold the write lock.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile boolean built;
+
+  UsersByCompanyView(MongoDatabase database) {
+    userDocuments = database.getCollection("users");
+    viewDocuments = database.getCollection(COLLECTION);
+    view = JacksonMongoCollection.builder().build(
+        database,
+        COLLECTION,
+        UserByCompany.class,
+        UuidRepresentation.STANDARD);
+  }
+
+  /**
+   * Get all the companies in the view, building it first if needed.
+   *
+   * @param sortingOrder the order to return the companies in
+   * @return the companies, with their user counts and users
+   */
+  List<UserByCompany> read(Bson sortingOrder) {
+    if (!built) {
+      rebuild();
+    }
+    return view.find().sort(sortingOrder).into(new ArrayList<>());
+  }
+
+  /**
+   * Rebuild the whole view from the `users` collection.
+   *
+   * @return the number of companies in the rebuilt view
+   */
+  long rebuild() {
+    lock.writeLock().lock();
+    try {
+      userDocuments.aggregate(List.of(
+          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
+          new Document("$group", new Document("_id", "$company")
+            .append("count", new Document("$sum", 1))
+            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
+          new Document("$out", COLLECTION)))
+        .toCollection();
+      built = true;
+      return viewDocuments.countDocuments();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Make a change to the `users` collection (and report it to this view)
+   * without a rebuild happening part way through.
+   *
+   * @param userChange the change to make
+   * @param <T> the type of the change's result
+   * @return the result of `userChange`
+   */
+  <T> T change(Supplier<T> userChange) {
+    lock.readLock().lock();
+    try {
+      return userChange.get();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Add newly inserted users to their companies, creating any companies
+   * we haven't seen before. This is one round trip no matter how many
+   * users (or companies) there are.
+   *
+   * @param users the users that were added
+   */
+  void usersAdded(List<User> users) {
+    if (!built || users.isEmpty()) {
+      // The next rebuild will pick these up.
+      return;
+    }
+    Map<String, List<Document>> usersByCompany = new LinkedHashMap<>();
+    for (User user : users) {
+      usersByCompany.computeIfAbsent(user.company, c -> new ArrayList<>())
+        .add(new Document("_id", new ObjectId(user._id)).append("name", user.name));
+    }
+    List<WriteModel<Document>> updates = new ArrayList<>();
+    usersByCompany.forEach((company, members) -> updates.add(new UpdateOneModel<>(
+        eq("_id", company),
+        Updates.combine(Updates.inc("count", members.size()), Updates.pushEach("users", members)),
+        new UpdateOptions().upsert(true))));
+    viewDocuments.bulkWrite(updates);
+  }
+
+  /**
+   * Remove a deleted user from their company, and remove the company
+   * if that was its last user.
+   *
+   * @param user the user that was deleted
+   */
+  void userRemoved(User user) {
+    if (!built) {
+      return;
+    }
+    viewDocuments.updateOne(eq("_id", user.company), Updates.combine(
+        Updates.inc("count", -1),
+        Updates.pull("users", new Document("_id", new ObjectId(user._id)))));
+    viewDocuments.deleteOne(and(eq("_id", user.company), lte("count", 0)));
+  }
+}
@@ -0,0 +1,119 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@SuppressWarnings({ "MagicNumber" })
+class ServerConfigSpec {
+
+  @TempDir
+  private Path tempDir;
+
+  @Test
+  void hasSensibleDefaults() {
+    ServerConfig config = ServerConfig.defaults();
+
+    assertEquals(4567, config.port());
+    assertEquals("localhost", config.mongoAddr());
+    assertEquals("dev", config.mongoDatabase());
+    assertFalse(config.useVirtualThreads());
+    assertEquals(100, config.mongoMaxConnections());
+    assertEquals(List.of(), config.mongoCompressors());
+    assertEquals("primary", config.mongoReadPreference());
+    assertEquals(50, config.lobbyUpdateWindowMillis());
+    assertEquals("", config.lobbyJournalDir());
+    assertEquals(100, config.slowQueryMillis());
+    assertFalse(config.jfrHandlerStream());
+    assertFalse(config.queryStatsHeaders());
+    assertEquals(0, config.queryBudget());
+  }
+
+  @Test
+  void readsEnvironmentVariables() {
+    ServerConfig config = ServerConfig.load(Map.of(
+        "SERVER_PORT", "8080",
+        "MONGO_ADDR", "mongo",
+        "MONGO_DB", "prod",
+        "VIRTUAL_THREADS", "true",
+        "MONGO_MAX_CONNECTIONS", "20",
+        "MONGO_COMPRESSORS", "zstd, Snappy",
+        "MONGO_READ_PREFERENCE", "secondarypreferred",
+        "LOBBY_UPDATE_WINDOW_MILLIS", "0",
+        "LOBBY_JOURNAL_DIR", "/var/lib/lobbies",
+        "SLOW_QUERY_MILLIS", "250"));
+
+    assertEquals(8080, config.port());
+    assertEquals("mongo", config.mongoAddr());
+    assertEquals("prod", config.mongoDatabase());
+    assertTrue(config.useVirtualThreads());
+    assertEquals(20, config.mongoMaxConnections());
+    assertEquals(List.of("zstd", "snappy"), config.mongoCompressors());
+    assertEquals("secondaryPreferred", config.mongoReadPreference());
+    assertEquals(0, config.lobbyUpdateWindowMillis());
+    assertEquals("/var/lib/lobbies", config.lobbyJournalDir());
+    assertEquals(250, config.slowQueryMillis());
+  }
+
+  @Test
+  void environmentVariablesOverrideTheFile() throws IOException {
+    Path file = tempDir.resolve("server.properties");
+    Files.writeString(file, """
+        SERVER_PORT=9000
+        MONGO_DB=fromfile
+        JETTY_MAX_THREADS=50
+        """);
+
+    ServerConfig config = ServerConfig.load(Map.of(
+        ServerConfig.CONFIG_FILE_KEY, file.toString(),
+        "MONGO_DB", "fromenv"));
+
+    assertEquals(9000, config.port());
+    assertEquals("fromenv", config.mongoDatabase());
+    assertEquals(50, config.jettyMaxThreads());
+  }
+
+  @Test
+  void reportsAllTheProblemsAtOnce() {
+    IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.load(Map.of(
+            "SERVER_PORT", "99999",
+            "VIRTUAL_THREADS", "yes",
+            "MONGO_WAIT_MILLIS", "-1",
+            "MONGO_MAX_CONNECTIONS", "lots",
+            "MONGO_MIN_CONNECTIONS", "500",
+            "MONGO_COMPRESSORS", "gzip",
+            "MONGO_READ_PREFERENCE", "closest")));
+
+    String message = exception.getMessage();
+    assertTrue(message.contains("SERVER_PORT"));
+    assertTrue(message.contains("VIRTUAL_THREADS"));
+    assertTrue(message.contains("MONGO_WAIT_MILLIS"));
+    assertTrue(message.contains("MONGO_MAX_CONNECTIONS must be a whole number"));
+    assertTrue(message.contains("MONGO_MIN_CONNECTIONS (500)"));
+    assertTrue(message.contains("gzip"));
+    assertTrue(message.contains("closest"));
+  }
+
+  @Test
+  void rejectsMoreMinThanMaxThreads() {
+    assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.load(Map.of("JETTY_MIN_THREADS", "10", "JETTY_MAX_THREADS", "5")));
+  }
+
+  @Test
+  void rejectsMissingConfigFile() {
+    assertThrows(IllegalArgumentException.class,
+        () -> ServerConfig.load(Map.of(ServerConfig.CONFIG_FILE_KEY, tempDir.resolve("nope").toString())));
+  }
+}
@@ -0,0 +1,161 @@
+package umm3601.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class BoundedCacheSpec {
+
+  private static final Duration TTL = Duration.ofSeconds(10);
+
+  // A fake clock, so we can test expiration without actually waiting.
+  private AtomicLong now;
+  private BoundedCache<String, String> cache;
+
+  @BeforeEach
+  void setupEach() {
+    now = new AtomicLong();
+    cache = new BoundedCache<>(2, TTL, now::get);
+  }
+
+  @Test
+  void returnsWhatWasPut() {
+    cache.put("a", "apple");
+
+    assertEquals("apple", cache.get("a"));
+    assertEquals(1, cache.stats().hits());
+  }
+
+  @Test
+  void countsMisses() {
+    assertNull(cache.get("a"));
+
+    CacheStats stats = cache.stats();
+    assertEquals(0, stats.hits());
+    assertEquals(1, stats.misses());
+    assertEquals(0.0, stats.hitRate());
+  }
+
+  @Test
+  void entriesExpireAfterTtl() {
+    cache.put("a", "apple");
+    now.addAndGet(TTL.toNanos() - 1);
+    assertEquals("apple", cache.get("a"));
+
+    now.addAndGet(1);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.stats().size());
+  }
+
+  @Test
+  void invalidateRemovesEntries() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+
+    cache.invalidate("a");
+    assertNull(cache.get("a"));
+    assertEquals("banana", cache.get("b"));
+
+    cache.invalidateAll();
+    assertNull(cache.get("b"));
+  }
+
+  @Test
+  void readThroughPutSucceedsWithoutAnInvalidation() {
+    long generation = cache.generation("a");
+
+    assertTrue(cache.put("a", "apple", generation));
+    assertEquals("apple", cache.get("a"));
+  }
+
+  @Test
+  void readThroughPutIsDroppedAfterAnInvalidation() {
+    // A reader takes the generation and reads the old document...
+    long generation = cache.generation("a");
+    // ...an update lands and invalidates the key...
+    cache.invalidate("a");
+    // ...and then the reader tries to cache its stale copy.
+    assertFalse(cache.put("a", "old apple", generation));
+    assertNull(cache.get("a"));
+
+    assertTrue(cache.put("a", "apple", cache.generation("a")));
+    assertEquals("apple", cache.get("a"));
+  }
+
+  @Test
+  void invalidateAllDropsEveryReadThroughPut() {
+    long generationA = cache.generation("a");
+    long generationB = cache.generation("b");
+    cache.invalidateAll();
+
+    assertFalse(cache.put("a", "apple", generationA));
+    assertFalse(cache.put("b", "banana", generationB));
+    assertEquals(0, cache.stats().size());
+  }
+
+  @Test
+  void neverHoldsMoreThanMaximumSize() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+    cache.put("c", "cherry");
+
+    assertEquals(2, cache.stats().size());
+    assertEquals(1, cache.stats().evictions());
+  }
+
+  @Test
+  void popularEntriesSurviveOneOffLookups() {
+    cache.put("a", "apple");
+    cache.put("b", "banana");
+    // "a" and "b" are popular
+    for (int i = 0; i < 5; i++) {
+      cache.get("a");
+      cache.get("b");
+    }
+
+    // A one-off key shouldn't push either of them out
+    cache.get("c");
+    cache.put("c", "cherry");
+
+    assertNull(cache.get("c"));
+    assertEquals("apple", cache.get("a"));
+    assertEquals("banana", cache.get("b"));
+  }
+
+  @Test
+  void expiredEntriesAreEvictedFirst() {
+    cache.put("a", "apple");
+    for (int i = 0; i < 5; i++) {
+      cache.get("a");
+    }
+    now.addAndGet(TTL.toNanos());
+    cache.put("b", "banana");
+    cache.put("c", "cherry");
+
+    assertEquals("banana", cache.get("b"));
+    assertEquals("cherry", cache.get("c"));
+  }
+
+  @Test
+  void zeroSizeCacheHoldsNothing() {
+    BoundedCache<String, String> disabled = new BoundedCache<>(0, TTL);
+    disabled.put("a", "apple");
+
+    assertNull(disabled.get("a"));
+  }
+
+  @Test
+  void rejectsIllegalConfigurations() {
+    assertThrows(IllegalArgumentException.class, () -> new BoundedCache<String, String>(-1, TTL));
+    assertThrows(IllegalArgumentException.class, () -> new BoundedCache<String, String>(1, Duration.ZERO));
+  }
+}
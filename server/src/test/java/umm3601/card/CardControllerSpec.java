@@ -0,0 +1,237 @@
+package umm3601.card;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.validation.Validation;
+import io.javalin.validation.ValidationException;
+
+class CardControllerSpec {
+
+  private static final int CARD_COUNT = 5;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private CardController cardController;
+  private ObjectId lobbyId;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<ArrayList<Card>> cardListCaptor;
+
+  @Captor
+  private ArgumentCaptor<Map<String, Integer>> mapCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> cardDocuments = db.getCollection("cards");
+    cardDocuments.drop();
+    List<Document> testCards = new ArrayList<>();
+    for (int i = 0; i < CARD_COUNT; i++) {
+      testCards.add(new Document("text", "Card number " + i));
+    }
+    cardDocuments.insertMany(testCards);
+
+    MongoCollection<Document> lobbyDocuments = db.getCollection("lobbies");
+    lobbyDocuments.drop();
+    lobbyId = new ObjectId();
+    lobbyDocuments.insertOne(new Document("_id", lobbyId).append("lobbyName", "Card sharks"));
+
+    cardController = new CardController(db);
+    when(ctx.pathParam("id")).thenReturn(lobbyId.toHexString());
+  }
+
+  private void stubCount(String count) {
+    when(ctx.queryParamMap()).thenReturn(Map.of(CardController.COUNT_KEY, List.of(count)));
+    when(ctx.queryParam(CardController.COUNT_KEY)).thenReturn(count);
+    when(ctx.queryParamAsClass(CardController.COUNT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(CardController.COUNT_KEY, Integer.class, count));
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    cardController.addRoutes(mockServer);
+    verify(mockServer, Mockito.atLeastOnce()).get(any(), any());
+    verify(mockServer, Mockito.atLeast(2)).post(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).delete(any(), any());
+  }
+
+  @Test
+  void canGetAllCards() {
+    cardController.getCards(ctx);
+
+    verify(ctx).json(cardListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(CARD_COUNT, cardListCaptor.getValue().size());
+  }
+
+  @Test
+  void cardsAreOnlyLoadedOnceUntilReloaded() {
+    cardController.start();
+    db.getCollection("cards").insertOne(new Document("text", "A new card"));
+    assertEquals(CARD_COUNT, cardController.store().size());
+
+    cardController.reloadCards(ctx);
+
+    verify(ctx).json(mapCaptor.capture());
+    assertEquals(CARD_COUNT + 1, mapCaptor.getValue().get("cards"));
+    assertEquals(CARD_COUNT + 1, cardController.store().size());
+  }
+
+  @Test
+  void canShuffleAndDrawEveryCard() {
+    cardController.shuffleDeck(ctx);
+    verify(ctx).status(HttpStatus.CREATED);
+    assertEquals(1, cardController.deckCount());
+
+    stubCount("3");
+    cardController.drawCards(ctx);
+    stubCount("3");
+    cardController.drawCards(ctx);
+
+    verify(ctx, Mockito.times(2)).json(cardListCaptor.capture());
+    List<ArrayList<Card>> hands = cardListCaptor.getAllValues();
+    assertEquals(3, hands.get(0).size());
+    assertEquals(2, hands.get(1).size());
+    Set<String> drawn = new HashSet<>();
+    hands.forEach(hand -> hand.forEach(card -> drawn.add(card.text)));
+    assertEquals(CARD_COUNT, drawn.size());
+
+    // The deck is empty now
+    assertThrows(ConflictResponse.class, () -> cardController.drawCards(ctx));
+  }
+
+  @Test
+  void drawsOneCardByDefault() {
+    when(ctx.queryParamMap()).thenReturn(Map.of());
+    cardController.shuffleDeck(ctx);
+    cardController.drawCards(ctx);
+
+    verify(ctx, Mockito.times(2)).json(any());
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void decksKeepTheirCardsWhenCardsAreReloaded() {
+    cardController.shuffleDeck(ctx);
+    db.getCollection("cards").deleteMany(eq("text", "Card number 0"));
+    cardController.reload();
+
+    stubCount("100");
+    cardController.drawCards(ctx);
+
+    verify(ctx).json(cardListCaptor.capture());
+    assertEquals(CARD_COUNT, cardListCaptor.getValue().size());
+  }
+
+  @Test
+  void cantDrawFromMissingDeck() {
+    stubCount("1");
+    assertThrows(NotFoundResponse.class, () -> cardController.drawCards(ctx));
+  }
+
+  @Test
+  void drawCountMustBeReasonable() {
+    cardController.shuffleDeck(ctx);
+    stubCount("0");
+    assertThrows(ValidationException.class, () -> cardController.drawCards(ctx));
+    stubCount("101");
+    assertThrows(ValidationException.class, () -> cardController.drawCards(ctx));
+  }
+
+  @Test
+  void canDeleteDeck() {
+    cardController.shuffleDeck(ctx);
+    cardController.deleteDeck(ctx);
+
+    assertEquals(0, cardController.deckCount());
+    assertThrows(NotFoundResponse.class, () -> cardController.deleteDeck(ctx));
+  }
+
+  @Test
+  void forgettingALobbyThrowsAwayItsDeck() {
+    cardController.shuffleDeck(ctx);
+
+    cardController.forgetDeck(lobbyId.toHexString());
+
+    assertEquals(0, cardController.deckCount());
+    // Forgetting a lobby without a deck is fine.
+    cardController.forgetDeck(lobbyId.toHexString());
+  }
+
+  @Test
+  void cantShuffleForAnIllegalLobbyId() {
+    when(ctx.pathParam("id")).thenReturn("lobby1");
+
+    assertThrows(BadRequestResponse.class, () -> cardController.shuffleDeck(ctx));
+    assertEquals(0, cardController.deckCount());
+  }
+
+  @Test
+  void cantShuffleForAMissingLobby() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    assertThrows(NotFoundResponse.class, () -> cardController.shuffleDeck(ctx));
+    assertEquals(0, cardController.deckCount());
+  }
+}
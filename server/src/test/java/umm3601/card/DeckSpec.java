@@ -0,0 +1,86 @@
+package umm3601.card;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DeckSpec {
+
+  private static CardStore store(int size) {
+    List<Card> cards = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      Card card = new Card();
+      card._id = "card" + i;
+      card.text = "Card number " + i;
+      cards.add(card);
+    }
+    return CardStore.of(cards);
+  }
+
+  private static int[] drawAll(Deck deck) {
+    int[] drawn = new int[deck.remaining()];
+    for (int i = 0; i < drawn.length; i++) {
+      drawn[i] = deck.draw();
+    }
+    return drawn;
+  }
+
+  @Test
+  void storeKeepsCardsInOrder() {
+    CardStore store = store(3);
+    assertEquals(3, store.size());
+    assertEquals("card1", store.id(1));
+    assertEquals("Card number 2", store.text(2));
+    assertEquals("card0", store.card(0)._id);
+    assertEquals(0, CardStore.EMPTY.size());
+  }
+
+  @Test
+  void shuffledDeckDealsEveryCardOnce() {
+    Deck deck = new Deck(store(52));
+    deck.shuffle(new Random(3601));
+
+    int[] drawn = drawAll(deck);
+    int[] sorted = drawn.clone();
+    Arrays.sort(sorted);
+    int[] everyCard = new int[52];
+    for (int i = 0; i < everyCard.length; i++) {
+      everyCard[i] = i;
+    }
+    assertArrayEquals(everyCard, sorted);
+    // It would be astonishing for a shuffle to leave the deck in order
+    assertNotEquals(Arrays.toString(everyCard), Arrays.toString(drawn));
+    assertEquals(0, deck.remaining());
+    assertEquals(-1, deck.draw());
+  }
+
+  @Test
+  void reshufflingPutsTheCardsBack() {
+    Deck deck = new Deck(store(10));
+    deck.shuffle(new Random(1));
+    drawAll(deck);
+
+    deck.shuffle(new Random(2));
+    assertEquals(10, deck.remaining());
+  }
+
+  @Test
+  void canDrawSeveralCardsAtOnce() {
+    Deck deck = new Deck(store(5));
+    deck.shuffle(new Random(3601));
+    int[] hand = new int[3];
+
+    assertEquals(3, deck.draw(hand, 3));
+    assertEquals(2, deck.remaining());
+    // Only two left
+    assertEquals(2, deck.draw(hand, 3));
+    assertEquals(0, deck.draw(hand, 3));
+  }
+}
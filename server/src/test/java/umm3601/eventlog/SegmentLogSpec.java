@@ -0,0 +1,145 @@
+package umm3601.eventlog;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentLogSpec {
+
+  // Room for three of the records below (8 byte header + 6 bytes each).
+  private static final int SMALL_SEGMENT = 48;
+
+  @TempDir
+  private Path tempDir;
+
+  private static byte[] bytes(String record) {
+    return record.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<String> replay(SegmentLog log, long fromSequence) {
+    List<String> records = new ArrayList<>();
+    log.replay(fromSequence, (sequence, record) -> {
+      byte[] data = new byte[record.remaining()];
+      record.get(data);
+      records.add(sequence + ":" + new String(data, StandardCharsets.UTF_8));
+    });
+    return records;
+  }
+
+  @Test
+  void replaysRecordsInOrder() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SegmentLog.DEFAULT_SEGMENT_SIZE);
+    assertEquals(0, log.append(bytes("potato")));
+    assertEquals(1, log.append(bytes("banana")));
+    assertEquals(2, log.append(bytes("cherry")));
+
+    assertEquals(List.of("0:potato", "1:banana", "2:cherry"), replay(log, 0));
+    assertEquals(List.of("2:cherry"), replay(log, 2));
+    assertEquals(3, log.nextSequence());
+  }
+
+  @Test
+  void rollsOverToNewSegments() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    for (int i = 0; i < 7; i++) {
+      log.append(bytes("item-" + i));
+    }
+
+    assertEquals(3, log.segmentCount());
+    assertEquals(7, replay(log, 0).size());
+    assertEquals(List.of("4:item-4", "5:item-5", "6:item-6"), replay(log, 4));
+  }
+
+  @Test
+  void reopeningCarriesOnAfterTheLastRecord() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    for (int i = 0; i < 4; i++) {
+      log.append(bytes("item-" + i));
+    }
+    // No `close()`, as if the server had crashed
+
+    SegmentLog reopened = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    assertEquals(4, reopened.nextSequence());
+    assertEquals(4, reopened.append(bytes("item-4")));
+    assertEquals(List.of("3:item-3", "4:item-4"), replay(reopened, 3));
+  }
+
+  @Test
+  void ignoresFilesThatArentSegments() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    log.append(bytes("item-0"));
+    // Things people (or editors) leave lying around
+    Files.writeString(tempDir.resolve("server.log"), "Started");
+    Files.writeString(tempDir.resolve("00000000000000000000.log.bak"), "Backup");
+
+    SegmentLog reopened = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    assertEquals(1, reopened.segmentCount());
+    assertEquals(List.of("0:item-0"), replay(reopened, 0));
+  }
+
+  @Test
+  void aTornRecordEndsTheLog() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SegmentLog.DEFAULT_SEGMENT_SIZE);
+    log.append(bytes("potato"));
+    log.append(bytes("banana"));
+    log.close();
+
+    // Scribble on the second record, as if we'd crashed part way through writing it
+    try (FileChannel file = FileChannel.open(tempDir.resolve(String.format("%020d", 0) + SegmentLog.SUFFIX),
+        StandardOpenOption.WRITE)) {
+      file.write(ByteBuffer.wrap(bytes("x")), 14 + 8 + 2);
+    }
+
+    SegmentLog reopened = SegmentLog.open(tempDir, SegmentLog.DEFAULT_SEGMENT_SIZE);
+    assertEquals(List.of("0:potato"), replay(reopened, 0));
+    assertEquals(1, reopened.append(bytes("cherry")));
+    assertEquals(List.of("0:potato", "1:cherry"), replay(reopened, 0));
+  }
+
+  @Test
+  void canDeleteOldSegments() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    for (int i = 0; i < 7; i++) {
+      log.append(bytes("item-" + i));
+    }
+
+    // Record 4 is in the second segment, so only the first can go
+    log.deleteBefore(4);
+    assertEquals(2, log.segmentCount());
+    assertEquals(List.of("4:item-4", "5:item-5", "6:item-6"), replay(log, 4));
+    // The segment being written to is never deleted
+    log.deleteBefore(100);
+    assertEquals(1, log.segmentCount());
+    assertEquals(List.of("6:item-6"), replay(log, 0));
+  }
+
+  @Test
+  void rejectsRecordsThatDontFit() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    assertThrows(IllegalArgumentException.class, () -> log.append(new byte[SMALL_SEGMENT]));
+    assertThrows(IllegalArgumentException.class, () -> SegmentLog.open(tempDir.resolve("tiny"), 8));
+  }
+
+  @Test
+  void rejectsEmptyRecords() throws IOException {
+    SegmentLog log = SegmentLog.open(tempDir, SMALL_SEGMENT);
+    log.append(bytes("before"));
+    assertThrows(IllegalArgumentException.class, () -> log.append(new byte[0]));
+    log.append(bytes("after"));
+
+    // The rejected record didn't end the log early
+    assertEquals(List.of("0:before", "1:after"), replay(log, 0));
+  }
+}
@@ -0,0 +1,157 @@
+package umm3601.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+
+import umm3601.lobby.LobbyController;
+import umm3601.user.UserController;
+
+class IndexRegistrySpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private IndexRegistry registry;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("widgets").drop();
+    registry = new IndexRegistry();
+  }
+
+  @Test
+  void createsMissingIndexes() {
+    registry.register("widgets", "widgets_color", new Document("color", 1));
+
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(1, report.created().size());
+    assertTrue(indexNames("widgets").contains("widgets_color"));
+  }
+
+  @Test
+  void leavesExistingIndexesAlone() {
+    registry.register("widgets", "widgets_color", new Document("color", 1));
+    registry.reconcile(db);
+
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(0, report.created().size());
+    assertEquals(1, report.unchanged().size());
+  }
+
+  @Test
+  void reportsDivergentIndexes() {
+    db.getCollection("widgets").createIndex(new Document("color", 1), new IndexOptions().name("widgets_color"));
+    registry.register("widgets", new Document("color", 1), new IndexOptions().name("widgets_color").unique(true));
+
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(0, report.created().size());
+    assertEquals(1, report.divergent().size());
+  }
+
+  @Test
+  void reportsIndexesWithADifferentPartialFilter() {
+    db.getCollection("widgets").createIndex(new Document("color", 1), new IndexOptions().name("widgets_color")
+      .partialFilterExpression(Filters.exists("color")));
+    registry.register("widgets", new Document("color", 1), new IndexOptions().name("widgets_color")
+      .partialFilterExpression(Filters.eq("shape", "round")));
+
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(1, report.divergent().size());
+  }
+
+  @Test
+  void comparesSparsenessAndDeclaredCollationSettings() {
+    Collation english = Collation.builder().locale("en").build();
+    db.getCollection("widgets").createIndex(new Document("color", 1), new IndexOptions().name("widgets_color")
+      .collation(english));
+    db.getCollection("widgets").createIndex(new Document("shape", 1), new IndexOptions().name("widgets_shape"));
+    // MongoDB fills in the rest of the collation, which still matches
+    registry.register("widgets", new Document("color", 1), new IndexOptions().name("widgets_color")
+      .collation(english));
+    registry.register("widgets", new Document("shape", 1), new IndexOptions().name("widgets_shape").sparse(true));
+
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(List.of("widgets_color"), report.unchanged().stream().map(IndexDefinition::name).toList());
+    assertEquals(List.of("widgets_shape"), report.divergent().stream().map(IndexDefinition::name).toList());
+  }
+
+  @Test
+  void reportsSameKeysUnderAnotherName() {
+    db.getCollection("widgets").createIndex(new Document("color", 1), new IndexOptions().name("old_name"));
+    registry.register("widgets", "widgets_color", new Document("color", 1));
+
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(1, report.divergent().size());
+    assertTrue(!indexNames("widgets").contains("widgets_color"));
+  }
+
+  @Test
+  void indexesNeedNames() {
+    assertThrows(IllegalArgumentException.class,
+        () -> registry.register("widgets", new Document("color", 1), new IndexOptions()));
+  }
+
+  @Test
+  void controllerIndexesCanAllBeCreated() {
+    new UserController(db).registerIndexes(registry);
+    new LobbyController(db).registerIndexes(registry);
+
+    registry.reconcile(db);
+    // The second time round, every index (partial ones included) matches its declaration
+    ReconcileReport report = registry.reconcile(db);
+
+    assertEquals(0, report.divergent().size());
+    assertEquals(registry.definitions().size(), report.unchanged().size());
+  }
+
+  private static List<String> indexNames(String collection) {
+    List<String> names = new ArrayList<>();
+    for (Document index : db.getCollection(collection).listIndexes()) {
+      names.add(index.getString("name"));
+    }
+    return names;
+  }
+}
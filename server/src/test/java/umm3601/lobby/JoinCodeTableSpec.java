@@ -0,0 +1,83 @@
+package umm3601.lobby;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class JoinCodeTableSpec {
+
+  @Test
+  void storesAndLooksUpCodes() {
+    JoinCodeTable table = new JoinCodeTable();
+    assertTrue(table.putIfAbsent(4217, "lobby1"));
+    assertTrue(table.putIfAbsent(0, "lobby2"));
+
+    assertEquals("lobby1", table.get(4217));
+    assertEquals("lobby2", table.get(0));
+    assertNull(table.get(999_999));
+    assertNull(table.get(-1));
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  void wontReuseCodesThatAreTaken() {
+    JoinCodeTable table = new JoinCodeTable();
+    assertTrue(table.putIfAbsent(4217, "lobby1"));
+    assertFalse(table.putIfAbsent(4217, "lobby2"));
+    assertEquals("lobby1", table.get(4217));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  void removedCodesCanBeReused() {
+    JoinCodeTable table = new JoinCodeTable();
+    table.putIfAbsent(4217, "lobby1");
+
+    assertEquals("lobby1", table.remove(4217));
+    assertNull(table.remove(4217));
+    assertNull(table.remove(-1));
+    assertNull(table.get(4217));
+    assertEquals(0, table.size());
+
+    assertTrue(table.putIfAbsent(4217, "lobby2"));
+    assertEquals("lobby2", table.get(4217));
+  }
+
+  @Test
+  void rejectsNegativeCodes() {
+    JoinCodeTable table = new JoinCodeTable();
+    assertThrows(IllegalArgumentException.class, () -> table.putIfAbsent(-1, "lobby1"));
+  }
+
+  @Test
+  void agreesWithHashMapThroughGrowthAndRemovals() {
+    // Lots of random adds and removes (in a small range of codes, so the
+    // table is full of collisions) checked against a plain `HashMap`.
+    JoinCodeTable table = new JoinCodeTable();
+    Map<Integer, String> expected = new HashMap<>();
+    Random random = new Random(3601);
+    for (int i = 0; i < 20_000; i++) {
+      int code = random.nextInt(2_000);
+      if (random.nextBoolean()) {
+        String lobbyId = "lobby" + i;
+        assertEquals(!expected.containsKey(code), table.putIfAbsent(code, lobbyId));
+        expected.putIfAbsent(code, lobbyId);
+      } else {
+        assertEquals(expected.remove(code), table.remove(code));
+      }
+    }
+
+    assertEquals(expected.size(), table.size());
+    for (int code = 0; code < 2_000; code++) {
+      assertEquals(expected.get(code), table.get(code));
+    }
+  }
+}
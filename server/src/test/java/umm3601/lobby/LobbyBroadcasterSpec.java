@@ -0,0 +1,105 @@
+package umm3601.lobby;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.websocket.WsContext;
+
+class LobbyBroadcasterSpec {
+
+  private LobbyBroadcaster broadcaster;
+  private WsContext alice;
+  private WsContext bob;
+  private WsContext carol;
+
+  @BeforeEach
+  void setupEach() {
+    broadcaster = new LobbyBroadcaster();
+    alice = mock(WsContext.class);
+    bob = mock(WsContext.class);
+    carol = mock(WsContext.class);
+  }
+
+  private LobbyEvent updated(String lobbyId) {
+    Lobby lobby = new Lobby();
+    lobby._id = lobbyId;
+    lobby.lobbyName = "Potatoes";
+    lobby.userIDs = new String[] {"alice", "bob"};
+    return new LobbyEvent(LobbyEvent.UPDATED, lobbyId, lobby);
+  }
+
+  @Test
+  void sendsTheSameFrameToEverySubscriber() {
+    broadcaster.subscribe("lobby1", alice);
+    broadcaster.subscribe("lobby1", bob);
+    broadcaster.subscribe("lobby2", carol);
+
+    broadcaster.publish(updated("lobby1"));
+
+    ArgumentCaptor<String> aliceFrame = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<String> bobFrame = ArgumentCaptor.forClass(String.class);
+    verify(alice).send(aliceFrame.capture());
+    verify(bob).send(bobFrame.capture());
+    verify(carol, never()).send(anyString());
+    // Serialized once, and shared
+    assertSame(aliceFrame.getValue(), bobFrame.getValue());
+    assertTrue(aliceFrame.getValue().contains("\"type\":\"updated\""));
+    assertTrue(aliceFrame.getValue().contains("Potatoes"));
+  }
+
+  @Test
+  void stopsSendingAfterUnsubscribe() {
+    broadcaster.subscribe("lobby1", alice);
+    broadcaster.subscribe("lobby1", bob);
+    broadcaster.unsubscribe("lobby1", alice);
+
+    broadcaster.publish(updated("lobby1"));
+
+    verify(alice, never()).send(anyString());
+    verify(bob).send(anyString());
+    assertEquals(1, broadcaster.subscriberCount("lobby1"));
+  }
+
+  @Test
+  void dropsSubscribersThatFail() {
+    broadcaster.subscribe("lobby1", alice);
+    broadcaster.subscribe("lobby1", bob);
+    doThrow(new IllegalStateException("closed")).when(alice).send(anyString());
+
+    broadcaster.publish(updated("lobby1"));
+
+    verify(bob).send(anyString());
+    assertEquals(1, broadcaster.subscriberCount("lobby1"));
+  }
+
+  @Test
+  void closeAllDisconnectsEveryone() {
+    broadcaster.subscribe("lobby1", alice);
+    broadcaster.subscribe("lobby1", bob);
+
+    broadcaster.closeAll("lobby1");
+
+    verify(alice).closeSession();
+    verify(bob).closeSession();
+    assertEquals(0, broadcaster.subscriberCount("lobby1"));
+  }
+
+  @Test
+  void publishingToAnUnwatchedLobbyDoesNothing() {
+    broadcaster.publish(updated("nobody"));
+    broadcaster.closeAll("nobody");
+    broadcaster.unsubscribe("nobody", alice);
+
+    assertEquals(0, broadcaster.subscriberCount("nobody"));
+  }
+}
@@ -1,22 +1,30 @@
 package umm3601.lobby;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
 import org.mockito.Captor;
@@ -37,12 +45,19 @@ import static com.mongodb.client.model.Filters.eq;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
 import io.javalin.validation.BodyValidator;
+import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationException;
+import io.javalin.websocket.WsConnectContext;
+import umm3601.metrics.MongoMetrics;
+import umm3601.metrics.QueryCounts;
+import umm3601.metrics.SlowQueryLog;
+import umm3601.search.SearchKeys;
 public class LobbyControllerSpec {
 // An instance of the controller we're testing that is prepared in
   // `setupEach()`, and then exercised in the various tests below.
@@ -91,6 +106,8 @@ public class LobbyControllerSpec {
     mongoClient = MongoClients.create(
         MongoClientSettings.builder()
             .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            // So tests can count the round trips each handler makes
+            .addCommandListener(new MongoMetrics())
             .build());
     db = mongoClient.getDatabase("test");
   }
@@ -101,6 +118,14 @@ public class LobbyControllerSpec {
     mongoClient.close();
   }
 
+  /**
+   * A controller with its own cache and slow query log, like the one the
+   * server makes.
+   */
+  private static LobbyController newController(Duration updateWindow, LobbyJournal journal) {
+    return new LobbyController(db, LobbyController.defaultCache(), updateWindow, journal, new SlowQueryLog());
+  }
+
   @BeforeEach
   void setupEach() throws IOException {
     // Reset our mock context and argument captor (declared with Mockito
@@ -135,8 +160,12 @@ public class LobbyControllerSpec {
 
     lobbyDocuments.insertMany(testLobbies);
     lobbyDocuments.insertOne(apple);
+    // The server fills in the search keys when it reconciles its indexes.
+    SearchKeys.backfill(lobbyDocuments, LobbyController.NAME_KEY, LobbyController.NAME_SEARCH_KEY);
 
-    lobbyController = new LobbyController(db);
+    // Push changes immediately, rather than collecting them for a short
+    // window, so the tests can check them right away.
+    lobbyController = newController(Duration.ZERO, null);
   }
 
   @Test
@@ -158,7 +187,10 @@ public class LobbyControllerSpec {
 
     // Now, go ahead and ask the lobbyController to getLobbies
     // (which will, indeed, ask the context for its queryParamMap)
-    lobbyController.getLobbies(ctx);
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      lobbyController.getLobbies(ctx);
+      counts.checkBudget("/api/lobbies", 1);
+    }
 
     // We are going to capture an argument to a function, and the type of
     // that argument will be of type ArrayList<Lobby> (we said so earlier
@@ -183,12 +215,137 @@ public class LobbyControllerSpec {
         lobbyArrayListCaptor.getValue().size());
   }
 
+  /**
+   * Stub out the context so it looks like a request for `?lobbyName=…`
+   * (and `&match=…` if `match` isn't `null`).
+   */
+  private void stubNameSearch(String lobbyName, String match) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(LobbyController.NAME_KEY, List.of(lobbyName));
+    if (match != null) {
+      queryParams.put(SearchKeys.MATCH_KEY, List.of(match));
+    }
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(LobbyController.NAME_KEY)).thenReturn(lobbyName);
+    when(ctx.queryParam(SearchKeys.MATCH_KEY)).thenReturn(match);
+    when(ctx.queryParamAsClass(LobbyController.NAME_KEY, String.class))
+      .thenReturn(new Validation().validator(LobbyController.NAME_KEY, String.class, lobbyName));
+  }
+
+  @Test
+  void canSearchLobbiesByNameFragment() throws IOException {
+    stubNameSearch("ORANGE", null);
+
+    lobbyController.getLobbies(ctx);
+
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(1, lobbyArrayListCaptor.getValue().size());
+    assertEquals("Channel Orange", lobbyArrayListCaptor.getValue().get(0).lobbyName);
+  }
+
+  @Test
+  void lobbyNameSearchesAreLiteral() throws IOException {
+    // As a regex this would be illegal (and as a hostile one, slow);
+    // as literal text it just doesn't match anything.
+    stubNameSearch("((a+)+$", null);
+
+    lobbyController.getLobbies(ctx);
+
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(0, lobbyArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void coldNameSearchesIgnoreAccentsToo() throws IOException {
+    stubNameSearch("orangé", null);
+
+    lobbyController.getLobbies(ctx);
+
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(1, lobbyArrayListCaptor.getValue().size());
+    assertEquals("Channel Orange", lobbyArrayListCaptor.getValue().get(0).lobbyName);
+  }
+
+  @Test
+  void canSearchLobbyNamesWithWarmTrigramIndex() throws IOException {
+    lobbyController.rebuildNameIndex();
+    stubNameSearch("orangé", null);
+
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      lobbyController.getLobbies(ctx);
+      counts.checkBudget("/api/lobbies", 1);
+    }
+
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(1, lobbyArrayListCaptor.getValue().size());
+    assertEquals("Channel Orange", lobbyArrayListCaptor.getValue().get(0).lobbyName);
+  }
+
+  @Test
+  void commonNameFragmentsFallBackToTheRegex() throws IOException {
+    List<Document> crates = new ArrayList<>();
+    for (int i = 0; i < LobbyController.MAX_TRIGRAM_CANDIDATES; i++) {
+      String name = "Orange crate " + i;
+      crates.add(new Document("lobbyName", name).append("lobbyNameKey", SearchKeys.normalize(name)));
+    }
+    db.getCollection("lobbies").insertMany(crates);
+    lobbyController.rebuildNameIndex();
+    stubNameSearch("orange", null);
+
+    lobbyController.getLobbies(ctx);
+
+    // Every crate, and Channel Orange
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(LobbyController.MAX_TRIGRAM_CANDIDATES + 1, lobbyArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void rejectsOverlyLongLobbyNameSearches() {
+    stubNameSearch("x".repeat(SearchKeys.MAX_SEARCH_LENGTH + 1), null);
+
+    assertThrows(ValidationException.class, () -> lobbyController.getLobbies(ctx));
+  }
+
+  @Test
+  void canSearchLobbiesByIndexedPrefix() throws IOException {
+    // The test lobbies were inserted without search keys, so fill them in
+    SearchKeys.backfill(db.getCollection("lobbies"), LobbyController.NAME_KEY, LobbyController.NAME_SEARCH_KEY);
+    stubNameSearch("you will", "prefix");
+
+    lobbyController.getLobbies(ctx);
+
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(1, lobbyArrayListCaptor.getValue().size());
+    assertEquals("You Will Never Know Why", lobbyArrayListCaptor.getValue().get(0).lobbyName);
+  }
+
+  @Test
+  void canSearchLobbiesByIndexedExactName() throws IOException {
+    SearchKeys.backfill(db.getCollection("lobbies"), LobbyController.NAME_KEY, LobbyController.NAME_SEARCH_KEY);
+    stubNameSearch("imaginal disk", "exact");
+
+    lobbyController.getLobbies(ctx);
+
+    verify(ctx).json(lobbyArrayListCaptor.capture());
+    assertEquals(1, lobbyArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  void rejectsUnknownMatchModes() {
+    stubNameSearch("orange", "fuzzy");
+
+    assertThrows(BadRequestResponse.class, () -> lobbyController.getLobbies(ctx));
+  }
+
   @Test
   void getLobbyWithExistentId() throws IOException {
     String id = appleId.toHexString();
     when(ctx.pathParam("id")).thenReturn(id);
 
-    lobbyController.getLobby(ctx);
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      lobbyController.getLobby(ctx);
+      counts.checkBudget("/api/lobbies/{id}", 1);
+    }
 
     verify(ctx).json(lobbyCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
@@ -196,6 +353,38 @@ public class LobbyControllerSpec {
     assertEquals(appleId.toHexString(), lobbyCaptor.getValue()._id);
   }
 
+  @Test
+  void getLobbyIsServedFromCache() throws IOException {
+    String id = appleId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+    lobbyController.getLobby(ctx);
+
+    // Remove the lobby "behind the controller's back"; the cached
+    // copy should still be returned.
+    db.getCollection("lobbies").deleteOne(eq("_id", appleId));
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      lobbyController.getLobby(ctx);
+      // A cache hit doesn't touch the database at all.
+      counts.checkBudget("/api/lobbies/{id}", 0);
+    }
+
+    verify(ctx, Mockito.times(2)).json(lobbyCaptor.capture());
+    assertEquals("Shine On You Crazy Diamond", lobbyCaptor.getValue().lobbyName);
+  }
+
+  @Test
+  void deleteLobbyInvalidatesCache() throws IOException {
+    String id = appleId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+    lobbyController.getLobby(ctx);
+
+    lobbyController.deleteLobby(ctx);
+
+    assertThrows(NotFoundResponse.class, () -> {
+      lobbyController.getLobby(ctx);
+    });
+  }
+
   @Test
   void getLobbyWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -374,4 +563,508 @@ public class LobbyControllerSpec {
     // User is still not in the database
     assertEquals(0, db.getCollection("users").countDocuments(eq("_id", new ObjectId(testID))));
   }
+
+  private void stubJoin(ObjectId lobbyId, String userId) {
+    String joinJson = userId == null ? "{}" : "{\"userID\": \"" + userId + "\"}";
+    when(ctx.pathParam("id")).thenReturn(lobbyId.toHexString());
+    when(ctx.body()).thenReturn(joinJson);
+    when(ctx.bodyValidator(JoinRequest.class))
+        .then(value -> new BodyValidator<JoinRequest>(joinJson, JoinRequest.class,
+                        () -> javalinJackson.fromJsonString(joinJson, JoinRequest.class)));
+  }
+
+  private List<Object> userIDsOf(ObjectId lobbyId) {
+    return db.getCollection("lobbies").find(eq("_id", lobbyId)).first().getList("userIDs", Object.class);
+  }
+
+  @Test
+  void canJoinLobby() throws IOException {
+    stubJoin(appleId, "Potato");
+    lobbyController.joinLobby(ctx);
+    stubJoin(appleId, "Apple");
+    lobbyController.joinLobby(ctx);
+
+    verify(ctx, Mockito.times(2)).status(HttpStatus.OK);
+    verify(ctx, Mockito.times(2)).json(lobbyCaptor.capture());
+    assertEquals(List.of("Potato", "Apple"), Arrays.asList(lobbyCaptor.getValue().userIDs));
+    assertEquals(List.of("Potato", "Apple"), userIDsOf(appleId));
+    // Each join is a new version of the lobby
+    assertEquals(2, lobbyCaptor.getValue().version);
+  }
+
+  @Test
+  void joiningTwiceDoesNothing() throws IOException {
+    stubJoin(appleId, "Potato");
+    lobbyController.joinLobby(ctx);
+    lobbyController.joinLobby(ctx);
+
+    assertEquals(List.of("Potato"), userIDsOf(appleId));
+  }
+
+  @Test
+  void cantJoinFullLobby() throws IOException {
+    db.getCollection("lobbies").updateOne(eq("_id", appleId),
+        new Document("$set", new Document("capacity", 1).append("userIDs", List.of("Potato"))));
+
+    // Someone already in the lobby can "rejoin" it
+    stubJoin(appleId, "Potato");
+    lobbyController.joinLobby(ctx);
+
+    stubJoin(appleId, "Apple");
+    assertThrows(ConflictResponse.class, () -> lobbyController.joinLobby(ctx));
+    assertEquals(List.of("Potato"), userIDsOf(appleId));
+  }
+
+  @Test
+  void cantJoinMissingLobby() throws IOException {
+    stubJoin(new ObjectId(), "Potato");
+
+    assertThrows(NotFoundResponse.class, () -> lobbyController.joinLobby(ctx));
+  }
+
+  @Test
+  void joiningNeedsUserID() throws IOException {
+    stubJoin(appleId, null);
+
+    assertThrows(ValidationException.class, () -> lobbyController.joinLobby(ctx));
+  }
+
+  @Test
+  void joiningNeedsLegalLobbyId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("not an id");
+
+    assertThrows(BadRequestResponse.class, () -> lobbyController.joinLobby(ctx));
+  }
+
+  @Test
+  void canLeaveLobby() throws IOException {
+    db.getCollection("lobbies").updateOne(eq("_id", appleId),
+        new Document("$set", new Document("userIDs", List.of("Potato", "Apple"))));
+    when(ctx.pathParam("id")).thenReturn(appleId.toHexString());
+    when(ctx.pathParam("userId")).thenReturn("Potato");
+
+    lobbyController.leaveLobby(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(List.of("Apple"), userIDsOf(appleId));
+  }
+
+  @Test
+  void cantLeaveMissingLobby() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    when(ctx.pathParam("userId")).thenReturn("Potato");
+
+    assertThrows(NotFoundResponse.class, () -> lobbyController.leaveLobby(ctx));
+  }
+
+  @Test
+  void socketClientsGetSnapshotAndChanges() throws IOException {
+    WsConnectContext socket = mock(WsConnectContext.class);
+    when(socket.pathParam("id")).thenReturn(appleId.toHexString());
+
+    lobbyController.onLobbySocketConnect(socket);
+    stubJoin(appleId, "Potato");
+    lobbyController.joinLobby(ctx);
+    lobbyController.onLobbySocketClose(socket);
+    stubJoin(appleId, "Apple");
+    lobbyController.joinLobby(ctx);
+
+    ArgumentCaptor<String> frames = ArgumentCaptor.forClass(String.class);
+    verify(socket, Mockito.times(2)).send(frames.capture());
+    assertTrue(frames.getAllValues().get(0).contains("\"type\":\"snapshot\""));
+    assertTrue(frames.getAllValues().get(1).contains("\"type\":\"updated\""));
+    assertTrue(frames.getAllValues().get(1).contains("Potato"));
+  }
+
+  @Test
+  void socketClientsAreDisconnectedWhenLobbyIsDeleted() throws IOException {
+    WsConnectContext socket = mock(WsConnectContext.class);
+    when(socket.pathParam("id")).thenReturn(appleId.toHexString());
+    lobbyController.onLobbySocketConnect(socket);
+    when(ctx.pathParam("id")).thenReturn(appleId.toHexString());
+
+    lobbyController.deleteLobby(ctx);
+
+    verify(socket).closeSession();
+  }
+
+  @Test
+  void socketForMissingLobbyIsClosed() {
+    WsConnectContext socket = mock(WsConnectContext.class);
+    when(socket.pathParam("id")).thenReturn("not an id");
+
+    lobbyController.onLobbySocketConnect(socket);
+
+    verify(socket).closeSession(Mockito.eq(LobbyController.SOCKET_LOBBY_NOT_FOUND), any());
+    verify(socket, Mockito.never()).send(Mockito.anyString());
+  }
+
+  /**
+   * Add a lobby through the controller, and return the join code it was given.
+   */
+  private String addLobbyForJoinCode(String lobbyName) {
+    String json = "{\"lobbyName\": \"" + lobbyName + "\", \"joinCode\": \"000000\"}";
+    Context addCtx = mock(Context.class);
+    when(addCtx.bodyValidator(Lobby.class))
+      .thenReturn(new BodyValidator<Lobby>(json, Lobby.class, () -> javalinJackson.fromJsonString(json, Lobby.class)));
+    lobbyController.addNewLobby(addCtx);
+    return db.getCollection("lobbies").find(eq("lobbyName", lobbyName)).first().getString("joinCode");
+  }
+
+  @Test
+  void newLobbiesGetUniqueJoinCodes() throws IOException {
+    String first = addLobbyForJoinCode("First");
+    String second = addLobbyForJoinCode("Second");
+
+    // Whatever code the client asked for is ignored
+    assertTrue(first.matches("\\d{6}"));
+    assertTrue(second.matches("\\d{6}"));
+    assertNotEquals(first, second);
+
+    when(ctx.pathParam("code")).thenReturn(second);
+    lobbyController.getLobbyByCode(ctx);
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).json(lobbyCaptor.capture());
+    assertEquals("Second", lobbyCaptor.getValue().lobbyName);
+  }
+
+  @Test
+  void canJoinLobbyByCode() throws IOException {
+    String code = addLobbyForJoinCode("Joinable");
+    when(ctx.pathParam("code")).thenReturn(code);
+    when(ctx.body()).thenReturn("{\"userID\": \"Potato\"}");
+    when(ctx.bodyValidator(JoinRequest.class))
+      .then(value -> new BodyValidator<JoinRequest>("{\"userID\": \"Potato\"}", JoinRequest.class,
+        () -> javalinJackson.fromJsonString("{\"userID\": \"Potato\"}", JoinRequest.class)));
+
+    lobbyController.joinLobbyByCode(ctx);
+
+    verify(ctx).json(lobbyCaptor.capture());
+    assertEquals("Joinable", lobbyCaptor.getValue().lobbyName);
+    assertEquals(List.of("Potato"), Arrays.asList(lobbyCaptor.getValue().userIDs));
+  }
+
+  @Test
+  void joinCodesAreLoadedFromTheDatabase() throws IOException {
+    db.getCollection("lobbies").updateOne(eq("_id", appleId),
+      new Document("$set", new Document(LobbyController.JOIN_CODE_KEY, "004217")));
+    when(ctx.pathParam("code")).thenReturn("004217");
+
+    // Before the codes are loaded, lookups go to the database...
+    lobbyController.getLobbyByCode(ctx);
+    // ...and afterwards they don't need to.
+    lobbyController.loadJoinCodes();
+    lobbyController.getLobbyByCode(ctx);
+
+    verify(ctx, Mockito.times(2)).json(lobbyCaptor.capture());
+    for (Lobby lobby : lobbyCaptor.getAllValues()) {
+      assertEquals(appleId.toHexString(), lobby._id);
+    }
+  }
+
+  @Test
+  void deletingLobbyFreesItsJoinCode() throws IOException {
+    lobbyController.loadJoinCodes();
+    String code = addLobbyForJoinCode("Short Lived");
+    String id = db.getCollection("lobbies").find(eq("lobbyName", "Short Lived")).first()
+      .getObjectId("_id").toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+    lobbyController.deleteLobby(ctx);
+
+    when(ctx.pathParam("code")).thenReturn(code);
+    assertThrows(NotFoundResponse.class, () -> lobbyController.getLobbyByCode(ctx));
+  }
+
+  @Test
+  void joinCodesMustBeSixDigits() {
+    when(ctx.pathParam("code")).thenReturn("12345");
+    assertThrows(BadRequestResponse.class, () -> lobbyController.getLobbyByCode(ctx));
+    when(ctx.pathParam("code")).thenReturn("abcdef");
+    assertThrows(BadRequestResponse.class, () -> lobbyController.getLobbyByCode(ctx));
+    when(ctx.pathParam("code")).thenReturn("999999");
+    assertThrows(NotFoundResponse.class, () -> lobbyController.getLobbyByCode(ctx));
+  }
+
+  private void stubRoundSeconds(String seconds) {
+    when(ctx.pathParam("id")).thenReturn(appleId.toHexString());
+    when(ctx.queryParam(LobbyController.SECONDS_KEY)).thenReturn(seconds);
+    when(ctx.queryParamAsClass(LobbyController.SECONDS_KEY, Integer.class))
+      .thenReturn(new Validation().validator(LobbyController.SECONDS_KEY, Integer.class, seconds));
+  }
+
+  @Test
+  void roundEndedIsPushedWhenTheTimeIsUp() throws IOException {
+    WsConnectContext socket = mock(WsConnectContext.class);
+    when(socket.pathParam("id")).thenReturn(appleId.toHexString());
+    lobbyController.onLobbySocketConnect(socket);
+    lobbyController.start();
+    try {
+      stubRoundSeconds("1");
+      lobbyController.startRound(ctx);
+      verify(ctx).status(HttpStatus.CREATED);
+
+      verify(socket, Mockito.timeout(3_000)).send(Mockito.contains("\"type\":\"roundEnded\""));
+    } finally {
+      lobbyController.stop();
+    }
+  }
+
+  @Test
+  void canCancelRound() throws IOException {
+    stubRoundSeconds("60");
+    lobbyController.startRound(ctx);
+    // Starting another round replaces the first
+    lobbyController.startRound(ctx);
+
+    lobbyController.cancelRound(ctx);
+    verify(ctx).status(HttpStatus.OK);
+    assertThrows(NotFoundResponse.class, () -> lobbyController.cancelRound(ctx));
+  }
+
+  @Test
+  void roundsNeedAnExistingLobbyAndAReasonableLength() {
+    stubRoundSeconds("0");
+    assertThrows(ValidationException.class, () -> lobbyController.startRound(ctx));
+    stubRoundSeconds(String.valueOf(LobbyController.MAX_ROUND_SECONDS + 1));
+    assertThrows(ValidationException.class, () -> lobbyController.startRound(ctx));
+
+    stubRoundSeconds("10");
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    assertThrows(NotFoundResponse.class, () -> lobbyController.startRound(ctx));
+  }
+
+  @Test
+  void lobbyActivityIsTracked() throws IOException {
+    addLobbyForJoinCode("Busy");
+    Document busy = db.getCollection("lobbies").find(eq("lobbyName", "Busy")).first();
+    assertTrue(busy.get(LobbyController.LAST_ACTIVITY_KEY) instanceof Date);
+
+    stubJoin(appleId, "Potato");
+    lobbyController.joinLobby(ctx);
+    Document apple = db.getCollection("lobbies").find(eq("_id", appleId)).first();
+    assertTrue(apple.get(LobbyController.LAST_ACTIVITY_KEY) instanceof Date);
+  }
+
+  @Test
+  void reaperDeletesIdleLobbies() throws IOException {
+    long now = System.currentTimeMillis();
+    Date longAgo = new Date(now - LobbyController.LOBBY_IDLE_TIMEOUT.toMillis() - 1_000);
+    db.getCollection("lobbies").updateOne(eq("_id", appleId),
+      new Document("$set", new Document(LobbyController.LAST_ACTIVITY_KEY, longAgo)));
+    db.getCollection("lobbies").updateOne(eq("lobbyName", "Channel Orange"),
+      new Document("$set", new Document(LobbyController.LAST_ACTIVITY_KEY, new Date(now))));
+    WsConnectContext socket = mock(WsConnectContext.class);
+    when(socket.pathParam("id")).thenReturn(appleId.toHexString());
+    lobbyController.onLobbySocketConnect(socket);
+
+    assertEquals(1, lobbyController.reapIdleLobbies());
+
+    assertEquals(0, db.getCollection("lobbies").countDocuments(eq("_id", appleId)));
+    assertEquals(1, db.getCollection("lobbies").countDocuments(eq("lobbyName", "Channel Orange")));
+    verify(socket).send(Mockito.contains("\"type\":\"deleted\""));
+    verify(socket).closeSession();
+    // Nothing else is idle
+    assertEquals(0, lobbyController.reapIdleLobbies());
+  }
+
+  @Test
+  void deletionListenersAreToldWhichLobbyWasDeleted() throws IOException {
+    List<String> deleted = new ArrayList<>();
+    lobbyController.onLobbyDeleted(deleted::add);
+    // A listener that fails doesn't stop the others, or the deletion.
+    lobbyController.onLobbyDeleted(id -> {
+      throw new IllegalStateException("Broken listener");
+    });
+    when(ctx.pathParam("id")).thenReturn(appleId.toHexString());
+
+    lobbyController.deleteLobby(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(List.of(appleId.toHexString()), deleted);
+    // Nothing is passed on for a lobby that wasn't there.
+    assertThrows(NotFoundResponse.class, () -> lobbyController.deleteLobby(ctx));
+    assertEquals(1, deleted.size());
+  }
+
+  @Test
+  void burstsOfChangesArePushedTogether() throws IOException {
+    // A long window, so all the joins land in it however slow the database is
+    LobbyController coalescing = newController(Duration.ofMinutes(1), null);
+    WsConnectContext socket = mock(WsConnectContext.class);
+    when(socket.pathParam("id")).thenReturn(appleId.toHexString());
+    coalescing.onLobbySocketConnect(socket);
+    for (String user : List.of("Potato", "Apple", "Banana")) {
+      stubJoin(appleId, user);
+      coalescing.joinLobby(ctx);
+    }
+    // Just the snapshot so far
+    verify(socket).send(Mockito.anyString());
+
+    // Stopping pushes whatever is waiting
+    coalescing.stop();
+
+    // One snapshot, and one update with everyone in it
+    ArgumentCaptor<String> frames = ArgumentCaptor.forClass(String.class);
+    verify(socket, Mockito.times(2)).send(frames.capture());
+    String update = frames.getAllValues().get(1);
+    assertTrue(update.contains("\"type\":\"updated\""));
+    assertTrue(update.contains("Potato") && update.contains("Apple") && update.contains("Banana"));
+  }
+
+  @Test
+  void journalRebuildsIndexesAfterARestart(@TempDir Path journalDir) throws IOException {
+    // The first start seeds the new journal from the database
+    lobbyController = newController(Duration.ZERO, LobbyJournal.open(journalDir));
+    lobbyController.start();
+    String code = addLobbyForJoinCode("Journaled");
+    stubJoin(appleId, "Potato");
+    lobbyController.joinLobby(ctx);
+    lobbyController.stop();
+
+    LobbyJournal journal = LobbyJournal.open(journalDir);
+    Map<String, JournaledLobby> lobbies = journal.lobbies();
+    assertEquals(db.getCollection("lobbies").countDocuments(), lobbies.size());
+    assertEquals(List.of("Potato"), List.copyOf(lobbies.get(appleId.toHexString()).userIds()));
+
+    // After a restart, join codes are found without touching the database
+    LobbyController restarted = newController(Duration.ZERO, journal);
+    restarted.start();
+    Context codeCtx = mock(Context.class);
+    when(codeCtx.pathParam("code")).thenReturn(code);
+    db.getCollection("lobbies").updateOne(eq("lobbyName", "Journaled"),
+      new Document("$unset", new Document(LobbyController.JOIN_CODE_KEY, "")));
+    restarted.getLobbyByCode(codeCtx);
+    verify(codeCtx).status(HttpStatus.OK);
+    restarted.stop();
+  }
+
+  @Test
+  void journalThatDisagreesWithTheDatabaseIsRebuilt(@TempDir Path journalDir) throws IOException {
+    LobbyJournal journal = LobbyJournal.open(journalDir);
+    Lobby ghost = new Lobby();
+    ghost._id = new ObjectId().toHexString();
+    ghost.lobbyName = "Long gone";
+    journal.created(ghost);
+
+    LobbyController journaled = newController(Duration.ZERO, journal);
+    journaled.loadFromJournal();
+
+    assertEquals(db.getCollection("lobbies").countDocuments(), journal.lobbies().size());
+    assertTrue(journal.lobbies().containsKey(appleId.toHexString()));
+    assertFalse(journal.lobbies().containsKey(ghost._id));
+    journaled.stop();
+  }
+
+  @Test
+  void journalThatMissedACreateAndADeleteIsRebuilt(@TempDir Path journalDir) throws IOException {
+    // The first load seeds the new journal from the database
+    LobbyJournal journal = LobbyJournal.open(journalDir);
+    newController(Duration.ZERO, journal).loadFromJournal();
+    // The journal misses the deletion of one lobby and the creation of
+    // another, so it still has as many lobbies as the database.
+    db.getCollection("lobbies").deleteOne(eq("_id", appleId));
+    Document missed = new Document("_id", new ObjectId()).append("lobbyName", "Missed");
+    db.getCollection("lobbies").insertOne(missed);
+
+    LobbyController journaled = newController(Duration.ZERO, journal);
+    journaled.loadFromJournal();
+
+    assertFalse(journal.lobbies().containsKey(appleId.toHexString()));
+    assertTrue(journal.lobbies().containsKey(missed.getObjectId("_id").toHexString()));
+    journaled.stop();
+  }
+
+  @Test
+  void joinCodesMissingFromTheJournalAreFoundInTheDatabase(@TempDir Path journalDir) throws IOException {
+    LobbyController journaled = newController(Duration.ZERO, LobbyJournal.open(journalDir));
+    journaled.loadFromJournal();
+    // A lobby the journal never heard about
+    db.getCollection("lobbies").insertOne(new Document("_id", new ObjectId())
+      .append("lobbyName", "Unjournaled")
+      .append(LobbyController.JOIN_CODE_KEY, "424242"));
+
+    when(ctx.pathParam("code")).thenReturn("424242");
+    journaled.getLobbyByCode(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    journaled.stop();
+  }
+
+  /**
+   * Ask for a match for `userId`, and return what the response will be
+   * once matchmaking has placed them.
+   */
+  @SuppressWarnings("unchecked")
+  private CompletableFuture<?> findMatch(Context matchCtx, String userId) {
+    String json = "{\"userID\": \"" + userId + "\"}";
+    when(matchCtx.body()).thenReturn(json);
+    when(matchCtx.bodyValidator(JoinRequest.class))
+      .thenReturn(new BodyValidator<>(json, JoinRequest.class,
+        () -> javalinJackson.fromJsonString(json, JoinRequest.class)));
+    lobbyController.findMatch(matchCtx);
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> future = ArgumentCaptor.forClass(Supplier.class);
+    verify(matchCtx).future(future.capture());
+    return future.getValue().get();
+  }
+
+  @Test
+  void matchmakingFillsLobbiesInBatches() throws IOException {
+    int players = LobbyController.MATCH_LOBBY_CAPACITY + 2;
+    List<Context> contexts = new ArrayList<>();
+    List<CompletableFuture<?>> responses = new ArrayList<>();
+    for (int i = 0; i < players; i++) {
+      Context matchCtx = mock(Context.class);
+      contexts.add(matchCtx);
+      responses.add(findMatch(matchCtx, "player" + i));
+    }
+    // Asking twice doesn't take up two spots
+    Context again = mock(Context.class);
+    CompletableFuture<?> againResponse = findMatch(again, "player0");
+
+    lobbyController.runMatchmaking();
+
+    CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+    againResponse.join();
+    List<Document> matched = db.getCollection("lobbies")
+      .find(eq("lobbyName", LobbyController.MATCH_LOBBY_NAME)).into(new ArrayList<>());
+    assertEquals(2, matched.size());
+    assertEquals(players, matched.stream().mapToInt(lobby -> lobby.getList("userIDs", String.class).size()).sum());
+    for (Context matchCtx : contexts) {
+      verify(matchCtx).status(HttpStatus.OK);
+    }
+    verify(contexts.get(0)).json(lobbyCaptor.capture());
+    verify(again).json(lobbyCaptor.capture());
+    assertEquals(lobbyCaptor.getAllValues().get(0)._id, lobbyCaptor.getAllValues().get(1)._id);
+
+    // The next player goes in the lobby that still has room
+    CompletableFuture<?> late = findMatch(ctx, "latecomer");
+    lobbyController.runMatchmaking();
+    late.join();
+    verify(ctx).json(lobbyCaptor.capture());
+    assertEquals(List.of("player8", "player9", "latecomer"), Arrays.asList(lobbyCaptor.getValue().userIDs));
+  }
+
+  @Test
+  void matchmakingCopesWithLobbiesFillingUpElsewhere() throws IOException {
+    CompletableFuture<?> first = findMatch(ctx, "first");
+    lobbyController.runMatchmaking();
+    first.join();
+    verify(ctx).json(lobbyCaptor.capture());
+    ObjectId matchId = new ObjectId(lobbyCaptor.getValue()._id);
+
+    // Everyone else joins directly, filling the lobby behind matchmaking's back
+    List<String> others = new ArrayList<>();
+    for (int i = 1; i < LobbyController.MATCH_LOBBY_CAPACITY; i++) {
+      others.add("direct" + i);
+    }
+    db.getCollection("lobbies").updateOne(eq("_id", matchId),
+      new Document("$push", new Document("userIDs", new Document("$each", others))));
+
+    Context nextCtx = mock(Context.class);
+    CompletableFuture<?> next = findMatch(nextCtx, "next");
+    lobbyController.runMatchmaking();
+    next.join();
+    verify(nextCtx).json(lobbyCaptor.capture());
+    assertNotEquals(matchId.toHexString(), lobbyCaptor.getValue()._id);
+  }
 }
@@ -0,0 +1,170 @@
+package umm3601.lobby;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import io.javalin.json.JavalinJackson;
+
+class LobbyEventFeedSpec {
+
+  // Events are sent on another thread, so give it a moment.
+  private static final long WAIT_MILLIS = 2_000;
+
+  private LobbyEventFeed feed;
+
+  @BeforeEach
+  void setupEach() {
+    feed = new LobbyEventFeed(4, 3, new JavalinJackson());
+  }
+
+  private static SseClient client(String lastEventId) {
+    SseClient client = mock(SseClient.class);
+    Context ctx = mock(Context.class);
+    when(client.ctx()).thenReturn(ctx);
+    when(ctx.header(LobbyEventFeed.LAST_EVENT_ID_HEADER)).thenReturn(lastEventId);
+    return client;
+  }
+
+  private static Runnable onClose(SseClient client) {
+    ArgumentCaptor<Runnable> onClose = ArgumentCaptor.forClass(Runnable.class);
+    verify(client).onClose(onClose.capture());
+    return onClose.getValue();
+  }
+
+  private static LobbyEvent created(String lobbyId) {
+    Lobby lobby = new Lobby();
+    lobby._id = lobbyId;
+    lobby.lobbyName = "Potatoes " + lobbyId;
+    return new LobbyEvent(LobbyEvent.CREATED, lobbyId, lobby);
+  }
+
+  @Test
+  void sendsEventsToConnectedClients() {
+    SseClient alice = client(null);
+    feed.connect(alice);
+    verify(alice).keepAlive();
+    assertEquals(1, feed.subscriberCount());
+
+    feed.publish(created("lobby1"));
+    feed.publish(new LobbyEvent(LobbyEvent.DELETED, "lobby1", null));
+
+    ArgumentCaptor<String> data = ArgumentCaptor.forClass(String.class);
+    verify(alice, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEvent.CREATED), data.capture(), anyString());
+    verify(alice, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEvent.DELETED), anyString(), anyString());
+    assertTrue(data.getValue().contains("Potatoes lobby1"));
+  }
+
+  @Test
+  void replaysMissedEventsToReconnectingClients() {
+    SseClient alice = client(null);
+    feed.connect(alice);
+    feed.publish(created("lobby1"));
+
+    ArgumentCaptor<String> id = ArgumentCaptor.forClass(String.class);
+    verify(alice, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEvent.CREATED), anyString(), id.capture());
+    onClose(alice).run();
+    assertEquals(0, feed.subscriberCount());
+
+    // Alice misses two events while she's away
+    feed.publish(created("lobby2"));
+    feed.publish(created("lobby3"));
+
+    SseClient aliceAgain = client(id.getValue());
+    feed.connect(aliceAgain);
+
+    ArgumentCaptor<String> data = ArgumentCaptor.forClass(String.class);
+    verify(aliceAgain, timeout(WAIT_MILLIS).times(2)).sendEvent(eq(LobbyEvent.CREATED), data.capture(), anyString());
+    List<String> replayed = data.getAllValues();
+    assertTrue(replayed.get(0).contains("lobby2"));
+    assertTrue(replayed.get(1).contains("lobby3"));
+    verify(aliceAgain, never()).sendEvent(eq(LobbyEventFeed.RESET), any(), anyString());
+  }
+
+  @Test
+  void resetsClientsThatMissedTooMuch() {
+    SseClient alice = client(null);
+    feed.connect(alice);
+    feed.publish(created("lobby1"));
+
+    ArgumentCaptor<String> id = ArgumentCaptor.forClass(String.class);
+    verify(alice, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEvent.CREATED), anyString(), id.capture());
+    onClose(alice).run();
+
+    // More than the replay buffer holds
+    for (int i = 2; i <= 6; i++) {
+      feed.publish(created("lobby" + i));
+    }
+
+    SseClient aliceAgain = client(id.getValue());
+    feed.connect(aliceAgain);
+    verify(aliceAgain, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEventFeed.RESET), anyString(), anyString());
+    verify(aliceAgain, never()).sendEvent(eq(LobbyEvent.CREATED), anyString(), anyString());
+  }
+
+  @Test
+  void resetsClientsWithUnknownEventIds() {
+    feed.publish(created("lobby1"));
+
+    SseClient fromBeforeRestart = client("abc-1");
+    feed.connect(fromBeforeRestart);
+    verify(fromBeforeRestart, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEventFeed.RESET), anyString(), anyString());
+
+    SseClient garbled = client("garbled");
+    feed.connect(garbled);
+    verify(garbled, timeout(WAIT_MILLIS)).sendEvent(eq(LobbyEventFeed.RESET), anyString(), anyString());
+  }
+
+  @Test
+  void disconnectsClientsThatFallTooFarBehind() throws InterruptedException {
+    SseClient slow = client(null);
+    CountDownLatch stuck = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      stuck.countDown();
+      release.await();
+      return null;
+    }).when(slow).sendEvent(anyString(), any(), anyString());
+    SseClient fast = client(null);
+    feed.connect(slow);
+    feed.connect(fast);
+
+    // The slow client gets stuck sending the first event...
+    feed.publish(created("lobby1"));
+    stuck.await();
+    // ...so these fill its buffer of 3, and the last one overflows it.
+    for (int i = 2; i <= 5; i++) {
+      feed.publish(created("lobby" + i));
+    }
+
+    verify(slow, timeout(WAIT_MILLIS)).close();
+    verify(fast, timeout(WAIT_MILLIS).times(5)).sendEvent(eq(LobbyEvent.CREATED), anyString(), anyString());
+    verify(fast, never()).close();
+    release.countDown();
+  }
+
+  @Test
+  void rejectsIllegalSizes() {
+    JavalinJackson mapper = new JavalinJackson();
+    assertThrows(IllegalArgumentException.class, () -> new LobbyEventFeed(0, 1, mapper));
+    assertThrows(IllegalArgumentException.class, () -> new LobbyEventFeed(1, 0, mapper));
+  }
+}
@@ -0,0 +1,104 @@
+package umm3601.lobby;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LobbyJournalSpec {
+
+  private static final int SMALL_SEGMENT = 256;
+
+  @TempDir
+  private Path tempDir;
+
+  private static Lobby lobby(String name, int capacity, String joinCode, String... userIds) {
+    Lobby lobby = new Lobby();
+    lobby._id = new ObjectId().toHexString();
+    lobby.lobbyName = name;
+    lobby.capacity = capacity;
+    lobby.joinCode = joinCode;
+    lobby.userIDs = userIds;
+    return lobby;
+  }
+
+  private long segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return files.filter(file -> file.toString().endsWith(".log")).count();
+    }
+  }
+
+  @Test
+  void recoversLobbiesAfterACrash() throws IOException {
+    LobbyJournal journal = LobbyJournal.open(tempDir);
+    assertFalse(journal.hasHistory());
+    Lobby potatoes = lobby("Pótatoes", 4, "004217");
+    Lobby bananas = lobby("Bananas", 0, null);
+    Lobby cherries = lobby("Cherries", 2, "000042", "Carol");
+    journal.created(potatoes);
+    journal.created(bananas);
+    journal.created(cherries);
+    journal.joined(potatoes._id, "Alice");
+    journal.joined(potatoes._id, "Bob");
+    journal.left(potatoes._id, "Alice");
+    journal.deleted(bananas._id);
+    // No `close()`, as if the server had crashed
+
+    LobbyJournal recovered = LobbyJournal.open(tempDir);
+    assertTrue(recovered.hasHistory());
+    Map<String, JournaledLobby> lobbies = recovered.lobbies();
+    assertEquals(Set.of(potatoes._id, cherries._id), lobbies.keySet());
+    assertEquals(new JournaledLobby("Pótatoes", 4, 4217, Set.of("Bob")), lobbies.get(potatoes._id));
+    assertEquals(new JournaledLobby("Cherries", 2, 42, Set.of("Carol")), lobbies.get(cherries._id));
+  }
+
+  @Test
+  void snapshotsReplaceOldSegments() throws IOException {
+    LobbyJournal journal = LobbyJournal.open(tempDir, SMALL_SEGMENT, LobbyJournal.DEFAULT_SNAPSHOT_INTERVAL);
+    Lobby potatoes = lobby("Potatoes", 0, "000001");
+    journal.created(potatoes);
+    for (int i = 0; i < 50; i++) {
+      journal.joined(potatoes._id, "user" + i);
+    }
+    assertTrue(segmentFiles() > 1);
+
+    journal.snapshot();
+    assertEquals(1, segmentFiles());
+    journal.left(potatoes._id, "user0");
+    journal.close();
+
+    JournaledLobby recovered = LobbyJournal.open(tempDir, SMALL_SEGMENT, 1).lobbies().get(potatoes._id);
+    assertEquals(49, recovered.userIds().size());
+    assertFalse(recovered.userIds().contains("user0"));
+    assertTrue(recovered.userIds().contains("user49"));
+  }
+
+  @Test
+  void seedingReplacesEverything() throws IOException {
+    LobbyJournal journal = LobbyJournal.open(tempDir);
+    journal.created(lobby("Forgotten", 0, null));
+
+    Lobby cherries = lobby("Cherries", 2, "123456", "Alice");
+    journal.seed(List.of(cherries));
+
+    Map<String, JournaledLobby> lobbies = LobbyJournal.open(tempDir).lobbies();
+    assertEquals(Map.of(cherries._id, new JournaledLobby("Cherries", 2, 123_456, Set.of("Alice"))), lobbies);
+  }
+
+  @Test
+  void rejectsIllegalSnapshotIntervals() {
+    assertThrows(IllegalArgumentException.class, () -> LobbyJournal.open(tempDir, SMALL_SEGMENT, 0));
+  }
+}
@@ -0,0 +1,138 @@
+package umm3601.lobby;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.timer.TimingWheel;
+
+class LobbyUpdateCoalescerSpec {
+
+  private TimingWheel timers;
+  private List<LobbyEvent> sent;
+
+  @BeforeEach
+  void setupEach() {
+    // The wheel isn't started, so windows only close when we flush them.
+    timers = new TimingWheel();
+    sent = new CopyOnWriteArrayList<>();
+  }
+
+  private static LobbyEvent event(String type, String lobbyId, String... userIDs) {
+    Lobby lobby = new Lobby();
+    lobby._id = lobbyId;
+    lobby.userIDs = userIDs;
+    return new LobbyEvent(type, lobbyId, lobby);
+  }
+
+  private static LobbyEvent update(long version, String... userIDs) {
+    Lobby lobby = new Lobby();
+    lobby._id = "lobby1";
+    lobby.userIDs = userIDs;
+    lobby.version = version;
+    return new LobbyEvent(LobbyEvent.UPDATED, "lobby1", lobby);
+  }
+
+  @Test
+  void mergesRunsOfUpdates() {
+    LobbyUpdateCoalescer coalescer = new LobbyUpdateCoalescer(Duration.ofMinutes(1), timers, sent::add);
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice"));
+    LobbyEvent latest = event(LobbyEvent.UPDATED, "lobby1", "alice", "bob");
+    coalescer.submit(latest);
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby2", "carol"));
+    assertEquals(2, coalescer.pendingLobbies());
+    assertEquals(List.of(), sent);
+
+    coalescer.flushAll();
+
+    assertEquals(2, sent.size());
+    LobbyEvent lobby1 = sent.get(0).lobbyId.equals("lobby1") ? sent.get(0) : sent.get(1);
+    assertSame(latest.lobby, lobby1.lobby);
+    assertEquals(0, coalescer.pendingLobbies());
+  }
+
+  @Test
+  void keepsTheNewestVersionWhenUpdatesArriveOutOfOrder() {
+    LobbyUpdateCoalescer coalescer = new LobbyUpdateCoalescer(Duration.ofMinutes(1), timers, sent::add);
+    LobbyEvent newest = update(2, "alice", "bob");
+    LobbyEvent older = update(1, "alice");
+    // Two joins raced, and the older one's event was submitted last
+    coalescer.submit(newest);
+    coalescer.submit(older);
+    coalescer.flushAll();
+
+    assertEquals(1, sent.size());
+    assertSame(newest.lobby, sent.get(0).lobby);
+    assertEquals(2, sent.get(0).version);
+  }
+
+  @Test
+  void newLobbiesStayCreated() {
+    LobbyUpdateCoalescer coalescer = new LobbyUpdateCoalescer(Duration.ofMinutes(1), timers, sent::add);
+    coalescer.submit(event(LobbyEvent.CREATED, "lobby1"));
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice"));
+    coalescer.flushAll();
+
+    assertEquals(1, sent.size());
+    assertEquals(LobbyEvent.CREATED, sent.get(0).type);
+    assertEquals(List.of("alice"), List.of(sent.get(0).lobby.userIDs));
+  }
+
+  @Test
+  void keepsOtherEventsInOrder() {
+    LobbyUpdateCoalescer coalescer = new LobbyUpdateCoalescer(Duration.ofMinutes(1), timers, sent::add);
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice"));
+    coalescer.submit(new LobbyEvent(LobbyEvent.ROUND_ENDED, "lobby1", null));
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice", "bob"));
+    coalescer.submit(new LobbyEvent(LobbyEvent.DELETED, "lobby1", null));
+    coalescer.flushAll();
+
+    assertEquals(List.of(LobbyEvent.UPDATED, LobbyEvent.ROUND_ENDED, LobbyEvent.UPDATED, LobbyEvent.DELETED),
+      sent.stream().map(event -> event.type).toList());
+  }
+
+  @Test
+  void zeroWindowSendsImmediately() {
+    LobbyUpdateCoalescer coalescer = new LobbyUpdateCoalescer(Duration.ZERO, timers, sent::add);
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice"));
+    coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice", "bob"));
+
+    assertEquals(2, sent.size());
+    assertEquals(0, coalescer.pendingLobbies());
+  }
+
+  @Test
+  void windowsCloseOnTheirOwn() throws InterruptedException {
+    CountDownLatch flushed = new CountDownLatch(1);
+    LobbyUpdateCoalescer coalescer = new LobbyUpdateCoalescer(Duration.ofMillis(20), timers, event -> {
+      sent.add(event);
+      flushed.countDown();
+    });
+    timers.start();
+    try {
+      coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice"));
+      coalescer.submit(event(LobbyEvent.UPDATED, "lobby1", "alice", "bob"));
+
+      assertTrue(flushed.await(2, TimeUnit.SECONDS));
+      assertEquals(1, sent.size());
+    } finally {
+      timers.close();
+    }
+  }
+
+  @Test
+  void rejectsNegativeWindows() {
+    assertThrows(IllegalArgumentException.class,
+      () -> new LobbyUpdateCoalescer(Duration.ofMillis(-1), timers, sent::add));
+  }
+}
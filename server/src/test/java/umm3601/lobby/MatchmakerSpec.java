@@ -0,0 +1,104 @@
+package umm3601.lobby;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import umm3601.timer.TimingWheel;
+
+class MatchmakerSpec {
+
+  // The wheel is never started, so ticks only happen when a test says so.
+  private TimingWheel timers;
+  private List<List<String>> batches;
+  private Lobby lobby;
+  private Matchmaker matchmaker;
+
+  @BeforeEach
+  void setupEach() {
+    timers = new TimingWheel();
+    batches = new ArrayList<>();
+    lobby = new Lobby();
+    lobby.lobbyName = "Potatoes";
+    matchmaker = new Matchmaker(Duration.ofMillis(100), 3, 5, timers, tickets -> {
+      batches.add(tickets.stream().map(Matchmaker.Ticket::userId).toList());
+      tickets.forEach(ticket -> ticket.place(lobby));
+    });
+  }
+
+  @AfterEach
+  void teardownEach() {
+    timers.close();
+  }
+
+  @Test
+  void placesPlayersInBatches() {
+    List<CompletableFuture<Lobby>> placed = new ArrayList<>();
+    for (String user : List.of("Alice", "Bob", "Carol", "Dave")) {
+      placed.add(matchmaker.enqueue(user));
+    }
+    assertEquals(4, matchmaker.queued());
+
+    matchmaker.tick();
+    assertEquals(List.of(List.of("Alice", "Bob", "Carol")), batches);
+    assertEquals(1, matchmaker.queued());
+    matchmaker.tick();
+    assertEquals(List.of("Dave"), batches.get(1));
+
+    for (CompletableFuture<Lobby> future : placed) {
+      assertSame(lobby, future.join());
+    }
+  }
+
+  @Test
+  void skipsPlayersWhoGaveUp() {
+    CompletableFuture<Lobby> impatient = matchmaker.enqueue("Alice");
+    matchmaker.enqueue("Bob");
+    impatient.cancel(false);
+
+    matchmaker.tick();
+    assertEquals(List.of(List.of("Bob")), batches);
+  }
+
+  @Test
+  void rejectsPlayersWhenTheQueueIsFull() {
+    for (int i = 0; i < 5; i++) {
+      matchmaker.enqueue("user" + i);
+    }
+    assertThrows(IllegalStateException.class, () -> matchmaker.enqueue("one too many"));
+    assertEquals(5, matchmaker.queued());
+  }
+
+  @Test
+  void failsTheBatchIfPlacingItFails() {
+    Matchmaker broken = new Matchmaker(Duration.ofMillis(100), 3, 5, timers, tickets -> {
+      throw new IllegalStateException("No lobbies for you");
+    });
+    CompletableFuture<Lobby> placed = broken.enqueue("Alice");
+
+    broken.tick();
+    CompletionException error = assertThrows(CompletionException.class, placed::join);
+    assertTrue(error.getCause().getMessage().contains("No lobbies"));
+  }
+
+  @Test
+  void cancellingFailsEveryoneWaiting() {
+    CompletableFuture<Lobby> placed = matchmaker.enqueue("Alice");
+
+    matchmaker.cancelAll();
+    assertThrows(CompletionException.class, placed::join);
+    assertEquals(0, matchmaker.queued());
+    assertThrows(IllegalArgumentException.class, () -> new Matchmaker(Duration.ZERO, 0, 1, timers, tickets -> { }));
+  }
+}
@@ -0,0 +1,46 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.cache.CacheStats;
+
+class CacheMetricsSpec {
+
+  @Test
+  void reportsEachCachesCounters() {
+    CacheMetrics metrics = new CacheMetrics(Map.of(
+      "users", () -> new CacheStats(7, 3, 0, 10),
+      "lobbies", () -> new CacheStats(40, 12, 5, 256)));
+
+    PrometheusWriter out = new PrometheusWriter();
+    metrics.writeTo(out);
+    String scraped = out.toString();
+
+    assertTrue(scraped.contains("# TYPE " + CacheMetrics.HITS + " counter\n"), scraped);
+    assertTrue(scraped.contains(CacheMetrics.HITS + "{cache=\"lobbies\"} 40\n"), scraped);
+    assertTrue(scraped.contains(CacheMetrics.HITS + "{cache=\"users\"} 7\n"), scraped);
+    assertTrue(scraped.contains(CacheMetrics.MISSES + "{cache=\"lobbies\"} 12\n"), scraped);
+    assertTrue(scraped.contains(CacheMetrics.EVICTIONS + "{cache=\"lobbies\"} 5\n"), scraped);
+    assertTrue(scraped.contains("# TYPE " + CacheMetrics.SIZE + " gauge\n"), scraped);
+    assertTrue(scraped.contains(CacheMetrics.SIZE + "{cache=\"users\"} 10\n"), scraped);
+  }
+
+  @Test
+  void writesEachFamilyOnce() {
+    CacheMetrics metrics = new CacheMetrics(Map.of(
+      "users", () -> new CacheStats(0, 0, 0, 0),
+      "lobbies", () -> new CacheStats(0, 0, 0, 0)));
+
+    PrometheusWriter out = new PrometheusWriter();
+    metrics.writeTo(out);
+    String scraped = out.toString();
+
+    assertEquals(scraped.indexOf("# TYPE " + CacheMetrics.HITS),
+      scraped.lastIndexOf("# TYPE " + CacheMetrics.HITS), scraped);
+  }
+}
@@ -0,0 +1,40 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class HandlerEventStreamSpec {
+
+  @Test
+  void addsUpEventsByRoute() {
+    HandlerEventStream events = new HandlerEventStream(Duration.ofMinutes(1), new AtomicLong()::get);
+    for (int i = 0; i < 4; i++) {
+      events.record("GET", "/api/users", TimeUnit.MILLISECONDS.toNanos(10),
+        TimeUnit.MILLISECONDS.toNanos(6), TimeUnit.MILLISECONDS.toNanos(2), 1_000);
+    }
+    events.record("POST", "/api/lobbies", TimeUnit.MILLISECONDS.toNanos(3), 0, 0, 50);
+
+    PrometheusWriter out = new PrometheusWriter();
+    events.writeTo(out);
+    String scraped = out.toString();
+
+    assertTrue(scraped.contains("# TYPE " + HandlerEventStream.DURATION + " summary\n"));
+    assertTrue(scraped.contains(HandlerEventStream.DURATION + "_count{method=\"GET\",route=\"/api/users\"} 4\n"));
+    assertTrue(scraped.contains(HandlerEventStream.MONGO_TIME + "{method=\"GET\",route=\"/api/users\"} 0.024\n"),
+      scraped);
+    assertTrue(scraped.contains(HandlerEventStream.SERIALIZATION_TIME
+      + "{method=\"GET\",route=\"/api/users\"} 0.008\n"), scraped);
+    assertTrue(scraped.contains(HandlerEventStream.RESPONSE_BYTES + "{method=\"GET\",route=\"/api/users\"} 4000\n"));
+    assertTrue(scraped.contains(HandlerEventStream.RESPONSE_BYTES + "{method=\"POST\",route=\"/api/lobbies\"} 50\n"));
+  }
+
+  @Test
+  void closesWithoutAStream() {
+    new HandlerEventStream(Duration.ofMinutes(1), System::nanoTime).close();
+  }
+}
@@ -0,0 +1,173 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.json.JsonMapper;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class HandlerEventsSpec {
+
+  @TempDir
+  private Path tempDir;
+
+  @AfterEach
+  void teardownEach() {
+    HandlerEvents.detach();
+  }
+
+  private static Context request() {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.statusCode()).thenReturn(200);
+    return ctx;
+  }
+
+  /**
+   * Begin an event for `ctx`, and make `ctx` hand it back when asked.
+   */
+  private static void begin(Context ctx) {
+    HandlerEvents.begin(ctx);
+    ArgumentCaptor<Object> event = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).attribute(eq(HandlerEvent.NAME), event.capture());
+    when(ctx.attribute(HandlerEvent.NAME)).thenReturn(event.getValue());
+  }
+
+  @Test
+  void recordsAnEventForEachRequest() throws IOException {
+    Path dump = tempDir.resolve("handlers.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(HandlerEvent.class).withoutThreshold();
+      recording.start();
+
+      Context ctx = request();
+      begin(ctx);
+      HandlerEvents.addMongoTime(3_000);
+      HandlerEvents.addMongoTime(4_000);
+      new TimedJsonMapper(new JsonMapper() {
+        @Override
+        public String toJsonString(Object obj, Type type) {
+          return "[]";
+        }
+      }).toJsonString(List.of(), List.class);
+      HandlerEvents.detach();
+      // Nothing is added once the request is done with.
+      HandlerEvents.addMongoTime(1_000_000);
+      HandlerEvents.end(ctx, "/api/users", 2);
+
+      recording.stop();
+      recording.dump(dump);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+      .filter(event -> event.getEventType().getName().equals(HandlerEvent.NAME))
+      .toList();
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("GET", event.getString("method"));
+    assertEquals("/api/users", event.getString("route"));
+    assertEquals(200, event.getInt("status"));
+    assertEquals(7_000, event.getLong("mongoTime"));
+    assertTrue(event.getLong("serializationTime") > 0);
+    assertEquals(2, event.getLong("responseBytes"));
+  }
+
+  @Test
+  void recordsAnEventForEachMongoCommand() throws IOException {
+    Path dump = tempDir.resolve("commands.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(MongoCommandEvent.class).withoutThreshold();
+      recording.start();
+
+      MongoCommandEvent.commit("users", "find", 3_000, false);
+      MongoCommandEvent.commit(MongoMetrics.NO_COLLECTION, "ping", 1_000, true);
+
+      recording.stop();
+      recording.dump(dump);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump).stream()
+      .filter(event -> event.getEventType().getName().equals(MongoCommandEvent.NAME))
+      .toList();
+    assertEquals(2, events.size());
+    RecordedEvent find = events.stream().filter(event -> event.getString("command").equals("find")).findFirst().get();
+    assertEquals("users", find.getString("collection"));
+    assertEquals(3_000, find.getLong("elapsedTime"));
+    assertFalse(find.getBoolean("failed"));
+    RecordedEvent ping = events.stream().filter(event -> event.getString("command").equals("ping")).findFirst().get();
+    assertEquals(MongoMetrics.NO_COLLECTION, ping.getString("collection"));
+    assertTrue(ping.getBoolean("failed"));
+  }
+
+  @Test
+  void doesNothingWhenNothingIsRecording() {
+    Context ctx = request();
+
+    HandlerEvents.begin(ctx);
+    HandlerEvents.addMongoTime(1_000);
+    HandlerEvents.addSerializationTime(1_000);
+    HandlerEvents.end(ctx, "/api/users", 2);
+
+    verify(ctx, never()).attribute(any(), any());
+    verify(ctx, never()).statusCode();
+  }
+
+  @Test
+  void timedMapperDelegates() {
+    JsonMapper delegate = mock(JsonMapper.class);
+    InputStream stream = InputStream.nullInputStream();
+    when(delegate.toJsonStream(List.of(), List.class)).thenReturn(stream);
+    when(delegate.fromJsonString("[]", List.class)).thenReturn(List.of());
+    when(delegate.fromJsonStream(stream, List.class)).thenReturn(List.of());
+    TimedJsonMapper mapper = new TimedJsonMapper(delegate);
+
+    // Nothing is recording, so the delegate's (lazy) stream is handed back as it is.
+    assertEquals(stream, mapper.toJsonStream(List.of(), List.class));
+    assertEquals(List.of(), mapper.fromJsonString("[]", List.class));
+    assertEquals(List.of(), mapper.fromJsonStream(stream, List.class));
+    mapper.writeToOutputStream(null, null);
+    verify(delegate).writeToOutputStream(null, null);
+  }
+
+  @Test
+  void timedMapperSerializesStreamsUpFrontWhileRecording() throws IOException {
+    JsonMapper delegate = mock(JsonMapper.class);
+    when(delegate.toJsonString(List.of("é"), List.class)).thenReturn("[\"é\"]");
+    TimedJsonMapper mapper = new TimedJsonMapper(delegate);
+
+    try (Recording recording = new Recording()) {
+      recording.enable(HandlerEvent.class).withoutThreshold();
+      recording.start();
+      begin(request());
+
+      // The work is done while we're timing, rather than as the stream is read.
+      try (InputStream json = mapper.toJsonStream(List.of("é"), List.class)) {
+        assertEquals("[\"é\"]", new String(json.readAllBytes(), StandardCharsets.UTF_8));
+      }
+      verify(delegate, never()).toJsonStream(any(), any());
+    }
+  }
+}
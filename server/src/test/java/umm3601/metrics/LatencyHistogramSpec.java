@@ -0,0 +1,90 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramSpec {
+
+  @Test
+  void smallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 50; i++) {
+      histogram.recordMicros(i);
+    }
+
+    assertEquals(50, histogram.count());
+    assertEquals(25, histogram.percentileMicros(50));
+    assertEquals(50, histogram.percentileMicros(100));
+    assertEquals(1, histogram.percentileMicros(0));
+  }
+
+  @Test
+  void bigValuesAreWithinThreePercent() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros < LatencyHistogram.MAX_VALUE; micros = micros * 3 + 7) {
+      LatencyHistogram single = new LatencyHistogram();
+      single.recordMicros(micros);
+      long reported = single.percentileMicros(50);
+      assertTrue(reported >= micros, micros + " was reported as " + reported);
+      assertTrue(reported <= micros * 1.03 + 1, micros + " was reported as " + reported);
+    }
+  }
+
+  @Test
+  void bucketsCoverEveryValueInOrder() {
+    long previousTop = -1;
+    for (int index = 0; index <= LatencyHistogram.index(LatencyHistogram.MAX_VALUE); index++) {
+      long top = LatencyHistogram.highestValueIn(index);
+      assertEquals(index, LatencyHistogram.index(top));
+      assertEquals(index, LatencyHistogram.index(previousTop + 1));
+      previousTop = top;
+    }
+    assertEquals(LatencyHistogram.MAX_VALUE, previousTop);
+  }
+
+  @Test
+  void findsTheTail() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 990 fast requests, 9 slow ones, and one very slow one
+    for (int i = 0; i < 990; i++) {
+      histogram.record(2, TimeUnit.MILLISECONDS);
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(100, TimeUnit.MILLISECONDS);
+    }
+    histogram.record(3, TimeUnit.SECONDS);
+
+    assertEquals(2_000, histogram.percentileMicros(50), 2_000 * 0.03);
+    assertEquals(2_000, histogram.percentileMicros(99), 2_000 * 0.03);
+    assertEquals(100_000, histogram.percentileMicros(99.9), 100_000 * 0.03);
+    assertEquals(3_000_000, histogram.percentileMicros(100), 3_000_000 * 0.03);
+  }
+
+  @Test
+  void histogramsCanBeAdded() {
+    LatencyHistogram first = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+    first.recordMicros(10);
+    second.recordMicros(20);
+    second.recordMicros(-5);
+    second.recordMicros(Long.MAX_VALUE);
+
+    first.add(second);
+    assertEquals(4, first.count());
+    assertEquals(0, first.percentileMicros(0));
+    assertEquals(LatencyHistogram.MAX_VALUE, first.percentileMicros(100));
+  }
+
+  @Test
+  void emptyHistogramsAndBadPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentileMicros(99));
+    assertThrows(IllegalArgumentException.class, () -> histogram.percentileMicros(101));
+    assertThrows(IllegalArgumentException.class, () -> histogram.percentileMicros(-1));
+  }
+}
@@ -0,0 +1,54 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+class MetricsControllerSpec {
+
+  @Test
+  void servesMetricsInPrometheusFormat() {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    requestMetrics.record("GET", "/api/users", 200, 1_000_000);
+    MetricsController controller = new MetricsController(requestMetrics);
+    Context ctx = mock(Context.class);
+
+    controller.getMetrics(ctx);
+
+    verify(ctx).contentType(PrometheusWriter.CONTENT_TYPE);
+    verify(ctx).status(HttpStatus.OK);
+    ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(body.capture());
+    assertTrue(body.getValue().contains(
+      RequestMetrics.RESPONSES + "{method=\"GET\",route=\"/api/users\",status=\"200\"} 1"));
+  }
+
+  @Test
+  void servesEverySource() {
+    MetricsController controller = new MetricsController(
+      out -> out.sample("first_total", 1),
+      out -> out.sample("second_total", 2));
+    Context ctx = mock(Context.class);
+
+    controller.getMetrics(ctx);
+
+    ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(body.capture());
+    assertTrue(body.getValue().contains("first_total 1\nsecond_total 2\n"), body.getValue());
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin server = mock(Javalin.class);
+    new MetricsController(new RequestMetrics()).addRoutes(server);
+    verify(server).get(any(), any());
+  }
+}
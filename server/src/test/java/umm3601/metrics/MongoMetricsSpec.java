@@ -0,0 +1,143 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+
+class MongoMetricsSpec {
+
+  private static final ServerId SERVER = new ServerId(new ClusterId(), new ServerAddress("localhost", 27017));
+  private static final ConnectionId CONNECTION = new ConnectionId(SERVER);
+
+  private AtomicLong now;
+  private MongoMetrics metrics;
+  private int requestId;
+
+  @BeforeEach
+  void setupEach() {
+    now = new AtomicLong();
+    metrics = new MongoMetrics(Duration.ofMinutes(1), now::get);
+  }
+
+  private String scrape() {
+    PrometheusWriter out = new PrometheusWriter();
+    metrics.writeTo(out);
+    return out.toString();
+  }
+
+  private int start(String commandName, BsonDocument command) {
+    CommandStartedEvent event = mock(CommandStartedEvent.class);
+    when(event.getRequestId()).thenReturn(++requestId);
+    when(event.getCommandName()).thenReturn(commandName);
+    when(event.getCommand()).thenReturn(command);
+    metrics.commandStarted(event);
+    return requestId;
+  }
+
+  private void succeed(int id, String commandName, long millis) {
+    CommandSucceededEvent event = mock(CommandSucceededEvent.class);
+    when(event.getRequestId()).thenReturn(id);
+    when(event.getCommandName()).thenReturn(commandName);
+    when(event.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(millis));
+    metrics.commandSucceeded(event);
+  }
+
+  @Test
+  void recordsCommandLatencyByCollectionAndCommand() {
+    for (int i = 0; i < 10; i++) {
+      succeed(start("find", new BsonDocument("find", new BsonString("users"))), "find", 2);
+    }
+    succeed(start("insert", new BsonDocument("insert", new BsonString("lobbies"))), "insert", 4);
+
+    CommandFailedEvent failed = mock(CommandFailedEvent.class);
+    when(failed.getRequestId()).thenReturn(start("find", new BsonDocument("find", new BsonString("users"))));
+    when(failed.getCommandName()).thenReturn("find");
+    when(failed.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(2));
+    metrics.commandFailed(failed);
+
+    String scraped = scrape();
+    assertTrue(scraped.contains("# TYPE " + MongoMetrics.COMMAND_LATENCY + " summary\n"));
+    assertTrue(scraped.contains(MongoMetrics.COMMAND_LATENCY
+      + "_count{collection=\"users\",command=\"find\"} 11\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.COMMAND_LATENCY
+      + "_sum{collection=\"users\",command=\"find\"} 0.022\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.COMMAND_LATENCY
+      + "_count{collection=\"lobbies\",command=\"insert\"} 1\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.COMMAND_FAILURES + "{collection=\"users\",command=\"find\"} 1\n"));
+    assertTrue(scraped.contains(MongoMetrics.COMMAND_FAILURES + "{collection=\"lobbies\",command=\"insert\"} 0\n"));
+  }
+
+  @Test
+  void findsTheCollectionOfEachCommand() {
+    assertEquals("users", MongoMetrics.collectionOf("find", new BsonDocument("find", new BsonString("users"))));
+    BsonDocument getMore = new BsonDocument("getMore", new BsonInt64(12))
+      .append("collection", new BsonString("cards"));
+    assertEquals("cards", MongoMetrics.collectionOf("getMore", getMore));
+    assertEquals(MongoMetrics.NO_COLLECTION,
+      MongoMetrics.collectionOf("ping", new BsonDocument("ping", new BsonInt32(1))));
+    assertEquals(MongoMetrics.NO_COLLECTION, MongoMetrics.collectionOf("saslStart", new BsonDocument()));
+  }
+
+  @Test
+  void countsCommandsThatStartedBeforeListening() {
+    succeed(++requestId, "find", 1);
+
+    assertTrue(scrape().contains(MongoMetrics.COMMAND_LATENCY
+      + "_count{collection=\"" + MongoMetrics.NO_COLLECTION + "\",command=\"find\"} 1\n"));
+  }
+
+  @Test
+  void tracksTheConnectionPool() {
+    ConnectionCreatedEvent created = mock(ConnectionCreatedEvent.class);
+    when(created.getConnectionId()).thenReturn(CONNECTION);
+    metrics.connectionCreated(created);
+    metrics.connectionCreated(created);
+
+    ConnectionCheckedOutEvent checkedOut = mock(ConnectionCheckedOutEvent.class);
+    when(checkedOut.getConnectionId()).thenReturn(CONNECTION);
+    when(checkedOut.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(3));
+    metrics.connectionCheckedOut(checkedOut);
+    metrics.connectionCheckedOut(checkedOut);
+    ConnectionCheckedInEvent checkedIn = mock(ConnectionCheckedInEvent.class);
+    when(checkedIn.getConnectionId()).thenReturn(CONNECTION);
+    metrics.connectionCheckedIn(checkedIn);
+
+    ConnectionCheckOutFailedEvent failed = mock(ConnectionCheckOutFailedEvent.class);
+    when(failed.getServerId()).thenReturn(SERVER);
+    when(failed.getReason()).thenReturn(ConnectionCheckOutFailedEvent.Reason.TIMEOUT);
+    when(failed.getElapsedTime(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(500));
+    metrics.connectionCheckOutFailed(failed);
+
+    String scraped = scrape();
+    String server = "server=\"localhost:27017\"";
+    assertTrue(scraped.contains(MongoMetrics.CONNECTIONS + "{" + server + "} 2\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.CONNECTIONS_IN_USE + "{" + server + "} 1\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.CHECKOUT_WAIT + "_count{" + server + "} 3\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.CHECKOUT_WAIT + "_sum{" + server + "} 0.506\n"), scraped);
+    assertTrue(scraped.contains(MongoMetrics.CHECKOUT_FAILURES + "{" + server + ",reason=\"timeout\"} 1\n"), scraped);
+  }
+}
@@ -0,0 +1,118 @@
+package umm3601.metrics;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+class QueryCountsSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> users;
+  private List<String> ids;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .addCommandListener(new MongoMetrics())
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("countedUsers").drop();
+    users = db.getCollection("countedUsers");
+    ids = List.of("a", "b", "c", "d");
+    for (String id : ids) {
+      users.insertOne(new Document("_id", id).append("name", "User " + id));
+    }
+  }
+
+  @Test
+  void catchesQueryingOncePerId() {
+    try (QueryCounts counts = QueryCounts.open(true)) {
+      List<Document> found = new ArrayList<>();
+      for (String id : ids) {
+        found.add(users.find(eq("_id", id)).first());
+      }
+
+      assertEquals(4, counts.roundTrips());
+      assertEquals(4, counts.documents());
+      assertTrue(counts.bytes() > 0);
+      assertThrows(IllegalStateException.class, () -> counts.checkBudget("/api/lobbies/{id}/members", 1));
+    }
+  }
+
+  @Test
+  void passesQueryingOnceForAllIds() {
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      List<Document> found = users.find(in("_id", ids)).into(new ArrayList<>());
+
+      assertEquals(4, found.size());
+      assertEquals(1, counts.roundTrips());
+      assertEquals(4, counts.documents());
+      assertEquals(0, counts.bytes());
+      assertFalse(counts.measuresBytes());
+      counts.checkBudget("/api/lobbies/{id}/members", 1);
+    }
+  }
+
+  @Test
+  void onlyCountsWhileOpen() {
+    QueryCounts counts = QueryCounts.open(false);
+    users.find().first();
+    counts.close();
+    users.find().first();
+
+    assertEquals(1, counts.roundTrips());
+  }
+
+  @Test
+  void countsFailuresAndFindAndModify() {
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      QueryCounts.commandFailed();
+      QueryCounts.commandSucceeded(new BsonDocument("value", new BsonDocument("_id", new BsonInt32(1))));
+      QueryCounts.commandSucceeded(new BsonDocument("cursor",
+        new BsonDocument("nextBatch", new BsonArray(List.of(new BsonDocument(), new BsonDocument())))));
+      QueryCounts.commandSucceeded(new BsonDocument("n", new BsonInt32(1)));
+
+      assertEquals(4, counts.roundTrips());
+      assertEquals(3, counts.documents());
+    }
+  }
+}
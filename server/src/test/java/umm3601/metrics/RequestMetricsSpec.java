@@ -0,0 +1,113 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RequestMetricsSpec {
+
+  private AtomicLong now;
+  private RequestMetrics metrics;
+
+  @BeforeEach
+  void setupEach() {
+    now = new AtomicLong();
+    metrics = new RequestMetrics(Duration.ofMinutes(1), now::get);
+  }
+
+  private String scrape() {
+    PrometheusWriter out = new PrometheusWriter();
+    metrics.writeTo(out);
+    return out.toString();
+  }
+
+  @Test
+  void reportsLatencyStatusesAndThroughputByRoute() {
+    for (int i = 0; i < 99; i++) {
+      metrics.record("GET", "/api/users/{id}", 200, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    metrics.record("GET", "/api/users/{id}", 404, TimeUnit.MILLISECONDS.toNanos(500));
+    metrics.record("POST", RequestMetrics.UNMATCHED, 404, 1_000);
+    now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    String scraped = scrape();
+    assertTrue(scraped.contains("# TYPE " + RequestMetrics.LATENCY + " summary\n"));
+    // 1ms, within the histogram's 3%
+    assertTrue(scraped.contains(RequestMetrics.LATENCY
+      + "{method=\"GET\",route=\"/api/users/{id}\",quantile=\"0.5\"} 0.001007\n"), scraped);
+    assertTrue(scraped.contains(RequestMetrics.LATENCY
+      + "{method=\"GET\",route=\"/api/users/{id}\",quantile=\"0.999\"} 0.50"), scraped);
+    assertTrue(scraped.contains(RequestMetrics.LATENCY + "_count{method=\"GET\",route=\"/api/users/{id}\"} 100\n"));
+    assertTrue(scraped.contains(RequestMetrics.LATENCY + "_sum{method=\"GET\",route=\"/api/users/{id}\"} 0.599\n"));
+    assertTrue(scraped.contains(RequestMetrics.RESPONSES
+      + "{method=\"GET\",route=\"/api/users/{id}\",status=\"200\"} 99\n"));
+    assertTrue(scraped.contains(RequestMetrics.RESPONSES
+      + "{method=\"GET\",route=\"/api/users/{id}\",status=\"404\"} 1\n"));
+    assertTrue(scraped.contains(RequestMetrics.RESPONSES + "{method=\"POST\",route=\"unmatched\",status=\"404\"} 1\n"));
+    // 100 requests in 10 seconds
+    assertTrue(scraped.contains(RequestMetrics.THROUGHPUT + "{method=\"GET\",route=\"/api/users/{id}\"} 10\n"));
+  }
+
+  @Test
+  void percentilesForgetOldRequests() {
+    metrics.record("GET", "/api/lobbies", 200, TimeUnit.SECONDS.toNanos(2));
+    // After one window the slow request is still counted...
+    now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    metrics.record("GET", "/api/lobbies", 200, TimeUnit.MILLISECONDS.toNanos(1));
+    assertTrue(scrape().contains("quantile=\"0.999\"} 2.0"));
+    // ...but not after two
+    now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+    metrics.record("GET", "/api/lobbies", 200, TimeUnit.MILLISECONDS.toNanos(1));
+    String scraped = scrape();
+    assertFalse(scraped.contains("quantile=\"0.999\"} 2.0"), scraped);
+    // The count still includes everything
+    assertTrue(scraped.contains("_count{method=\"GET\",route=\"/api/lobbies\"} 3\n"));
+  }
+
+  @Test
+  void addsUpMongoRoundTripsByRoute() {
+    for (int roundTrips : new int[] {1, 5, 2}) {
+      try (QueryCounts counts = QueryCounts.open(false)) {
+        for (int i = 0; i < roundTrips; i++) {
+          QueryCounts.commandSucceeded(new BsonDocument("cursor",
+            new BsonDocument("firstBatch", new BsonArray(List.of(new BsonDocument())))));
+        }
+        metrics.recordQueries("GET", "/api/lobbies/{id}", counts, roundTrips > 3);
+      }
+    }
+
+    String scraped = scrape();
+    assertTrue(scraped.contains(RequestMetrics.ROUND_TRIPS + "{method=\"GET\",route=\"/api/lobbies/{id}\"} 8\n"));
+    assertTrue(scraped.contains(RequestMetrics.MAX_ROUND_TRIPS + "{method=\"GET\",route=\"/api/lobbies/{id}\"} 5\n"));
+    assertTrue(scraped.contains(RequestMetrics.DOCUMENTS + "{method=\"GET\",route=\"/api/lobbies/{id}\"} 8\n"));
+    assertTrue(scraped.contains(RequestMetrics.OVER_BUDGET + "{method=\"GET\",route=\"/api/lobbies/{id}\"} 1\n"));
+    // Bytes weren't measured, so there's nothing to report.
+    assertFalse(scraped.contains(RequestMetrics.BYTES + "{"), scraped);
+  }
+
+  @Test
+  void writerEscapesLabelsAndChecksPairs() {
+    PrometheusWriter out = new PrometheusWriter();
+    out.family("weird", "gauge", "Has \\ a backslash");
+    out.sample("weird", Double.NaN, "label", "a \"quoted\"\nvalue");
+    out.sample("weird", Double.POSITIVE_INFINITY);
+    out.sample("weird", 1.5);
+
+    String written = out.toString();
+    assertTrue(written.contains("# HELP weird Has \\\\ a backslash\n"));
+    assertTrue(written.contains("weird{label=\"a \\\"quoted\\\"\\nvalue\"} NaN\n"));
+    assertTrue(written.contains("weird +Inf\n"));
+    assertTrue(written.contains("weird 1.5\n"));
+    assertThrows(IllegalArgumentException.class, () -> out.sample("weird", 1, "unpaired"));
+  }
+}
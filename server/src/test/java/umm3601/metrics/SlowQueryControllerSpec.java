@@ -0,0 +1,34 @@
+package umm3601.metrics;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+class SlowQueryControllerSpec {
+
+  @Test
+  void servesTheRecentSlowQueries() {
+    SlowQueryController controller = new SlowQueryController(new SlowQueryLog());
+    Context ctx = mock(Context.class);
+
+    controller.getSlowQueries(ctx);
+
+    verify(ctx).json(List.of());
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin server = mock(Javalin.class);
+    new SlowQueryController(new SlowQueryLog()).addRoutes(server);
+    verify(server).get(any(), any());
+  }
+}
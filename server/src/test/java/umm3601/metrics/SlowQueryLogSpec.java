@@ -0,0 +1,158 @@
+package umm3601.metrics;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+
+class SlowQueryLogSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> widgets;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("widgets").drop();
+    widgets = db.getCollection("widgets");
+    widgets.insertMany(List.of(
+      new Document("color", "red").append("size", 1),
+      new Document("color", "blue").append("size", 2),
+      new Document("color", "red").append("size", 3)));
+  }
+
+  @Test
+  void explainsSlowQueries() {
+    // Every query is slow with a threshold of zero.
+    SlowQueryLog log = new SlowQueryLog(Duration.ZERO, SlowQueryLog.DEFAULT_CAPACITY, Runnable::run);
+
+    List<Document> found = log.find("/api/widgets", widgets, eq("color", "red"), Sorts.ascending("size"));
+
+    assertEquals(2, found.size());
+    assertEquals(1, log.recent().size());
+    SlowQueryLog.SlowQuery slow = log.recent().get(0);
+    assertEquals("/api/widgets", slow.route());
+    assertEquals("widgets", slow.collection());
+    assertTrue(slow.filter().contains("\"color\": \"red\""), slow.filter());
+    assertTrue(slow.sort().contains("\"size\": 1"), slow.sort());
+    assertNull(slow.problem());
+    // There's no index on `color`, so MongoDB has to look at everything.
+    assertTrue(slow.collectionScan(), slow.stages().toString());
+    assertEquals(3, slow.docsExamined());
+    assertEquals(2, slow.returned());
+  }
+
+  @Test
+  void ignoresFastQueries() {
+    SlowQueryLog log = new SlowQueryLog(Duration.ofHours(1), SlowQueryLog.DEFAULT_CAPACITY, Runnable::run);
+
+    log.find("/api/widgets", widgets, eq("color", "red"), Sorts.ascending("size"));
+
+    assertTrue(log.recent().isEmpty());
+  }
+
+  @Test
+  void timesQueriesThatDontReadIntoAList() {
+    SlowQueryLog log = new SlowQueryLog(Duration.ZERO, SlowQueryLog.DEFAULT_CAPACITY, Runnable::run);
+
+    Document first = log.time("/api/widgets", widgets, eq("color", "red"), Sorts.ascending("size"),
+      () -> widgets.find(eq("color", "red")).sort(Sorts.ascending("size")).limit(1).first());
+
+    assertEquals(1, first.getInteger("size"));
+    assertEquals(1, log.recent().size());
+    SlowQueryLog.SlowQuery slow = log.recent().get(0);
+    assertEquals("widgets", slow.collection());
+    // The explain is of the filter and sort, without the limit.
+    assertEquals(2, slow.returned());
+  }
+
+  @Test
+  void keepsOnlyTheMostRecent() {
+    SlowQueryLog log = new SlowQueryLog(Duration.ZERO, 2, Runnable::run);
+
+    log.find("/api/first", widgets, eq("color", "red"), Sorts.ascending("size"));
+    log.find("/api/second", widgets, eq("color", "red"), Sorts.ascending("size"));
+    log.find("/api/third", widgets, eq("color", "red"), Sorts.ascending("size"));
+
+    assertEquals(List.of("/api/third", "/api/second"),
+      log.recent().stream().map(SlowQueryLog.SlowQuery::route).toList());
+  }
+
+  @Test
+  void keepsQueriesWithoutAPlanWhenExplainsAreBusy() {
+    // An explainer that never runs anything, so the permits are never given back.
+    SlowQueryLog log = new SlowQueryLog(Duration.ZERO, SlowQueryLog.DEFAULT_CAPACITY, task -> { });
+
+    for (int i = 0; i <= SlowQueryLog.MAX_CONCURRENT_EXPLAINS; i++) {
+      log.find("/api/widgets", widgets, eq("color", "red"), Sorts.ascending("size"));
+    }
+
+    assertEquals(1, log.recent().size());
+    assertFalse(log.recent().get(0).problem().isEmpty());
+  }
+
+  @Test
+  void summarizesNestedPlans() {
+    SlowQueryLog.SlowQuery query = new SlowQueryLog.SlowQuery("2025-01-01T00:00:00Z", "/api/users", "users",
+      "{}", "{}", 250, List.of(), List.of(), 0, 0, 0, null);
+    Document explained = new Document("queryPlanner", new Document("winningPlan",
+      new Document("queryPlan", new Document("stage", "FETCH")
+        .append("inputStage", new Document("stage", "OR").append("inputStages", List.of(
+          new Document("stage", "IXSCAN").append("indexName", "users_age"),
+          new Document("stage", "IXSCAN").append("indexName", "users_companyKey")))))))
+      .append("executionStats", new Document("totalDocsExamined", 40)
+        .append("totalKeysExamined", 41L).append("nReturned", 40));
+
+    SlowQueryLog.SlowQuery planned = SlowQueryLog.withPlan(query, explained);
+
+    assertEquals(List.of("FETCH", "OR", "IXSCAN", "IXSCAN"), planned.stages());
+    assertEquals(List.of("users_age", "users_companyKey"), planned.indexes());
+    assertFalse(planned.collectionScan());
+    assertEquals(40, planned.docsExamined());
+    assertEquals(41, planned.keysExamined());
+    assertEquals(40, planned.returned());
+  }
+
+  @Test
+  void rejectsNegativeThresholds() {
+    assertThrows(IllegalArgumentException.class, () -> new SlowQueryLog(Duration.ofMillis(-1)));
+  }
+}
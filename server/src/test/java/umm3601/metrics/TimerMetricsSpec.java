@@ -0,0 +1,26 @@
+package umm3601.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.timer.TimerStats;
+
+class TimerMetricsSpec {
+
+  @Test
+  void reportsTheWheelsCounters() {
+    TimerMetrics metrics = new TimerMetrics("lobbies", () -> new TimerStats(3, 40, 5, 1_500, 250_000));
+
+    PrometheusWriter out = new PrometheusWriter();
+    metrics.writeTo(out);
+    String scraped = out.toString();
+
+    assertTrue(scraped.contains("# TYPE " + TimerMetrics.PENDING + " gauge\n"), scraped);
+    assertTrue(scraped.contains(TimerMetrics.PENDING + "{wheel=\"lobbies\"} 3\n"), scraped);
+    assertTrue(scraped.contains(TimerMetrics.EXPIRED + "{wheel=\"lobbies\"} 40\n"), scraped);
+    assertTrue(scraped.contains(TimerMetrics.CANCELLED + "{wheel=\"lobbies\"} 5\n"), scraped);
+    assertTrue(scraped.contains(TimerMetrics.DRIFT + "{wheel=\"lobbies\"} 0.0015\n"), scraped);
+    assertTrue(scraped.contains(TimerMetrics.MAX_DRIFT + "{wheel=\"lobbies\"} 0.25\n"), scraped);
+  }
+}
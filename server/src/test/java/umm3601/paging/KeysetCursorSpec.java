@@ -0,0 +1,43 @@
+package umm3601.paging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class KeysetCursorSpec {
+
+  @Test
+  void stringCursorsSurviveEncoding() {
+    ObjectId id = new ObjectId();
+    KeysetCursor cursor = new KeysetCursor("Pat", id);
+
+    KeysetCursor decoded = KeysetCursor.decode(cursor.encode());
+
+    assertEquals("Pat", decoded.sortValue());
+    assertEquals(id, decoded.id());
+  }
+
+  @Test
+  void numericCursorsKeepTheirType() {
+    KeysetCursor cursor = new KeysetCursor(37, new ObjectId());
+
+    assertEquals(37, KeysetCursor.decode(cursor.encode()).sortValue());
+  }
+
+  @Test
+  void nullSortValuesAreAllowed() {
+    KeysetCursor cursor = new KeysetCursor(null, new ObjectId());
+
+    assertEquals(null, KeysetCursor.decode(cursor.encode()).sortValue());
+  }
+
+  @Test
+  void rejectsGarbage() {
+    assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode("not a cursor!"));
+    // Legal base64 of legal JSON, but not a cursor
+    assertThrows(IllegalArgumentException.class, () -> KeysetCursor.decode("e30"));
+  }
+}
@@ -0,0 +1,42 @@
+package umm3601.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class SearchKeysSpec {
+
+  @Test
+  void normalizeLowerCasesAndDropsAccents() {
+    assertEquals("creme brulee", SearchKeys.normalize("Crème Brûlée"));
+    assertEquals("ohmnet", SearchKeys.normalize("OHMNET"));
+    assertNull(SearchKeys.normalize(null));
+  }
+
+  @Test
+  void escapedRegexesMatchLiterally() {
+    String hostile = "(a+)+$[.*]{2}\\";
+    String escaped = SearchKeys.escapeRegex(hostile);
+
+    assertTrue(Pattern.compile(escaped).matcher(hostile).matches());
+    assertTrue(!Pattern.compile(escaped).matcher("aaaa").find());
+  }
+
+  @Test
+  void escapingLeavesPlainTextAlone() {
+    assertEquals("abc 123", SearchKeys.escapeRegex("abc 123"));
+  }
+
+  @Test
+  void parsesMatchModes() {
+    assertEquals(SearchKeys.MatchMode.EXACT, SearchKeys.MatchMode.fromParam("exact"));
+    assertEquals(SearchKeys.MatchMode.PREFIX, SearchKeys.MatchMode.fromParam("Prefix"));
+    assertEquals(SearchKeys.MatchMode.CONTAINS, SearchKeys.MatchMode.fromParam("CONTAINS"));
+    assertThrows(IllegalArgumentException.class, () -> SearchKeys.MatchMode.fromParam("fuzzy"));
+  }
+}
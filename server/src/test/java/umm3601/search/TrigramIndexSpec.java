@@ -0,0 +1,91 @@
+package umm3601.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TrigramIndexSpec {
+
+  private TrigramIndex index;
+
+  @BeforeEach
+  void setupEach() {
+    index = new TrigramIndex();
+    index.rebuild(() -> Map.of(
+        "1", "Channel Orange",
+        "2", "Blonde",
+        "3", "Orangerie",
+        "4", "Naranja"));
+  }
+
+  @Test
+  void startsCold() {
+    assertFalse(new TrigramIndex().isWarm());
+    assertTrue(index.isWarm());
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  void findsSubstrings() {
+    assertEquals(Set.of("1", "3"), index.search("orange"));
+    assertEquals(Set.of("2"), index.search("lond"));
+    assertEquals(Set.of(), index.search("purple"));
+  }
+
+  @Test
+  void ignoresCaseAndAccents() {
+    assertEquals(Set.of("4"), index.search("NÁRAN"));
+  }
+
+  @Test
+  void checksTrigramOrder() {
+    // Every trigram of "tangor" is in here, but not in that order
+    index.add("5", "Tango Gorilla");
+
+    assertEquals(Set.of(), index.search("tangor"));
+    assertEquals(Set.of("5"), index.search("tango gor"));
+  }
+
+  @Test
+  void rejectsShortQueries() {
+    assertThrows(IllegalArgumentException.class, () -> index.search("or"));
+  }
+
+  @Test
+  void canAddAndRemoveDocuments() {
+    index.add("5", "Orange Juice");
+    index.remove("1");
+    index.add("3", "Something else");
+
+    assertEquals(Set.of("5"), index.search("orange"));
+    assertEquals(Set.of("3"), index.search("thing"));
+  }
+
+  @Test
+  void keepsChangesMadeDuringRebuild() {
+    index.rebuild(() -> {
+      // The loader has already read the database, and then this comes in
+      index.add("5", "Orange Juice");
+      index.remove("1");
+      return Map.of("1", "Channel Orange");
+    });
+
+    assertEquals(Set.of("5"), index.search("orange"));
+  }
+
+  @Test
+  void keepsOldContentsIfRebuildFails() {
+    assertThrows(IllegalStateException.class, () -> index.rebuild(() -> {
+      throw new IllegalStateException("database is down");
+    }));
+
+    assertEquals(Set.of("1", "3"), index.search("orange"));
+  }
+}
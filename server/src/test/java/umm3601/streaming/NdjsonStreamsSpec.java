@@ -0,0 +1,50 @@
+package umm3601.streaming;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+class NdjsonStreamsSpec {
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+  }
+
+  @Test
+  void doesNotStreamByDefault() {
+    assertFalse(NdjsonStreams.wantsStream(ctx));
+  }
+
+  @Test
+  void streamsWhenAskedWithQueryParam() {
+    when(ctx.queryParam(NdjsonStreams.STREAM_KEY)).thenReturn("true");
+
+    assertTrue(NdjsonStreams.wantsStream(ctx));
+  }
+
+  @Test
+  void streamsWhenAskedWithAcceptHeader() {
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/x-ndjson, application/json;q=0.5");
+
+    assertTrue(NdjsonStreams.wantsStream(ctx));
+  }
+
+  @Test
+  void doesNotStreamForPlainJson() {
+    when(ctx.header(Header.ACCEPT)).thenReturn("application/json");
+
+    assertFalse(NdjsonStreams.wantsStream(ctx));
+  }
+}
@@ -0,0 +1,145 @@
+package umm3601.timer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelSpec {
+
+  private static final Duration TICK = Duration.ofMillis(10);
+
+  // A clock the tests move by hand.
+  private long now;
+  private TimingWheel wheel;
+  private List<String> fired;
+
+  @BeforeEach
+  void setupEach() {
+    now = 0;
+    fired = new ArrayList<>();
+    // Run expired tasks right away, on the thread that advances the wheel.
+    wheel = new TimingWheel(TICK, Runnable::run, () -> now);
+  }
+
+  private void advanceBy(Duration duration) {
+    now += duration.toNanos();
+    wheel.advance();
+  }
+
+  private TimingWheel.Timeout schedule(Duration delay, String name) {
+    return wheel.schedule(delay, () -> fired.add(name));
+  }
+
+  @Test
+  void firesTimersAtTheirDeadline() {
+    schedule(Duration.ofMillis(25), "soon");
+    schedule(Duration.ofMillis(50), "later");
+
+    advanceBy(Duration.ofMillis(20));
+    assertEquals(List.of(), fired);
+    advanceBy(Duration.ofMillis(10));
+    assertEquals(List.of("soon"), fired);
+    advanceBy(Duration.ofMillis(20));
+    assertEquals(List.of("soon", "later"), fired);
+  }
+
+  @Test
+  void timersThatAreAlreadyDueFireOnTheNextTick() {
+    TimingWheel.Timeout timeout = schedule(Duration.ZERO, "now");
+    assertFalse(timeout.isExpired());
+
+    advanceBy(TICK);
+    assertEquals(List.of("now"), fired);
+    assertTrue(timeout.isExpired());
+  }
+
+  @Test
+  void cascadesDistantTimersDownTheWheels() {
+    // Far enough out to start in the third wheel
+    Duration delay = TICK.multipliedBy(TimingWheel.WHEEL_SIZE * TimingWheel.WHEEL_SIZE + 7);
+    schedule(delay, "distant");
+
+    advanceBy(delay.minus(TICK));
+    assertEquals(List.of(), fired);
+    advanceBy(TICK);
+    assertEquals(List.of("distant"), fired);
+  }
+
+  @Test
+  void timersBeyondTheTopWheelStillFireOnTime() {
+    long span = 1L << (TimingWheel.WHEEL_BITS * TimingWheel.LEVELS);
+    Duration delay = TICK.multipliedBy(span + 3);
+    schedule(delay, "very distant");
+
+    advanceBy(delay.minus(TICK));
+    assertEquals(List.of(), fired);
+    advanceBy(TICK);
+    assertEquals(List.of("very distant"), fired);
+  }
+
+  @Test
+  void cancelledTimersDontFire() {
+    TimingWheel.Timeout timeout = schedule(Duration.ofMillis(30), "cancelled");
+    schedule(Duration.ofMillis(30), "kept");
+
+    assertTrue(timeout.cancel());
+    assertFalse(timeout.cancel());
+    advanceBy(Duration.ofMillis(100));
+
+    assertEquals(List.of("kept"), fired);
+    assertEquals(0, timeout.remaining(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void reportsRemainingTime() {
+    TimingWheel.Timeout timeout = schedule(Duration.ofMillis(100), "timer");
+    advanceBy(Duration.ofMillis(40));
+    assertEquals(60, timeout.remaining(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void keepsStats() {
+    TimingWheel.Timeout cancelled = schedule(Duration.ofMillis(30), "cancelled");
+    schedule(Duration.ofMillis(30), "fired");
+    schedule(Duration.ofSeconds(30), "pending");
+    cancelled.cancel();
+
+    // Advancing all at once means we're late for the earlier ticks.
+    advanceBy(Duration.ofMillis(105));
+
+    TimerStats stats = wheel.stats();
+    assertEquals(1, stats.pending());
+    assertEquals(1, stats.expired());
+    assertEquals(1, stats.cancelled());
+    assertEquals(95_000, stats.lastDriftMicros());
+    assertEquals(95_000, stats.maxDriftMicros());
+  }
+
+  @Test
+  void runsOnItsOwnThread() throws InterruptedException {
+    TimingWheel realWheel = new TimingWheel(Duration.ofMillis(1), Runnable::run);
+    CountDownLatch done = new CountDownLatch(1);
+    realWheel.start();
+    try {
+      realWheel.schedule(Duration.ofMillis(5), done::countDown);
+      assertTrue(done.await(2, TimeUnit.SECONDS));
+    } finally {
+      realWheel.close();
+    }
+  }
+
+  @Test
+  void rejectsIllegalTicks() {
+    assertThrows(IllegalArgumentException.class, () -> new TimingWheel(Duration.ZERO, Runnable::run));
+  }
+}
@@ -12,7 +12,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,6 +23,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.bson.Document;
@@ -55,6 +59,12 @@ import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationError;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import umm3601.metrics.MongoMetrics;
+import umm3601.metrics.QueryCounts;
+import umm3601.paging.KeysetPager;
+import umm3601.paging.Page;
+import umm3601.search.SearchKeys;
+import umm3601.streaming.NdjsonStreams;
 
 /**
  * Tests the logic of the UserController
@@ -101,6 +111,12 @@ class UserControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<Page<User>> userPageCaptor;
+
+  @Captor
+  private ArgumentCaptor<BulkImportResult> bulkResultCaptor;
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -118,6 +134,8 @@ class UserControllerSpec {
     mongoClient = MongoClients.create(
         MongoClientSettings.builder()
             .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            // So tests can count the round trips each handler makes
+            .addCommandListener(new MongoMetrics())
             .build());
     db = mongoClient.getDatabase("test");
   }
@@ -197,7 +215,10 @@ class UserControllerSpec {
 
     // Now, go ahead and ask the userController to getUsers
     // (which will, indeed, ask the context for its queryParamMap)
-    userController.getUsers(ctx);
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      userController.getUsers(ctx);
+      counts.checkBudget("/api/users", 1);
+    }
 
     // We are going to capture an argument to a function, and the type of
     // that argument will be of type ArrayList<User> (we said so earlier
@@ -493,13 +514,22 @@ class UserControllerSpec {
     assertTrue(exceptionMessage.contains(negativeAgeString));
   }
 
+  /**
+   * Stub out the context so `company` (and its validator) is `company`.
+   */
+  private void stubCompany(String company) {
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn(company);
+    when(ctx.queryParamAsClass(UserController.COMPANY_KEY, String.class))
+      .thenReturn(new Validation().validator(UserController.COMPANY_KEY, String.class, company));
+  }
+
   @Test
   void canGetUsersWithCompany() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
     queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"OHMNET"}));
     queryParams.put(UserController.SORT_ORDER_KEY, Arrays.asList(new String[] {"desc"}));
     when(ctx.queryParamMap()).thenReturn(queryParams);
-    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("OHMNET");
+    stubCompany("OHMNET");
     when(ctx.queryParam(UserController.SORT_ORDER_KEY)).thenReturn("desc");
 
     userController.getUsers(ctx);
@@ -513,12 +543,31 @@ class UserControllerSpec {
     }
   }
 
+  @Test
+  void canGetUsersWithCompanyPrefix() throws IOException {
+    SearchKeys.backfill(db.getCollection("users"), UserController.COMPANY_KEY, UserController.COMPANY_SEARCH_KEY);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, List.of("ohm"));
+    queryParams.put(SearchKeys.MATCH_KEY, List.of("prefix"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    stubCompany("ohm");
+    when(ctx.queryParam(SearchKeys.MATCH_KEY)).thenReturn("prefix");
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(2, userArrayListCaptor.getValue().size());
+    for (User user : userArrayListCaptor.getValue()) {
+      assertEquals("OHMNET", user.company);
+    }
+  }
+
   @Test
   void canGetUsersWithCompanyLowercase() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
     queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {"ohm"}));
     when(ctx.queryParamMap()).thenReturn(queryParams);
-    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn("ohm");
+    stubCompany("ohm");
 
     userController.getUsers(ctx);
 
@@ -531,6 +580,15 @@ class UserControllerSpec {
     }
   }
 
+  @Test
+  void rejectsOverlyLongCompanySearches() {
+    String company = "x".repeat(SearchKeys.MAX_SEARCH_LENGTH + 1);
+    when(ctx.queryParamMap()).thenReturn(Map.of(UserController.COMPANY_KEY, List.of(company)));
+    stubCompany(company);
+
+    assertThrows(ValidationException.class, () -> userController.getUsers(ctx));
+  }
+
   @Test
   void getUsersByRole() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
@@ -561,7 +619,7 @@ class UserControllerSpec {
     queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {targetCompanyString}));
     queryParams.put(UserController.AGE_KEY, Arrays.asList(new String[] {targetAgeString}));
     when(ctx.queryParamMap()).thenReturn(queryParams);
-    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn(targetCompanyString);
+    stubCompany(targetCompanyString);
 
     // Create a validator that confirms that when we ask for the value associated with
     // `AGE_KEY` _as an integer_, we get back the integer value 37.
@@ -570,7 +628,10 @@ class UserControllerSpec {
     when(ctx.queryParamAsClass(UserController.AGE_KEY, Integer.class)).thenReturn(validator);
     when(ctx.queryParam(UserController.AGE_KEY)).thenReturn(targetAgeString);
 
-    userController.getUsers(ctx);
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      userController.getUsers(ctx);
+      counts.checkBudget("/api/users", 1);
+    }
 
     verify(ctx).json(userArrayListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
@@ -581,12 +642,165 @@ class UserControllerSpec {
     }
   }
 
+  @Test
+  void canStreamAllUsers() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    when(ctx.queryParam(NdjsonStreams.STREAM_KEY)).thenReturn("true");
+    when(ctx.outputStream()).thenReturn(output);
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType(NdjsonStreams.NDJSON_CONTENT_TYPE);
+    // We should get one line of JSON per user, in name order
+    String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(db.getCollection("users").countDocuments(), lines.length);
+    assertEquals("Chris", javalinJackson.fromJsonString(lines[0], User.class).name);
+    assertEquals("Sam", javalinJackson.fromJsonString(lines[3], User.class).name);
+  }
+
+  /**
+   * Stub out the context so it looks like a request for `?limit=…`
+   * (and `&after=…` if `after` isn't `null`).
+   */
+  private void stubPageRequest(String limit, String after) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(KeysetPager.LIMIT_KEY, List.of(limit));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(KeysetPager.LIMIT_KEY)).thenReturn(limit);
+    when(ctx.queryParam(KeysetPager.AFTER_KEY)).thenReturn(after);
+    Validator<Integer> validator = new Validation().validator(KeysetPager.LIMIT_KEY, Integer.class, limit);
+    when(ctx.queryParamAsClass(KeysetPager.LIMIT_KEY, Integer.class)).thenReturn(validator);
+  }
+
+  @Test
+  void canPageThroughUsers() throws IOException {
+    stubPageRequest("2", null);
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      userController.getUsers(ctx);
+      counts.checkBudget("/api/users", 1);
+    }
+    verify(ctx).json(userPageCaptor.capture());
+    Page<User> firstPage = userPageCaptor.getValue();
+
+    // Sorted by name, the first two users are Chris and Jamie
+    assertEquals(2, firstPage.items.size());
+    assertEquals("Chris", firstPage.items.get(0).name);
+    assertEquals("Jamie", firstPage.items.get(1).name);
+    assertNotNull(firstPage.next);
+
+    stubPageRequest("2", firstPage.next);
+    userController.getUsers(ctx);
+    verify(ctx, Mockito.times(2)).json(userPageCaptor.capture());
+    Page<User> secondPage = userPageCaptor.getValue();
+
+    // The second page has the rest, and there's nothing after it
+    assertEquals(2, secondPage.items.size());
+    assertEquals("Pat", secondPage.items.get(0).name);
+    assertEquals("Sam", secondPage.items.get(1).name);
+    assertEquals(null, secondPage.next);
+  }
+
+  @Test
+  void canPageByAgeDescending() throws IOException {
+    stubPageRequest("3", null);
+    when(ctx.queryParam("sortby")).thenReturn("age");
+    when(ctx.queryParam("sortorder")).thenReturn("desc");
+    userController.getUsers(ctx);
+    verify(ctx).json(userPageCaptor.capture());
+    Page<User> firstPage = userPageCaptor.getValue();
+
+    // Sam (45) and then the two 37-year-olds
+    assertEquals(45, firstPage.items.get(0).age);
+    assertEquals(37, firstPage.items.get(1).age);
+    assertEquals(37, firstPage.items.get(2).age);
+
+    stubPageRequest("3", firstPage.next);
+    userController.getUsers(ctx);
+    verify(ctx, Mockito.times(2)).json(userPageCaptor.capture());
+
+    // Only Chris (25) is left
+    assertEquals(1, userPageCaptor.getValue().items.size());
+    assertEquals(25, userPageCaptor.getValue().items.get(0).age);
+  }
+
+  @Test
+  void pagingDescendingReachesUsersWithoutTheSortField() throws IOException {
+    // Missing and `null` values sort after everything else in descending order.
+    db.getCollection("users").insertMany(List.of(
+      new Document("name", "Robin").append("age", 30),
+      new Document("name", "Lee").append("age", 31).append("email", null)));
+    when(ctx.queryParam("sortby")).thenReturn("email");
+    when(ctx.queryParam("sortorder")).thenReturn("desc");
+
+    List<String> names = new ArrayList<>();
+    String after = null;
+    int pages = 0;
+    do {
+      stubPageRequest("2", after);
+      userController.getUsers(ctx);
+      pages++;
+      verify(ctx, Mockito.times(pages)).json(userPageCaptor.capture());
+      Page<User> page = userPageCaptor.getValue();
+      page.items.forEach(user -> names.add(user.name));
+      after = page.next;
+    } while (after != null);
+
+    assertEquals(List.of("Sam", "Pat", "Jamie", "Chris"), names.subList(0, 4));
+    assertEquals(Set.of("Robin", "Lee"), Set.copyOf(names.subList(4, names.size())));
+  }
+
+  @Test
+  void pagingByAgeReachesUsersWithoutAnAge() throws IOException {
+    // `age` is an `int`, so these read as 0 in the POJO, but
+    // MongoDB sorts them before everything else in ascending order.
+    db.getCollection("users").insertMany(List.of(
+      new Document("name", "Robin"),
+      new Document("name", "Lee").append("age", null)));
+    when(ctx.queryParam("sortby")).thenReturn("age");
+
+    List<String> names = new ArrayList<>();
+    String after = null;
+    int pages = 0;
+    do {
+      stubPageRequest("1", after);
+      userController.getUsers(ctx);
+      pages++;
+      verify(ctx, Mockito.times(pages)).json(userPageCaptor.capture());
+      Page<User> page = userPageCaptor.getValue();
+      page.items.forEach(user -> names.add(user.name));
+      after = page.next;
+    } while (after != null);
+
+    assertEquals(Set.of("Robin", "Lee"), Set.copyOf(names.subList(0, 2)));
+    assertEquals(List.of("Chris", "Pat", "Jamie", "Sam"), names.subList(2, names.size()));
+  }
+
+  @Test
+  void rejectsIllegalPageLimits() {
+    stubPageRequest("0", null);
+    assertThrows(ValidationException.class, () -> userController.getUsers(ctx));
+
+    stubPageRequest(Integer.toString(KeysetPager.MAX_LIMIT + 1), null);
+    assertThrows(ValidationException.class, () -> userController.getUsers(ctx));
+  }
+
+  @Test
+  void rejectsIllegalCursors() {
+    stubPageRequest("2", "garbage!");
+    assertThrows(BadRequestResponse.class, () -> userController.getUsers(ctx));
+  }
+
   @Test
   void getUserWithExistentId() throws IOException {
     String id = samsId.toHexString();
     when(ctx.pathParam("id")).thenReturn(id);
 
-    userController.getUser(ctx);
+    try (QueryCounts counts = QueryCounts.open(false)) {
+      userController.getUser(ctx);
+      counts.checkBudget("/api/users/{id}", 1);
+    }
 
     verify(ctx).json(userCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
@@ -594,6 +808,34 @@ class UserControllerSpec {
     assertEquals(samsId.toHexString(), userCaptor.getValue()._id);
   }
 
+  @Test
+  void getUserIsServedFromCache() throws IOException {
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+    userController.getUser(ctx);
+
+    // Remove Sam "behind the controller's back"; the cached
+    // copy should still be returned.
+    db.getCollection("users").deleteOne(eq("_id", samsId));
+    userController.getUser(ctx);
+
+    verify(ctx, Mockito.times(2)).json(userCaptor.capture());
+    assertEquals("Sam", userCaptor.getValue().name);
+  }
+
+  @Test
+  void deleteUserInvalidatesCache() throws IOException {
+    String id = samsId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+    userController.getUser(ctx);
+
+    userController.deleteUser(ctx);
+
+    assertThrows(NotFoundResponse.class, () -> {
+      userController.getUser(ctx);
+    });
+  }
+
   @Test
   void getUserWithBadId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("bad");
@@ -723,6 +965,63 @@ class UserControllerSpec {
     assertEquals(2, ohmnet.count);
   }
 
+  private UserByCompany company(List<UserByCompany> companies, String name) {
+    return companies.stream().filter(c -> name.equals(c._id)).findFirst().orElse(null);
+  }
+
+  @Test
+  void usersByCompanyIsUpdatedAsUsersAreAddedAndDeleted() throws IOException {
+    when(ctx.queryParam("sortBy")).thenReturn("company");
+    // The first read builds the view from the users in the database
+    userController.getUsersGroupedByCompany(ctx);
+
+    stubBulkBody("""
+        {"name": "Bulk One", "age": 30, "company": "OHMNET", "email": "one@example.com", "role": "viewer"}
+        {"name": "Bulk Two", "age": 30, "company": "Bulkers", "email": "two@example.com", "role": "viewer"}
+        """);
+    userController.addNewUsers(ctx);
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx, Mockito.times(2)).json(userByCompanyListCaptor.capture());
+    ArrayList<UserByCompany> result = userByCompanyListCaptor.getAllValues().get(1);
+    assertEquals(4, result.size());
+    UserByCompany ohmnet = company(result, "OHMNET");
+    assertEquals(2, ohmnet.count);
+    assertEquals(List.of("Bulk One", "Jamie"), ohmnet.users.stream().map(u -> u.name).sorted().toList());
+    assertEquals(1, company(result, "Bulkers").count);
+  }
+
+  @Test
+  void usersByCompanyDropsEmptyCompanies() throws IOException {
+    userController.getUsersGroupedByCompany(ctx);
+    String ibmId = db.getCollection("users").find(eq("company", "IBM")).first().getObjectId("_id").toHexString();
+    when(ctx.pathParam("id")).thenReturn(ibmId);
+
+    userController.deleteUser(ctx);
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx, Mockito.times(2)).json(userByCompanyListCaptor.capture());
+    ArrayList<UserByCompany> result = userByCompanyListCaptor.getAllValues().get(1);
+    assertEquals(2, result.size());
+    assertEquals(null, company(result, "IBM"));
+  }
+
+  @Test
+  void canRebuildUsersByCompany() throws IOException {
+    userController.getUsersGroupedByCompany(ctx);
+    // Changes made directly in the database aren't seen until a rebuild
+    db.getCollection("users").deleteMany(eq("company", "IBM"));
+
+    userController.rebuildUsersGroupedByCompany(ctx);
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx).json(Map.of("companies", 2L));
+    verify(ctx, Mockito.times(2)).json(userByCompanyListCaptor.capture());
+    assertEquals(2, userByCompanyListCaptor.getAllValues().get(1).size());
+  }
+
   @Test
   void addUser() throws IOException {
     // Create a new user to add
@@ -1087,6 +1386,81 @@ class UserControllerSpec {
     assertTrue(companyExceptionMessage.contains("non-empty company name"));
   }
 
+  private void stubBulkBody(String body) {
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void canBulkAddUsersFromNdjson() throws IOException {
+    stubBulkBody("""
+        {"name": "Bulk One", "age": 30, "company": "Bulkers", "email": "one@example.com", "role": "viewer"}
+        {"name": "", "age": 30, "company": "Bulkers", "email": "two@example.com", "role": "viewer"}
+        {"name": "Bulk Three", "age": 40, "company": "Bulkers", "email": "three@example.com", "role": "admin"}
+        """);
+
+    userController.addNewUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).json(bulkResultCaptor.capture());
+    BulkImportResult result = bulkResultCaptor.getValue();
+    assertEquals(2, result.inserted);
+    assertEquals(1, result.failed);
+    assertEquals(3, result.items.size());
+    assertTrue(result.items.get(1).error.contains("non-empty user name"));
+
+    Document addedUser = db.getCollection("users")
+        .find(eq("_id", new ObjectId(result.items.get(2).id))).first();
+    assertEquals("Bulk Three", addedUser.get("name"));
+    assertEquals("bulkers", addedUser.get(UserController.COMPANY_SEARCH_KEY));
+    assertNotNull(addedUser.get("avatar"));
+  }
+
+  @Test
+  void canBulkAddUsersFromJsonArrayInBatches() throws IOException {
+    String duplicateId = samsId.toHexString();
+    stubBulkBody("""
+        [
+          {"name": "Bulk One", "age": 30, "company": "Bulkers", "email": "one@example.com", "role": "viewer"},
+          {"_id": "%s", "name": "Not Sam", "age": 30, "company": "Bulkers", "email": "x@example.com", "role": "viewer"},
+          {"name": "Bulk Three", "age": 40, "company": "Bulkers", "email": "three@example.com", "role": "admin"}
+        ]
+        """.formatted(duplicateId));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.BATCH_SIZE_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(UserController.BATCH_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(UserController.BATCH_SIZE_KEY, Integer.class, "2"));
+
+    userController.addNewUsers(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    BulkImportResult result = bulkResultCaptor.getValue();
+    // The duplicate ID fails, but the rest of its (unordered) batch still goes in
+    assertEquals(2, result.inserted);
+    assertEquals(1, result.failed);
+    assertNotNull(result.items.get(0).id);
+    assertNotNull(result.items.get(1).error);
+    assertNotNull(result.items.get(2).id);
+    assertEquals(1, db.getCollection("users").countDocuments(eq("name", "Bulk One")));
+    assertEquals(0, db.getCollection("users").countDocuments(eq("name", "Not Sam")));
+  }
+
+  @Test
+  void bulkAddKeepsUsersBeforeMalformedJson() throws IOException {
+    stubBulkBody("""
+        {"name": "Bulk One", "age": 30, "company": "Bulkers", "email": "one@example.com", "role": "viewer"}
+        {"name": "Bulk Two", "age":
+        """);
+
+    userController.addNewUsers(ctx);
+
+    verify(ctx).json(bulkResultCaptor.capture());
+    BulkImportResult result = bulkResultCaptor.getValue();
+    assertEquals(1, result.inserted);
+    assertEquals(1, result.failed);
+    assertEquals(1, db.getCollection("users").countDocuments(eq("name", "Bulk One")));
+  }
+
   @Test
   void deleteFoundUser() throws IOException {
     String testID = samsId.toHexString();